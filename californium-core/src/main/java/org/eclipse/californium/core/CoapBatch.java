@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+
+/**
+ * Sends the same request to a (large) number of peers.
+ * <p>
+ * A batch takes a request template and a list of target addresses. The
+ * template's code, type, options and payload are copied into a request for
+ * each target. The copies share the template's payload. The options must
+ * therefore not contain a Uri-Host option specific to a single peer.
+ * <p>
+ * A batch limits both the overall number of outstanding requests and the
+ * number of outstanding requests per peer. The next requests are sent by the
+ * thread reporting the completion of a former request, i.e. no thread is
+ * blocked while the batch is being processed. Completions reported while
+ * another thread is sending requests, e.g. because a request has failed
+ * synchronously, are picked up by that thread instead. The result of each request is
+ * passed to the {@link Handler} as soon as it is available and a
+ * {@link Summary} including a latency histogram is passed once all requests
+ * have completed.
+ * <p>
+ * The template should be a CON request. A NON request for which no response
+ * arrives does not complete unless the batch is canceled.
+ */
+public class CoapBatch {
+
+	private static final Logger LOGGER = Logger.getLogger(CoapBatch.class.getCanonicalName());
+
+	/**
+	 * The upper bounds (in milliseconds) of the buckets of the latency
+	 * histogram. The last bucket holds all latencies above the last bound.
+	 */
+	private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+	private final Endpoint endpoint;
+	private final Request template;
+	private final int maxOutstanding;
+	private final int maxOutstandingPerPeer;
+	private final Queue<InetSocketAddress> pending;
+	private final Map<InetSocketAddress, Integer> outstandingPerPeer = new HashMap<InetSocketAddress, Integer>();
+	private final Map<InetSocketAddress, Integer> deferredPerPeer = new HashMap<InetSocketAddress, Integer>();
+	private final Queue<InetSocketAddress> completedPeers = new LinkedList<InetSocketAddress>();
+	private final Set<Request> outstanding = new HashSet<Request>();
+	private final long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final int size;
+	private Handler handler;
+	private boolean started;
+	private boolean canceled;
+	private boolean sending;
+	private int completed;
+	private int succeeded;
+	private Summary summary;
+
+	/**
+	 * Creates a batch.
+	 *
+	 * @param endpoint the endpoint to send the requests over
+	 * @param template the request to send to all targets
+	 * @param targets the addresses of the peers
+	 * @param maxOutstanding the maximum number of outstanding requests
+	 * @param maxOutstandingPerPeer the maximum number of outstanding requests
+	 *            to the same peer
+	 * @throws NullPointerException if any of the parameters is {@code null}
+	 * @throws IllegalArgumentException if any of the limits is less than 1
+	 */
+	public CoapBatch(final Endpoint endpoint, final Request template, final List<InetSocketAddress> targets,
+			final int maxOutstanding, final int maxOutstandingPerPeer) {
+		if (endpoint == null) {
+			throw new NullPointerException("endpoint must not be null");
+		} else if (template == null) {
+			throw new NullPointerException("template must not be null");
+		} else if (targets == null) {
+			throw new NullPointerException("targets must not be null");
+		} else if (maxOutstanding < 1 || maxOutstandingPerPeer < 1) {
+			throw new IllegalArgumentException("limits must be at least 1");
+		}
+		this.endpoint = endpoint;
+		this.template = template;
+		this.maxOutstanding = maxOutstanding;
+		this.maxOutstandingPerPeer = maxOutstandingPerPeer;
+		this.pending = new LinkedList<InetSocketAddress>(targets);
+		this.size = targets.size();
+	}
+
+	/**
+	 * Starts sending the requests.
+	 *
+	 * @param handler the handler for the results
+	 * @throws NullPointerException if the handler is {@code null}
+	 * @throws IllegalStateException if the batch has already been started
+	 */
+	public void start(final Handler handler) {
+		if (handler == null) {
+			throw new NullPointerException("handler must not be null");
+		}
+		synchronized (this) {
+			if (started) {
+				throw new IllegalStateException("batch has already been started");
+			}
+			this.started = true;
+			this.handler = handler;
+		}
+		if (size == 0) {
+			complete();
+		} else {
+			sendNext();
+		}
+	}
+
+	/**
+	 * Cancels the batch. Pending targets are not sent a request anymore and
+	 * outstanding requests are canceled.
+	 */
+	public void cancel() {
+		List<Request> requests;
+		synchronized (this) {
+			if (canceled) {
+				return;
+			}
+			canceled = true;
+			requests = new ArrayList<Request>(outstanding);
+		}
+		for (Request request : requests) {
+			request.cancel();
+		}
+		// report the targets never sent a request to
+		sendNext();
+	}
+
+	/**
+	 * Waits until all requests have completed.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the summary or {@code null} if the batch has not completed
+	 *         within the timeout
+	 * @throws InterruptedException if the calling thread has been interrupted
+	 */
+	public Summary await(final long timeout, final TimeUnit unit) throws InterruptedException {
+		if (done.await(timeout, unit)) {
+			synchronized (this) {
+				return summary;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sends requests while the limits allow to and reports the targets of a
+	 * canceled batch.
+	 * <p>
+	 * Only one thread sends requests at a time. It loops until there is
+	 * nothing left to do, so that requests completing while being sent do not
+	 * make this method recurse.
+	 */
+	private void sendNext() {
+		List<Request> requests = new ArrayList<Request>();
+		List<InetSocketAddress> skipped = new ArrayList<InetSocketAddress>();
+		synchronized (this) {
+			if (sending) {
+				// picked up by the sending thread
+				return;
+			}
+			sending = true;
+		}
+		while (true) {
+			synchronized (this) {
+				prepareNext(requests, skipped);
+				if (requests.isEmpty() && skipped.isEmpty()) {
+					sending = false;
+					return;
+				}
+			}
+			for (Request request : requests) {
+				endpoint.sendRequest(request);
+			}
+			for (InetSocketAddress peer : skipped) {
+				Request request = newRequest(peer);
+				request.setCanceled(true);
+				report(new Result(peer, request, null, 0));
+			}
+			requests.clear();
+			skipped.clear();
+		}
+	}
+
+	/**
+	 * Determines the requests to send next and the targets of a canceled
+	 * batch. Must be invoked while holding the lock of this batch.
+	 */
+	private void prepareNext(final List<Request> requests, final List<InetSocketAddress> skipped) {
+		if (canceled) {
+			completedPeers.clear();
+			skipped.addAll(pending);
+			pending.clear();
+			for (Map.Entry<InetSocketAddress, Integer> entry : deferredPerPeer.entrySet()) {
+				for (int i = 0; i < entry.getValue(); i++) {
+					skipped.add(entry.getKey());
+				}
+			}
+			deferredPerPeer.clear();
+		} else {
+			while (outstanding.size() < maxOutstanding && !completedPeers.isEmpty()) {
+				InetSocketAddress completedPeer = completedPeers.poll();
+				if (deferredPerPeer.containsKey(completedPeer)) {
+					// a deferred request to the peer takes precedence
+					decrement(deferredPerPeer, completedPeer);
+					requests.add(prepare(completedPeer));
+				}
+			}
+			while (outstanding.size() < maxOutstanding && !pending.isEmpty()) {
+				InetSocketAddress peer = pending.poll();
+				Integer count = outstandingPerPeer.get(peer);
+				if (count != null && count >= maxOutstandingPerPeer) {
+					Integer deferred = deferredPerPeer.get(peer);
+					deferredPerPeer.put(peer, deferred == null ? 1 : deferred + 1);
+				} else {
+					requests.add(prepare(peer));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a request and registers it as outstanding. Must be invoked
+	 * while holding the lock of this batch.
+	 */
+	private Request prepare(final InetSocketAddress peer) {
+		final Request request = newRequest(peer);
+		final long start = System.nanoTime();
+		request.addMessageObserver(new MessageObserverAdapter() {
+
+			@Override
+			public void onResponse(final Response response) {
+				completed(peer, request, new CoapResponse(response), start);
+			}
+
+			@Override
+			public void onReject() {
+				completed(peer, request, null, start);
+			}
+
+			@Override
+			public void onTimeout() {
+				completed(peer, request, null, start);
+			}
+
+			@Override
+			public void onCancel() {
+				completed(peer, request, null, start);
+			}
+		});
+		outstanding.add(request);
+		Integer count = outstandingPerPeer.get(peer);
+		outstandingPerPeer.put(peer, count == null ? 1 : count + 1);
+		return request;
+	}
+
+	private Request newRequest(final InetSocketAddress peer) {
+		Request request = new Request(template.getCode(), template.getType());
+		request.setOptions(template.getOptions());
+		// the payload is shared by all requests
+		request.setPayload(template.getPayload());
+		request.setDestination(peer.getAddress());
+		request.setDestinationPort(peer.getPort());
+		return request;
+	}
+
+	private void completed(final InetSocketAddress peer, final Request request, final CoapResponse response,
+			final long start) {
+		synchronized (this) {
+			if (!outstanding.remove(request)) {
+				// already reported, e.g. canceled after the response
+				return;
+			}
+			decrement(outstandingPerPeer, peer);
+			completedPeers.add(peer);
+		}
+		report(new Result(peer, request, response, System.nanoTime() - start));
+		sendNext();
+	}
+
+	private void report(final Result result) {
+		boolean last;
+		synchronized (this) {
+			completed++;
+			if (result.getResponse() != null) {
+				succeeded++;
+				histogram[getBucket(TimeUnit.NANOSECONDS.toMillis(result.getLatency()))]++;
+			}
+			last = completed == size;
+		}
+		try {
+			handler.onResult(result);
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Exception while handling result", e);
+		}
+		if (last) {
+			complete();
+		}
+	}
+
+	private void complete() {
+		Summary result;
+		synchronized (this) {
+			summary = new Summary(succeeded, size - succeeded, histogram.clone());
+			result = summary;
+		}
+		done.countDown();
+		handler.onComplete(result);
+	}
+
+	private static void decrement(final Map<InetSocketAddress, Integer> counts, final InetSocketAddress peer) {
+		Integer count = counts.get(peer);
+		if (count == null || count <= 1) {
+			counts.remove(peer);
+		} else {
+			counts.put(peer, count - 1);
+		}
+	}
+
+	private static int getBucket(final long latency) {
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			if (latency <= BUCKET_BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BUCKET_BOUNDS.length;
+	}
+
+	/**
+	 * A handler for the results of a batch.
+	 */
+	public interface Handler {
+
+		/**
+		 * Invoked when the request to a target has completed.
+		 *
+		 * @param result the result
+		 */
+		void onResult(Result result);
+
+		/**
+		 * Invoked when the requests to all targets have completed.
+		 *
+		 * @param summary the summary of all results
+		 */
+		void onComplete(Summary summary);
+	}
+
+	/**
+	 * The result of the request to a single target.
+	 */
+	public static final class Result {
+
+		private final InetSocketAddress target;
+		private final Request request;
+		private final CoapResponse response;
+		private final long latency;
+
+		private Result(final InetSocketAddress target, final Request request, final CoapResponse response,
+				final long latency) {
+			this.target = target;
+			this.request = request;
+			this.response = response;
+			this.latency = latency;
+		}
+
+		/**
+		 * Gets the address of the target.
+		 *
+		 * @return the address
+		 */
+		public InetSocketAddress getTarget() {
+			return target;
+		}
+
+		/**
+		 * Gets the request sent to the target. The request indicates why no
+		 * response has been received, e.g. by {@link Request#isTimedOut()}.
+		 *
+		 * @return the request
+		 */
+		public Request getRequest() {
+			return request;
+		}
+
+		/**
+		 * Gets the response.
+		 *
+		 * @return the response or {@code null} if the request has failed
+		 */
+		public CoapResponse getResponse() {
+			return response;
+		}
+
+		/**
+		 * Gets the time between sending the request and its completion.
+		 *
+		 * @return the latency in nanoseconds
+		 */
+		public long getLatency() {
+			return latency;
+		}
+	}
+
+	/**
+	 * The summary of all results of a batch.
+	 */
+	public static final class Summary {
+
+		private final int succeeded;
+		private final int failed;
+		private final long[] histogram;
+
+		private Summary(final int succeeded, final int failed, final long[] histogram) {
+			this.succeeded = succeeded;
+			this.failed = failed;
+			this.histogram = histogram;
+		}
+
+		/**
+		 * Gets the number of targets that have sent a response.
+		 *
+		 * @return the number of targets
+		 */
+		public int getSucceeded() {
+			return succeeded;
+		}
+
+		/**
+		 * Gets the number of targets that have not sent a response.
+		 *
+		 * @return the number of targets
+		 */
+		public int getFailed() {
+			return failed;
+		}
+
+		/**
+		 * Gets the upper bounds of the buckets of the latency histogram.
+		 *
+		 * @return the bounds in milliseconds
+		 */
+		public long[] getBucketBounds() {
+			return BUCKET_BOUNDS.clone();
+		}
+
+		/**
+		 * Gets the latency histogram of the responses. The histogram has one
+		 * more bucket than there are {@link #getBucketBounds() bounds}. The
+		 * last bucket counts all responses above the last bound.
+		 *
+		 * @return the number of responses per bucket
+		 */
+		public long[] getHistogram() {
+			return histogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("succeeded=%d, failed=%d, histogram=%s", succeeded, failed,
+					Arrays.toString(histogram));
+		}
+	}
+}
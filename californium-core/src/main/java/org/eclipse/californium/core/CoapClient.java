@@ -21,6 +21,10 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - use onResponse of CoapObserveRelation
  *                                                    to order notifies and responses.
  *    Achim Kraus (Bosch Software Innovations GmbH) - use effective endpoint for ping()
+ *    Bosch Software Innovations GmbH - add streaming GET, POST and PUT
+ *    Bosch Software Innovations GmbH - add requests returning futures
+ *    Bosch Software Innovations GmbH - add executor running handlers on
+ *                                      virtual threads
  ******************************************************************************/
 package org.eclipse.californium.core;
 
@@ -30,10 +34,13 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.BlockConsumer;
 import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.BlockSource;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.LinkFormat;
@@ -45,6 +52,7 @@ import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.EndpointManager;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.elements.util.NamedThreadFactory;
+import org.eclipse.californium.elements.util.VirtualThreads;
 
 /**
  * The Class CoapClient.
@@ -190,6 +198,21 @@ public class CoapClient {
 		return this;
 	}
 
+	/**
+	 * Sets an executor to this client that invokes each handler on a thread
+	 * of its own. The threads are virtual threads on JVMs supporting them and
+	 * pooled daemon threads otherwise. This allows handlers to block, e.g.
+	 * when passing on the response to a downstream service, without limiting
+	 * the number of responses processed concurrently.
+	 *
+	 * @return the CoAP client
+	 * @see VirtualThreads#newThreadPerTaskExecutor(String)
+	 */
+	public CoapClient useThreadPerTaskExecutor() {
+		this.executor = VirtualThreads.newThreadPerTaskExecutor("CoapClient#"); //$NON-NLS-1$
+		return this;
+	}
+
 	/**
 	 * Sets the executor service for this client.
 	 * All handlers will be invoked by this executor.
@@ -353,6 +376,19 @@ public class CoapClient {
 	public CoapResponse get(int accept) {
 		return synchronous(accept(newGet().setURI(uri), accept));
 	}
+
+	/**
+	 * Sends a GET request and blocks until the response is available.
+	 * <p>
+	 * If the response body is transferred blockwise, the blocks are passed to
+	 * the consumer as they arrive and the returned response has no payload.
+	 * 
+	 * @param consumer the consumer for the blocks of the response body
+	 * @return the CoAP response
+	 */
+	public CoapResponse get(BlockConsumer consumer) {
+		return synchronous(newGet().setURI(uri).setResponseConsumer(consumer));
+	}
 	
 	// Asynchronous GET
 	
@@ -406,6 +442,23 @@ public class CoapClient {
 	public CoapResponse post(byte[] payload, int format) {
 		return synchronous(format(newPost().setURI(uri).setPayload(payload), format));
 	}
+
+	/**
+	 * Sends a POST request with a body read on demand and the specified
+	 * content format option and blocks until the response is available.
+	 * <p>
+	 * If the body is transferred blockwise, only the blocks being sent are
+	 * read from the source.
+	 * 
+	 * @param source
+	 *            the source of the body
+	 * @param format
+	 *            the Content-Format
+	 * @return the CoAP response
+	 */
+	public CoapResponse post(BlockSource source, int format) {
+		return synchronous(format(newPost().setURI(uri).setPayloadSource(source), format));
+	}
 	
 	/**
 	 * Sends a POST request with the specified payload, the specified content
@@ -520,6 +573,21 @@ public class CoapClient {
 	public CoapResponse put(byte[] payload, int format) {
 		return synchronous(format(newPut().setURI(uri).setPayload(payload), format));
 	}
+
+	/**
+	 * Sends a PUT request with a body read on demand and required
+	 * Content-Format and blocks until the response is available.
+	 * <p>
+	 * If the body is transferred blockwise, only the blocks being sent are
+	 * read from the source.
+	 *
+	 * @param source the source of the body
+	 * @param format the Content-Format
+	 * @return the CoAP response
+	 */
+	public CoapResponse put(BlockSource source, int format) {
+		return synchronous(format(newPut().setURI(uri).setPayloadSource(source), format));
+	}
 	
 	/**
 	 * Sends a PUT request with with the specified ETags in the If-Match option
@@ -684,6 +752,116 @@ public class CoapClient {
 		asynchronous(request, handler);
 	}
 	
+	// Asynchronous requests returning futures
+
+	/**
+	 * Sends a GET request and returns a future for the response.
+	 * <p>
+	 * The future is completed by the thread processing the response, it
+	 * neither requires nor uses the client's executor.
+	 *
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> getAsync() {
+		return asynchronous(newGet().setURI(uri));
+	}
+
+	/**
+	 * Sends a GET request with the specified Accept option and returns a
+	 * future for the response.
+	 *
+	 * @param accept the Accept option
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> getAsync(int accept) {
+		return asynchronous(accept(newGet().setURI(uri), accept));
+	}
+
+	/**
+	 * Sends a POST request with the specified payload and the specified content
+	 * format option and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> postAsync(String payload, int format) {
+		return asynchronous(format(newPost().setURI(uri).setPayload(payload), format));
+	}
+
+	/**
+	 * Sends a POST request with the specified payload and the specified content
+	 * format option and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> postAsync(byte[] payload, int format) {
+		return asynchronous(format(newPost().setURI(uri).setPayload(payload), format));
+	}
+
+	/**
+	 * Sends a PUT request with the specified payload and the specified content
+	 * format option and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> putAsync(String payload, int format) {
+		return asynchronous(format(newPut().setURI(uri).setPayload(payload), format));
+	}
+
+	/**
+	 * Sends a PUT request with the specified payload and the specified content
+	 * format option and returns a future for the response.
+	 *
+	 * @param payload the payload
+	 * @param format the Content-Format
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> putAsync(byte[] payload, int format) {
+		return asynchronous(format(newPut().setURI(uri).setPayload(payload), format));
+	}
+
+	/**
+	 * Sends a DELETE request and returns a future for the response.
+	 *
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> deleteAsync() {
+		return asynchronous(newDelete().setURI(uri));
+	}
+
+	/**
+	 * Sends an advanced request that has to be configured by the developer and
+	 * returns a future for the response.
+	 *
+	 * @param request the custom request
+	 * @return the future for the response
+	 */
+	public CoapFuture<CoapResponse> advancedAsync(Request request) {
+		assignClientUriIfEmpty(request);
+		return asynchronous(request);
+	}
+
+	/**
+	 * Sends an observe request and returns a future for the relation, which
+	 * is completed as soon as the first response arrives. The specified
+	 * handler is invoked each time a notification arrives.
+	 * <p>
+	 * If the server does not accept the relation, the future is completed
+	 * with a canceled relation.
+	 *
+	 * @param handler the Response handler
+	 * @return the future for the CoAP observe relation
+	 */
+	public CoapFuture<CoapObserveRelation> observeAsync(CoapHandler handler) {
+		Request request = newGet().setURI(uri).setObserve();
+		return observeAsync(request, handler);
+	}
+
 	// Synchronous observer
 	
 	/**
@@ -763,6 +941,26 @@ public class CoapClient {
 		send(request);
 	}
 	
+	/*
+	 * Asynchronously sends the specified request and returns a future for the
+	 * response.
+	 *
+	 * @param request the request
+	 * @return the future for the response
+	 */
+	private CoapFuture<CoapResponse> asynchronous(Request request) {
+		CoapFuture<CoapResponse> future = new CoapFuture<CoapResponse>(request);
+		request.addMessageObserver(new FutureObserver<CoapResponse>(future) {
+
+			@Override
+			protected CoapResponse getResult(Response response) {
+				return new CoapResponse(response);
+			}
+		});
+		send(request);
+		return future;
+	}
+
 	/*
 	 * Synchronously sends the specified request.
 	 *
@@ -910,6 +1108,42 @@ public class CoapClient {
 		}
 	}
 	
+	/**
+	 * Sends the specified observe request and returns a future for the
+	 * relation, which is completed as soon as the first response arrives. The
+	 * specified handler is invoked each time a notification arrives.
+	 *
+	 * @param request the request
+	 * 
+	 * @param handler the Response handler
+	 * 
+	 * @return the future for the CoAP observe relation
+	 * @throws IllegalArgumentException if the observe option is not set in the
+	 *             request
+	 */
+	public CoapFuture<CoapObserveRelation> observeAsync(Request request, CoapHandler handler) {
+		if (request.getOptions().hasObserve()) {
+			Endpoint outEndpoint = getEffectiveEndpoint(request);
+			final CoapObserveRelation relation = new CoapObserveRelation(request, outEndpoint);
+			request.addMessageObserver(new ObserveMessageObserverImpl(handler, relation));
+			CoapFuture<CoapObserveRelation> future = new CoapFuture<CoapObserveRelation>(request);
+			request.addMessageObserver(new FutureObserver<CoapObserveRelation>(future) {
+
+				@Override
+				protected CoapObserveRelation getResult(Response response) {
+					if (!response.getOptions().hasObserve()) {
+						relation.setCanceled(true);
+					}
+					return relation;
+				}
+			});
+			send(request, outEndpoint);
+			return future;
+		} else {
+			throw new IllegalArgumentException("please make sure that the request has observe option set.");
+		}
+	}
+
 	/**
 	 * Sends the specified request over the endpoint of the client if one is
 	 * defined or over the default endpoint otherwise.
@@ -1113,6 +1347,45 @@ public class CoapClient {
 		}
 	}
 	
+	/**
+	 * The FutureObserver completes a future directly by the thread reporting
+	 * the response or the failure of the request.
+	 */
+	private abstract static class FutureObserver<T> extends MessageObserverAdapter {
+
+		private final CoapFuture<T> future;
+
+		private FutureObserver(CoapFuture<T> future) {
+			this.future = future;
+		}
+
+		/**
+		 * Gets the result to complete the future with.
+		 *
+		 * @param response the (first) response
+		 * @return the result
+		 */
+		protected abstract T getResult(Response response);
+
+		@Override public void onResponse(final Response response) {
+			if (!future.isDone()) {
+				future.succeed(getResult(response));
+			}
+		}
+
+		@Override public void onReject() {
+			future.fail(new IOException("request has been rejected"));
+		}
+
+		@Override public void onTimeout() {
+			future.fail(new TimeoutException("request has timed out"));
+		}
+
+		@Override public void onCancel() {
+			future.cancel(false);
+		}
+	}
+
 	/**
 	 * The ObserveMessageObserverImpl is called whenever a notification of an
 	 * observed resource arrives. It wraps the response into a CoapResponse and
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.Request;
+
+/**
+ * The result of a request sent asynchronously by a {@link CoapClient}.
+ * <p>
+ * The future is completed by the thread processing the response, i.e.
+ * usually a thread of the endpoint's protocol stage. No thread is blocked
+ * while the request is outstanding unless one of the {@code get} methods is
+ * invoked. Callbacks added by {@link #addCallback(Callback)} are invoked by
+ * the completing thread and must therefore not block.
+ * <p>
+ * Canceling the future cancels the request.
+ *
+ * @param <T> the type of the result
+ */
+public class CoapFuture<T> implements Future<T> {
+
+	private static final Logger LOGGER = Logger.getLogger(CoapFuture.class.getCanonicalName());
+
+	private final Request request;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final List<Callback<? super T>> callbacks = new CopyOnWriteArrayList<Callback<? super T>>();
+	private T result;
+	private Throwable failure;
+	private boolean completed;
+
+	/**
+	 * Creates a future for a request.
+	 *
+	 * @param request the request
+	 */
+	CoapFuture(final Request request) {
+		this.request = request;
+	}
+
+	/**
+	 * Gets the request this future is for.
+	 *
+	 * @return the request
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * Adds a callback to be invoked when this future is completed. If the
+	 * future is already completed, the callback is invoked immediately by the
+	 * calling thread.
+	 *
+	 * @param callback the callback
+	 * @return this future for command chaining
+	 */
+	public CoapFuture<T> addCallback(final Callback<? super T> callback) {
+		if (callback == null) {
+			throw new NullPointerException("callback must not be null");
+		}
+		synchronized (this) {
+			if (!completed) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		invoke(callback);
+		return this;
+	}
+
+	/**
+	 * Completes this future with a result.
+	 *
+	 * @param result the result
+	 * @return true if this future has been completed by this call
+	 */
+	boolean succeed(final T result) {
+		synchronized (this) {
+			if (completed) {
+				return false;
+			}
+			this.result = result;
+			this.completed = true;
+		}
+		complete();
+		return true;
+	}
+
+	/**
+	 * Completes this future with a failure.
+	 *
+	 * @param failure the cause of the failure
+	 * @return true if this future has been completed by this call
+	 */
+	boolean fail(final Throwable failure) {
+		synchronized (this) {
+			if (completed) {
+				return false;
+			}
+			this.failure = failure;
+			this.completed = true;
+		}
+		complete();
+		return true;
+	}
+
+	private void complete() {
+		done.countDown();
+		for (Callback<? super T> callback : callbacks) {
+			invoke(callback);
+		}
+		callbacks.clear();
+	}
+
+	private void invoke(final Callback<? super T> callback) {
+		try {
+			if (failure == null) {
+				callback.onSuccess(result);
+			} else {
+				callback.onFailure(failure);
+			}
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Exception while invoking callback", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Also cancels the request.
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		if (fail(new CancellationException("request has been canceled"))) {
+			if (!request.isCanceled()) {
+				request.cancel();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return failure instanceof CancellationException;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return completed;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("no result within " + timeout + " " + unit);
+		}
+		return getResult();
+	}
+
+	private synchronized T getResult() throws ExecutionException {
+		if (failure instanceof CancellationException) {
+			throw (CancellationException) failure;
+		} else if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return result;
+	}
+
+	/**
+	 * A callback for the completion of a future.
+	 *
+	 * @param <T> the type of the result
+	 */
+	public interface Callback<T> {
+
+		/**
+		 * Invoked when the future is completed successfully.
+		 *
+		 * @param result the result
+		 */
+		void onSuccess(T result);
+
+		/**
+		 * Invoked when the future is completed with a failure. If the future
+		 * has been canceled, the cause is a {@link CancellationException}.
+		 *
+		 * @param cause the cause of the failure
+		 */
+		void onFailure(Throwable cause);
+	}
+}
@@ -20,6 +20,8 @@
  *                                                    reregister. issue #56.
  *                                                    cleanup thread visibility and
  *                                                    response ordering. 
+ *    Bosch Software Innovations GmbH - schedule re-registrations on the
+ *                                      endpoint's runtime
  ******************************************************************************/
 package org.eclipse.californium.core;
 
@@ -35,6 +37,8 @@ import java.util.logging.Logger;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MessageObserver;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.CoapRuntime;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.observe.ObserveNotificationOrderer;
 import org.eclipse.californium.elements.util.DaemonThreadFactory;
@@ -50,10 +54,6 @@ public class CoapObserveRelation {
 	/** The logger. */
 	private static final Logger LOGGER = Logger.getLogger(CoapObserveRelation.class.getCanonicalName());
 
-	/** A executor service to schedule re-registrations */
-	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(//
-			new DaemonThreadFactory("CoapObserveRelation#")); //$NON-NLS-1$
-
 	/** The endpoint. */
 	private final Endpoint endpoint;
 
@@ -262,7 +262,7 @@ public class CoapObserveRelation {
 	private void prepareReregistration(CoapResponse response, long backoff) {
 		if (!isCanceled()) {
 			long timeout = response.getOptions().getMaxAge() * 1000 + backoff;
-			ScheduledFuture<?> f = scheduler.schedule(new Runnable() {
+			ScheduledFuture<?> f = getScheduler().schedule(new Runnable() {
 	
 				@Override
 				public void run() {
@@ -272,4 +272,31 @@ public class CoapObserveRelation {
 			setReregistrationHandle(f);
 		}
 	}
+
+	/**
+	 * Gets the executor service to schedule re-registrations on.
+	 * 
+	 * @return The worker pool of the endpoint's runtime, if the endpoint
+	 *         shares its threads, or a single threaded executor shared by
+	 *         all relations otherwise.
+	 */
+	private ScheduledExecutorService getScheduler() {
+		if (endpoint instanceof CoapEndpoint) {
+			CoapRuntime runtime = ((CoapEndpoint) endpoint).getRuntime();
+			if (runtime != null && !runtime.isDestroyed()) {
+				return runtime.getExecutor();
+			}
+		}
+		return DefaultScheduler.INSTANCE;
+	}
+
+	/**
+	 * Holder of the executor service used for endpoints without runtime.
+	 * The executor is created lazily when it is required for the first time.
+	 */
+	private static class DefaultScheduler {
+
+		private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(//
+				new DaemonThreadFactory("CoapObserveRelation#")); //$NON-NLS-1$
+	}
 }
@@ -23,18 +23,26 @@
  *                                                    (for use by subclasses)
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - share notifications among relations
+ *                                      and send them in parallel
  ******************************************************************************/
 package org.eclipse.californium.core;
 
 import java.net.URI;
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +50,7 @@ import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.Exchange;
@@ -168,6 +177,15 @@ public  class CoapResource implements Resource {
 	
 	/* The notification orderer. */
 	private ObserveNotificationOrderer notificationOrderer;
+
+	/* Indicates whether notifications are rendered once per variant and shared among relations. */
+	private volatile boolean notificationsShared;
+
+	/* The notifications captured while being rendered, by exchange of the relation. Created once notifications get shared. */
+	private volatile ConcurrentMap<Exchange, AtomicReference<Response>> renderings;
+
+	/* The serial queues the relations are notified through in parallel. Created once notifications get shared. */
+	private volatile NotificationStripe[] stripes;
 	
 	/**
 	 * Constructs a new resource with the specified name.
@@ -304,6 +322,15 @@ public  class CoapResource implements Resource {
 				// The resource can control the message type of the notification
 				response.setType(observeType);
 			}
+
+			ConcurrentMap<Exchange, AtomicReference<Response>> renderings = this.renderings;
+			if (renderings != null && !renderings.isEmpty()) {
+				AtomicReference<Response> rendering = renderings.get(exchange);
+				// bodies read on demand may not be read concurrently
+				if (rendering != null && response.getPayloadSource() == null) {
+					rendering.set(copyNotification(response));
+				}
+			}
 		} // ObserveLayer takes care of the else case
 	}
 	
@@ -681,6 +708,44 @@ public  class CoapResource implements Resource {
 		this.observeType = type;
 	}
 
+	/**
+	 * Checks whether notifications are shared among observe relations.
+	 *
+	 * @return true if notifications are shared
+	 * @see #setNotificationsShared(boolean)
+	 */
+	public boolean isNotificationsShared() {
+		return notificationsShared;
+	}
+
+	/**
+	 * Sets whether notifications are shared among observe relations.
+	 * <p>
+	 * If shared, {@link #changed()} processes the request of only one relation
+	 * per variant, i.e. per Accept option and URI query of the observe
+	 * requests. All other relations of the same variant are sent a copy of the
+	 * resulting notification sharing its payload. In addition, the relations
+	 * are notified in parallel on the executor of this resource, while
+	 * notifications of the same relation are still sent in order.
+	 * <p>
+	 * Notifications must only be shared if the representation does not depend
+	 * on anything else of the request, e.g. the client's identity.
+	 * Notifications with a body read on demand are never shared.
+	 *
+	 * @param shared true if notifications are shared (default false)
+	 */
+	public synchronized void setNotificationsShared(boolean shared) {
+		if (shared && stripes == null) {
+			renderings = new ConcurrentHashMap<Exchange, AtomicReference<Response>>();
+			NotificationStripe[] stripes = new NotificationStripe[Runtime.getRuntime().availableProcessors()];
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = new NotificationStripe();
+			}
+			this.stripes = stripes;
+		}
+		this.notificationsShared = shared;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.californium.core.server.resources.Resource#addObserveRelation(org.eclipse.californium.core.observe.ObserveRelation)
 	 */
@@ -763,11 +828,102 @@ public  class CoapResource implements Resource {
 	 */
 	protected void notifyObserverRelations(final ObserveRelationFilter filter) {
 		notificationOrderer.getNextObserveNumber();
+		if (notificationsShared) {
+			notifyObserverRelationsShared(filter);
+			return;
+		}
 		for (ObserveRelation relation:observeRelations) {
 			if (null == filter || filter.accept(relation)) relation.notifyObservers();
 		}
 	}
 
+	/**
+	 * Notifies the observe relations with shared notifications. The relations
+	 * are partitioned by their key, each partition is notified in order by one
+	 * of the stripes.
+	 * 
+	 * @param filter filter to select set of relations. 
+	 *               <code>null</code>, if all clients should be notified.
+	 */
+	private void notifyObserverRelationsShared(final ObserveRelationFilter filter) {
+		final ConcurrentMap<String, Response> variants = new ConcurrentHashMap<String, Response>();
+		Executor executor = getExecutor();
+		if (executor == null) {
+			for (ObserveRelation relation:observeRelations) {
+				if (null == filter || filter.accept(relation)) notifyShared(relation, variants);
+			}
+			return;
+		}
+
+		NotificationStripe[] stripes = this.stripes;
+		List<List<ObserveRelation>> partitions = new ArrayList<List<ObserveRelation>>(stripes.length);
+		for (int i = 0; i < stripes.length; i++) {
+			partitions.add(new ArrayList<ObserveRelation>());
+		}
+		for (ObserveRelation relation:observeRelations) {
+			if (null == filter || filter.accept(relation)) {
+				int index = (relation.getKey().hashCode() & Integer.MAX_VALUE) % stripes.length;
+				partitions.get(index).add(relation);
+			}
+		}
+		for (int i = 0; i < stripes.length; i++) {
+			final List<ObserveRelation> partition = partitions.get(i);
+			if (!partition.isEmpty()) {
+				stripes[i].execute(new Runnable() {
+					public void run() {
+						for (ObserveRelation relation:partition) {
+							notifyShared(relation, variants);
+						}
+					}
+				}, executor);
+			}
+		}
+	}
+
+	/**
+	 * Sends the notification of the relation's variant to an observe relation.
+	 * If the variant has not yet been rendered, the relation's request is
+	 * processed and the resulting notification is used for the variant.
+	 */
+	private void notifyShared(final ObserveRelation relation, final ConcurrentMap<String, Response> variants) {
+		Exchange exchange = relation.getExchange();
+		OptionSet options = exchange.getRequest().getOptions();
+		if (options.getETagCount() > 0) {
+			// the response depends on the representation known to the client
+			relation.notifyObservers();
+			return;
+		}
+		String variant = options.getAccept() + "?" + options.getUriQueryString();
+		Response notification = variants.get(variant);
+		if (notification == null) {
+			ConcurrentMap<Exchange, AtomicReference<Response>> renderings = this.renderings;
+			AtomicReference<Response> rendering = new AtomicReference<Response>();
+			renderings.put(exchange, rendering);
+			try {
+				relation.notifyObservers();
+			} finally {
+				renderings.remove(exchange);
+			}
+			if (rendering.get() != null) {
+				variants.putIfAbsent(variant, rendering.get());
+			}
+		} else if (relation.isEstablished()) {
+			exchange.sendResponse(copyNotification(notification));
+		}
+	}
+
+	/**
+	 * Creates a copy of a notification before it is modified by the stack. The
+	 * copy shares the payload of the notification.
+	 */
+	private static Response copyNotification(final Response notification) {
+		Response copy = new Response(notification.getCode());
+		copy.setType(notification.getType());
+		copy.setOptions(notification.getOptions());
+		copy.setPayload(notification.getPayload());
+		return copy;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.californium.core.server.resources.Resource#getChildren()
 	 */
@@ -826,4 +982,43 @@ public  class CoapResource implements Resource {
 			return Collections.emptyList();
 		else return parent.getEndpoints();
 	}
+
+	/**
+	 * A queue of tasks that are executed one after the other on an executor.
+	 */
+	private static final class NotificationStripe implements Runnable {
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile Executor executor;
+
+		private void execute(final Runnable task, final Executor executor) {
+			tasks.add(task);
+			schedule(executor);
+		}
+
+		private void schedule(final Executor executor) {
+			if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+				this.executor = executor;
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						LOGGER.log(Level.WARNING, "Failed to notify observe relations", e);
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				schedule(executor);
+			}
+		}
+	}
 }
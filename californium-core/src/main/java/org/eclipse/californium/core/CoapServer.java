@@ -18,6 +18,8 @@
  *    Kai Hudalla - logging
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - share threads among endpoints by means
+ *                                      of a CoapRuntime
  ******************************************************************************/
 package org.eclipse.californium.core;
 
@@ -27,12 +29,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.CoapRuntime;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.MessageDeliverer;
@@ -52,6 +54,11 @@ import org.eclipse.californium.elements.util.NamedThreadFactory;
  * A server can be started and stopped. When the server stops the endpoint
  * frees the port it is listening on, but keeps the executors running to resume.
  * <p>
+ * All endpoints of a server share a single {@link CoapRuntime}, i.e. the
+ * worker pool of the protocol stage and the timer service used for
+ * retransmissions. The runtime can also be shared among multiple servers
+ * by means of {@link #setRuntime(CoapRuntime)}.
+ * <p>
  * The following code snippet provides an example of a server with a resource
  * that responds with a <em>"hello world"</em> to any incoming GET request.
  * <pre>
@@ -106,8 +113,11 @@ public class CoapServer implements ServerInterface {
 	/** The list of endpoints the server connects to the network. */
 	private final List<Endpoint> endpoints;
 
-	/** The executor of the server for its endpoints (can be null). */
-	private ScheduledExecutorService executor;
+	/** The threads shared by the endpoints of the server. */
+	private CoapRuntime runtime;
+
+	/** Indicates whether the runtime has been created by this server. */
+	private boolean ownsRuntime;
 
 	private boolean running;
 
@@ -159,9 +169,10 @@ public class CoapServer implements ServerInterface {
 		// endpoints
 		this.endpoints = new ArrayList<>();
 		// sets the central thread pool for the protocol stage over all endpoints
-		this.executor = Executors.newScheduledThreadPool(//
+		this.runtime = new CoapRuntime(Executors.newScheduledThreadPool(//
 				this.config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT), //
-				new NamedThreadFactory("CoapServer#")); //$NON-NLS-1$
+				new NamedThreadFactory("CoapServer#")), this.config); //$NON-NLS-1$
+		this.ownsRuntime = true;
 		// create endpoint for each port
 		for (int port : ports) {
 			addEndpoint(new CoapEndpoint(port, this.config));
@@ -170,6 +181,9 @@ public class CoapServer implements ServerInterface {
 
 	/**
 	 * Sets the executor service to use for running tasks in the protocol stage.
+	 * <p>
+	 * The server takes ownership of the executor service, i.e. it is shut
+	 * down when the server is destroyed.
 	 * 
 	 * @param executor The thread pool to use.
 	 * @throws IllegalStateException if this server is running.
@@ -179,10 +193,58 @@ public class CoapServer implements ServerInterface {
 		if (running) {
 			throw new IllegalStateException("executor service can not be set on running server");
 		} else {
-			this.executor = executor;
-			for (Endpoint ep : endpoints) {
-				ep.setExecutor(executor);
-			}
+			replaceRuntime(new CoapRuntime(executor, config), true);
+		}
+	}
+
+	/**
+	 * Sets the runtime to share with other servers or endpoints.
+	 * <p>
+	 * The runtime replaces the worker pool and timer service created by this
+	 * server. The server does not destroy the given runtime when it is
+	 * destroyed.
+	 * 
+	 * @param runtime The runtime to use.
+	 * @throws NullPointerException if the runtime is {@code null}.
+	 * @throws IllegalStateException if this server is running.
+	 */
+	public synchronized void setRuntime(final CoapRuntime runtime) {
+
+		if (runtime == null) {
+			throw new NullPointerException("runtime must not be null");
+		} else if (running) {
+			throw new IllegalStateException("runtime can not be set on running server");
+		} else {
+			replaceRuntime(runtime, false);
+		}
+	}
+
+	/**
+	 * Gets the runtime shared by the endpoints of this server.
+	 * 
+	 * @return The runtime.
+	 */
+	public synchronized CoapRuntime getRuntime() {
+		return runtime;
+	}
+
+	private void replaceRuntime(final CoapRuntime runtime, final boolean ownsRuntime) {
+		if (this.ownsRuntime) {
+			// the threads have not been used yet
+			this.runtime.destroy();
+		}
+		this.runtime = runtime;
+		this.ownsRuntime = ownsRuntime;
+		for (Endpoint ep : endpoints) {
+			applyRuntime(ep);
+		}
+	}
+
+	private void applyRuntime(final Endpoint endpoint) {
+		if (endpoint instanceof CoapEndpoint && !endpoint.isStarted()) {
+			((CoapEndpoint) endpoint).setRuntime(runtime);
+		} else {
+			endpoint.setExecutor(runtime.getExecutor());
 		}
 	}
 
@@ -247,25 +309,11 @@ public class CoapServer implements ServerInterface {
 	public synchronized void destroy() {
 
 		LOGGER.info("Destroying server");
-		// prevent new tasks from being submitted
-		executor.shutdown(); // cannot be started again
 		try {
-			// wait for currently executing tasks to complete
-			if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
-				// cancel still executing tasks
-				// and ignore all remaining tasks scheduled for later
-				List<Runnable> runningTasks = executor.shutdownNow();
-				if (runningTasks.size() > 0) {
-					// this is e.g. the case if we have performed an incomplete blockwise transfer
-					// and the BlockwiseLayer has scheduled a pending BlockCleanupTask for tidying up
-					LOGGER.log(Level.FINE, "Ignoring remaining {0} scheduled task(s)", runningTasks.size());
-				}
-				// wait for executing tasks to respond to being cancelled
-				executor.awaitTermination(1, TimeUnit.SECONDS);
+			if (ownsRuntime) {
+				// cannot be started again
+				runtime.destroy();
 			}
-		} catch (InterruptedException e) {
-			executor.shutdownNow();
-			Thread.currentThread().interrupt();
 		} finally {
 			for (Endpoint ep : endpoints) {
 				ep.destroy();
@@ -298,7 +346,7 @@ public class CoapServer implements ServerInterface {
 
 	/**
 	 * Adds an Endpoint to the server. WARNING: It automatically configures the
-	 * default executor of the server. Endpoints that should use their own
+	 * runtime of the server, i.e. its executor and timer service. Endpoints that should use their own
 	 * executor (e.g., to prioritize or balance request handling) either set it
 	 * afterwards before starting the server or override the setExecutor()
 	 * method of the special Endpoint.
@@ -308,7 +356,7 @@ public class CoapServer implements ServerInterface {
 	@Override
 	public void addEndpoint(final Endpoint endpoint) {
 		endpoint.setMessageDeliverer(deliverer);
-		endpoint.setExecutor(executor);
+		applyRuntime(endpoint);
 		endpoints.add(endpoint);
 	}
 
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.coap;
+
+import java.io.IOException;
+
+/**
+ * A consumer for the body of a response that is transferred blockwise.
+ * <p>
+ * A consumer can be set on a request by means of
+ * {@link Request#setResponseConsumer(BlockConsumer)}. The
+ * {@code BlockwiseLayer} then passes each block of the response's body to the
+ * consumer as soon as it has been received instead of buffering the blocks
+ * until the whole body has been received. The response delivered to the
+ * application after the last block has been consumed does not contain a
+ * payload. This allows to retrieve bodies exceeding
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MAX_RESOURCE_BODY_SIZE}
+ * with constant memory per transfer. Responses that are not transferred
+ * blockwise are delivered with their payload as usual.
+ * <p>
+ * The next block is only requested from the peer once the consumer has
+ * returned from {@link #accept(int, byte[])}, i.e. a slow consumer
+ * throttles the transfer.
+ */
+public interface BlockConsumer {
+
+	/**
+	 * Consumes a block of a response body.
+	 * <p>
+	 * Blocks are passed in order. An offset of 0 indicates the start of a
+	 * new body, e.g. if the transfer has been restarted by a newer
+	 * notification.
+	 * 
+	 * @param offset The offset of the block's first byte within the body.
+	 * @param block The block's bytes.
+	 * @throws IOException if the block cannot be consumed. The transfer is
+	 *             canceled in this case.
+	 */
+	void accept(int offset, byte[] block) throws IOException;
+}
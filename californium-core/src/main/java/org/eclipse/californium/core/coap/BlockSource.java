@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.coap;
+
+import java.io.IOException;
+
+/**
+ * A source for a message body that is read on demand.
+ * <p>
+ * A body source can be set on a message instead of a payload by means of
+ * {@link Message#setPayloadSource(BlockSource)}. If the body needs to be
+ * transferred blockwise, the {@code BlockwiseLayer} reads the blocks from the
+ * source when they are to be sent, i.e. the body is never kept in memory as a
+ * whole. This allows to transfer bodies exceeding
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MAX_RESOURCE_BODY_SIZE}
+ * with constant memory per transfer.
+ * <p>
+ * Blocks may be read in any order and more than once, e.g. if a peer
+ * requests a block again. Implementations must therefore support random
+ * access to the body.
+ */
+public interface BlockSource {
+
+	/**
+	 * Gets the overall size of the body.
+	 * 
+	 * @return The number of bytes.
+	 */
+	int getSize();
+
+	/**
+	 * Reads a part of the body.
+	 * 
+	 * @param offset The offset of the first byte to read.
+	 * @param length The number of bytes to read. The range does not exceed
+	 *            the body's size.
+	 * @return The bytes read.
+	 * @throws IOException if the bytes cannot be read.
+	 */
+	byte[] read(int offset, int length) throws IOException;
+}
@@ -22,6 +22,10 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - use unmodifiable facade
  *                                                    instead of create it on
  *                                                    every getMessageObservers()
+ *    Bosch Software Innovations GmbH - add payload source for streaming
+ *                                      blockwise transfers
+ *    Bosch Software Innovations GmbH - allocate the list of message observers
+ *                                      only when the first observer is added
  ******************************************************************************/
 package org.eclipse.californium.core.coap;
 
@@ -34,7 +38,6 @@ import java.nio.charset.CodingErrorAction;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -97,6 +100,9 @@ public abstract class Message {
 	/** The payload of this message. */
 	private byte[] payload;
 
+	/** The source of the body of this message, read on demand. */
+	private volatile BlockSource payloadSource;
+
 	/** The destination address of this message. */
 	private InetAddress destination;
 
@@ -133,7 +139,7 @@ public abstract class Message {
 	 * (lazy-initialization). If a handler is added, the list will be created
 	 * and from then on must never again become null.
 	 */
-	private AtomicReference<List<MessageObserver>> messageObservers = new AtomicReference<List<MessageObserver>>();
+	private volatile List<MessageObserver> messageObservers;
 	
 	/**
 	 * A unmodifiable facade for the list of all {@link ObserveManager}.
@@ -423,6 +429,32 @@ public abstract class Message {
 		return this;
 	}
 
+	/**
+	 * Sets a source from which the body of this message is read on demand.
+	 * <p>
+	 * If the body needs to be transferred blockwise, only the blocks being
+	 * sent are read from the source. Otherwise the whole body is read into
+	 * the payload before the message is sent. A payload source takes
+	 * precedence over a payload set on this message.
+	 * Provides a fluent API to chain setters.
+	 *
+	 * @param source the source of the body or {@code null} to use the payload
+	 * @return this Message
+	 */
+	public Message setPayloadSource(BlockSource source) {
+		this.payloadSource = source;
+		return this;
+	}
+
+	/**
+	 * Gets the source from which the body of this message is read on demand.
+	 *
+	 * @return the source or {@code null} if the payload is used
+	 */
+	public BlockSource getPayloadSource() {
+		return payloadSource;
+	}
+
 	/**
 	 * Gets the destination address.
 	 *
@@ -739,7 +771,7 @@ public abstract class Message {
 		if (observer == null) {
 			throw new NullPointerException();
 		}
-		List<MessageObserver> list = messageObservers.get();
+		List<MessageObserver> list = messageObservers;
 		if (list != null) {
 			list.remove(observer);
 		}
@@ -750,12 +782,15 @@ public abstract class Message {
 	 * one. This method is thread-safe and creates exactly one list.
 	 */
 	private List<MessageObserver> ensureMessageObserverList() {
-		List<MessageObserver> list = messageObservers.get();
+		List<MessageObserver> list = messageObservers;
 		if (null == list) {
-			boolean created = messageObservers.compareAndSet(null, new CopyOnWriteArrayList<MessageObserver>());
-			list = messageObservers.get();
-			if (created) {
-				unmodifiableMessageObserversFacade = Collections.unmodifiableList(list);
+			synchronized (this) {
+				list = messageObservers;
+				if (null == list) {
+					list = new CopyOnWriteArrayList<MessageObserver>();
+					unmodifiableMessageObserversFacade = Collections.unmodifiableList(list);
+					messageObservers = list;
+				}
 			}
 		}
 		return list;
@@ -18,6 +18,8 @@
  *    Kai Hudalla - logging
  *    Achim Kraus (Bosch Software Innovations GmbH) - make getOthers() public.
  *                                                    issue #286
+ *    Bosch Software Innovations GmbH - keep Uri-Path segments in an array list
+ *    Bosch Software Innovations GmbH - keep uint options in primitive fields
  ******************************************************************************/
 package org.eclipse.californium.core.coap;
 
@@ -40,6 +42,11 @@ import org.eclipse.californium.core.Utils;
 public final class OptionSet {
 
 	private static final int MAX_OBSERVE_NO = (1 << 24) - 1;
+	/**
+	 * Value of the primitive fields of absent uint options. Saves boxing the
+	 * values of options present in nearly every message.
+	 */
+	private static final int NONE = -1;
 	/*
 	 * Options defined by the CoAP protocol
 	 */
@@ -47,21 +54,21 @@ public final class OptionSet {
 	private String       uri_host;
 	private List<byte[]> etag_list;
 	private boolean      if_none_match; // true if option is set
-	private Integer      uri_port; // null if no port is explicitly defined
+	private int          uri_port; // NONE if no port is explicitly defined
 	private List<String> location_path_list;
 	private List<String> uri_path_list;
-	private Integer      content_format;
-	private Long         max_age; // (0-4 bytes)
+	private int          content_format;
+	private long         max_age; // (0-4 bytes)
 	private List<String> uri_query_list;
-	private Integer      accept;
+	private int          accept;
 	private List<String> location_query_list;
 	private String       proxy_uri;
 	private String       proxy_scheme;
 	private BlockOption  block1;
 	private BlockOption  block2;
-	private Integer      size1;
-	private Integer      size2;
-	private Integer      observe;
+	private int          size1;
+	private int          size2;
+	private int          observe;
 	
 	// Arbitrary options
 	private List<Option> others;
@@ -76,21 +83,21 @@ public final class OptionSet {
 		uri_host            = null; // from sender
 		etag_list           = null; // new LinkedList<byte[]>();
 		if_none_match       = false;
-		uri_port            = null; // from sender
+		uri_port            = NONE; // from sender
 		location_path_list  = null; // new LinkedList<String>();
 		uri_path_list       = null; // new LinkedList<String>();
-		content_format      = null;
-		max_age             = null;
+		content_format      = NONE;
+		max_age             = NONE;
 		uri_query_list      = null; // new LinkedList<String>();
-		accept              = null;
+		accept              = NONE;
 		location_query_list = null; // new LinkedList<String>();
 		proxy_uri           = null;
 		proxy_scheme        = null;
 		block1              = null;
 		block2              = null;
-		size1               = null;
-		size2               = null;
-		observe             = null;
+		size1               = NONE;
+		size2               = NONE;
+		observe             = NONE;
 		
 		others              = null; // new LinkedList<>();
 	}
@@ -102,23 +109,25 @@ public final class OptionSet {
 		if (etag_list != null)
 			etag_list.clear();
 		if_none_match = false;
-		uri_port = null;
+		uri_port = NONE;
 		if (location_path_list != null)
 			location_path_list.clear();
 		if (uri_path_list != null)
 			uri_path_list.clear();
-		content_format = null;
-		max_age = null;
+		content_format = NONE;
+		max_age = NONE;
 		if (uri_query_list != null)
 			uri_query_list.clear();
-		accept = null;
+		accept = NONE;
 		if (location_query_list != null)
-			location_path_list.clear();
+			location_query_list.clear();
 		proxy_uri = null;
 		proxy_scheme = null;
 		block1 = null;
 		block2 = null;
-		observe = null;
+		size1 = NONE;
+		size2 = NONE;
+		observe = NONE;
 		if (others != null)
 			others.clear();
 	}
@@ -149,7 +158,10 @@ public final class OptionSet {
 		if (origin.block2 != null)
 			block2          = new BlockOption(origin.block2);
 		
-		observe = origin.observe;
+		// Size1 and Size2 are not copied
+		size1               = NONE;
+		size2               = NONE;
+		observe             = origin.observe;
 		
 		others              = copyList(origin.others);
 	}
@@ -388,7 +400,7 @@ public final class OptionSet {
 	 * @return the Uri-Port value or null if the option is not present
 	 */
 	public Integer getUriPort() {
-		return uri_port;
+		return hasUriPort() ? uri_port : null;
 	}
 
 	/**
@@ -396,7 +408,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasUriPort() {
-		return uri_port != null;
+		return uri_port != NONE;
 	}
 
 	/**
@@ -418,7 +430,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeUriPort() {
-		uri_port = null;
+		uri_port = NONE;
 		return this;
 	}
 
@@ -527,7 +539,8 @@ public final class OptionSet {
 	public List<String> getUriPath() {
 		synchronized (this) {
 			if (uri_path_list == null)
-				uri_path_list = new LinkedList<String>();
+				// the path is mostly iterated, an array avoids a node per segment
+				uri_path_list = new ArrayList<String>(4);
 		}
 		return uri_path_list;
 	}
@@ -615,7 +628,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasContentFormat() {
-		return content_format != null;
+		return content_format != NONE;
 	}
 
 	/**
@@ -627,7 +640,7 @@ public final class OptionSet {
 	 * @see MediaTypeRegistry
 	 */
 	public boolean isContentFormat(int format) {
-		return content_format != null && content_format == format;
+		return content_format != NONE && content_format == format;
 	}
 
 	/**
@@ -639,8 +652,7 @@ public final class OptionSet {
 	 * @see MediaTypeRegistry
 	 */
 	public OptionSet setContentFormat(int format) {
-		if (format > MediaTypeRegistry.UNDEFINED) content_format = format;
-		else content_format = null;
+		content_format = format > MediaTypeRegistry.UNDEFINED ? format : NONE;
 		return this;
 	}
 
@@ -650,7 +662,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeContentFormat() {
-		content_format = null;
+		content_format = NONE;
 		return this;
 	}
 	
@@ -659,8 +671,7 @@ public final class OptionSet {
 	 * @return the Max-Age in seconds
 	 */
 	public Long getMaxAge() {
-		Long m = max_age;
-		return m != null ? m : OptionNumberRegistry.Defaults.MAX_AGE;
+		return hasMaxAge() ? max_age : OptionNumberRegistry.Defaults.MAX_AGE;
 	}
 	
 	/**
@@ -669,7 +680,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasMaxAge() {
-		return max_age != null;
+		return max_age != NONE;
 	}
 	
 	/**
@@ -691,7 +702,7 @@ public final class OptionSet {
 	 * @return this Optionset
 	 */
 	public OptionSet removeMaxAge() {
-		max_age = null;
+		max_age = NONE;
 		return this;
 	}
 
@@ -799,7 +810,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasAccept() {
-		return accept != null;
+		return accept != NONE;
 	}
 
 	/**
@@ -808,7 +819,7 @@ public final class OptionSet {
 	 * @return true if equal
 	 */
 	public boolean isAccept(int format) {
-		return accept != null && accept == format;
+		return accept != NONE && accept == format;
 	}
 
 	/**
@@ -832,7 +843,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeAccept() {
-		accept = null;
+		accept = NONE;
 		return this;
 	}
 
@@ -1135,7 +1146,7 @@ public final class OptionSet {
 	 * @return the Size1 value or null if the option is not present
 	 */
 	public Integer getSize1() {
-		return size1;
+		return hasSize1() ? size1 : null;
 	}
 
 	/**
@@ -1143,7 +1154,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasSize1() {
-		return size1 != null;
+		return size1 != NONE;
 	}
 
 	/**
@@ -1153,6 +1164,8 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet setSize1(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("Size1 option must not be negative");
 		this.size1 = size;
 		return this;
 	}
@@ -1163,7 +1176,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeSize1() {
-		this.size1 = null;
+		this.size1 = NONE;
 		return this;
 	}
 
@@ -1172,7 +1185,7 @@ public final class OptionSet {
 	 * @return the Size2 value or null if the option is not present
 	 */
 	public Integer getSize2() {
-		return size2;
+		return hasSize2() ? size2 : null;
 	}
 
 	/**
@@ -1180,7 +1193,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasSize2() {
-		return size2 != null;
+		return size2 != NONE;
 	}
 
 	/**
@@ -1190,6 +1203,8 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet setSize2(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("Size2 option must not be negative");
 		this.size2 = size;
 		return this;
 	}
@@ -1200,7 +1215,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeSize2() {
-		this.size2 = null;
+		this.size2 = NONE;
 		return this;
 	}
 
@@ -1209,7 +1224,7 @@ public final class OptionSet {
 	 * @return the Observe value or null if the option is not present
 	 */
 	public Integer getObserve() {
-		return observe;
+		return hasObserve() ? observe : null;
 	}
 
 	/**
@@ -1217,7 +1232,7 @@ public final class OptionSet {
 	 * @return true if present
 	 */
 	public boolean hasObserve() {
-		return observe != null;
+		return observe != NONE;
 	}
 
 	/**
@@ -1244,7 +1259,7 @@ public final class OptionSet {
 	 * @return this OptionSet
 	 */
 	public OptionSet removeObserve() {
-		observe = null;
+		observe = NONE;
 		return this;
 	}
 
@@ -1308,7 +1323,7 @@ public final class OptionSet {
 		if (hasIfNoneMatch())
 			options.add(new Option(OptionNumberRegistry.IF_NONE_MATCH));
 		if (hasUriPort())
-			options.add(new Option(OptionNumberRegistry.URI_PORT, getUriPort()));
+			options.add(new Option(OptionNumberRegistry.URI_PORT, uri_port));
 		if (location_path_list != null) for (String str:location_path_list)
 			options.add(new Option(OptionNumberRegistry.LOCATION_PATH, str));
 		if (uri_path_list != null) for (String str:uri_path_list)
@@ -1316,7 +1331,7 @@ public final class OptionSet {
 		if (hasContentFormat())
 			options.add(new Option(OptionNumberRegistry.CONTENT_FORMAT, getContentFormat()));
 		if (hasMaxAge())
-			options.add(new Option(OptionNumberRegistry.MAX_AGE, getMaxAge()));
+			options.add(new Option(OptionNumberRegistry.MAX_AGE, max_age));
 		if (uri_query_list != null) for (String str:uri_query_list)
 			options.add(new Option(OptionNumberRegistry.URI_QUERY, str));
 		if (hasAccept())
@@ -1329,16 +1344,16 @@ public final class OptionSet {
 			options.add(new Option(OptionNumberRegistry.PROXY_SCHEME, getProxyScheme()));
 		
 		if (hasObserve())
-			options.add(new Option(OptionNumberRegistry.OBSERVE, getObserve()));
+			options.add(new Option(OptionNumberRegistry.OBSERVE, observe));
 		
 		if (hasBlock1())
 			options.add(new Option(OptionNumberRegistry.BLOCK1, getBlock1().getValue()));
 		if (hasBlock2())
 			options.add(new Option(OptionNumberRegistry.BLOCK2, getBlock2().getValue()));
 		if (hasSize1())
-			options.add(new Option(OptionNumberRegistry.SIZE1, getSize1()));
+			options.add(new Option(OptionNumberRegistry.SIZE1, size1));
 		if (hasSize2())
-			options.add(new Option(OptionNumberRegistry.SIZE2, getSize2()));
+			options.add(new Option(OptionNumberRegistry.SIZE2, size2));
 		
 		if (others != null)
 			options.addAll(others);
@@ -25,6 +25,7 @@
  *                                                    set scheme on setOptions(URI)
  *    Achim Kraus (Bosch Software Innovations GmbH) - remove lazy lock for responses
  *    Achim Kraus (Bosch Software Innovations GmbH) - fix empty uri query in getURI()
+ *    Bosch Software Innovations GmbH - add consumer for streaming blockwise responses
  ******************************************************************************/
 package org.eclipse.californium.core.coap;
 
@@ -116,6 +117,9 @@ public class Request extends Message {
 	/** the authenticated (remote) sender's identity **/
 	private Principal senderIdentity;
 
+	/** The consumer for the blocks of a blockwise transferred response */
+	private volatile BlockConsumer responseConsumer;
+
 	/**
 	 * Creates a request of type {@code CON} for a CoAP code.
 	 * 
@@ -208,6 +212,17 @@ public class Request extends Message {
 		return this;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Required in Request to keep class for fluent API.
+	 */
+	@Override
+	public Request setPayloadSource(BlockSource source) {
+		super.setPayloadSource(source);
+		return this;
+	}
+
 	/**
 	 * Sets this request's CoAP URI.
 	 * 
@@ -417,6 +432,31 @@ public class Request extends Message {
 		return this.senderIdentity;
 	}
 
+	/**
+	 * Sets a consumer for the body of a blockwise transferred response to
+	 * this request.
+	 * <p>
+	 * The blocks of the response are passed to the consumer as they arrive
+	 * instead of being assembled into the response's payload.
+	 * 
+	 * @param consumer the consumer or {@code null} to assemble the body
+	 * @return this request
+	 */
+	public Request setResponseConsumer(final BlockConsumer consumer) {
+		this.responseConsumer = consumer;
+		return this;
+	}
+
+	/**
+	 * Gets the consumer for the body of a blockwise transferred response to
+	 * this request.
+	 * 
+	 * @return the consumer or {@code null} if the body is assembled
+	 */
+	public BlockConsumer getResponseConsumer() {
+		return responseConsumer;
+	}
+
 	/**
 	 * Sets the authenticated (remote) sender's identity.
 	 * 
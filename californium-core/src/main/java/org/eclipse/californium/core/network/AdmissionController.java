@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
+
+/**
+ * Detects overload of an endpoint's protocol stage.
+ * <p>
+ * The controller keeps track of the number of inbound messages waiting for
+ * the protocol stage and of the average time they have been waiting. The
+ * endpoint is considered overloaded if either exceeds its limit. The
+ * endpoint then sheds new requests before submitting them to the protocol
+ * stage.
+ * <p>
+ * The average waiting time is a moving average which is updated without
+ * synchronization. It is an approximation only, which is sufficient for
+ * detecting overload. The average is halved for every period of the latency
+ * limit in which no message has been processed, so that the endpoint
+ * recovers from a burst once it has become idle. A protocol stage which has
+ * stopped processing messages altogether is detected by the queue depth
+ * limit only.
+ * <p>
+ * The controller also keeps track of the message IDs of requests which have
+ * been submitted to the protocol stage but have not been processed yet, so
+ * that their retransmissions are not shed.
+ */
+public class AdmissionController {
+
+	private final int maxQueueDepth;
+	private final long maxLatency;
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private final AtomicLong latency = new AtomicLong();
+	private final AtomicLong lastDequeued = new AtomicLong(System.nanoTime());
+	private final Set<KeyMID> admitted = Collections.newSetFromMap(new ConcurrentHashMap<KeyMID, Boolean>());
+
+	/**
+	 * Creates a controller for configuration values.
+	 * <p>
+	 * The limits are read from {@link NetworkConfig.Keys#OVERLOAD_QUEUE_DEPTH}
+	 * and {@link NetworkConfig.Keys#OVERLOAD_LATENCY}.
+	 *
+	 * @param config The configuration values to use.
+	 */
+	public AdmissionController(final NetworkConfig config) {
+		this(config.getInt(NetworkConfig.Keys.OVERLOAD_QUEUE_DEPTH, NetworkConfigDefaults.DEFAULT_OVERLOAD_QUEUE_DEPTH),
+				config.getLong(NetworkConfig.Keys.OVERLOAD_LATENCY, NetworkConfigDefaults.DEFAULT_OVERLOAD_LATENCY));
+	}
+
+	/**
+	 * Creates a controller for limits.
+	 *
+	 * @param maxQueueDepth The number of waiting messages at which the
+	 *            endpoint is overloaded.
+	 * @param maxLatency The average waiting time (in milliseconds) above
+	 *            which the endpoint is overloaded.
+	 * @throws IllegalArgumentException if any of the limits is &lt; 1.
+	 */
+	public AdmissionController(final int maxQueueDepth, final long maxLatency) {
+		if (maxQueueDepth < 1) {
+			throw new IllegalArgumentException("queue depth must be at least 1");
+		} else if (maxLatency < 1) {
+			throw new IllegalArgumentException("latency must be at least 1 ms");
+		}
+		this.maxQueueDepth = maxQueueDepth;
+		this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+	}
+
+	/**
+	 * Checks whether the endpoint is overloaded.
+	 * <p>
+	 * The endpoint is overloaded if the number of waiting messages has
+	 * reached its limit, or if messages are waiting and the average waiting
+	 * time exceeds its limit.
+	 *
+	 * @return {@code true} if new requests should be shed.
+	 */
+	public boolean isOverloaded() {
+		int depth = queueDepth.get();
+		return depth >= maxQueueDepth || (depth > 0 && getAverageLatency(System.nanoTime()) > maxLatency);
+	}
+
+	/**
+	 * Notifies this controller that a message has been submitted to the
+	 * protocol stage.
+	 *
+	 * @return The time of submission, to be passed in to
+	 *         {@link #dequeued(long)}.
+	 */
+	public long enqueued() {
+		queueDepth.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Notifies this controller that the protocol stage has started to
+	 * process a message.
+	 *
+	 * @param enqueueTime The time of submission as returned by
+	 *            {@link #enqueued()}.
+	 */
+	public void dequeued(final long enqueueTime) {
+		queueDepth.decrementAndGet();
+		long now = System.nanoTime();
+		long sample = now - enqueueTime;
+		long average = getAverageLatency(now);
+		// exponentially weighted moving average with weight 1/8
+		latency.set(average + ((sample - average) >> 3));
+		lastDequeued.set(now);
+	}
+
+	/**
+	 * Notifies this controller that a request has been submitted to the
+	 * protocol stage.
+	 *
+	 * @param mid The message ID of the request.
+	 */
+	public void admitted(final KeyMID mid) {
+		admitted.add(mid);
+	}
+
+	/**
+	 * Notifies this controller that the protocol stage has processed a
+	 * request.
+	 *
+	 * @param mid The message ID of the request.
+	 */
+	public void processed(final KeyMID mid) {
+		admitted.remove(mid);
+	}
+
+	/**
+	 * Checks whether a request has been submitted to the protocol stage but
+	 * has not been processed yet.
+	 *
+	 * @param mid The message ID of the request.
+	 * @return {@code true} if the request is waiting for or being processed
+	 *         by the protocol stage.
+	 */
+	public boolean isAdmitted(final KeyMID mid) {
+		return admitted.contains(mid);
+	}
+
+	private long getAverageLatency(final long now) {
+		long average = latency.get();
+		long idle = now - lastDequeued.get();
+		if (idle >= maxLatency) {
+			long halvings = idle / maxLatency;
+			average = halvings >= Long.SIZE ? 0 : average >> halvings;
+		}
+		return average;
+	}
+
+	/**
+	 * Gets the number of messages waiting for the protocol stage.
+	 *
+	 * @return The number of messages.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Gets the average time messages have been waiting for the protocol
+	 * stage.
+	 *
+	 * @return The time in milliseconds.
+	 */
+	public long getLatency() {
+		return TimeUnit.NANOSECONDS.toMillis(getAverageLatency(System.nanoTime()));
+	}
+}
@@ -29,11 +29,18 @@
  *                                                    BaseMatcher final
  *    Achim Kraus (Bosch Software Innovations GmbH) - call Exchange.setComplete() for all
  *                                                    canceled messages
+ *    Bosch Software Innovations GmbH - support for sharing a timer service
+ *    Bosch Software Innovations GmbH - support for sharing observations
+ *                                      by means of an ObservationStore
+ *    Bosch Software Innovations GmbH - support for sharing threads by means
+ *                                      of a CoapRuntime
+ *    Bosch Software Innovations GmbH - shed new requests when overloaded
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -43,15 +50,19 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.CoAPMessageFormatException;
 import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.coap.MessageFormatException;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.EndpointManager.ClientMessageDeliverer;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
 import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
 import org.eclipse.californium.core.network.serialization.DataParser;
 import org.eclipse.californium.core.network.serialization.DataSerializer;
@@ -59,12 +70,18 @@ import org.eclipse.californium.core.network.serialization.TcpDataParser;
 import org.eclipse.californium.core.network.serialization.TcpDataSerializer;
 import org.eclipse.californium.core.network.serialization.UdpDataParser;
 import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.core.network.stack.BaseCoapStack;
 import org.eclipse.californium.core.network.stack.BlockwiseLayer;
 import org.eclipse.californium.core.network.stack.CoapStack;
 import org.eclipse.californium.core.network.stack.CoapTcpStack;
 import org.eclipse.californium.core.network.stack.CoapUdpStack;
 import org.eclipse.californium.core.network.stack.ObserveLayer;
 import org.eclipse.californium.core.network.stack.ReliabilityLayer;
+import org.eclipse.californium.core.network.timer.ExecutorTimerService;
+import org.eclipse.californium.core.network.timer.HashedWheelTimer;
+import org.eclipse.californium.core.network.timer.TimerService;
+import org.eclipse.californium.core.observe.NotificationListener;
+import org.eclipse.californium.core.observe.ObservationStore;
 import org.eclipse.californium.core.server.MessageDeliverer;
 import org.eclipse.californium.elements.Connector;
 import org.eclipse.californium.elements.CorrelationContext;
@@ -130,7 +147,8 @@ import org.eclipse.californium.elements.util.DaemonThreadFactory;
  * </pre>
  * <p>
  * The endpoint and its layers use an {@link ScheduledExecutorService} to
- * execute tasks, e.g., when a request arrives.
+ * execute tasks, e.g., when a request arrives. Multiple endpoints can share
+ * their threads by means of a {@link CoapRuntime}.
  */
 public class CoapEndpoint implements Endpoint {
 	
@@ -155,8 +173,20 @@ public class CoapEndpoint implements Endpoint {
 	/** Parser to convert datagrams to messages. */
 	private final DataParser parser;
 
+	/** Detects overload of the protocol stage or {@code null} if disabled */
+	private final AdmissionController admissionController;
+
+	/** The Max-Age of responses sent when overloaded */
+	private final int overloadMaxAge;
+
+	/** The store keeping track of message exchanges */
+	private final MessageExchangeStore exchangeStore;
+
 	/** The executor to run tasks for this endpoint and its layers */
 	private ScheduledExecutorService executor;
+
+	/** The runtime shared with other endpoints, if any */
+	private CoapRuntime runtime;
 	
 	/** Indicates if the endpoint has been started */
 	private boolean started;
@@ -167,6 +197,9 @@ public class CoapEndpoint implements Endpoint {
 	/** The list of interceptors */
 	private List<MessageInterceptor> interceptors = new CopyOnWriteArrayList<>();
 
+	/** The list of listeners for notifications of stored observations */
+	private List<NotificationListener> notificationListeners = new CopyOnWriteArrayList<>();
+
 	/**
 	 * Creates a new <em>coap</em> endpoint using default configuration.
 	 * <p>
@@ -261,11 +294,33 @@ public class CoapEndpoint implements Endpoint {
 	 * @param exchangeStore the store to use for keeping track of message exchanges.
 	 */
 	public CoapEndpoint(final Connector connector, final NetworkConfig config, final MessageExchangeStore exchangeStore) {
+		this(connector, config, exchangeStore, null);
+	}
+
+	/**
+	 * Creates a new endpoint for a connector, configuration, message exchange
+	 * store and observation store.
+	 * <p>
+	 * The observation store is used for keeping track of the observe requests
+	 * sent by this endpoint. Notifications for observations this endpoint has
+	 * no exchange for are looked up in the observation store and passed to
+	 * the registered {@link NotificationListener}s. The observation store is
+	 * only supported by UDP based connectors.
+	 *
+	 * @param connector the connector
+	 * @param config the config
+	 * @param exchangeStore the store to use for keeping track of message exchanges.
+	 * @param observationStore the store to use for keeping track of observations,
+	 *            or {@code null} if observations are not shared.
+	 */
+	public CoapEndpoint(final Connector connector, final NetworkConfig config, final MessageExchangeStore exchangeStore,
+			final ObservationStore observationStore) {
 		this.config = config;
 		this.connector = connector;
 		this.connector.setRawDataReceiver(new InboxImpl());
 		MessageExchangeStore localExchangeStore = (null != exchangeStore) ? exchangeStore
 				: new InMemoryMessageExchangeStore(config);
+		this.exchangeStore = localExchangeStore;
 
 		// To make TCP support backwards compatible using less clean "instanceof" shortcut in 1.1 branch.
 		// In 2.0 branch, the connector API has been expected to export a new isSchemeSupported(String scheme)
@@ -275,12 +330,21 @@ public class CoapEndpoint implements Endpoint {
 			this.coapstack = new CoapTcpStack(config, new OutboxImpl());
 			this.serializer = new TcpDataSerializer();
 			this.parser = new TcpDataParser();
+			this.admissionController = null;
 		} else {
-			this.matcher = new UdpMatcher(config, localExchangeStore);
+			this.matcher = new UdpMatcher(config, localExchangeStore, observationStore, new NotificationDispatcher());
 			this.coapstack = new CoapUdpStack(config, new OutboxImpl());
 			this.serializer = new UdpDataSerializer();
 			this.parser = new UdpDataParser();
+			if (config.getBoolean(NetworkConfig.Keys.USE_OVERLOAD_PROTECTION)) {
+				LOGGER.log(Level.CONFIG, "Enabling overload protection");
+				this.admissionController = new AdmissionController(config);
+			} else {
+				this.admissionController = null;
+			}
 		}
+		this.overloadMaxAge = config.getInt(NetworkConfig.Keys.OVERLOAD_MAX_AGE,
+				NetworkConfigDefaults.DEFAULT_OVERLOAD_MAX_AGE);
 	}
 
 	/**
@@ -417,6 +481,70 @@ public class CoapEndpoint implements Endpoint {
 		this.coapstack.setExecutor(executor);
 	}
 
+	/**
+	 * Sets the timer service to use for scheduling retransmissions and
+	 * other time outs.
+	 * <p>
+	 * By default, the endpoint's CoAP stack runs expired tasks on the
+	 * endpoint's executor. Stacks using the default timer configuration share
+	 * a single timer thread (see {@link ExecutorTimerService#onSharedTimer(java.util.concurrent.Executor)}),
+	 * other stacks use a {@link HashedWheelTimer} of their own.
+	 * This method can be used to share a single timer service among
+	 * multiple endpoints. The endpoint does not stop the given timer service
+	 * when it is destroyed.
+	 * <p>
+	 * The timer service is ignored if the endpoint's CoAP stack does not
+	 * extend {@link BaseCoapStack}.
+	 * 
+	 * @param timer The timer service.
+	 */
+	public synchronized void setTimer(final TimerService timer) {
+		if (coapstack instanceof BaseCoapStack) {
+			((BaseCoapStack) coapstack).setTimer(timer);
+		} else {
+			LOGGER.log(Level.WARNING, "CoAP stack of endpoint [{0}] does not support setting a timer service",
+					getAddress());
+		}
+	}
+
+	/**
+	 * Sets the runtime to share threads with other endpoints.
+	 * <p>
+	 * The endpoint uses the runtime's worker pool as its executor and the
+	 * runtime's timer service for its CoAP stack. If the endpoint uses an
+	 * {@link InMemoryMessageExchangeStore}, the store and its deduplicator
+	 * run their periodic tasks on the worker pool as well.
+	 * <p>
+	 * The endpoint does not destroy the runtime when it is destroyed.
+	 * 
+	 * @param runtime The runtime.
+	 * @throws NullPointerException if the runtime is {@code null}.
+	 * @throws IllegalStateException if this endpoint is already started.
+	 */
+	public synchronized void setRuntime(final CoapRuntime runtime) {
+		if (runtime == null) {
+			throw new NullPointerException("runtime must not be null");
+		} else if (started) {
+			throw new IllegalStateException("runtime can not be set on running endpoint");
+		}
+		this.runtime = runtime;
+		setExecutor(runtime.getExecutor());
+		setTimer(runtime.getTimer());
+		if (exchangeStore instanceof InMemoryMessageExchangeStore) {
+			((InMemoryMessageExchangeStore) exchangeStore).setExecutor(runtime.getExecutor());
+		}
+	}
+
+	/**
+	 * Gets the runtime this endpoint shares its threads with.
+	 * 
+	 * @return The runtime or {@code null} if the endpoint uses threads
+	 *         of its own.
+	 */
+	public synchronized CoapRuntime getRuntime() {
+		return runtime;
+	}
+
 	@Override
 	public void addObserver(final EndpointObserver observer) {
 		observers.add(observer);
@@ -442,6 +570,25 @@ public class CoapEndpoint implements Endpoint {
 		return Collections.unmodifiableList(interceptors);
 	}
 
+	/**
+	 * Adds a listener for notifications of observations looked up in this
+	 * endpoint's observation store.
+	 *
+	 * @param listener the listener
+	 */
+	public void addNotificationListener(final NotificationListener listener) {
+		notificationListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener for notifications of observations.
+	 *
+	 * @param listener the listener
+	 */
+	public void removeNotificationListener(final NotificationListener listener) {
+		notificationListeners.remove(listener);
+	}
+
 	@Override
 	public void sendRequest(final Request request) {
 		// always use endpoint executor
@@ -618,6 +765,23 @@ public class CoapEndpoint implements Endpoint {
 		}
 	}
 
+	/**
+	 * Passes notifications of stored observations to the registered listeners.
+	 */
+	private class NotificationDispatcher implements NotificationListener {
+
+		@Override
+		public void onNotification(final Request request, final Response response) {
+			for (NotificationListener listener : notificationListeners) {
+				try {
+					listener.onNotification(request, response);
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Exception while notifying listener", e);
+				}
+			}
+		}
+	}
+
 	/**
 	 * The connector uses this channel to forward messages (in form of
 	 * {@link RawData}) to the endpoint. The endpoint creates a new task to
@@ -633,6 +797,30 @@ public class CoapEndpoint implements Endpoint {
 				throw new IllegalArgumentException("received message that does not have a source address");
 			} else if (raw.getPort() == 0) {
 				throw new IllegalArgumentException("received message that does not have a source port");
+			} else if (admissionController != null) {
+
+				final KeyMID requestMid = getRequestMid(raw);
+				if (requestMid != null) {
+					if (admissionController.isOverloaded() && shedLoad(raw, requestMid)) {
+						return;
+					}
+					admissionController.admitted(requestMid);
+				}
+				// Create a new task to process this message
+				final long enqueueTime = admissionController.enqueued();
+				runInProtocolStage(new Runnable() {
+					@Override
+					public void run() {
+						admissionController.dequeued(enqueueTime);
+						try {
+							receiveMessage(raw);
+						} finally {
+							if (requestMid != null) {
+								admissionController.processed(requestMid);
+							}
+						}
+					}
+				});
 			} else {
 
 				// Create a new task to process this message
@@ -645,6 +833,69 @@ public class CoapEndpoint implements Endpoint {
 			}
 		}
 
+		/*
+		 * Gets the message ID of a request by reading the header only. Returns
+		 * null for all other messages, including malformed ones, which are
+		 * left to the parser.
+		 */
+		private KeyMID getRequestMid(final RawData raw) {
+
+			byte[] bytes = raw.getBytes();
+			if (bytes == null || bytes.length < 4) {
+				return null;
+			}
+			int version = (bytes[0] & 0xC0) >> 6;
+			int tokenLength = bytes[0] & 0x0F;
+			int code = bytes[1] & 0xFF;
+			if (version != CoAP.VERSION || !CoAP.isRequest(code) || tokenLength > 8
+					|| bytes.length < 4 + tokenLength) {
+				return null;
+			}
+			int mid = ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+			return new KeyMID(mid, raw.getAddress().getAddress(), raw.getPort());
+		}
+
+		/*
+		 * Sheds a new request while the protocol stage is overloaded. Only the
+		 * header, token and options are read. Requests that belong to ongoing
+		 * interactions are left for the protocol stage: retransmitted requests
+		 * are answered by the deduplicator or are still waiting for the
+		 * protocol stage, and requests for subsequent blocks of a blockwise
+		 * transfer continue transfers that have already been admitted.
+		 * A CON request is answered by a 5.03 response with a Max-Age telling
+		 * the client when to retry, a NON request is dropped.
+		 */
+		private boolean shedLoad(final RawData raw, final KeyMID idByMID) {
+
+			if (exchangeStore.find(idByMID) != null || admissionController.isAdmitted(idByMID)) {
+				return false;
+			}
+			byte[] bytes = raw.getBytes();
+			int type = (bytes[0] & 0x30) >> 4;
+			int tokenLength = bytes[0] & 0x0F;
+			if (hasSubsequentBlock(bytes, 4 + tokenLength)) {
+				return false;
+			}
+
+			if (type == Type.CON.value) {
+				Response response = new Response(ResponseCode.SERVICE_UNAVAILABLE);
+				response.setType(Type.ACK);
+				response.setMID(((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF));
+				response.setToken(Arrays.copyOfRange(bytes, 4, 4 + tokenLength));
+				response.setDestination(raw.getAddress());
+				response.setDestinationPort(raw.getPort());
+				response.getOptions().setMaxAge(overloadMaxAge);
+				connector.send(serializer.serializeResponse(response));
+				LOGGER.log(Level.FINER, "overloaded, rejected request from [{0}]", raw.getInetSocketAddress());
+				return true;
+			} else if (type == Type.NON.value) {
+				LOGGER.log(Level.FINER, "overloaded, dropped request from [{0}]", raw.getInetSocketAddress());
+				return true;
+			} else {
+				return false;
+			}
+		}
+
 		/*
 		 * The endpoint's executor executes this method to convert the raw bytes
 		 * into a message, look for an associated exchange and forward it to
@@ -791,6 +1042,73 @@ public class CoapEndpoint implements Endpoint {
 		}
 	}
 
+	/**
+	 * Checks whether the options of a message contain a Block1 or Block2
+	 * option with a block number greater than 0.
+	 * <p>
+	 * Malformed options are reported as subsequent block, so that the message
+	 * is left to the parser.
+	 * 
+	 * @param bytes the message in wire format.
+	 * @param offset the offset of the first option.
+	 * @return {@code true} if the message contains a subsequent block.
+	 */
+	private static boolean hasSubsequentBlock(final byte[] bytes, final int offset) {
+		int index = offset;
+		int number = 0;
+		while (index < bytes.length && bytes[index] != (byte) 0xFF) {
+			int delta = (bytes[index] & 0xF0) >> 4;
+			int length = bytes[index] & 0x0F;
+			index++;
+			if (delta == 13) {
+				if (index >= bytes.length) {
+					return true;
+				}
+				delta = (bytes[index++] & 0xFF) + 13;
+			} else if (delta == 14) {
+				if (index + 1 >= bytes.length) {
+					return true;
+				}
+				delta = ((bytes[index] & 0xFF) << 8 | (bytes[index + 1] & 0xFF)) + 269;
+				index += 2;
+			} else if (delta == 15) {
+				return true;
+			}
+			if (length == 13) {
+				if (index >= bytes.length) {
+					return true;
+				}
+				length = (bytes[index++] & 0xFF) + 13;
+			} else if (length == 14) {
+				if (index + 1 >= bytes.length) {
+					return true;
+				}
+				length = ((bytes[index] & 0xFF) << 8 | (bytes[index + 1] & 0xFF)) + 269;
+				index += 2;
+			} else if (length == 15) {
+				return true;
+			}
+			if (index + length > bytes.length) {
+				return true;
+			}
+			number += delta;
+			if (number == OptionNumberRegistry.BLOCK1 || number == OptionNumberRegistry.BLOCK2) {
+				int value = 0;
+				for (int i = 0; i < length; i++) {
+					value = (value << 8) | (bytes[index + i] & 0xFF);
+				}
+				if (value >> 4 > 0) {
+					return true;
+				}
+			} else if (number > OptionNumberRegistry.BLOCK1) {
+				// options are ordered by number
+				return false;
+			}
+			index += length;
+		}
+		return false;
+	}
+
 	/**
 	 * Execute the specified task on the endpoint's executor (protocol stage).
 	 *
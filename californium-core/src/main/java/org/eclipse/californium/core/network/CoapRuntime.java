@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.timer.HashedWheelTimer;
+import org.eclipse.californium.core.network.timer.TimerService;
+import org.eclipse.californium.elements.util.NamedThreadFactory;
+
+/**
+ * The threads shared by a set of endpoints.
+ * <p>
+ * A runtime consists of a sized worker pool for the protocol stage and a
+ * single timer service for retransmissions and other time outs. Endpoints
+ * using the same runtime run all their tasks on these threads, including the
+ * periodic tasks of their exchange store and deduplicator. This keeps the
+ * number of threads independent of the number of endpoints, e.g. when a
+ * server listens on IPv4, IPv6, DTLS and TCP for each network interface.
+ * <p>
+ * A runtime is passed to an endpoint by means of
+ * {@link CoapEndpoint#setRuntime(CoapRuntime)} before the endpoint is
+ * started. A {@code CoapServer} creates a runtime of its own and passes it to
+ * all of its endpoints.
+ * <p>
+ * Destroying an endpoint does not affect its runtime. The runtime needs to
+ * be destroyed explicitly once all endpoints using it have been destroyed.
+ */
+public final class CoapRuntime {
+
+	private static final Logger LOGGER = Logger.getLogger(CoapRuntime.class.getCanonicalName());
+
+	private final ScheduledExecutorService executor;
+	private final TimerService timer;
+
+	/**
+	 * Creates a runtime for configuration values.
+	 * <p>
+	 * The worker pool is sized according to
+	 * {@link NetworkConfig.Keys#PROTOCOL_STAGE_THREAD_COUNT}. The timer
+	 * service is configured using {@link NetworkConfig.Keys#TIMER_TICK_DURATION}
+	 * and {@link NetworkConfig.Keys#TIMER_WHEEL_SIZE}.
+	 *
+	 * @param config The configuration values to use.
+	 * @throws NullPointerException if the configuration is {@code null}.
+	 */
+	public CoapRuntime(final NetworkConfig config) {
+		this(Executors.newScheduledThreadPool(//
+				config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT), //
+				new NamedThreadFactory("CoapRuntime#")), config); //$NON-NLS-1$
+	}
+
+	/**
+	 * Creates a runtime for an existing worker pool.
+	 * <p>
+	 * The runtime takes ownership of the worker pool, i.e. the pool is shut
+	 * down when the runtime is destroyed.
+	 *
+	 * @param executor The worker pool to run the protocol stage on.
+	 * @param config The configuration values to use for the timer service.
+	 * @throws NullPointerException if any of the parameters is {@code null}.
+	 */
+	public CoapRuntime(final ScheduledExecutorService executor, final NetworkConfig config) {
+		if (executor == null) {
+			throw new NullPointerException("executor must not be null");
+		} else if (config == null) {
+			throw new NullPointerException("config must not be null");
+		}
+		this.executor = executor;
+		this.timer = new HashedWheelTimer(executor, config.getLong(NetworkConfig.Keys.TIMER_TICK_DURATION),
+				TimeUnit.MILLISECONDS, config.getInt(NetworkConfig.Keys.TIMER_WHEEL_SIZE));
+	}
+
+	/**
+	 * Gets the worker pool.
+	 *
+	 * @return The executor to run tasks on.
+	 */
+	public ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Gets the timer service.
+	 * <p>
+	 * Expired tasks are run on this runtime's worker pool.
+	 *
+	 * @return The timer service.
+	 */
+	public TimerService getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Checks whether this runtime has been destroyed.
+	 *
+	 * @return {@code true} if the worker pool has been shut down.
+	 */
+	public boolean isDestroyed() {
+		return executor.isShutdown();
+	}
+
+	/**
+	 * Stops the timer service and shuts down the worker pool.
+	 * <p>
+	 * Tasks currently being executed are given one second to complete.
+	 * Tasks scheduled for later are discarded.
+	 */
+	public void destroy() {
+		timer.stop();
+		// prevent new tasks from being submitted
+		executor.shutdown();
+		try {
+			// wait for currently executing tasks to complete
+			if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// cancel still executing tasks
+				// and ignore all remaining tasks scheduled for later
+				List<Runnable> runningTasks = executor.shutdownNow();
+				if (runningTasks.size() > 0) {
+					LOGGER.log(Level.FINE, "Ignoring remaining {0} scheduled task(s)", runningTasks.size());
+				}
+				// wait for executing tasks to respond to being cancelled
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
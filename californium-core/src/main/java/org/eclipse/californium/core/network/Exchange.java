@@ -25,12 +25,16 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - don't pass CorrelationContext to
  *                                                    ExchangeObserver.
  *                                                    issue #311
+ *    Bosch Software Innovations GmbH - use timer service handles
+ *    Bosch Software Innovations GmbH - keep timeout handles in volatile fields
+ *                                      instead of AtomicReference instances
+ *    Bosch Software Innovations GmbH - remember blocks piggy-backed on ACKs of
+ *                                      parallel block requests
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
 import java.util.Arrays;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.coap.BlockOption;
@@ -42,6 +46,7 @@ import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.stack.BlockwiseLayer;
 import org.eclipse.californium.core.network.stack.BlockwiseStatus;
 import org.eclipse.californium.core.network.stack.CoapStack;
+import org.eclipse.californium.core.network.timer.Timeout;
 import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.elements.CorrelationContext;
@@ -79,6 +84,12 @@ import org.eclipse.californium.elements.CorrelationContext;
  */
 public class Exchange {
 
+	/**
+	 * The number of response blocks piggy-backed on ACKs that are remembered
+	 * for answering duplicate requests.
+	 */
+	public static final int MAX_PIGGYBACKED_BLOCKS = 16;
+
 	/**
 	 * The origin of an exchange. If Cf receives a new request and creates a new
 	 * exchange the origin is REMOTE since the request has been initiated from a
@@ -137,6 +148,14 @@ public class Exchange {
 	// Matching needs to know when receiving duplicate
 	private volatile Response currentResponse;
 
+	/**
+	 * The most recent response blocks piggy-backed on the ACKs of requests for
+	 * further blocks, indexed by the ACK's MID. A peer may request several
+	 * blocks in parallel, so duplicates of these requests cannot be answered
+	 * with the current response. Created on demand, guarded by this exchange.
+	 */
+	private Response[] piggybackedBlocks;
+
 	/**
 	 * The status of the blockwise transfer. null in case of a normal transfer
 	 */
@@ -156,10 +175,10 @@ public class Exchange {
 	private volatile int failedTransmissionCount = 0;
 
 	// handle to cancel retransmission
-	private final AtomicReference<ScheduledFuture<?>> retransmissionHandle = new AtomicReference<ScheduledFuture<?>>();
+	private volatile Timeout retransmissionHandle;
 
 	// handle to extend blockwise status lifetime
-	private AtomicReference<ScheduledFuture<?>> blockCleanupHandle = new AtomicReference<ScheduledFuture<?>>();
+	private volatile Timeout blockCleanupHandle;
 
 	// If the request was sent with a block1 option the response has to send its
 	// first block piggy-backed with the Block1 option of the last request block
@@ -175,6 +194,12 @@ public class Exchange {
 
 	private volatile CorrelationContext correlationContext;
 
+	// updaters saving two AtomicReference instances per exchange
+	private static final AtomicReferenceFieldUpdater<Exchange, Timeout> RETRANSMISSION_HANDLE = AtomicReferenceFieldUpdater
+			.newUpdater(Exchange.class, Timeout.class, "retransmissionHandle");
+	private static final AtomicReferenceFieldUpdater<Exchange, Timeout> BLOCK_CLEANUP_HANDLE = AtomicReferenceFieldUpdater
+			.newUpdater(Exchange.class, Timeout.class, "blockCleanupHandle");
+
 	/**
 	 * Creates a new exchange with the specified request and origin.
 	 * 
@@ -354,6 +379,45 @@ public class Exchange {
 		this.currentResponse = currentResponse;
 	}
 
+	/**
+	 * Remembers a response block piggy-backed on the ACK for a request for
+	 * a block.
+	 * <p>
+	 * Only the blocks sent for the most recent {@value #MAX_PIGGYBACKED_BLOCKS}
+	 * (consecutive) MIDs are kept.
+	 * 
+	 * @param block The block. Its MID must be set.
+	 * @throws IllegalArgumentException if the block has no MID.
+	 * @see #getPiggybackedBlock(int)
+	 */
+	public synchronized void addPiggybackedBlock(Response block) {
+		if (!block.hasMID()) {
+			throw new IllegalArgumentException("block must have a MID");
+		}
+		if (piggybackedBlocks == null) {
+			piggybackedBlocks = new Response[MAX_PIGGYBACKED_BLOCKS];
+		}
+		piggybackedBlocks[block.getMID() % MAX_PIGGYBACKED_BLOCKS] = block;
+	}
+
+	/**
+	 * Gets the response block piggy-backed on the ACK with a given MID.
+	 * 
+	 * @param mid The MID of the ACK, i.e. of the request for the block.
+	 * @return The block or {@code null} if no block has been piggy-backed on
+	 *         the ACK or if it is no longer remembered.
+	 * @see #addPiggybackedBlock(Response)
+	 */
+	public synchronized Response getPiggybackedBlock(int mid) {
+		if (piggybackedBlocks != null) {
+			Response block = piggybackedBlocks[mid % MAX_PIGGYBACKED_BLOCKS];
+			if (block != null && block.getMID() == mid) {
+				return block;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Returns the blockwise transfer status of the response or null if no one
 	 * is set.
@@ -442,27 +506,27 @@ public class Exchange {
 		this.currentTimeout = currentTimeout;
 	}
 
-	public ScheduledFuture<?> getRetransmissionHandle() {
-		return retransmissionHandle.get();
+	public Timeout getRetransmissionHandle() {
+		return retransmissionHandle;
 	}
 
-	public void setRetransmissionHandle(ScheduledFuture<?> retransmissionHandle) {
+	public void setRetransmissionHandle(Timeout retransmissionHandle) {
 		// avoid race condition of multiple responses (e.g., notifications)
-		ScheduledFuture<?> previous = this.retransmissionHandle.getAndSet(retransmissionHandle);
+		Timeout previous = RETRANSMISSION_HANDLE.getAndSet(this, retransmissionHandle);
 		if (previous != null) {
-			previous.cancel(false);
+			previous.cancel();
 		}
 	}
 
-	public ScheduledFuture<?> getBlockCleanupHandle() {
-		return blockCleanupHandle.get();
+	public Timeout getBlockCleanupHandle() {
+		return blockCleanupHandle;
 	}
 
-	public void setBlockCleanupHandle(final ScheduledFuture<?> blockCleanupHandle) {
+	public void setBlockCleanupHandle(final Timeout blockCleanupHandle) {
 		// avoid race condition of multiple block requests
-		ScheduledFuture<?> previous = this.blockCleanupHandle.getAndSet(blockCleanupHandle);
+		Timeout previous = BLOCK_CLEANUP_HANDLE.getAndSet(this, blockCleanupHandle);
 		if (previous != null) {
-			previous.cancel(false);
+			previous.cancel();
 		}
 	}
 
@@ -625,7 +689,7 @@ public class Exchange {
 		 * @throws IllegalArgumentException if mid or port &lt; 0 or &gt; 65535.
 		 * 
 		 */
-		private KeyMID(final int mid, final byte[] address, final int port) {
+		KeyMID(final int mid, final byte[] address, final int port) {
 			if (mid < 0 || mid > 1 << 16) {
 				throw new IllegalArgumentException("MID must be a 16 bit unsigned int: " + mid);
 			} else if (address == null) {
@@ -15,10 +15,13 @@
  *                                 (derived from MessageIdTracker)
  *    Achim Kraus (Bosch Software Innovations GmbH) - introduce MessageIdTracker
  *                                                    interface
+ *    Bosch Software Innovations GmbH - lock free MID assignment
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.network.config.NetworkConfig;
@@ -61,11 +64,11 @@ public class GroupedMessageIdTracker implements MessageIdTracker {
 	 * 
 	 * @see System#nanoTime()
 	 */
-	private final long midLease[];
+	private final AtomicLongArray midLease;
 	/**
 	 * Current MID.
 	 */
-	private int currentMID;
+	private final AtomicInteger currentMID;
 
 	/**
 	 * Creates a new MID group based tracker.
@@ -86,31 +89,41 @@ public class GroupedMessageIdTracker implements MessageIdTracker {
 	public GroupedMessageIdTracker(int initialMid, NetworkConfig config) {
 		exchangeLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
 		numberOfGroups = config.getInt(NetworkConfig.Keys.MID_TRACKER_GROUPS);
-		currentMID = initialMid;
+		currentMID = new AtomicInteger(initialMid);
 		sizeOfGroups = (TOTAL_NO_OF_MIDS + numberOfGroups - 1) / numberOfGroups;
-		midLease = new long[numberOfGroups];
+		midLease = new AtomicLongArray(numberOfGroups);
 	}
 
 	/**
 	 * Gets the next usable message ID.
+	 * <p>
+	 * This method does not block, concurrent callers compete for the next
+	 * MID by means of a compare-and-set operation.
 	 * 
 	 * @return a message ID or {@code -1} if all message IDs are in use
 	 *         currently.
 	 */
 	public int getNextMessageId() {
 		final long now = System.nanoTime();
-		synchronized (this) {
+		final long lease = now + exchangeLifetimeNanos;
+		for (;;) {
+			int current = currentMID.get();
 			// mask mid to the 16 low bits
-			int mid = currentMID & 0x0000FFFF;
+			int mid = current & 0x0000FFFF;
 			int index = mid / sizeOfGroups;
 			int nextIndex = (index + 1) % numberOfGroups;
-			if (midLease[nextIndex] < now) {
-				midLease[index] = now + exchangeLifetimeNanos;
-				++currentMID;
+			if (midLease.get(nextIndex) >= now) {
+				return Message.NONE;
+			}
+			if (currentMID.compareAndSet(current, current + 1)) {
+				// never shorten a lease set concurrently for the same group
+				long previousLease = midLease.get(index);
+				while (previousLease < lease && !midLease.compareAndSet(index, previousLease, lease)) {
+					previousLease = midLease.get(index);
+				}
 				return mid;
 			}
 		}
-		return Message.NONE;
 	}
 
 	/**
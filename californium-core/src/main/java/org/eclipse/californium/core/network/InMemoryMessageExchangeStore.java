@@ -24,6 +24,7 @@
  *                                                    integrate clear() into stop()
  *    Achim Kraus (Bosch Software Innovations GmbH) - remove setContext().
  *                                                    issue #311
+ *    Bosch Software Innovations GmbH - support for running on a shared executor
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
@@ -66,6 +67,7 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 	private volatile MessageIdProvider messageIdProvider;
 	private ScheduledFuture<?> statusLogger;
 	private ScheduledExecutorService scheduler;
+	private ScheduledExecutorService sharedExecutor;
 
 	/**
 	 * Creates a new store for configuration values.
@@ -103,7 +105,11 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		final int healthStatusInterval = config.getInt(NetworkConfig.Keys.HEALTH_STATUS_INTERVAL, 60); // seconds
 		// this is a useful health metric that could later be exported to some kind of monitoring interface
 		if (LOGGER.isLoggable(healthStatusLevel)) {
-			this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MessageExchangeStore"));
+			if (sharedExecutor != null) {
+				this.scheduler = sharedExecutor;
+			} else {
+				this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MessageExchangeStore"));
+			}
 			statusLogger = scheduler.scheduleAtFixedRate(new Runnable() {
 				@Override
 				public void run() {
@@ -138,6 +144,28 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		}
 	}
 
+	/**
+	 * Sets the executor to run periodic tasks of this store and of its
+	 * deduplicator on.
+	 * <p>
+	 * By default, the store and the deduplicator create single threaded
+	 * executors of their own. The given executor is not shut down when
+	 * this store is stopped, so it can be shared among multiple stores.
+	 * 
+	 * @param executor the executor.
+	 * @throws NullPointerException if executor is {@code null}.
+	 * @throws IllegalStateException if this store is already running.
+	 */
+	public synchronized void setExecutor(final ScheduledExecutorService executor) {
+		if (running) {
+			throw new IllegalStateException("Cannot set executor when store is already started");
+		} else if (executor == null) {
+			throw new NullPointerException("Executor must not be null");
+		} else {
+			this.sharedExecutor = executor;
+		}
+	}
+
 	/**
 	 * Sets the provider to use for creating message IDs for outbound messages.
 	 * 
@@ -333,7 +361,11 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 			startStatusLogging();
 			if (deduplicator == null) {
 				DeduplicatorFactory factory = DeduplicatorFactory.getDeduplicatorFactory();
-				this.deduplicator = factory.createDeduplicator(config);
+				if (sharedExecutor != null) {
+					this.deduplicator = factory.createDeduplicator(config, sharedExecutor);
+				} else {
+					this.deduplicator = factory.createDeduplicator(config);
+				}
 			}
 			this.deduplicator.start();
 			if (messageIdProvider == null) {
@@ -352,6 +384,10 @@ public class InMemoryMessageExchangeStore implements MessageExchangeStore {
 		if (running) {
 			if (statusLogger != null) {
 				statusLogger.cancel(false);
+				statusLogger = null;
+				if (scheduler != sharedExecutor) {
+					scheduler.shutdown();
+				}
 			}
 			deduplicator.stop();
 			exchangesByMID.clear();
@@ -19,6 +19,8 @@
  *                                                    interface and rename old
  *                                                    MessageIdTracker to
  *                                                    MapBasedMessageIdTracker.
+ *    Bosch Software Innovations GmbH - support splitting capacity among
+ *                                      stripes of StripedMessageIdProvider
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
@@ -75,6 +77,21 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 	 *             mode.
 	 */
 	public InMemoryMessageIdProvider(final NetworkConfig config) {
+		this(config, 1);
+	}
+
+	/**
+	 * Creates an new provider managing a share of the configured maximum
+	 * number of active peers.
+	 * 
+	 * @param config the configuration to use.
+	 * @param shares the number of providers the maximum number of active
+	 *            peers is split among.
+	 * @throws NullPointerException if the config is {@code null}.
+	 * @throws IllegalArgumentException if the config contains no value tracker
+	 *             mode.
+	 */
+	InMemoryMessageIdProvider(final NetworkConfig config, final int shares) {
 		if (config == null) {
 			throw new NullPointerException("Config must not be null");
 		}
@@ -91,12 +108,15 @@ public class InMemoryMessageIdProvider implements MessageIdProvider {
 		this.config = config;
 		this.mode = mode;
 		if (config.getBoolean(NetworkConfig.Keys.USE_RANDOM_MID_START)) {
-			random = new Random(System.currentTimeMillis());
+			// not seeded with the current time, so that the providers
+			// of a StripedMessageIdProvider start at different MIDs
+			random = new Random();
 		} else {
 			random = null;
 		}
+		int maxPeers = config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 150000);
 		// 10 minutes
-		trackers = new LeastRecentlyUsedCache<>(config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 150000),
+		trackers = new LeastRecentlyUsedCache<>((maxPeers + shares - 1) / shares,
 				config.getLong(NetworkConfig.Keys.MAX_PEER_INACTIVITY_PERIOD, 10 * 60));
 	}
 
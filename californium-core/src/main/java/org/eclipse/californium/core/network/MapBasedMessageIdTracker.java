@@ -19,18 +19,20 @@
  *                                                    to MapBasedMessageIdTracker.
  *                                                    introduce MessageIdTracker
  *                                                    interface.
+ *    Bosch Software Innovations GmbH - lock free MID assignment
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
 /**
- * A helper for keeping track of message IDs using a map.
+ * A helper for keeping track of message IDs using a lease per message ID.
  * <p>
  * According to the
  * <a href="https://tools.ietf.org/html/rfc7252#section-4.4">CoAP spec</a>
@@ -39,12 +41,26 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
  * The same Message ID MUST NOT be reused (in communicating with the
    same endpoint) within the EXCHANGE_LIFETIME (Section 4.8.2).
  * </pre>
+ * <p>
+ * The leases are kept in segments of 256 MIDs which are allocated when
+ * the first MID of a segment is used. A tracker for a peer that is sent few
+ * messages only therefore occupies a few KB instead of 512 KB.
  */
 public class MapBasedMessageIdTracker implements MessageIdTracker {
 
-	private final Map<Integer, Long> messageIds;
-	private final long exchangeLifetimeNanos; // milliseconds
-	private int counter;
+	private static final int SEGMENT_BITS = 8;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/**
+	 * End of lease per MID, in segments allocated on demand. Values in
+	 * nanoseconds, {@code 0} for MIDs that have not been used yet.
+	 * 
+	 * @see System#nanoTime()
+	 */
+	private final AtomicReferenceArray<AtomicLongArray> messageIds;
+	private final long exchangeLifetimeNanos;
+	private final AtomicInteger counter;
 
 	/**
 	 * Creates a new tracker based on configuration values.
@@ -61,35 +77,48 @@ public class MapBasedMessageIdTracker implements MessageIdTracker {
 	 */
 	public MapBasedMessageIdTracker(int initialMid, NetworkConfig config) {
 		exchangeLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(NetworkConfig.Keys.EXCHANGE_LIFETIME));
-		counter = initialMid;
-		messageIds = new HashMap<>(TOTAL_NO_OF_MIDS);
+		counter = new AtomicInteger(initialMid);
+		messageIds = new AtomicReferenceArray<>(TOTAL_NO_OF_MIDS >> SEGMENT_BITS);
+	}
+
+	private AtomicLongArray getSegment(final int mid) {
+		int index = mid >> SEGMENT_BITS;
+		AtomicLongArray segment = messageIds.get(index);
+		if (segment == null) {
+			AtomicLongArray newSegment = new AtomicLongArray(SEGMENT_SIZE);
+			if (messageIds.compareAndSet(index, null, newSegment)) {
+				segment = newSegment;
+			} else {
+				// another thread has allocated the segment in the meantime
+				segment = messageIds.get(index);
+			}
+		}
+		return segment;
 	}
 
 	/**
 	 * Gets the next usable message ID.
+	 * <p>
+	 * This method does not block, concurrent callers compete for a MID by
+	 * means of compare-and-set operations.
 	 * 
 	 * @return a message ID or {@code Message.NONE} if all message IDs are in
 	 *         use currently.
 	 */
 	public int getNextMessageId() {
-		int result = Message.NONE;
-		boolean wrapped = false;
 		long now = System.nanoTime();
-		synchronized (messageIds) {
+		for (int attempt = 0; attempt < TOTAL_NO_OF_MIDS; attempt++) {
 			// mask mid to the 16 low bits
-			int startIdx = counter & 0x0000FFFF;
-			while (result < 0 && !wrapped) {
-				// mask mid to the 16 low bits
-				int idx = counter++ & 0x0000FFFF;
-				Long earliestUsage = messageIds.get(idx);
-				if (earliestUsage == null || now >= earliestUsage) {
-					// message Id can be safely re-used
-					result = idx;
-					messageIds.put(idx, now + exchangeLifetimeNanos);
+			int idx = counter.getAndIncrement() & 0x0000FFFF;
+			AtomicLongArray segment = getSegment(idx);
+			long earliestUsage = segment.get(idx & SEGMENT_MASK);
+			if (earliestUsage == 0 || now - earliestUsage >= 0) {
+				// message Id can be safely re-used
+				if (segment.compareAndSet(idx & SEGMENT_MASK, earliestUsage, now + exchangeLifetimeNanos)) {
+					return idx;
 				}
-				wrapped = (counter & 0x0000FFFF) == startIdx;
 			}
 		}
-		return result;
+		return Message.NONE;
 	}
 }
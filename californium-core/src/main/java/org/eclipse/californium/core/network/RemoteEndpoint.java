@@ -13,17 +13,27 @@
  * Contributors:
  *    August Betzler    – CoCoA implementation
  *    Matthias Kovatsch - Embedding of CoCoA in Californium
+ *    Bosch Software Innovations GmbH - make state thread safe, bound queues
  ******************************************************************************/
  
 package org.eclipse.californium.core.network;
 
 import java.net.InetAddress;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
 
+/**
+ * The congestion control state of a remote endpoint.
+ * <p>
+ * All methods are thread safe. The public estimator variables of the
+ * alternative RTO algorithms must only be accessed while holding the lock of
+ * the remote endpoint, i.e. within a {@code synchronized (endpoint)} block.
+ */
 public class RemoteEndpoint {
 	
 	// The address of the remote endpoint
@@ -61,7 +71,8 @@ public class RemoteEndpoint {
 	public final static double D_value = (double)(1 - (double)(1/F_value));
 	public final static int RTT_HISTORY_SIZE = 2;
 	public long RTT_max;
-	public long[] RTT_sample = new long[2];
+	private final long[] rttSamples = new long[RTT_HISTORY_SIZE];
+	private int currentRttSample;
 	public long RTT_previous;
 	public long RTO_min;
 	
@@ -73,7 +84,7 @@ public class RemoteEndpoint {
 	private boolean isBlindStrong; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	private boolean isBlindWeak; // As long as no weak RTT measurement has been carried out, the RTO timers are calculated differently
 	
-	private boolean processingNON;
+	private final AtomicBoolean processingNON = new AtomicBoolean();
 	
 	private final static int RTOARRAYSIZE 	= 1; 	// Amounts of elements in the RTO history length
 	
@@ -82,11 +93,21 @@ public class RemoteEndpoint {
 	private final static int NOESTIMATOR = 3;
 	
 	/* A queue for confirmable exchanges that need to be delayed due to the NSTART limitation*/
-	private Queue<Exchange> confirmableQueue; 
+	private final Queue<Exchange> confirmableQueue; 
 	
 	/* A queue for non-confirmable exchanges that need to be rate-controlled */
-	private Queue<Exchange> nonConfirmableQueue; 
+	private final Queue<Exchange> nonConfirmableQueue; 
 	
+	/**
+	 * Creates the state for a remote endpoint.
+	 * <p>
+	 * The capacity of the queues for delayed exchanges is limited by
+	 * {@link NetworkConfig.Keys#CONGESTION_CONTROL_QUEUE_LIMIT}.
+	 * 
+	 * @param remotePort the port of the remote endpoint
+	 * @param remoteAddress the address of the remote endpoint
+	 * @param config the configuration
+	 */
 	public RemoteEndpoint(int remotePort, InetAddress remoteAddress, NetworkConfig config){
 		Address = remoteAddress;
 		Port = remotePort;
@@ -116,12 +137,12 @@ public class RemoteEndpoint {
 		isBlindStrong = true;
 		isBlindWeak = true;
 		
-		processingNON = false;
-		
 		exchangeInfoMap = new ConcurrentHashMap<Exchange, exchangeInfo>();
 
-		confirmableQueue = new LinkedList<Exchange>();
-	    nonConfirmableQueue = new LinkedList<Exchange>();
+		int queueLimit = config.getInt(NetworkConfig.Keys.CONGESTION_CONTROL_QUEUE_LIMIT,
+				NetworkConfigDefaults.DEFAULT_CONGESTION_CONTROL_QUEUE_LIMIT);
+		confirmableQueue = new LinkedBlockingQueue<Exchange>(queueLimit);
+		nonConfirmableQueue = new LinkedBlockingQueue<Exchange>(queueLimit);
 	}
 
 	public int getRemotePort(){
@@ -132,59 +153,59 @@ public class RemoteEndpoint {
 		return Address;
 	}
 	
-	public void increaseNonConfirmableCounter(){
+	public synchronized void increaseNonConfirmableCounter(){
 		nonConfirmableCounter++;
 	}
 	
-	public int getNonConfirmableCounter(){
+	public synchronized int getNonConfirmableCounter(){
 		return nonConfirmableCounter;
 	}
 	
-	public void resetNonConfirmableCounter(){
+	public synchronized void resetNonConfirmableCounter(){
 		nonConfirmableCounter = 0;
 	}
 	
-	public long getRTOtimestamp(int rtoType){
+	public synchronized long getRTOtimestamp(int rtoType){
 		return RTOupdateTimestamp[rtoType];
 	}
 	
-	public void setRTOtimestamp(long timestamp, int rtoType){
+	public synchronized void setRTOtimestamp(long timestamp, int rtoType){
 		RTOupdateTimestamp[rtoType] = timestamp;
 	}
 	
-	public long getxRTO(int rtoType){
+	public synchronized long getxRTO(int rtoType){
 		return xRTO[rtoType];
 	}
 	
-	public long getxRTT(int rttType){
+	public synchronized long getxRTT(int rttType){
 		return xRTT[rttType];
 	}
 	
-	public long getxRTTVAR(int rttvarType){
+	public synchronized long getxRTTVAR(int rttvarType){
 		return xRTTVAR[rttvarType];
 	}
 	
-	public void useBlindEstimator(){
+	public synchronized void useBlindEstimator(){
 		usesBlindEstimator = true;
 	}
 	
-	public boolean isBlindWeak(){
+	public synchronized boolean isBlindWeak(){
 		return isBlindWeak;
 	}
 	
-	public void setBlindWeak(boolean state){
+	public synchronized void setBlindWeak(boolean state){
 	  isBlindWeak = state;
 	}
 	
-	public boolean isBlindStrong(){
+	public synchronized boolean isBlindStrong(){
 		return isBlindStrong;
 	}
 	
-	public void setBlindStrong(boolean state){
+	public synchronized void setBlindStrong(boolean state){
 		  isBlindStrong = state;
 	}
 	
-	public void setEstimatorValues(long rto, long rtt, long rttvar, int estimatorType){
+	public synchronized void setEstimatorValues(long rto, long rtt, long rttvar, int estimatorType){
 		xRTO[estimatorType] = rto;
 		xRTT[estimatorType] = rtt;
 		xRTTVAR[estimatorType] = rttvar;
@@ -211,31 +232,66 @@ public class RemoteEndpoint {
 		meanOverallRTO = meanRTO/RTOARRAYSIZE;		
 	}
 	
-	public void setCurrentRTO(long currentRTO){
+	public synchronized void setCurrentRTO(long currentRTO){
 		this.currentRTO = currentRTO;
 	}
 	
-	public long getCurrentRTO(){
+	public synchronized long getCurrentRTO(){
 		return currentRTO;
 	}
 	
 	// Once a valid measurement is received, the currentRTO needs to be the same as the last updated overall RTO
-	public void matchCurrentRTO(){
+	public synchronized void matchCurrentRTO(){
 		currentRTO = meanOverallRTO;
 	}
 	public void setProcessingNON(boolean value){
-		processingNON = value;
+		processingNON.set(value);
 	}
 	
 	public boolean getProcessingNON(){
-		return processingNON;
+		return processingNON.get();
+	}
+
+	/**
+	 * Marks the non-confirmable queue as being processed.
+	 * 
+	 * @return {@code true} if the queue has not been processed before, i.e.
+	 *         the caller is responsible for processing the queue.
+	 */
+	public boolean startProcessingNON(){
+		return processingNON.compareAndSet(false, true);
+	}
+
+	/**
+	 * Adds a RTT sample to the history of recent samples.
+	 * 
+	 * @param rtt the round-trip time
+	 */
+	public synchronized void addRttSample(long rtt){
+		rttSamples[currentRttSample] = rtt;
+		currentRttSample = (currentRttSample + 1) % RTT_HISTORY_SIZE;
+	}
+
+	/**
+	 * Gets the maximum of the recent RTT samples.
+	 * 
+	 * @return the maximum RTT
+	 */
+	public synchronized long getMaxRttSample(){
+		long max = rttSamples[0];
+		for (int i = 1; i < RTT_HISTORY_SIZE; i++) {
+			if (rttSamples[i] > max) {
+				max = rttSamples[i];
+			}
+		}
+		return max;
 	}
 	
 	/**
 	 * Obtains either blind RTO value for the next transmission (if no RTT measurements have been done so far) or gets the overall RTO (CoCoA)
 	 * @return the RTO in milliseconds
 	 */
-	public long getRTO() {
+	public synchronized long getRTO() {
 		long rto;
 		if (usesBlindEstimator && isBlindStrong && isBlindWeak && exchangeInfoMap.size() > 1) {
 			// No RTT measurements have been possible so far => apply blind
@@ -259,7 +315,7 @@ public class RemoteEndpoint {
 	 * Very small RTOs are "boosted" if they are not updated. In the current configuration this
 	 * is achieved by doubling the current overall RTO.
 	 */
-	public void boostRTOvalue(){
+	public synchronized void boostRTOvalue(){
 		meanOverallRTO *= 2;
 	}
 	
@@ -267,7 +323,7 @@ public class RemoteEndpoint {
 	 * Very large RTOs are "reduced" if they are not updated. In the current configuration this
 	 * is achieved by doubling the current overall RTO.
 	 */
-	public void reduceRTOvalue(){
+	public synchronized void reduceRTOvalue(){
 		meanOverallRTO = (long) (1000 + (0.5 * meanOverallRTO));
 	}
 	
@@ -276,7 +332,7 @@ public class RemoteEndpoint {
 	 * Update stored RTO value.
 	 * @param newRTO the new RTO value
 	 */
-	public void updateRTO(long newRTO){
+	public synchronized void updateRTO(long newRTO){
 		overallRTO[currentArrayElement] = newRTO; 		
 		currentArrayElement = (currentArrayElement + 1)%RTOARRAYSIZE;
 		calculateMeanOverallRTO();
@@ -318,6 +374,26 @@ public class RemoteEndpoint {
 		exchangeInfo newExchange = new exchangeInfo(System.currentTimeMillis(), vbf);
 		exchangeInfoMap.put(exchange, newExchange);
 	}
+
+	/**
+	 * Registers a confirmable exchange at the remote endpoint, if less than
+	 * a given number of exchanges are ongoing.
+	 * <p>
+	 * Checking the number of ongoing exchanges and registering the exchange
+	 * is done atomically.
+	 * 
+	 * @param exchange the exchange to register
+	 * @param vbf the variable back-off factor
+	 * @param nstart the maximum number of ongoing exchanges
+	 * @return {@code true} if the exchange has been registered
+	 */
+	public synchronized boolean registerExchange(Exchange exchange, double vbf, int nstart){
+		if (exchangeInfoMap.size() >= nstart) {
+			return false;
+		}
+		registerExchange(exchange, vbf);
+		return true;
+	}
 	
 	/**
 	 * Get timestamp of transmission of the message
@@ -405,11 +481,11 @@ public class RemoteEndpoint {
 		return exchangeInfoMap.size();
 	}
 	
-	public void printLinuxStats(){
+	public synchronized void printLinuxStats(){
 		System.out.println("SRTT: " + SRTT + " RTTVAR: " + RTTVAR + " mdev: " + mdev + " mdev_max: " + mdev_max);
 	}
 	
-	public void printPeakhopperStats(){
+	public synchronized void printPeakhopperStats(){
 	    System.out.println("Delta: " + delta + " D: " + D_value + " B: " + B_value + " RTT_max: " + RTT_max);
 	}
 	
@@ -423,7 +499,7 @@ public class RemoteEndpoint {
 		
 		private long timestamp;
 		private double vbf;
-		private int estimatorType;
+		private volatile int estimatorType;
 		
 		public exchangeInfo(long timestamp, double vbf){
 			this.timestamp = timestamp;
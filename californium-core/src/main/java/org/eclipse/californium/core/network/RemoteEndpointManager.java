@@ -13,27 +13,41 @@
  * Contributors:
  *    August Betzler    – CoCoA implementation
  *    Matthias Kovatsch - Embedding of CoCoA in Californium
+ *    Bosch Software Innovations GmbH - thread safe LRU store for remote endpoints
  ******************************************************************************/
 
 package org.eclipse.californium.core.network;
 
 import java.net.InetAddress;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
 
+/**
+ * A store for the congestion control state of remote endpoints.
+ * <p>
+ * The state is kept in a {@link LeastRecentlyUsedCache} with a capacity of
+ * {@link NetworkConfig.Keys#MAX_ACTIVE_PEERS} entries. The state of a remote
+ * endpoint that has not been accessed for
+ * {@link NetworkConfig.Keys#MAX_PEER_INACTIVITY_PERIOD} seconds is evicted
+ * if the capacity is exhausted.
+ * <p>
+ * This class is thread safe.
+ */
 public class RemoteEndpointManager {
 
-	// Maximum amount of destinations for which remote endpoint objects are maintained
-	private final int MAX_REMOTE_ENDPOINTS = 10;
-	
-	/** The list of remote endpoints */
-	private LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint> remoteEndpointsList = new LimitedRemoteEndpointHashmap<InetAddress,RemoteEndpoint>(MAX_REMOTE_ENDPOINTS);//ArrayList<RemoteEndpoint>(0);
+	private static final Logger LOGGER = Logger.getLogger(RemoteEndpointManager.class.getName());
+
+	/** The remote endpoints */
+	private final LeastRecentlyUsedCache<InetAddress, RemoteEndpoint> remoteEndpoints;
 
 	/** The configuration */ 
-	private NetworkConfig config;
-	
+	private final NetworkConfig config;
+
 	/**
 	 * The RemoteEndpointManager is responsible for creating a new RemoteEndpoint object when exchanges with a 
 	 * new destination endpoint are initiated and managing existing ones.
@@ -42,41 +56,56 @@ public class RemoteEndpointManager {
 	 */
 	public RemoteEndpointManager(NetworkConfig config) {
 		this.config = config;
+		this.remoteEndpoints = new LeastRecentlyUsedCache<>(
+				config.getInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, NetworkConfigDefaults.DEFAULT_MAX_ACTIVE_PEERS),
+				config.getLong(NetworkConfig.Keys.MAX_PEER_INACTIVITY_PERIOD,
+						NetworkConfigDefaults.DEFAULT_MAX_PEER_INACTIVITY_PERIOD));
 	}
-		
+
 	/**
 	 * Returns the endpoint responsible for the given exchange.
+	 * <p>
+	 * If the store's capacity is exhausted and no stale endpoint can be
+	 * evicted, a new endpoint with initial values is returned which is not
+	 * kept in the store.
+	 * 
 	 * @param exchange the exchange
 	 * @return the endpoint for the exchange
 	 */
-	public RemoteEndpoint getRemoteEndpoint(Exchange exchange){ //int remotePort, InetAddress remoteAddress){
-		
-		InetAddress remoteAddress = exchange.getRequest().getDestination();
-		int remotePort = exchange.getRequest().getDestinationPort();
-		
+	public RemoteEndpoint getRemoteEndpoint(Exchange exchange){
+		Request request = exchange.getCurrentRequest();
+		InetAddress remoteAddress;
+		int remotePort;
+		if (exchange.isOfLocalOrigin()) {
+			remoteAddress = request.getDestination();
+			remotePort = request.getDestinationPort();
+		} else {
+			remoteAddress = request.getSource();
+			remotePort = request.getSourcePort();
+		}
+
 		// TODO: One IP-Address is considered to be a destination endpoint, for higher granularity (portnumber) changes are necessary
-		if (!remoteEndpointsList.containsKey(remoteAddress)){
-			RemoteEndpoint unusedRemoteEndpoint = new RemoteEndpoint(remotePort, remoteAddress, config);
-			remoteEndpointsList.put(remoteAddress,unusedRemoteEndpoint);
-			
-			//System.out.println("Number of RemoteEndpoint objects stored:" + remoteEndpointsList.size());
+		synchronized (remoteEndpoints) {
+			RemoteEndpoint remoteEndpoint = remoteEndpoints.get(remoteAddress);
+			if (remoteEndpoint == null) {
+				remoteEndpoint = new RemoteEndpoint(remotePort, remoteAddress, config);
+				if (!remoteEndpoints.put(remoteAddress, remoteEndpoint)) {
+					LOGGER.log(Level.FINE, "Cannot keep congestion control state for {0}, maximum number of peers reached",
+							remoteAddress);
+				}
+			}
+			return remoteEndpoint;
 		}
-		
-		return remoteEndpointsList.get(remoteAddress);
 	}
-	
-	public class LimitedRemoteEndpointHashmap<K, V> extends LinkedHashMap<K, V> {
 
-		private static final long serialVersionUID = -7855412701242966797L;
-		private final int maxSize;
-
-	    public LimitedRemoteEndpointHashmap(int maxSize) {
-	        this.maxSize = maxSize;
-	    }
-
-	    @Override
-	    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-	        return size() > maxSize;
-	    }
+	/**
+	 * Gets the number of remote endpoints for which state is kept.
+	 * 
+	 * @return the number of endpoints
+	 */
+	public int getNumberOfRemoteEndpoints() {
+		synchronized (remoteEndpoints) {
+			return remoteEndpoints.size();
+		}
 	}
 }
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * {@link TokenProvider} that derives tokens from a counter.
+ * <p>
+ * Each token is created by applying a keyed permutation to the next value of
+ * a counter. Because the permutation is a bijection on the token's bit
+ * length, tokens never collide before the counter wraps around, i.e. before
+ * <em>2^(8 * token length)</em> tokens have been handed out. This provider
+ * therefore neither needs to keep track of the tokens in use nor to retry on
+ * collisions. The permutation's keys are drawn from a {@link SecureRandom}
+ * once only, so that the tokens cannot easily be predicted by an observer
+ * without the cost of a secure random number per token.
+ * <p>
+ * The permutation is not a cryptographically strong cipher. Use the
+ * {@link InMemoryRandomTokenProvider} if tokens need to be protected against
+ * sophisticated off-path attackers. Using short tokens (see
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#TOKEN_SIZE_LIMIT})
+ * with this provider is only safe if no exchange lives long enough for the
+ * counter to wrap around.
+ * <p>
+ * This implementation is thread-safe.
+ */
+public class SequentialTokenProvider implements TokenProvider {
+
+	private static final Logger LOGGER = Logger.getLogger(SequentialTokenProvider.class.getName());
+	private static final int MAX_TOKEN_LENGTH = 8; // bytes
+
+	private final AtomicLong counter;
+	private final long initialCounter;
+	private final int tokenSizeLimit;
+	private final long mask;
+	private final int shift;
+	private final long key0;
+	private final long key1;
+	private final long multiplier0;
+	private final long multiplier1;
+
+	/**
+	 * Creates a new {@link SequentialTokenProvider}.
+	 *
+	 * @param networkConfig used to obtain the configured token size
+	 * @throws NullPointerException if the config is {@code null}.
+	 * @throws IllegalArgumentException if the configured token size is not
+	 *             in the range [1, 8].
+	 */
+	public SequentialTokenProvider(final NetworkConfig networkConfig) {
+		this(networkConfig, new SecureRandom());
+	}
+
+	SequentialTokenProvider(final NetworkConfig networkConfig, final SecureRandom rng) {
+
+		if (networkConfig == null) {
+			throw new NullPointerException("NetworkConfig must not be null");
+		}
+		this.tokenSizeLimit = networkConfig.getInt(NetworkConfig.Keys.TOKEN_SIZE_LIMIT, MAX_TOKEN_LENGTH);
+		if (tokenSizeLimit < 1 || tokenSizeLimit > MAX_TOKEN_LENGTH) {
+			throw new IllegalArgumentException("token size must be in range [1, " + MAX_TOKEN_LENGTH + "]");
+		}
+		int bits = tokenSizeLimit * 8;
+		this.mask = bits == 64 ? -1L : (1L << bits) - 1;
+		this.shift = bits / 2;
+		this.key0 = rng.nextLong();
+		this.key1 = rng.nextLong();
+		// multiplication by an odd number is a bijection modulo 2^n
+		this.multiplier0 = rng.nextLong() | 1L;
+		this.multiplier1 = rng.nextLong() | 1L;
+		this.initialCounter = rng.nextLong();
+		this.counter = new AtomicLong(initialCounter);
+		LOGGER.log(Level.CONFIG, "using sequential tokens of {0} bytes in length", this.tokenSizeLimit);
+	}
+
+	@Override
+	public KeyToken getUnusedToken(final Message message) {
+		long value = permute(counter.getAndIncrement());
+		byte[] token = new byte[tokenSizeLimit];
+		for (int i = tokenSizeLimit - 1; i >= 0; i--) {
+			token[i] = (byte) value;
+			value >>>= 8;
+		}
+		return KeyToken.fromValues(token, message.getDestination().getAddress(), message.getDestinationPort());
+	}
+
+	/**
+	 * This method does nothing because this provider does not keep track of
+	 * the tokens in use.
+	 */
+	@Override
+	public void releaseToken(final KeyToken keyToken) {
+		// nothing to do
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This provider does not keep track of released tokens. This method
+	 * therefore considers all tokens that have been handed out by this
+	 * provider as being in use.
+	 */
+	@Override
+	public boolean isTokenInUse(final KeyToken keyToken) {
+		byte[] token = keyToken.getToken();
+		if (token.length != tokenSizeLimit) {
+			return false;
+		}
+		long value = 0;
+		for (byte b : token) {
+			value = (value << 8) | (b & 0xFF);
+		}
+		long current = counter.get();
+		long distance = (current - unpermute(value)) & mask;
+		long issued = current - initialCounter;
+		return distance > 0 && (issued < 0 || distance <= issued);
+	}
+
+	/**
+	 * Maps a counter value to a token value.
+	 * <p>
+	 * All steps are bijections on the token's bit length.
+	 */
+	private long permute(final long counterValue) {
+		long x = (counterValue ^ key0) & mask;
+		x = (x * multiplier0) & mask;
+		x ^= x >>> shift;
+		x = (x * multiplier1) & mask;
+		x ^= x >>> shift;
+		return (x ^ key1) & mask;
+	}
+
+	private long unpermute(final long tokenValue) {
+		long x = (tokenValue ^ key1) & mask;
+		x = unshift(x);
+		x = (x * inverse(multiplier1)) & mask;
+		x = unshift(x);
+		x = (x * inverse(multiplier0)) & mask;
+		return (x ^ key0) & mask;
+	}
+
+	private long unshift(final long value) {
+		long x = value;
+		for (int s = shift; s < 64; s += shift) {
+			x ^= value >>> s;
+		}
+		return x;
+	}
+
+	private static long inverse(final long oddValue) {
+		// Newton's iteration doubles the number of correct bits in each step
+		long inverse = oddValue;
+		for (int i = 0; i < 5; i++) {
+			inverse *= 2 - oddValue * inverse;
+		}
+		return inverse;
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+/**
+ * A provider for message IDs that spreads the peers over multiple
+ * independent {@link InMemoryMessageIdProvider}s.
+ * <p>
+ * The {@code InMemoryMessageIdProvider} guards its trackers by a single lock.
+ * This provider selects one of a fixed number of <em>stripes</em> by means of
+ * the destination address' hash code and only locks the selected stripe. Message
+ * IDs for different peers can therefore be retrieved concurrently with hardly
+ * any contention, while the message IDs for a single peer are still assigned
+ * by a single {@link MessageIdTracker}.
+ * <p>
+ * The configured maximum number of active peers is split evenly among the
+ * stripes. A new peer is rejected if its stripe has reached its share of the
+ * maximum number of peers. Depending on the distribution of the peers'
+ * addresses, a stripe may therefore be exhausted before the total number of
+ * active peers reaches the configured maximum. The provider is thus not used
+ * by default but needs to be set explicitly, e.g. using
+ * {@link InMemoryMessageExchangeStore#setMessageIdProvider(MessageIdProvider)},
+ * if throughput is more important than admitting exactly the maximum number of
+ * peers.
+ */
+public class StripedMessageIdProvider implements MessageIdProvider {
+
+	private final InMemoryMessageIdProvider[] stripes;
+	private final int mask;
+
+	/**
+	 * Creates a new provider with four stripes per available processor.
+	 *
+	 * @param config the configuration to use. See
+	 *            {@link InMemoryMessageIdProvider#InMemoryMessageIdProvider(NetworkConfig)}
+	 *            for the configuration values used.
+	 * @throws NullPointerException if the config is {@code null}.
+	 * @throws IllegalArgumentException if the config contains no value tracker
+	 *             mode.
+	 */
+	public StripedMessageIdProvider(final NetworkConfig config) {
+		this(config, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new provider for a number of stripes.
+	 *
+	 * @param config the configuration to use. See
+	 *            {@link InMemoryMessageIdProvider#InMemoryMessageIdProvider(NetworkConfig)}
+	 *            for the configuration values used.
+	 * @param stripes the number of stripes. The value is rounded up to the
+	 *            next power of two.
+	 * @throws NullPointerException if the config is {@code null}.
+	 * @throws IllegalArgumentException if the number of stripes is &lt; 1 or
+	 *             the config contains no value tracker mode.
+	 */
+	public StripedMessageIdProvider(final NetworkConfig config, final int stripes) {
+		if (stripes < 1 || stripes > (1 << 16)) {
+			throw new IllegalArgumentException("number of stripes must be in range [1, 2^16]");
+		}
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.stripes = new InMemoryMessageIdProvider[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new InMemoryMessageIdProvider(config, size);
+		}
+		this.mask = size - 1;
+	}
+
+	@Override
+	public int getNextMessageId(final InetSocketAddress destination) {
+		int hash = destination.hashCode();
+		// mix in the higher bits, otherwise only the last bytes of the
+		// IP address and the port select the stripe
+		hash ^= (hash >>> 16);
+		hash ^= (hash >>> 8);
+		return stripes[hash & mask].getNextMessageId(destination);
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the number of stripes.
+	 */
+	public int getNumberOfStripes() {
+		return stripes.length;
+	}
+}
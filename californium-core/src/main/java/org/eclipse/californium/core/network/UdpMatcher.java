@@ -33,6 +33,9 @@
  *                                                 Proactive observe cancellation may cause
  *                                                 errors, if they cancel not completely 
  *                                                 created notifies (before the MID is assigned).
+ * Bosch Software Innovations GmbH - skip deduplication of fast path requests
+ * Bosch Software Innovations GmbH - look up notifications in ObservationStore
+ * Bosch Software Innovations GmbH - assign new token on conflicting observations
  ******************************************************************************/
 package org.eclipse.californium.core.network;
 
@@ -42,6 +45,7 @@ import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
@@ -49,6 +53,10 @@ import org.eclipse.californium.core.network.Exchange.KeyToken;
 import org.eclipse.californium.core.network.Exchange.KeyUri;
 import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.stack.CoapUdpStack;
+import org.eclipse.californium.core.observe.NotificationListener;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.californium.core.observe.ObservationStore;
 import org.eclipse.californium.core.observe.ObserveRelation;
 import org.eclipse.californium.elements.CorrelationContext;
 import org.eclipse.californium.elements.DtlsCorrelationContext;
@@ -60,9 +68,18 @@ public final class UdpMatcher extends BaseMatcher {
 
 	private static final Logger LOGGER = Logger.getLogger(UdpMatcher.class.getName());
 
+	/**
+	 * The maximum number of tokens assigned to an observe request whose token
+	 * is already used by an observation of another node.
+	 */
+	private static final int MAX_OBSERVE_TOKEN_ATTEMPTS = 3;
+
 	private final ExchangeObserver exchangeObserver = new ExchangeObserverImpl();
 	// TODO: Multicast Exchanges: should not be removed from deduplicator
 	private final boolean useStrictResponseMatching;
+	private final boolean useFastPath;
+	private final ObservationStore observationStore;
+	private final NotificationListener notificationListener;
 
 	/**
 	 * Creates a new matcher for running CoAP over UDP.
@@ -71,8 +88,37 @@ public final class UdpMatcher extends BaseMatcher {
 	 * @throws NullPointerException if the configuration is {@code null}.
 	 */
 	public UdpMatcher(final NetworkConfig config, final MessageExchangeStore exchangeStore) {
+		this(config, exchangeStore, null, null);
+	}
+
+	/**
+	 * Creates a new matcher for running CoAP over UDP sharing observations.
+	 * <p>
+	 * Observe requests are added to the observation store. Notifications
+	 * for which no exchange is registered in the exchange store are looked
+	 * up in the observation store and are passed to the notification
+	 * listener.
+	 * 
+	 * @param config the configuration to use.
+	 * @param exchangeStore the exchange store to use.
+	 * @param observationStore the observation store to use, or {@code null}
+	 *            if observations are not shared.
+	 * @param notificationListener the listener for notifications of
+	 *            observations looked up in the observation store.
+	 * @throws NullPointerException if the configuration or exchange store is
+	 *             {@code null}, or if only the notification listener is
+	 *             {@code null}.
+	 */
+	public UdpMatcher(final NetworkConfig config, final MessageExchangeStore exchangeStore,
+			final ObservationStore observationStore, final NotificationListener notificationListener) {
 		super(config, exchangeStore);
+		if (observationStore != null && notificationListener == null) {
+			throw new NullPointerException("NotificationListener must not be null");
+		}
+		this.observationStore = observationStore;
+		this.notificationListener = notificationListener;
 		useStrictResponseMatching = config.getBoolean(NetworkConfig.Keys.USE_STRICT_RESPONSE_MATCHING);
+		useFastPath = config.getBoolean(NetworkConfig.Keys.USE_PIGGYBACKED_FAST_PATH);
 
 		if (LOGGER.isLoggable(Level.CONFIG)) {
 			String msg = new StringBuilder("UdpMatcher uses ").append(NetworkConfig.Keys.USE_STRICT_RESPONSE_MATCHING)
@@ -81,11 +127,37 @@ public final class UdpMatcher extends BaseMatcher {
 		}
 	}
 
+	/**
+	 * Starts this matcher and its observation store.
+	 */
+	@Override
+	public synchronized void start() {
+		if (!running && observationStore != null) {
+			observationStore.start();
+		}
+		super.start();
+	}
+
+	/**
+	 * Stops this matcher and its observation store.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (running && observationStore != null) {
+			observationStore.stop();
+		}
+		super.stop();
+	}
+
 	@Override
 	public void sendRequest(final Exchange exchange, final Request request) {
 
+		boolean assignToken = request.getToken() == null;
 		observe(exchange);
 		exchangeStore.registerOutboundRequest(exchange);
+		if (observationStore != null && request.isObserve() && !addObservation(exchange, request, assignToken)) {
+			return;
+		}
 		if (LOGGER.isLoggable(Level.FINER)) {
 			LOGGER.log(
 					Level.FINER,
@@ -94,6 +166,48 @@ public final class UdpMatcher extends BaseMatcher {
 		}
 	}
 
+	/**
+	 * Adds an observe request to the observation store.
+	 * <p>
+	 * If the request's token is already used by an observation of another
+	 * node, a new token is assigned to the request. If the token has been
+	 * set by the application or no unused token has been found, the request
+	 * is rejected and canceled without removing the other node's observation.
+	 * 
+	 * @param exchange the exchange of the request.
+	 * @param request the observe request.
+	 * @param assignToken {@code true} if the request's token has been
+	 *            assigned by the exchange store.
+	 * @return {@code true} if the observation has been added.
+	 */
+	private boolean addObservation(final Exchange exchange, final Request request, final boolean assignToken) {
+		KeyToken idByToken = KeyToken.fromOutboundMessage(request);
+		int attempts = 0;
+		while (!observationStore.add(new Observation(request))) {
+			exchangeStore.remove(idByToken, exchange);
+			if (!assignToken || ++attempts >= MAX_OBSERVE_TOKEN_ATTEMPTS) {
+				if (assignToken) {
+					exchangeStore.releaseToken(idByToken);
+				}
+				LOGGER.log(Level.WARNING, "Token {0} of observe request is already in use by another observation",
+						request.getTokenString());
+				exchangeStore.remove(KeyMID.fromOutboundMessage(request), exchange);
+				// the observation of the other node must not be removed on completion
+				exchange.setObserver(null);
+				request.setRejected(true);
+				request.cancel();
+				return false;
+			}
+			LOGGER.log(Level.FINE, "Token {0} of observe request is already in use by another observation, assigning new token",
+					request.getTokenString());
+			request.setToken(null);
+			exchangeStore.registerOutboundRequestWithTokenOnly(exchange);
+			exchangeStore.releaseToken(idByToken);
+			idByToken = KeyToken.fromOutboundMessage(request);
+		}
+		return true;
+	}
+
 	/**
 	 * Registers this matcher's {@link ExchangeObserver} on a given exchange.
 	 * 
@@ -108,8 +222,11 @@ public final class UdpMatcher extends BaseMatcher {
 	@Override
 	public void sendResponse(final Exchange exchange, final Response response) {
 
-		// ensure Token is set
-		response.setToken(exchange.getCurrentRequest().getToken());
+		// ensure Token is set, blocks requested in parallel already carry the
+		// token of the request they answer
+		if (response.getToken() == null) {
+			response.setToken(exchange.getCurrentRequest().getToken());
+		}
 
 		// If this is a CON notification we now can forget all previous NON notifications
 		if (response.getType() == Type.CON || response.getType() == Type.ACK) {
@@ -204,6 +321,11 @@ public final class UdpMatcher extends BaseMatcher {
 		if (!request.getOptions().hasBlock1() && !request.getOptions().hasBlock2()) {
 
 			Exchange exchange = new Exchange(request, Origin.REMOTE);
+			if (useFastPath && CoapUdpStack.isFastPathRequest(request)) {
+				// idempotent requests may be processed again (RFC 7252, Section 4.5)
+				exchange.setObserver(exchangeObserver);
+				return exchange;
+			}
 			Exchange previous = exchangeStore.findPrevious(idByMID, exchange);
 			if (previous == null) {
 				exchange.setObserver(exchangeObserver);
@@ -280,6 +402,9 @@ public final class UdpMatcher extends BaseMatcher {
 		KeyToken idByToken = KeyToken.fromInboundMessage(response);
 		LOGGER.log(Level.FINER, "received response {0}", response);
 		Exchange exchange = exchangeStore.get(idByToken);
+		if (exchange == null && observationStore != null && response.getOptions().hasObserve()) {
+			exchange = findObservation(response);
+		}
 
 		if (exchange == null) {
 			// There is no exchange with the given token.
@@ -340,6 +465,41 @@ public final class UdpMatcher extends BaseMatcher {
 		}
 	}
 
+	/**
+	 * Looks up the observation of a notification in the observation store.
+	 * <p>
+	 * If found, a transient exchange for the observe request is created. The
+	 * exchange is neither registered with the exchange store nor observed by
+	 * this matcher, because this endpoint is not notified when the node owning
+	 * the observation cancels it. Each notification is therefore looked up in
+	 * the observation store again, and notifications of canceled observations
+	 * are rejected like any other unmatchable response. Stores accessing
+	 * remote storage may cache the lookups briefly, see
+	 * {@link ObservationStore#get(byte[])}.
+	 * 
+	 * @param response the notification.
+	 * @return the exchange of the observation, or {@code null} if no
+	 *         observation is stored for the token of the notification.
+	 */
+	private Exchange findObservation(final Response response) {
+		Observation observation = observationStore.get(response.getToken());
+		if (observation == null) {
+			return null;
+		}
+		final Request request = observation.getRequest();
+		LOGGER.log(Level.FINE, "Found stored observation for notification {0}", response);
+		request.addMessageObserver(new MessageObserverAdapter() {
+
+			@Override
+			public void onResponse(final Response notification) {
+				notificationListener.onNotification(request, notification);
+			}
+		});
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		exchange.setRequest(request);
+		return exchange;
+	}
+
 	private boolean isResponseRelatedToRequest(final Exchange exchange, final CorrelationContext responseContext) {
 		if (exchange.getCorrelationContext() == null) {
 			// no correlation information available for request, thus any
@@ -467,6 +627,8 @@ public final class UdpMatcher extends BaseMatcher {
 					exchangeStore.remove(idByToken, exchange);
 					if (!originRequest.isObserve()) {
 						exchangeStore.releaseToken(idByToken);
+					} else if (observationStore != null) {
+						observationStore.remove(originRequest.getToken());
 					}
 					LOGGER.log(Level.FINER, "Exchange [{0}, origin: {1}] completed", new Object[]{idByToken, exchange.getOrigin()});
 				}
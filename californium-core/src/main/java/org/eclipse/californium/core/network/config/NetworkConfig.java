@@ -21,6 +21,13 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - add InputStream support for environments
  *                                                    without file access.
  *    Achim Kraus (Bosch Software Innovations GmbH) - add new keys for MID tracker
+ *    Bosch Software Innovations GmbH - add keys for timer wheel
+ *    Bosch Software Innovations GmbH - add keys for congestion control queue limit
+ *                                      and request scheduling
+ *    Bosch Software Innovations GmbH - add keys for blockwise pipeline window
+ *                                      and block cache
+ *    Bosch Software Innovations GmbH - add key for minimum notification interval
+ *    Bosch Software Innovations GmbH - add key for piggybacked response fast path
  ******************************************************************************/
 package org.eclipse.californium.core.network.config;
 
@@ -152,13 +159,173 @@ public final class NetworkConfig {
 		 * {@link NetworkConfigDefaults#DEFAULT_BLOCKWISE_STATUS_LIFETIME}.
 		 */
 		public static final String BLOCKWISE_STATUS_LIFETIME = "BLOCKWISE_STATUS_LIFETIME";
+		/**
+		 * The maximum number of requests for blocks of a blockwise transferred
+		 * response that are sent to a peer without waiting for the responses
+		 * to the previously sent ones.
+		 * <p>
+		 * A value greater than {@code 1} allows retrieving the blocks of a
+		 * large response body in parallel, i.e. the transfer time depends on
+		 * the available bandwidth rather than on the round trip time times the
+		 * number of blocks. Note that a window greater than {@code 1} exceeds
+		 * the limit of outstanding interactions recommended by
+		 * <a href="https://tools.ietf.org/html/rfc7252#section-4.7">RFC 7252,
+		 * Section 4.7</a> and should only be used with peers known to cope
+		 * with it.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_BLOCKWISE_PIPELINE_WINDOW}, i.e.
+		 * blocks are retrieved one after the other.
+		 */
+		public static final String BLOCKWISE_PIPELINE_WINDOW = "BLOCKWISE_PIPELINE_WINDOW";
+		/**
+		 * The maximum number of response bodies that are kept in a cache
+		 * shared by all blockwise transfers of a server.
+		 * <p>
+		 * Only the bodies of responses containing a single ETag are cached.
+		 * The blocks of such a body are created once per resource, ETag,
+		 * Content-Format and block size and are then shared by all clients
+		 * retrieving the same representation, i.e. the memory used does not
+		 * grow with the number of concurrent downloads. A cached body is
+		 * replaced by a new one if it has not been used for
+		 * {@link #BLOCKWISE_STATUS_LIFETIME}.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_BLOCKWISE_CACHE_SIZE}.
+		 * A value of {@code 0} disables the cache.
+		 */
+		public static final String BLOCKWISE_CACHE_SIZE = "BLOCKWISE_CACHE_SIZE";
 
 		public static final String NOTIFICATION_CHECK_INTERVAL_TIME = "NOTIFICATION_CHECK_INTERVAL";
 		public static final String NOTIFICATION_CHECK_INTERVAL_COUNT = "NOTIFICATION_CHECK_INTERVAL_COUNT";
 		public static final String NOTIFICATION_REREGISTRATION_BACKOFF = "NOTIFICATION_REREGISTRATION_BACKOFF";
+		/**
+		 * The minimum time (in milliseconds) between two notifications sent
+		 * to the same observer.
+		 * <p>
+		 * Notifications for state changes occurring within this interval are
+		 * coalesced, i.e. only the latest one is sent once the interval has
+		 * elapsed. An observer may request a larger interval by means of a
+		 * {@code pmin} query parameter (in seconds) in its observe request.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_NOTIFICATION_MIN_INTERVAL}.
+		 * A value of {@code 0} sends notifications as soon as they are
+		 * available.
+		 */
+		public static final String NOTIFICATION_MIN_INTERVAL = "NOTIFICATION_MIN_INTERVAL";
 
 		public static final String USE_CONGESTION_CONTROL = "USE_CONGESTION_CONTROL";
 		public static final String CONGESTION_CONTROL_ALGORITHM = "CONGESTION_CONTROL_ALGORITHM";
+		/**
+		 * The maximum number of exchanges per remote endpoint that the
+		 * congestion control layer queues for deferred transmission. Each
+		 * endpoint has separate queues for confirmable and non-confirmable
+		 * messages.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_CONGESTION_CONTROL_QUEUE_LIMIT}.
+		 */
+		public static final String CONGESTION_CONTROL_QUEUE_LIMIT = "CONGESTION_CONTROL_QUEUE_LIMIT";
+
+		/**
+		 * Enables limiting the number of outstanding requests per peer to
+		 * {@link #NSTART}. Requests exceeding the limit are queued until an
+		 * outstanding request has been acknowledged or answered.
+		 * <p>
+		 * This property is ignored if {@link #USE_CONGESTION_CONTROL} is
+		 * enabled. The default value of this property is {@code false}.
+		 */
+		public static final String USE_REQUEST_SCHEDULING = "USE_REQUEST_SCHEDULING";
+		/**
+		 * The maximum number of requests queued per peer if
+		 * {@link #USE_REQUEST_SCHEDULING} is enabled. Requests exceeding
+		 * this limit are rejected.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_REQUEST_SCHEDULING_QUEUE_SIZE}.
+		 */
+		public static final String REQUEST_SCHEDULING_QUEUE_SIZE = "REQUEST_SCHEDULING_QUEUE_SIZE";
+		/**
+		 * The maximum time (in milliseconds) a request is queued if
+		 * {@link #USE_REQUEST_SCHEDULING} is enabled. Requests that cannot
+		 * be sent within this time time out.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_REQUEST_SCHEDULING_QUEUE_TIMEOUT}.
+		 */
+		public static final String REQUEST_SCHEDULING_QUEUE_TIMEOUT = "REQUEST_SCHEDULING_QUEUE_TIMEOUT";
+
+		/**
+		 * Enables a fast path for simple GET requests answered by a
+		 * piggybacked response. Such requests are delivered without passing
+		 * the layers of the stack and are not registered with the
+		 * deduplicator. The responses are sent without passing the layers
+		 * if they neither require blockwise transfer nor establish an
+		 * observe relation.
+		 * <p>
+		 * Duplicates of such requests are processed again, which RFC 7252,
+		 * Section 4.5 permits for idempotent requests. Only enable this
+		 * property if the resources handle GET requests in an idempotent
+		 * way. The default value of this property is {@code false}.
+		 */
+		public static final String USE_PIGGYBACKED_FAST_PATH = "USE_PIGGYBACKED_FAST_PATH";
+
+		/**
+		 * Enables shedding load at endpoints based on UDP when the protocol
+		 * stage cannot keep up with inbound messages. New CON requests are
+		 * then answered by a <em>5.03 Service Unavailable</em> response and
+		 * new NON requests are dropped. Responses, empty messages and
+		 * retransmissions of requests already being processed are never
+		 * shed.
+		 * <p>
+		 * The default value of this property is {@code false}.
+		 */
+		public static final String USE_OVERLOAD_PROTECTION = "USE_OVERLOAD_PROTECTION";
+		/**
+		 * The number of inbound messages waiting for the protocol stage at
+		 * which an endpoint is considered overloaded if
+		 * {@link #USE_OVERLOAD_PROTECTION} is enabled.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_OVERLOAD_QUEUE_DEPTH}.
+		 */
+		public static final String OVERLOAD_QUEUE_DEPTH = "OVERLOAD_QUEUE_DEPTH";
+		/**
+		 * The average time (in milliseconds) inbound messages wait for the
+		 * protocol stage above which an endpoint is considered overloaded if
+		 * {@link #USE_OVERLOAD_PROTECTION} is enabled.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_OVERLOAD_LATENCY}.
+		 */
+		public static final String OVERLOAD_LATENCY = "OVERLOAD_LATENCY";
+		/**
+		 * The Max-Age (in seconds) of the 5.03 responses sent while an
+		 * endpoint is overloaded. Clients should not retry their requests
+		 * before the Max-Age has expired.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_OVERLOAD_MAX_AGE}.
+		 */
+		public static final String OVERLOAD_MAX_AGE = "OVERLOAD_MAX_AGE";
+
+		/**
+		 * The duration (in milliseconds) of a tick of the timer wheel used
+		 * for scheduling retransmissions and exchange time outs.
+		 * <p>
+		 * Timers expire with a precision of one tick. The default value of
+		 * this property is {@link NetworkConfigDefaults#DEFAULT_TIMER_TICK_DURATION}.
+		 */
+		public static final String TIMER_TICK_DURATION = "TIMER_TICK_DURATION";
+		/**
+		 * The number of buckets of the timer wheel used for scheduling
+		 * retransmissions and exchange time outs.
+		 * <p>
+		 * The default value of this property is
+		 * {@link NetworkConfigDefaults#DEFAULT_TIMER_WHEEL_SIZE}.
+		 */
+		public static final String TIMER_WHEEL_SIZE = "TIMER_WHEEL_SIZE";
 
 		public static final String PROTOCOL_STAGE_THREAD_COUNT = "PROTOCOL_STAGE_THREAD_COUNT";
 		public static final String NETWORK_STAGE_RECEIVER_THREAD_COUNT = "NETWORK_STAGE_RECEIVER_THREAD_COUNT";
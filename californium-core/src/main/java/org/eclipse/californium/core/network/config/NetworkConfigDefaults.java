@@ -21,6 +21,11 @@
  *                                                    DEFAULT_MID_TRACKER,
  *                                                    DEFAULT_MID_TRACKER_GROUPS, and
  *                                                    DEFAULT_EXCHANGE_LIFETIME
+ *    Bosch Software Innovations GmbH - add defaults for timer wheel
+ *    Bosch Software Innovations GmbH - add defaults for request scheduling
+ *    Bosch Software Innovations GmbH - add defaults for blockwise pipeline window
+ *                                      and block cache
+ *    Bosch Software Innovations GmbH - add default for minimum notification interval
  ******************************************************************************/
 package org.eclipse.californium.core.network.config;
 
@@ -57,6 +62,69 @@ public class NetworkConfigDefaults {
 	 */
 	public static final int DEFAULT_BLOCKWISE_STATUS_LIFETIME = 30 * 1000; // 30 secs
 
+	/**
+	 * The default maximum number of block requests of a blockwise transfer
+	 * that are outstanding at the same time.
+	 */
+	public static final int DEFAULT_BLOCKWISE_PIPELINE_WINDOW = 1;
+
+	/**
+	 * The default maximum number of response bodies kept in the block cache.
+	 */
+	public static final int DEFAULT_BLOCKWISE_CACHE_SIZE = 0; // disabled
+
+	/**
+	 * The default minimum time (in milliseconds) between two notifications
+	 * sent to the same observer.
+	 */
+	public static final long DEFAULT_NOTIFICATION_MIN_INTERVAL = 0; // ms
+
+	/**
+	 * The default duration (in milliseconds) of a tick of the timer wheel.
+	 */
+	public static final int DEFAULT_TIMER_TICK_DURATION = 10; // ms
+
+	/**
+	 * The default number of buckets of the timer wheel.
+	 */
+	public static final int DEFAULT_TIMER_WHEEL_SIZE = 512;
+
+	/**
+	 * The default number of inbound messages waiting for the protocol stage
+	 * at which an endpoint is considered overloaded.
+	 */
+	public static final int DEFAULT_OVERLOAD_QUEUE_DEPTH = 1000;
+
+	/**
+	 * The default average time (in milliseconds) inbound messages wait for the
+	 * protocol stage above which an endpoint is considered overloaded.
+	 */
+	public static final long DEFAULT_OVERLOAD_LATENCY = 500; // ms
+
+	/**
+	 * The default Max-Age (in seconds) of responses sent while an endpoint is
+	 * overloaded.
+	 */
+	public static final int DEFAULT_OVERLOAD_MAX_AGE = 5; // s
+
+	/**
+	 * The default maximum number of exchanges queued per remote endpoint by
+	 * the congestion control layer.
+	 */
+	public static final int DEFAULT_CONGESTION_CONTROL_QUEUE_LIMIT = 50;
+
+	/**
+	 * The default maximum number of requests queued per peer if request
+	 * scheduling is enabled.
+	 */
+	public static final int DEFAULT_REQUEST_SCHEDULING_QUEUE_SIZE = 100;
+
+	/**
+	 * The default maximum time (in milliseconds) a request is queued if
+	 * request scheduling is enabled.
+	 */
+	public static final long DEFAULT_REQUEST_SCHEDULING_QUEUE_TIMEOUT = 30 * 1000; // 30 secs
+
 	/**
 	 * The default MID tracker.
 	 * 
@@ -118,13 +186,29 @@ public class NetworkConfigDefaults {
 		config.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 1024);
 		config.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, DEFAULT_MAX_RESOURCE_BODY_SIZE);
 		config.setInt(NetworkConfig.Keys.BLOCKWISE_STATUS_LIFETIME, DEFAULT_BLOCKWISE_STATUS_LIFETIME); // ms
+		config.setInt(NetworkConfig.Keys.BLOCKWISE_PIPELINE_WINDOW, DEFAULT_BLOCKWISE_PIPELINE_WINDOW);
+		config.setInt(NetworkConfig.Keys.BLOCKWISE_CACHE_SIZE, DEFAULT_BLOCKWISE_CACHE_SIZE);
 
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_TIME, 24 * 60 * 60 * 1000); // ms
 		config.setInt(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_COUNT, 100);
 		config.setLong(NetworkConfig.Keys.NOTIFICATION_REREGISTRATION_BACKOFF, 2000); // ms
+		config.setLong(NetworkConfig.Keys.NOTIFICATION_MIN_INTERVAL, DEFAULT_NOTIFICATION_MIN_INTERVAL);
 
 		config.setBoolean(NetworkConfig.Keys.USE_CONGESTION_CONTROL, false);
 		config.setString(NetworkConfig.Keys.CONGESTION_CONTROL_ALGORITHM, "Cocoa"); // see org.eclipse.californium.core.network.stack.congestioncontrol
+		config.setInt(NetworkConfig.Keys.CONGESTION_CONTROL_QUEUE_LIMIT, DEFAULT_CONGESTION_CONTROL_QUEUE_LIMIT);
+
+		config.setBoolean(NetworkConfig.Keys.USE_REQUEST_SCHEDULING, false);
+		config.setInt(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_SIZE, DEFAULT_REQUEST_SCHEDULING_QUEUE_SIZE);
+		config.setLong(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_TIMEOUT, DEFAULT_REQUEST_SCHEDULING_QUEUE_TIMEOUT); // ms
+		config.setBoolean(NetworkConfig.Keys.USE_PIGGYBACKED_FAST_PATH, false);
+		config.setBoolean(NetworkConfig.Keys.USE_OVERLOAD_PROTECTION, false);
+		config.setInt(NetworkConfig.Keys.OVERLOAD_QUEUE_DEPTH, DEFAULT_OVERLOAD_QUEUE_DEPTH);
+		config.setLong(NetworkConfig.Keys.OVERLOAD_LATENCY, DEFAULT_OVERLOAD_LATENCY); // ms
+		config.setInt(NetworkConfig.Keys.OVERLOAD_MAX_AGE, DEFAULT_OVERLOAD_MAX_AGE); // s
+
+		config.setInt(NetworkConfig.Keys.TIMER_TICK_DURATION, DEFAULT_TIMER_TICK_DURATION); // ms
+		config.setInt(NetworkConfig.Keys.TIMER_WHEEL_SIZE, DEFAULT_TIMER_WHEEL_SIZE);
 
 		config.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, CORES);
 		config.setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, WINDOWS ? CORES : 1);
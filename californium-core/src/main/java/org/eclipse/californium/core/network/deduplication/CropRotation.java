@@ -18,6 +18,7 @@
  *    Kai Hudalla - logging
  *    Achim Kraus (Bosch Software Innovations GmbH) - make first and second
  *                                                    volatile
+ *    Bosch Software Innovations GmbH - support for running on a shared executor
  ******************************************************************************/
 package org.eclipse.californium.core.network.deduplication;
 
@@ -49,7 +50,8 @@ import org.eclipse.californium.elements.util.DaemonThreadFactory;
 public class CropRotation implements Deduplicator {
 
 	private final static Logger LOGGER = Logger.getLogger(CropRotation.class.getCanonicalName());
-	private boolean running = false;
+	private final boolean ownsExecutor;
+	private volatile boolean running = false;
 	private ScheduledExecutorService executor;
 
 	private final ExchangeMap maps[];
@@ -68,6 +70,23 @@ public class CropRotation implements Deduplicator {
 	 * @param config The configuration properties.
 	 */
 	public CropRotation(NetworkConfig config) {
+		this(config, null);
+	}
+
+	/**
+	 * Creates a new crop rotation deduplicator running the rotation on a given
+	 * executor.
+	 * <p>
+	 * The executor is not shut down when this deduplicator is stopped, so it can
+	 * be shared with other components.
+	 * 
+	 * @param config The configuration properties.
+	 * @param executor The executor to run the rotation on or {@code null} if the
+	 *            deduplicator should create a single threaded executor of its own.
+	 */
+	public CropRotation(NetworkConfig config, ScheduledExecutorService executor) {
+		this.executor = executor;
+		this.ownsExecutor = executor == null;
 		this.rotation = new Rotation();
 		maps = new ExchangeMap[3];
 		maps[0] = new ExchangeMap();
@@ -81,21 +100,23 @@ public class CropRotation implements Deduplicator {
 	@Override
 	public synchronized void start() {
 		if (!running) {
-			if (executor == null || executor.isShutdown()) {
+			if (ownsExecutor && (executor == null || executor.isShutdown())) {
 				executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Deduplicator"));
 			}
-			rotation.schedule();
 			running = true;
+			rotation.schedule();
 		}
 	}
 
 	@Override
 	public synchronized void stop() {
 		if (running) {
+			running = false;
 			rotation.cancel();
-			executor.shutdown();
+			if (ownsExecutor) {
+				executor.shutdown();
+			}
 			clear();
-			running = false;
 		}
 	}
 
@@ -169,9 +190,12 @@ public class CropRotation implements Deduplicator {
 		}
 		
 		private void schedule() {
-			if (!executor.isShutdown()) {
-				LOGGER.log(Level.FINE, "CR schedules in {0} ms", period);
-				future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
+			// synchronized with stop(), a shared executor is not shut down
+			synchronized (CropRotation.this) {
+				if (running && !executor.isShutdown()) {
+					LOGGER.log(Level.FINE, "CR schedules in {0} ms", period);
+					future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
+				}
 			}
 		}
 
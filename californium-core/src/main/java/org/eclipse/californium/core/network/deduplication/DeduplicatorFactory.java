@@ -16,9 +16,11 @@
  *    Dominique Im Obersteg - parsers and initial implementation
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
+ *    Bosch Software Innovations GmbH - support for running on a shared executor
  ******************************************************************************/
 package org.eclipse.californium.core.network.deduplication;
 
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.network.Matcher;
@@ -67,13 +69,29 @@ public class DeduplicatorFactory {
 	 * @return The deduplicator to use.
 	 */
 	public Deduplicator createDeduplicator(final NetworkConfig config) {
+		return createDeduplicator(config, null);
+	}
+
+	/**
+	 * Creates a new deduplicator based on the value of the
+	 * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#DEDUPLICATOR} configuration property
+	 * which runs its periodic tasks on a given executor.
+	 * <p>
+	 * Factories creating other deduplicators should override this method as well.
+	 * 
+	 * @param config The configuration properties.
+	 * @param executor The executor to run periodic tasks on or {@code null} if
+	 *            the deduplicator should create an executor of its own.
+	 * @return The deduplicator to use.
+	 */
+	public Deduplicator createDeduplicator(final NetworkConfig config, final ScheduledExecutorService executor) {
 
 		String type = config.getString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.NO_DEDUPLICATOR);
 		switch(type) {
 		case NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP:
-			return new SweepDeduplicator(config);
+			return new SweepDeduplicator(config, executor);
 		case NetworkConfig.Keys.DEDUPLICATOR_CROP_ROTATION:
-			return new CropRotation(config);
+			return new CropRotation(config, executor);
 		case NetworkConfig.Keys.NO_DEDUPLICATOR:
 			return new NoDeduplicator();
 		default:
@@ -18,6 +18,7 @@
  *    Kai Hudalla - logging
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - support for running on a shared executor
  ******************************************************************************/
 package org.eclipse.californium.core.network.deduplication;
 
@@ -50,7 +51,8 @@ public final class SweepDeduplicator implements Deduplicator {
 
 	/** The hash map with all incoming messages. */
 	private final ConcurrentMap<KeyMID, Exchange> incomingMessages = new ConcurrentHashMap<>();
-	private boolean running = false;
+	private final boolean ownsScheduler;
+	private volatile boolean running = false;
 	private ScheduledExecutorService scheduler;
 	private SweepAlgorithm algorithm;
 
@@ -70,27 +72,45 @@ public final class SweepDeduplicator implements Deduplicator {
 	 * @param config the configuration to use.
 	 */
 	public SweepDeduplicator(final NetworkConfig config) {
+		this(config, null);
+	}
+
+	/**
+	 * Creates a new deduplicator running the sweep algorithm on a given executor.
+	 * <p>
+	 * The executor is not shut down when this deduplicator is stopped, so it can
+	 * be shared with other components.
+	 * 
+	 * @param config the configuration to use.
+	 * @param executor the executor to run the sweep algorithm on or {@code null}
+	 *            if the deduplicator should create a single threaded executor of its own.
+	 */
+	public SweepDeduplicator(final NetworkConfig config, final ScheduledExecutorService executor) {
 		algorithm = new SweepAlgorithm(config);
+		scheduler = executor;
+		ownsScheduler = executor == null;
 	}
 
 	@Override
 	public synchronized void start() {
 		if (!running) {
-			if (scheduler == null || scheduler.isShutdown()) {
+			if (ownsScheduler && (scheduler == null || scheduler.isShutdown())) {
 				scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Deduplicator"));
 			}
-			algorithm.schedule();
 			running = true;
+			algorithm.schedule();
 		}
 	}
 
 	@Override
 	public synchronized void stop() {
 		if (running) {
+			running = false;
 			algorithm.cancel();
-			scheduler.shutdown();
+			if (ownsScheduler) {
+				scheduler.shutdown();
+			}
 			clear();
-			running = false;
 		}
 	}
 
@@ -184,8 +204,11 @@ public final class SweepDeduplicator implements Deduplicator {
 		 * Reschedule this task again.
 		 */
 		private void schedule() {
-			if (!scheduler.isShutdown()) {
-				future = scheduler.schedule(this, sweepInterval, TimeUnit.MILLISECONDS);
+			// synchronized with stop(), a shared scheduler is not shut down
+			synchronized (SweepDeduplicator.this) {
+				if (running && !scheduler.isShutdown()) {
+					future = scheduler.schedule(this, sweepInterval, TimeUnit.MILLISECONDS);
+				}
 			}
 		}
 
@@ -18,6 +18,7 @@
  *    Kai Hudalla - logging
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - add timer service
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
@@ -31,6 +32,7 @@ import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.timer.TimerService;
 
 
 /**
@@ -60,6 +62,9 @@ public abstract class AbstractLayer implements Layer {
 	/** The executor. */
 	protected ScheduledExecutorService executor;
 
+	/** The timer service for scheduling time outs. */
+	protected TimerService timer;
+
 	@Override
 	public void sendRequest(final Exchange exchange, final Request request) {
 		lowerLayer.sendRequest(exchange, request);
@@ -135,6 +140,19 @@ public abstract class AbstractLayer implements Layer {
 		this.executor = executor;
 	}
 
+	/**
+	 * Sets the timer service to use for scheduling retransmissions and
+	 * other time outs.
+	 * <p>
+	 * This method is invoked by the stack for all of its layers extending
+	 * this class.
+	 *
+	 * @param timer The timer service.
+	 */
+	public final void setTimer(final TimerService timer) {
+		this.timer = timer;
+	}
+
 	/**
 	 * Rejects a given message.
 	 * <p>
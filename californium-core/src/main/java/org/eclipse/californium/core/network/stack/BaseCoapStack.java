@@ -20,11 +20,16 @@
  *                                                 explicit String concatenation
  * Joe Magerramov (Amazon Web Services) - CoAP over TCP support.
  * Achim Kraus (Bosch Software Innovations GmbH) - derived from UDP and TCP CoAP stack
+ * Bosch Software Innovations GmbH - share timer service among layers
+ * Bosch Software Innovations GmbH - allow delivering requests bypassing the layers
+ * Bosch Software Innovations GmbH - pass request bodies to consumers provided by
+ *                                   the deliverer
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.core.coap.EmptyMessage;
@@ -33,7 +38,12 @@ import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.Outbox;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.network.stack.Layer.TopDownBuilder;
+import org.eclipse.californium.core.network.timer.ExecutorTimerService;
+import org.eclipse.californium.core.network.timer.HashedWheelTimer;
+import org.eclipse.californium.core.network.timer.TimerService;
+import org.eclipse.californium.core.server.BlockConsumerProvider;
 import org.eclipse.californium.core.server.MessageDeliverer;
 
 /**
@@ -48,12 +58,38 @@ public abstract class BaseCoapStack implements CoapStack {
 	private final Outbox outbox;
 	private final StackTopAdapter top;
 	private final StackBottomAdapter bottom;
+	private final long timerTickDuration;
+	private final int timerWheelSize;
 	private MessageDeliverer deliverer;
+	private TimerService timer;
+	private boolean ownsTimer;
 
 	protected BaseCoapStack(final Outbox outbox) {
+		this(outbox, HashedWheelTimer.DEFAULT_TICK_DURATION, HashedWheelTimer.DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Creates a stack using configuration values for its timer service.
+	 * <p>
+	 * The {@link NetworkConfig.Keys#TIMER_TICK_DURATION} and
+	 * {@link NetworkConfig.Keys#TIMER_WHEEL_SIZE} values are used for
+	 * creating the timer service shared by the layers unless a timer service
+	 * is set explicitly.
+	 * 
+	 * @param config The configuration values to use.
+	 * @param outbox The adapter for submitting outbound messages to the transport.
+	 */
+	protected BaseCoapStack(final NetworkConfig config, final Outbox outbox) {
+		this(outbox, config.getLong(NetworkConfig.Keys.TIMER_TICK_DURATION),
+				config.getInt(NetworkConfig.Keys.TIMER_WHEEL_SIZE));
+	}
+
+	private BaseCoapStack(final Outbox outbox, final long timerTickDuration, final int timerWheelSize) {
 		this.top = new StackTopAdapter();
 		this.bottom = new StackBottomAdapter();
 		this.outbox = outbox;
+		this.timerTickDuration = timerTickDuration;
+		this.timerWheelSize = timerWheelSize;
 	}
 
 	/**
@@ -97,6 +133,17 @@ public abstract class BaseCoapStack implements CoapStack {
 		bottom.receiveRequest(exchange, request);
 	}
 
+	/**
+	 * Delivers a request to the message deliverer without passing it through
+	 * the layers.
+	 * 
+	 * @param exchange The exchange of the request.
+	 * @param request The request.
+	 */
+	protected final void deliverRequest(final Exchange exchange, final Request request) {
+		top.receiveRequest(exchange, request);
+	}
+
 	@Override
 	public void receiveResponse(final Exchange exchange, final Response response) {
 		// delegate to bottom
@@ -114,11 +161,62 @@ public abstract class BaseCoapStack implements CoapStack {
 		for (Layer layer : layers) {
 			layer.setExecutor(executor);
 		}
+		if (timer == null || ownsTimer) {
+			// expired timers are run on the new executor
+			stopOwnTimer();
+			if (timerTickDuration == HashedWheelTimer.DEFAULT_TICK_DURATION
+					&& timerWheelSize == HashedWheelTimer.DEFAULT_TICKS_PER_WHEEL) {
+				// share a single timer thread among all stacks using the default configuration
+				setLayerTimer(ExecutorTimerService.onSharedTimer(executor));
+			} else {
+				setLayerTimer(new HashedWheelTimer(executor, timerTickDuration, TimeUnit.MILLISECONDS, timerWheelSize));
+			}
+			ownsTimer = true;
+		}
+	}
+
+	/**
+	 * Sets the timer service shared by all layers for scheduling
+	 * retransmissions and other time outs.
+	 * <p>
+	 * If no timer service is set, the stack creates its own timer service
+	 * when the executor is set and stops it when the stack is destroyed.
+	 * 
+	 * @param timer The timer service.
+	 */
+	public final void setTimer(final TimerService timer) {
+		stopOwnTimer();
+		setLayerTimer(timer);
+	}
+
+	private void setLayerTimer(final TimerService timer) {
+		this.timer = timer;
+		for (Layer layer : layers) {
+			if (layer instanceof AbstractLayer) {
+				((AbstractLayer) layer).setTimer(timer);
+			}
+		}
+	}
+
+	private void stopOwnTimer() {
+		if (ownsTimer) {
+			timer.stop();
+			ownsTimer = false;
+		}
 	}
 
 	@Override
 	public final void setDeliverer(final MessageDeliverer deliverer) {
 		this.deliverer = deliverer;
+		BlockConsumerProvider provider = null;
+		if (deliverer instanceof BlockConsumerProvider) {
+			provider = (BlockConsumerProvider) deliverer;
+		}
+		for (Layer layer : layers) {
+			if (layer instanceof BlockwiseLayer) {
+				((BlockwiseLayer) layer).setBlockConsumerProvider(provider);
+			}
+		}
 	}
 
 	@Override
@@ -131,6 +229,7 @@ public abstract class BaseCoapStack implements CoapStack {
 		for (Layer layer : layers) {
 			layer.destroy();
 		}
+		stopOwnTimer();
 	}
 
 	private class StackTopAdapter extends AbstractLayer {
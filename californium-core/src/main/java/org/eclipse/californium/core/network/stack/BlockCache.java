@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import java.util.Arrays;
+
+import org.eclipse.californium.core.coap.BlockSource;
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
+
+/**
+ * A cache for the blocks of response bodies that are transferred blockwise.
+ * <p>
+ * A body is identified by the resource it has been created by, its ETag, its
+ * Content-Format and the block size used for transferring it. Each block of a
+ * cached body is created once only and is then shared by all transfers of the
+ * same body. The blocks returned by a cached body must therefore not be
+ * modified.
+ * <p>
+ * The cache keeps a limited number of bodies. A body is only replaced if it
+ * has not been used for the cache's expiration threshold. If the cache is
+ * full, new bodies are not cached at all.
+ * <p>
+ * This implementation is thread-safe.
+ */
+class BlockCache {
+
+	private final LeastRecentlyUsedCache<Key, CachedBody> bodies;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity The maximum number of bodies to keep.
+	 * @param threshold The number of seconds after which an unused body may
+	 *            be replaced.
+	 */
+	BlockCache(final int capacity, final long threshold) {
+		this.bodies = new LeastRecentlyUsedCache<>(capacity, threshold);
+	}
+
+	/**
+	 * Gets the cached blocks of a body.
+	 * <p>
+	 * If the body is not yet cached, it is split into blocks and added to the
+	 * cache. The blocks of a cached body are never modified, i.e. if a body
+	 * of a different size is provided for the same key, the provided body is
+	 * cached instead of the stale one.
+	 *
+	 * @param resource The path and query identifying the resource.
+	 * @param etag The body's ETag.
+	 * @param contentFormat The body's Content-Format.
+	 * @param szx The block size exponent.
+	 * @param body The body.
+	 * @return The cached body. The body is not necessarily kept in the cache.
+	 */
+	CachedBody getBody(final String resource, final byte[] etag, final int contentFormat, final int szx,
+			final byte[] body) {
+		Key key = new Key(resource, etag, contentFormat, szx);
+		synchronized (bodies) {
+			CachedBody cached = bodies.get(key);
+			if (cached == null || cached.getSize() != body.length) {
+				cached = new CachedBody(body, BlockwiseLayer.getSizeForSzx(szx));
+				bodies.put(key, cached);
+			}
+			return cached;
+		}
+	}
+
+	/**
+	 * Gets the number of cached bodies.
+	 *
+	 * @return The number of bodies.
+	 */
+	int size() {
+		synchronized (bodies) {
+			return bodies.size();
+		}
+	}
+
+	/**
+	 * A body that has been split into blocks.
+	 */
+	static final class CachedBody implements BlockSource {
+
+		private final byte[][] blocks;
+		private final int blockSize;
+		private final int size;
+
+		private CachedBody(final byte[] body, final int blockSize) {
+			this.blockSize = blockSize;
+			this.size = body.length;
+			this.blocks = new byte[(size + blockSize - 1) / blockSize][];
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i] = Arrays.copyOfRange(body, i * blockSize, Math.min(size, (i + 1) * blockSize));
+			}
+		}
+
+		@Override
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * Returns the shared block if the range matches a block. Otherwise,
+		 * e.g. if a peer has reduced the block size during the transfer, the
+		 * range is copied from the blocks.
+		 */
+		@Override
+		public byte[] read(final int offset, final int length) {
+			int index = offset / blockSize;
+			if (offset % blockSize == 0 && index < blocks.length && blocks[index].length == length) {
+				return blocks[index];
+			}
+			byte[] part = new byte[length];
+			int copied = 0;
+			while (copied < length) {
+				int position = offset + copied;
+				byte[] block = blocks[position / blockSize];
+				int from = position % blockSize;
+				int count = Math.min(block.length - from, length - copied);
+				System.arraycopy(block, from, part, copied, count);
+				copied += count;
+			}
+			return part;
+		}
+	}
+
+	private static final class Key {
+
+		private final String resource;
+		private final byte[] etag;
+		private final int contentFormat;
+		private final int szx;
+		private final int hash;
+
+		Key(final String resource, final byte[] etag, final int contentFormat, final int szx) {
+			this.resource = resource;
+			this.etag = etag;
+			this.contentFormat = contentFormat;
+			this.szx = szx;
+			this.hash = 31 * (31 * (31 * resource.hashCode() + Arrays.hashCode(etag)) + contentFormat) + szx;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return szx == other.szx && contentFormat == other.contentFormat && resource.equals(other.resource)
+					&& Arrays.equals(etag, other.etag);
+		}
+	}
+}
@@ -21,16 +21,32 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - check, if exchange is already
  *                                                    completed before report timeout.
  *                                                    Issue #103
+ *    Bosch Software Innovations GmbH - schedule block clean up using timer service
+ *    Bosch Software Innovations GmbH - stream bodies from BlockSource and to
+ *                                      BlockConsumer
+ *    Bosch Software Innovations GmbH - retrieve blocks of a response in parallel
+ *    Bosch Software Innovations GmbH - share blocks of cacheable responses
+ *    Bosch Software Innovations GmbH - pass blocks of request bodies to consumers
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ScheduledFuture;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.BlockConsumer;
 import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.BlockSource;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.CoAP.Type;
@@ -41,7 +57,11 @@ import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
+import org.eclipse.californium.core.network.timer.Timeout;
+import org.eclipse.californium.core.server.BlockConsumerProvider;
 
 /**
  * Provides transparent handling of blockwise transfer of a large <em>resource body</em>.
@@ -54,7 +74,27 @@ import org.eclipse.californium.core.network.config.NetworkConfig;
  * a resource body then a blockwise transfer for retrieving the individual blocks of the resource
  * body is started. Once all blocks are retrieved, they are assembled into a single {@code Response}
  * object containing the full body which is then delivered to the application layer.
- * 
+ * <p>
+ * Bodies may also be streamed in order to transfer bodies of arbitrary size with constant
+ * memory: the blocks of an outbound message having a {@link BlockSource} are read from the
+ * source when they are sent, and the blocks of a response to a request having a
+ * {@link BlockConsumer} are passed to the consumer as they arrive. Likewise, the blocks of
+ * an inbound request are passed to the consumer provided by the
+ * {@linkplain #setBlockConsumerProvider(BlockConsumerProvider) block consumer provider}, if any.
+ * Neither is limited by
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MAX_RESOURCE_BODY_SIZE}.
+ * Sources and consumers are invoked on the threads of the protocol stage and should
+ * therefore not block.
+ * <p>
+ * The remaining blocks of a response to a confirmable request may be retrieved in parallel
+ * by setting {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#BLOCKWISE_PIPELINE_WINDOW}
+ * to a value greater than 1. In this case each block is requested in an exchange of its own and
+ * blocks arriving out of order are kept until all preceding blocks have arrived.
+ * <p>
+ * A server may share the blocks of responses containing an ETag among all clients retrieving
+ * the same representation by setting
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#BLOCKWISE_CACHE_SIZE}
+ * to a value greater than 0.
  */
 public class BlockwiseLayer extends AbstractLayer {
 
@@ -100,6 +140,10 @@ public class BlockwiseLayer extends AbstractLayer {
 	private int preferredBlockSize;
 	private int blockTimeout;
 	private int maxResourceBodySize;
+	private int pipelineWindow;
+	private BlockCache blockCache;
+	private volatile BlockConsumerProvider blockConsumerProvider;
+	private final ConcurrentMap<Exchange, Block2Pipeline> pipelinedBlocks = new ConcurrentHashMap<>();
 
 	/**
 	 * Creates a new blockwise layer for a configuration.
@@ -128,6 +172,14 @@ public class BlockwiseLayer extends AbstractLayer {
 	 * The maximum amount of time (in milliseconds) allowed between transfers of individual blocks before
 	 * the blockwise transfer state is discarded.
 	 * If not set, a default value of 30 seconds is used.</li>
+	 * 
+	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#BLOCKWISE_PIPELINE_WINDOW} -
+	 * The maximum number of blocks of a response that are requested in parallel.
+	 * If not set, the blocks are requested one after the other.</li>
+	 * 
+	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#BLOCKWISE_CACHE_SIZE} -
+	 * The maximum number of response bodies of which the blocks are shared by all transfers.
+	 * If not set, the blocks are not shared.</li>
 	 * </ul>
 
 	 * @param config The configuration values to use.
@@ -138,10 +190,31 @@ public class BlockwiseLayer extends AbstractLayer {
 		preferredBlockSize = config.getInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 512);
 		blockTimeout = config.getInt(NetworkConfig.Keys.BLOCKWISE_STATUS_LIFETIME);
 		maxResourceBodySize = config.getInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 2048);
+		pipelineWindow = Math.max(1, config.getInt(NetworkConfig.Keys.BLOCKWISE_PIPELINE_WINDOW,
+				NetworkConfigDefaults.DEFAULT_BLOCKWISE_PIPELINE_WINDOW));
+		int cacheSize = config.getInt(NetworkConfig.Keys.BLOCKWISE_CACHE_SIZE,
+				NetworkConfigDefaults.DEFAULT_BLOCKWISE_CACHE_SIZE);
+		if (cacheSize > 0) {
+			blockCache = new BlockCache(cacheSize, Math.max(1, TimeUnit.MILLISECONDS.toSeconds(blockTimeout)));
+		}
 
 		LOGGER.log(Level.CONFIG,
-			"BlockwiseLayer uses MAX_MESSAGE_SIZE={0}, PREFERRED_BLOCK_SIZE={1}, BLOCKWISE_STATUS_LIFETIME={2} and MAX_RESOURCE_BODY_SIZE={3}",
-			new Object[]{maxMessageSize, preferredBlockSize, blockTimeout, maxResourceBodySize});
+			"BlockwiseLayer uses MAX_MESSAGE_SIZE={0}, PREFERRED_BLOCK_SIZE={1}, BLOCKWISE_STATUS_LIFETIME={2}, MAX_RESOURCE_BODY_SIZE={3}, BLOCKWISE_PIPELINE_WINDOW={4} and BLOCKWISE_CACHE_SIZE={5}",
+			new Object[]{maxMessageSize, preferredBlockSize, blockTimeout, maxResourceBodySize, pipelineWindow, cacheSize});
+	}
+
+	/**
+	 * Sets the provider of consumers for the bodies of inbound requests.
+	 * <p>
+	 * The provider is asked for a consumer when the first block of a request's
+	 * body has been received. If it returns a consumer, the blocks are passed to
+	 * the consumer instead of being assembled into the request's payload.
+	 * 
+	 * @param provider The provider or {@code null} if all request bodies should
+	 *            be assembled.
+	 */
+	public void setBlockConsumerProvider(final BlockConsumerProvider provider) {
+		this.blockConsumerProvider = provider;
 	}
 
 	@Override
@@ -166,10 +239,13 @@ public class BlockwiseLayer extends AbstractLayer {
 			// This must be a large POST or PUT request
 			startBlockwiseUpload(exchange, request);
 
-		} else {
+		} else if (readPayloadFromSource(request)) {
 			// no blockwise transfer required
 			exchange.setCurrentRequest(request);
 			lower().sendRequest(exchange, request);
+
+		} else {
+			request.cancel();
 		}
 	}
 
@@ -178,8 +254,12 @@ public class BlockwiseLayer extends AbstractLayer {
 		BlockwiseStatus status = findRequestBlockStatus(exchange, request);
 
 		final Request block = getNextRequestBlock(request, status);
+		if (block == null) {
+			request.cancel();
+			return;
+		}
 		// indicate overall body size to peer
-		block.getOptions().setSize1(request.getPayloadSize());
+		block.getOptions().setSize1(getBodySize(request));
 
 		exchange.setRequestBlockStatus(status);
 		exchange.setCurrentRequest(block);
@@ -211,23 +291,42 @@ public class BlockwiseLayer extends AbstractLayer {
 
 			BlockOption block2 = request.getOptions().getBlock2();
 			Response response = exchange.getResponse();
-			BlockwiseStatus status = findResponseBlockStatus(exchange, response);
-			status.setCurrentNum(block2.getNum());
-			status.setCurrentSzx(block2.getSzx());
-
-			Response block = getNextResponseBlock(response, status);
-			// indicate overall body size to peer
-			block.getOptions().setSize2(response.getPayloadSize());
-			if (status.isComplete()) {
-				// clean up blockwise status
-				LOGGER.log(Level.FINE, "peer has requested last block of blockwise transfer: {0}", status);
-				exchange.setResponseBlockStatus(null);
-				exchange.setBlockCleanupHandle(null);
-			} else {
-				LOGGER.log(Level.FINE, "peer has requested intermediary block of blockwise transfer: {0}", status);
+			Response block;
+			// a client may request several blocks in parallel
+			synchronized (exchange) {
+				BlockwiseStatus status = findResponseBlockStatus(exchange, response);
+				status.setCurrentNum(block2.getNum());
+				status.setCurrentSzx(block2.getSzx());
+
+				block = getNextResponseBlock(response, status);
+				if (block == null) {
+					sendBodyUnavailable(exchange, request);
+					return;
+				}
+				// indicate overall body size to peer
+				block.getOptions().setSize2(getBodySize(response));
+				if (status.isComplete()) {
+					// clean up blockwise status
+					LOGGER.log(Level.FINE, "peer has requested last block of blockwise transfer: {0}", status);
+					exchange.setResponseBlockStatus(null);
+					exchange.setBlockCleanupHandle(null);
+				} else {
+					LOGGER.log(Level.FINE, "peer has requested intermediary block of blockwise transfer: {0}", status);
+				}
+				// the block answers this request, which is not necessarily the
+				// exchange's current request
+				block.setToken(request.getToken());
+				if (request.getType() == Type.CON) {
+					// piggy-back the block on the ACK for this request
+					request.setAcknowledged(true);
+					block.setType(Type.ACK);
+					block.setMID(request.getMID());
+				} else {
+					block.setType(Type.NON);
+				}
+				exchange.setCurrentResponse(block);
 			}
 
-			exchange.setCurrentResponse(block);
 			lower().sendResponse(exchange, block);
 
 		} else {
@@ -240,7 +339,28 @@ public class BlockwiseLayer extends AbstractLayer {
 
 	private void handleInboundBlockwiseUpload(final BlockOption block1, final Exchange exchange, final Request request) {
 
-		if (requestExceedsMaxBodySize(request)) {
+		BlockwiseStatus status = exchange.getRequestBlockStatus();
+		if (block1.getNum() == 0 && status != null && status.getCurrentNum() > 0) {
+			// reset the blockwise transfer
+			LOGGER.finer("Block1 num is 0, the client has restarted the blockwise transfer. Reset status.");
+			// reset current status
+			exchange.setRequestBlockStatus(null);
+			status = null;
+		}
+		if (status == null && block1.getNum() == 0) {
+			BlockConsumerProvider provider = blockConsumerProvider;
+			BlockConsumer consumer = provider == null ? null : provider.getBlockConsumer(request);
+			if (consumer != null) {
+				// the body is passed on block by block, i.e. its size is not limited
+				status = new BlockwiseStatus(consumer, request.getOptions().getContentFormat());
+				status.setFirst(request);
+				status.setCurrentSzx(computeSZX(preferredBlockSize));
+				exchange.setRequestBlockStatus(status);
+				LOGGER.log(Level.FINER, "Passing blocks of request body to consumer. Block1 status: {0}", status);
+			}
+		}
+
+		if ((status == null || !status.hasConsumer()) && requestExceedsMaxBodySize(request)) {
 
 			Response error = Response.createResponse(request, ResponseCode.REQUEST_ENTITY_TOO_LARGE);
 			error.setPayload(String.format("body too large, can process %d bytes max", maxResourceBodySize));
@@ -249,22 +369,28 @@ public class BlockwiseLayer extends AbstractLayer {
 
 		} else {
 
-			BlockwiseStatus status = findRequestBlockStatus(exchange, request);
-
-			if (block1.getNum() == 0 && status.getCurrentNum() > 0) {
-				// reset the blockwise transfer
-				LOGGER.finer("Block1 num is 0, the client has restarted the blockwise transfer. Reset status.");
-				// reset current status
-				exchange.setRequestBlockStatus(null);
-				// and create new status for fresher notification
-				status = findRequestBlockStatus(exchange, request);
-			}
+			status = findRequestBlockStatus(exchange, request);
 
 			if (block1.getNum() == status.getCurrentNum()) {
 
 				if (status.hasContentFormat(request.getOptions().getContentFormat())) {
 
-					status.addBlock(request.getPayload());
+					if (!status.addBlock(request.getPayload())) {
+						LOGGER.fine("cannot process block of request body, aborting transfer");
+						exchange.setRequestBlockStatus(null);
+						Response error;
+						if (status.hasConsumer()) {
+							error = Response.createResponse(request, ResponseCode.INTERNAL_SERVER_ERROR);
+							error.setPayload("cannot process block");
+						} else {
+							error = Response.createResponse(request, ResponseCode.REQUEST_ENTITY_TOO_LARGE);
+							error.setPayload(String.format("body too large, can process %d bytes max", maxResourceBodySize));
+							error.getOptions().setSize1(maxResourceBodySize);
+						}
+						exchange.setCurrentResponse(error);
+						lower().sendResponse(exchange, error);
+						return;
+					}
 					status.setCurrentNum(status.getCurrentNum() + 1);
 					if ( block1.isM() ) {
 						LOGGER.finest("There are more blocks to come. Acknowledge this block.");
@@ -333,8 +459,13 @@ public class BlockwiseLayer extends AbstractLayer {
 		if (requiresBlockwise(exchange, response)) {
 
 			BlockwiseStatus status = findResponseBlockStatus(exchange, response);
-			int bodySize = response.getPayloadSize();
+			useBlockCache(exchange, response, status.getCurrentSzx());
+			int bodySize = getBodySize(response);
 			Response block = getNextResponseBlock(response, status);
+			if (block == null) {
+				sendBodyUnavailable(exchange, exchange.getRequest());
+				return;
+			}
 			// indicate overall body size to peer
 			block.getOptions().setSize2(bodySize);
 
@@ -353,6 +484,9 @@ public class BlockwiseLayer extends AbstractLayer {
 			exchange.setCurrentResponse(block);
 			lower().sendResponse(exchange, block);
 
+		} else if (!readPayloadFromSource(response)) {
+			sendBodyUnavailable(exchange, exchange.getRequest());
+
 		} else {
 			if (block1 != null) {
 				response.getOptions().setBlock1(block1);
@@ -378,7 +512,12 @@ public class BlockwiseLayer extends AbstractLayer {
 	@Override
 	public void receiveResponse(final Exchange exchange, final Response response) {
 
-		if (exchange.getRequest().isCanceled()) {
+		Block2Pipeline pipeline = pipelinedBlocks.remove(exchange);
+		if (pipeline != null) {
+			// a block requested in parallel
+			pipeline.receiveBlock(exchange, response);
+
+		} else if (exchange.getRequest().isCanceled()) {
 			// do not continue fetching blocks if canceled
 			// reject (in particular for Block+Observe)
 			if (response.getType()!=Type.ACK) {
@@ -480,9 +619,13 @@ public class BlockwiseLayer extends AbstractLayer {
 		requestStatus.setCurrentNum(nextNum);
 		requestStatus.setCurrentSzx(newSzx);
 		Request nextBlock = getNextRequestBlock(exchange.getRequest(), requestStatus);
+		if (nextBlock == null) {
+			exchange.getRequest().cancel();
+			return;
+		}
 
 		// indicate overall body size to peer
-		nextBlock.getOptions().setSize1(exchange.getRequest().getPayloadSize());
+		nextBlock.getOptions().setSize1(getBodySize(exchange.getRequest()));
 
 		// we use the same token to ease traceability
 		nextBlock.setToken(response.getToken());
@@ -502,7 +645,7 @@ public class BlockwiseLayer extends AbstractLayer {
 	 */
 	private void handleBlock2Response(final Exchange exchange, final Response response, final BlockOption block2) {
 
-		if (responseExceedsMaxBodySize(response)) {
+		if (exchange.getRequest().getResponseConsumer() == null && responseExceedsMaxBodySize(response)) {
 			LOGGER.log(Level.FINE, "requested resource body exceeds max buffer size [{0}], aborting request", maxResourceBodySize);
 			exchange.getRequest().cancel();
 			return;
@@ -532,7 +675,11 @@ public class BlockwiseLayer extends AbstractLayer {
 			// We got the block we expected :-)
 
 			if (!responseStatus.addBlock(response.getPayload())) {
-				LOGGER.log(Level.FINE, "requested resource body exceeds max buffer size [{0}], aborting request", maxResourceBodySize);
+				if (responseStatus.hasConsumer()) {
+					LOGGER.fine("response consumer cannot process block, aborting request");
+				} else {
+					LOGGER.log(Level.FINE, "requested resource body exceeds max buffer size [{0}], aborting request", maxResourceBodySize);
+				}
 				exchange.getRequest().cancel();
 				return;
 			}
@@ -547,20 +694,21 @@ public class BlockwiseLayer extends AbstractLayer {
 				exchange.setResponse(response);
 				upper().receiveResponse(exchange, response);
 			
+			} else if (block2.isM() && isPipeliningApplicable(exchange, response, block2, responseStatus)) {
+
+				int blockCount = (response.getOptions().getSize2() + block2.getSize() - 1) / block2.getSize();
+				LOGGER.log(Level.FINER, "Requesting remaining {0} Block2 blocks in parallel", blockCount - 1);
+				new Block2Pipeline(exchange, responseStatus, block2.getSzx(), blockCount).start();
+
 			} else if (block2.isM()) {
 
 				Request request = exchange.getRequest();
 				int num = block2.getNum() + 1;
 				int szx = block2.getSzx();
-				boolean m = false;
 
 				LOGGER.log(Level.FINER, "Requesting next Block2 num={0}", num);
 
-				Request block = new Request(request.getCode());
-				// do not enforce CON, since NON could make sense over SMS or similar transports
-				block.setType(request.getType());
-				block.setDestination(request.getDestination());
-				block.setDestinationPort(request.getDestinationPort());
+				Request block = newBlock2Request(request, szx, num);
 
 				/*
 				 * WARNING:
@@ -571,13 +719,6 @@ public class BlockwiseLayer extends AbstractLayer {
 				 */
 				if (!response.getOptions().hasObserve()) block.setToken(response.getToken());
 
-				// copy options
-				block.setOptions(new OptionSet(request.getOptions()));
-				// make sure NOT to use Observe for block retrieval
-				block.getOptions().removeObserve();
-
-				block.getOptions().setBlock2(szx, m, num);
-
 				// copy message observers from original request so that they will be notified
 				// if something goes wrong with this blockwise request, e.g. if it times out
 				block.addMessageObservers(request.getMessageObservers());
@@ -588,38 +729,7 @@ public class BlockwiseLayer extends AbstractLayer {
 				lower().sendRequest(exchange, block);
 
 			} else {
-				LOGGER.log(Level.FINER, "We have received all {0} blocks of the response. Assemble and deliver", responseStatus.getBlockCount());
-				Response assembled = new Response(response.getCode());
-
-				assembleMessage(responseStatus, assembled);
-
-				// set overall transfer RTT
-				assembled.setRTT(System.currentTimeMillis() - exchange.getTimestamp());
-
-				// Check if this response is a notification
-				int observe = responseStatus.getObserve();
-				if (observe != BlockwiseStatus.NO_OBSERVE) {
-
-					/*
-					 * When retrieving the rest of a blockwise notification
-					 * with a different token, the additional Matcher state
-					 * must be cleaned up through the call below.
-					 */
-					if (!response.getOptions().hasObserve()) {
-						// call the clean-up mechanism for the additional Matcher entry in exchangesByToken
-						exchange.completeCurrentRequest();
-					}
-
-					assembled.getOptions().setObserve(observe);
-					// This is necessary for notifications that are sent blockwise:
-					// Reset block number AND container with all blocks
-					exchange.setResponseBlockStatus(null);
-				}
-
-				LOGGER.log(Level.FINE, "Assembled response: {0}", assembled);
-				// Set the assembled response as current response
-				exchange.setResponse(assembled);
-				upper().receiveResponse(exchange, assembled);
+				deliverAssembledResponse(exchange, responseStatus, response);
 			}
 
 		} else {
@@ -636,8 +746,94 @@ public class BlockwiseLayer extends AbstractLayer {
 		}
 	}
 
+	/**
+	 * Replaces the body of a response to be sent blockwise with the blocks
+	 * kept in the block cache, if the response is cacheable.
+	 * <p>
+	 * All transfers of the same representation then share the same blocks
+	 * instead of each keeping a copy of the body.
+	 */
+	private void useBlockCache(final Exchange exchange, final Response response, final int szx) {
+		if (blockCache != null && exchange.getRequest() != null && response.getPayloadSource() == null
+				&& response.getPayloadSize() > 0 && response.getOptions().getETagCount() == 1
+				&& !response.getOptions().hasObserve()) {
+			OptionSet requestOptions = exchange.getRequest().getOptions();
+			String resource = requestOptions.getUriPathString() + "?" + requestOptions.getUriQueryString();
+			BlockSource body = blockCache.getBody(resource, response.getOptions().getETags().get(0),
+					response.getOptions().getContentFormat(), szx, response.getPayload());
+			response.setPayloadSource(body);
+			response.setPayload((byte[]) null);
+		}
+	}
+
+	/**
+	 * Checks whether the remaining blocks of a response can be requested in
+	 * parallel.
+	 * <p>
+	 * This is the case if pipelining is enabled, the first block of a
+	 * response to a confirmable request has been received and the response
+	 * indicates the overall body size. Notifications are always retrieved
+	 * block by block.
+	 */
+	private boolean isPipeliningApplicable(final Exchange exchange, final Response response, final BlockOption block2,
+			final BlockwiseStatus status) {
+		return pipelineWindow > 1 && block2.getNum() == 0
+				&& exchange.getRequest().getType() == Type.CON
+				&& !response.getOptions().hasObserve() && status.getObserve() == BlockwiseStatus.NO_OBSERVE
+				&& response.getOptions().hasSize2() && response.getOptions().getSize2() > block2.getSize();
+	}
+
+	private void deliverAssembledResponse(final Exchange exchange, final BlockwiseStatus responseStatus, final Response response) {
+		LOGGER.log(Level.FINER, "We have received all {0} blocks of the response. Assemble and deliver", responseStatus.getBlockCount());
+		Response assembled = new Response(response.getCode());
+
+		assembleMessage(responseStatus, assembled);
+
+		// set overall transfer RTT
+		assembled.setRTT(System.currentTimeMillis() - exchange.getTimestamp());
+
+		// Check if this response is a notification
+		int observe = responseStatus.getObserve();
+		if (observe != BlockwiseStatus.NO_OBSERVE) {
+
+			/*
+			 * When retrieving the rest of a blockwise notification
+			 * with a different token, the additional Matcher state
+			 * must be cleaned up through the call below.
+			 */
+			if (!response.getOptions().hasObserve()) {
+				// call the clean-up mechanism for the additional Matcher entry in exchangesByToken
+				exchange.completeCurrentRequest();
+			}
+
+			assembled.getOptions().setObserve(observe);
+			// This is necessary for notifications that are sent blockwise:
+			// Reset block number AND container with all blocks
+			exchange.setResponseBlockStatus(null);
+		}
+
+		LOGGER.log(Level.FINE, "Assembled response: {0}", assembled);
+		// Set the assembled response as current response
+		exchange.setResponse(assembled);
+		upper().receiveResponse(exchange, assembled);
+	}
+
 	/////////// HELPER METHODS //////////
 
+	private static Request newBlock2Request(final Request request, final int szx, final int num) {
+		Request block = new Request(request.getCode());
+		// do not enforce CON, since NON could make sense over SMS or similar transports
+		block.setType(request.getType());
+		block.setDestination(request.getDestination());
+		block.setDestinationPort(request.getDestinationPort());
+		// copy options
+		block.setOptions(new OptionSet(request.getOptions()));
+		// make sure NOT to use Observe for block retrieval
+		block.getOptions().removeObserve();
+		block.getOptions().setBlock2(szx, false, num);
+		return block;
+	}
+
 	private static void earlyBlock2Negotiation(final Exchange exchange, final Request request) {
 		// Call this method when a request has completely arrived (might have
 		// been sent in one piece without blockwise).
@@ -691,7 +887,11 @@ public class BlockwiseLayer extends AbstractLayer {
 	private BlockwiseStatus findResponseBlockStatus(final Exchange exchange, final Response response) {
 		BlockwiseStatus status = exchange.getResponseBlockStatus();
 		if (status == null) {
-			if (exchange.isOfLocalOrigin()) {
+			BlockConsumer consumer = exchange.isOfLocalOrigin() ? exchange.getRequest().getResponseConsumer() : null;
+			if (consumer != null) {
+				// we are receiving a large body which is passed on block by block
+				status = new BlockwiseStatus(consumer, response.getOptions().getContentFormat());
+			} else if (exchange.isOfLocalOrigin()) {
 				// we are receiving a large body in response to a request originating locally
 				// we need to be prepared to buffer up to MAX_RESOURCE_BODY_SIZE bytes
 				int bufferSize = maxResourceBodySize;
@@ -731,15 +931,17 @@ public class BlockwiseLayer extends AbstractLayer {
 		// the original request
 		block.addMessageObservers(request.getMessageObservers());
 
+		int bodySize = getBodySize(request);
 		int currentSize = 1 << (4 + szx);
 		int from = num * currentSize;
-		int to = Math.min((num + 1) * currentSize, request.getPayloadSize());
-		int length = to - from;
-		byte[] blockPayload = new byte[length];
-		System.arraycopy(request.getPayload(), from, blockPayload, 0, length);
+		int to = Math.min((num + 1) * currentSize, bodySize);
+		byte[] blockPayload = readBody(request, from, to - from);
+		if (blockPayload == null) {
+			return null;
+		}
 		block.setPayload(blockPayload);
 
-		boolean m = (to < request.getPayloadSize());
+		boolean m = (to < bodySize);
 		block.getOptions().setBlock1(szx, m, num);
 
 		status.setComplete(!m);
@@ -764,20 +966,25 @@ public class BlockwiseLayer extends AbstractLayer {
 			block.addMessageObserver(new TimeoutForwarder(response));
 		}
 
-		int payloadsize = response.getPayloadSize();
+		int payloadsize = getBodySize(response);
 		int currentSize = 1 << (4 + szx);
 		int from = num * currentSize;
 
 		if (0 < payloadsize && from < payloadsize) {
-			int to = Math.min((num + 1) * currentSize, response.getPayloadSize());
-			int length = to - from;
-			byte[] blockPayload = new byte[length];
-			boolean m = (to < response.getPayloadSize());
-			block.getOptions().setBlock2(szx, m, num);
+			int to = Math.min((num + 1) * currentSize, payloadsize);
+			boolean m = (to < payloadsize);
 
-			// crop payload -- do after calculation of m in case block==response
-			System.arraycopy(response.getPayload(), from, blockPayload, 0, length);
+			// crop payload -- do before modifying block in case block==response
+			byte[] blockPayload = readBody(response, from, to - from);
+			if (blockPayload == null) {
+				return null;
+			}
+			block.getOptions().setBlock2(szx, m, num);
 			block.setPayload(blockPayload);
+			if (block == response) {
+				// the block's payload must not be read from the source again
+				block.setPayloadSource(null);
+			}
 
 			// do not complete notifications
 			block.setLast(!m && !response.getOptions().hasObserve());
@@ -802,23 +1009,92 @@ public class BlockwiseLayer extends AbstractLayer {
 		message.setPayload(status.getBody());
 	}
 
+	/**
+	 * Gets the size of a message's body.
+	 * 
+	 * @param message The message.
+	 * @return The size of the message's payload source, if set. Otherwise
+	 *         the size of the message's payload.
+	 */
+	private static int getBodySize(final Message message) {
+		BlockSource source = message.getPayloadSource();
+		return source == null ? message.getPayloadSize() : source.getSize();
+	}
+
+	/**
+	 * Reads a part of a message's body from the message's payload source or
+	 * payload.
+	 * 
+	 * @param message The message.
+	 * @param from The offset of the first byte to read.
+	 * @param length The number of bytes to read.
+	 * @return The bytes or {@code null} if the payload source failed.
+	 */
+	private static byte[] readBody(final Message message, final int from, final int length) {
+		BlockSource source = message.getPayloadSource();
+		if (source == null) {
+			byte[] part = new byte[length];
+			System.arraycopy(message.getPayload(), from, part, 0, length);
+			return part;
+		}
+		try {
+			byte[] part = source.read(from, length);
+			if (part != null && part.length == length) {
+				return part;
+			}
+			LOGGER.log(Level.WARNING, "payload source returned {0} instead of {1} bytes",
+					new Object[]{ part == null ? null : part.length, length });
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "cannot read body from payload source", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the whole body of a message that is not transferred blockwise
+	 * from its payload source, if set.
+	 * 
+	 * @param message The message.
+	 * @return {@code false} if the payload source failed.
+	 */
+	private static boolean readPayloadFromSource(final Message message) {
+		if (message.getPayloadSource() != null) {
+			byte[] body = readBody(message, 0, getBodySize(message));
+			if (body == null) {
+				return false;
+			}
+			message.setPayload(body);
+			message.setPayloadSource(null);
+		}
+		return true;
+	}
+
+	private void sendBodyUnavailable(final Exchange exchange, final Request request) {
+		exchange.setResponseBlockStatus(null);
+		exchange.setBlockCleanupHandle(null);
+		Response error = Response.createResponse(request, ResponseCode.INTERNAL_SERVER_ERROR);
+		error.setPayload("body not available");
+		exchange.setCurrentResponse(error);
+		lower().sendResponse(exchange, error);
+	}
+
 	private boolean requiresBlockwise(final Request request) {
 		boolean blockwiseRequired = false;
 		if (request.getCode() == Code.PUT || request.getCode() == Code.POST) {
-			blockwiseRequired = request.getPayloadSize() > maxMessageSize;
+			blockwiseRequired = getBodySize(request) > maxMessageSize;
 		}
 		if (blockwiseRequired) {
 			LOGGER.log(Level.FINE, "request body [{0}/{1}] requires blockwise transfer",
-					new Object[]{request.getPayloadSize(), maxMessageSize});
+					new Object[]{getBodySize(request), maxMessageSize});
 		}
 		return blockwiseRequired;
 	}
 
 	private boolean requiresBlockwise(final Exchange exchange, final Response response) {
-		boolean blockwiseRequired = response.getPayloadSize() > maxMessageSize || exchange.getResponseBlockStatus() != null;
+		boolean blockwiseRequired = getBodySize(response) > maxMessageSize || exchange.getResponseBlockStatus() != null;
 		if (blockwiseRequired) {
 			LOGGER.log(Level.FINE, "response body [{0}/{1}] requires blockwise transfer",
-					new Object[]{response.getPayloadSize(), maxMessageSize});
+					new Object[]{getBodySize(response), maxMessageSize});
 		}
 		return blockwiseRequired;
 	}
@@ -874,14 +1150,14 @@ public class BlockwiseLayer extends AbstractLayer {
 	protected void prepareBlockCleanup(final Exchange exchange) {
 
 		// prevent RejectedExecutionException
-		if (executor.isShutdown()) {
+		if (timer.isStopped()) {
 			LOGGER.info("Endpoint is being destroyed: skipping block clean-up");
 			return;
 		}
 
 		BlockCleanupTask task = new BlockCleanupTask(exchange);
 
-		ScheduledFuture<?> f = executor.schedule(task , blockTimeout, TimeUnit.MILLISECONDS);
+		Timeout f = timer.schedule(task, blockTimeout, TimeUnit.MILLISECONDS);
 		exchange.setBlockCleanupHandle(f);
 	}
 
@@ -906,6 +1182,180 @@ public class BlockwiseLayer extends AbstractLayer {
 		}
 	}
 
+	/**
+	 * Retrieves the remaining blocks of a response body using up to
+	 * BLOCKWISE_PIPELINE_WINDOW block requests in parallel.
+	 * <p>
+	 * Each block is requested in an exchange of its own, i.e. with a token of
+	 * its own. Blocks received out of order are kept until all preceding blocks
+	 * have been added to the transfer's status so that the body is always
+	 * assembled (or passed to a consumer) in order. A block is only requested
+	 * if it is within the window following the next block to be added, i.e.
+	 * at most BLOCKWISE_PIPELINE_WINDOW blocks are either outstanding or kept.
+	 * <p>
+	 * The transfer is aborted when the original request is canceled or times
+	 * out. The original request is canceled if a block cannot be retrieved and
+	 * times out if a block request times out.
+	 */
+	private class Block2Pipeline extends MessageObserverAdapter {
+
+		private final Exchange exchange;
+		private final BlockwiseStatus status;
+		private final int szx;
+		private final int blockCount;
+		// all following fields are guarded by this instance's lock
+		private final Map<Integer, byte[]> received = new HashMap<>();
+		private final Set<Exchange> outstanding = new HashSet<>();
+		private int nextNumToRequest = 1;
+		private int nextNumToAdd = 1;
+		private boolean done;
+
+		Block2Pipeline(final Exchange exchange, final BlockwiseStatus status, final int szx, final int blockCount) {
+			this.exchange = exchange;
+			this.status = status;
+			this.szx = szx;
+			this.blockCount = blockCount;
+		}
+
+		void start() {
+			exchange.getRequest().addMessageObserver(this);
+			requestBlocks();
+		}
+
+		@Override
+		public void onCancel() {
+			abort();
+		}
+
+		@Override
+		public void onTimeout() {
+			abort();
+		}
+
+		private void requestBlocks() {
+			List<Exchange> blocks = new ArrayList<>();
+			synchronized (this) {
+				int limit = Math.min(blockCount, nextNumToAdd + pipelineWindow);
+				while (!done && nextNumToRequest < limit) {
+					Request block = newBlock2Request(exchange.getRequest(), szx, nextNumToRequest++);
+					Exchange blockExchange = new Exchange(block, Origin.LOCAL);
+					blockExchange.setRequest(block);
+					outstanding.add(blockExchange);
+					blocks.add(blockExchange);
+				}
+			}
+			for (Exchange blockExchange : blocks) {
+				Request block = blockExchange.getRequest();
+				block.addMessageObserver(new BlockRequestObserver(this, blockExchange));
+				pipelinedBlocks.put(blockExchange, this);
+				LOGGER.log(Level.FINER, "Requesting Block2 num={0}", block.getOptions().getBlock2().getNum());
+				lower().sendRequest(blockExchange, block);
+			}
+		}
+
+		void receiveBlock(final Exchange blockExchange, final Response response) {
+
+			blockExchange.setComplete();
+			int num = blockExchange.getRequest().getOptions().getBlock2().getNum();
+			BlockOption block2 = response.getOptions().getBlock2();
+			boolean valid = ResponseCode.isSuccess(response.getCode()) && block2 != null
+					&& block2.getNum() == num && block2.getSzx() == szx && block2.isM() == (num < blockCount - 1);
+			boolean failed = false;
+			boolean complete = false;
+
+			synchronized (this) {
+				outstanding.remove(blockExchange);
+				if (done) {
+					return;
+				} else if (!valid || exchange.isComplete()) {
+					failed = true;
+				} else {
+					received.put(num, response.getPayload());
+					byte[] payload;
+					while (!failed && (payload = received.remove(nextNumToAdd)) != null) {
+						if (status.addBlock(payload)) {
+							nextNumToAdd++;
+						} else {
+							failed = true;
+						}
+					}
+					complete = !failed && nextNumToAdd == blockCount;
+					done = complete;
+				}
+			}
+
+			if (failed) {
+				LOGGER.log(Level.FINE, "cannot process Block2 num={0}, aborting request: {1}", new Object[]{num, response});
+				exchange.getRequest().cancel();
+			} else if (complete) {
+				deliverAssembledResponse(exchange, status, response);
+			} else {
+				// postpone clean up of the transfer
+				prepareBlockCleanup(exchange);
+				requestBlocks();
+			}
+		}
+
+		void blockFailed(final Request block) {
+			if (block.isTimedOut()) {
+				exchange.setTimedOut();
+				exchange.getRequest().setTimedOut(true);
+			} else {
+				exchange.getRequest().cancel();
+			}
+		}
+
+		private void abort() {
+			List<Exchange> pending;
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				done = true;
+				pending = new ArrayList<>(outstanding);
+				outstanding.clear();
+				received.clear();
+			}
+			for (Exchange blockExchange : pending) {
+				if (pipelinedBlocks.remove(blockExchange) != null) {
+					blockExchange.getRequest().cancel();
+					blockExchange.setComplete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forwards the failure of a block request sent by a {@link Block2Pipeline}.
+	 */
+	private class BlockRequestObserver extends MessageObserverAdapter {
+
+		private final Block2Pipeline pipeline;
+		private final Exchange blockExchange;
+
+		BlockRequestObserver(final Block2Pipeline pipeline, final Exchange blockExchange) {
+			this.pipeline = pipeline;
+			this.blockExchange = blockExchange;
+		}
+
+		@Override
+		public void onTimeout() {
+			failed();
+		}
+
+		@Override
+		public void onReject() {
+			failed();
+		}
+
+		private void failed() {
+			if (pipelinedBlocks.remove(blockExchange) != null) {
+				blockExchange.setComplete();
+				pipeline.blockFailed(blockExchange.getRequest());
+			}
+		}
+	}
+
 	/*
 	 * When a timeout occurs for a block it has to be forwarded to the origin response.
 	 */
@@ -16,11 +16,16 @@
  *    Dominique Im Obersteg - parsers and initial implementation
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
+ *    Bosch Software Innovations GmbH - pass blocks to consumer instead of buffering
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.BlockConsumer;
 import org.eclipse.californium.core.coap.Message;
 
 /**
@@ -34,6 +39,8 @@ public class BlockwiseStatus {
 
 	public static final int NO_OBSERVE = -1;
 
+	private static final Logger LOGGER = Logger.getLogger(BlockwiseStatus.class.getName());
+
 	/** The first token to manage blockwise Observe */
 	private Message first;
 
@@ -64,6 +71,10 @@ public class BlockwiseStatus {
 
 	private ByteBuffer buf;
 
+	private BlockConsumer consumer;
+
+	private int offset;
+
 	/**
 	 * Instantiates a new blockwise status.
 	 * 
@@ -75,6 +86,18 @@ public class BlockwiseStatus {
 		this.contentFormat = contentFormat;
 	}
 
+	/**
+	 * Instantiates a new blockwise status which passes the blocks to a
+	 * consumer instead of buffering them.
+	 * 
+	 * @param consumer The consumer for the blocks.
+	 * @param contentFormat The Content-Format of the body.
+	 */
+	public BlockwiseStatus(final BlockConsumer consumer, final int contentFormat) {
+		this.consumer = consumer;
+		this.contentFormat = contentFormat;
+	}
+
 	/**
 	 * Instantiates a new blockwise status.
 	 *
@@ -173,15 +196,27 @@ public class BlockwiseStatus {
 
 	/**
 	 * Adds a block to the buffer.
+	 * <p>
+	 * If this status has been created with a consumer, the block is passed
+	 * to the consumer instead.
 	 *
 	 * @param block The block to add.
-	 * @return {@code true} if the block could be added to the buffer.
+	 * @return {@code true} if the block could be added to the buffer or has
+	 *         been consumed.
 	 */
 	public boolean addBlock(final byte[] block) {
 		boolean result = false;
 		if (block == null) {
 			result = true;
-		} else if (block != null && buf.remaining() >= block.length) {
+		} else if (consumer != null) {
+			try {
+				consumer.accept(offset, block);
+				offset += block.length;
+				result = true;
+			} catch (IOException e) {
+				LOGGER.log(Level.FINE, "consumer cannot process block", e);
+			}
+		} else if (buf.remaining() >= block.length) {
 			result = true;
 			buf.put(block);
 		}
@@ -189,6 +224,15 @@ public class BlockwiseStatus {
 		return result;
 	}
 
+	/**
+	 * Checks whether the blocks are passed to a consumer.
+	 * 
+	 * @return {@code true} if the blocks are consumed instead of buffered.
+	 */
+	public boolean hasConsumer() {
+		return consumer != null;
+	}
+
 	/**
 	 * Gets the number of blocks that have been added to the buffer.
 	 *
@@ -204,9 +248,13 @@ public class BlockwiseStatus {
 	 * The buffer will be cleared as part of this method, thus this method should
 	 * only be invoked once there are no more blocks to add.
 	 * 
-	 * @return The bytes contained in the buffer.
+	 * @return The bytes contained in the buffer or {@code null} if the blocks
+	 *         have been passed to a consumer.
 	 */
 	public byte[] getBody() {
+		if (consumer != null) {
+			return null;
+		}
 		buf.flip();
 		byte[] body = new byte[buf.remaining()];
 		buf.get(body).clear();
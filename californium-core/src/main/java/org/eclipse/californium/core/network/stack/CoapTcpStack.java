@@ -80,7 +80,7 @@ public class CoapTcpStack extends BaseCoapStack {
 	 * @param outbox The adapter for submitting outbound messages to the transport.
 	 */
 	public CoapTcpStack(final NetworkConfig config, final Outbox outbox) {
-		super(outbox);
+		super(config, outbox);
 
 		Layer layers[] = new Layer[] {
 				new ExchangeCleanupLayer(),
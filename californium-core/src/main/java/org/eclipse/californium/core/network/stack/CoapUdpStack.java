@@ -19,12 +19,21 @@
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
  *    Achim Kraus (Bosch Software Innovations GmbH) - move common function to BaseCoapStack
+ *    Bosch Software Innovations GmbH - add optional request scheduling layer
+ *    Bosch Software Innovations GmbH - add optional fast path for piggybacked
+ *                                      responses
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.Outbox;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.MessageDeliverer;
@@ -52,6 +61,8 @@ import org.eclipse.californium.elements.Connector;
  * | +----------------------+ |
  * | | {@link ExchangeCleanupLayer} | |
  * | +----------------------+ |
+ * | | {@link RequestSchedulingLayer} | |
+ * | +----------------------+ |
  * | | {@link ObserveLayer}         | |
  * | +----------------------+ |
  * | | {@link BlockwiseLayer}       | |
@@ -72,12 +83,27 @@ import org.eclipse.californium.elements.Connector;
  * | {@link Connector}                |
  * +--------------------------+
  * </pre></blockquote><hr>
+ * <p>
+ * The {@link RequestSchedulingLayer} is only included if
+ * {@link NetworkConfig.Keys#USE_REQUEST_SCHEDULING} is enabled and
+ * congestion control is disabled.
+ * <p>
+ * If {@link NetworkConfig.Keys#USE_PIGGYBACKED_FAST_PATH} is enabled, simple
+ * GET requests (see {@link #isFastPathRequest(Request)}) bypass the layers
+ * and are delivered directly. Their responses bypass the layers as well if
+ * they can be piggybacked on the ACK and neither require blockwise transfer
+ * nor belong to an observe relation. All other messages of such exchanges,
+ * e.g. separate responses, are processed by the layers as usual.
  */
 public class CoapUdpStack extends BaseCoapStack {
 
 	/** The LOGGER. */
 	private final static Logger LOGGER = Logger.getLogger(CoapUdpStack.class.getCanonicalName());
 
+	private final Outbox outbox;
+	private final boolean useFastPath;
+	private final int maxMessageSize;
+
 	/**
 	 * Creates a new stack for UDP as the transport.
 	 * 
@@ -85,24 +111,95 @@ public class CoapUdpStack extends BaseCoapStack {
 	 * @param outbox The adapter for submitting outbound messages to the transport.
 	 */
 	public CoapUdpStack(final NetworkConfig config, final Outbox outbox) {
-		super(outbox);
+		super(config, outbox);
+		this.outbox = outbox;
+		this.useFastPath = config.getBoolean(NetworkConfig.Keys.USE_PIGGYBACKED_FAST_PATH);
+		this.maxMessageSize = config.getInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 1024);
+		if (useFastPath) {
+			LOGGER.log(Level.CONFIG, "Enabling fast path for piggybacked responses");
+		}
 
 		ReliabilityLayer reliabilityLayer;
+		boolean useRequestScheduling = false;
 		if (config.getBoolean(NetworkConfig.Keys.USE_CONGESTION_CONTROL)) {
 			reliabilityLayer = CongestionControlLayer.newImplementation(config);
 			LOGGER.log(Level.CONFIG, "Enabling congestion control: {0}", reliabilityLayer.getClass().getSimpleName());
 		} else {
 			reliabilityLayer = new ReliabilityLayer(config);
+			// the congestion control layer already enforces NSTART
+			useRequestScheduling = config.getBoolean(NetworkConfig.Keys.USE_REQUEST_SCHEDULING);
 		}
 
-		Layer layers[] = new Layer[] {
-				new ExchangeCleanupLayer(),
-				new ObserveLayer(config),
-				new BlockwiseLayer(config),
-				reliabilityLayer };
+		Layer layers[];
+		if (useRequestScheduling) {
+			LOGGER.log(Level.CONFIG, "Enabling request scheduling");
+			layers = new Layer[] {
+					new ExchangeCleanupLayer(),
+					new RequestSchedulingLayer(config),
+					new ObserveLayer(config),
+					new BlockwiseLayer(config),
+					reliabilityLayer };
+		} else {
+			layers = new Layer[] {
+					new ExchangeCleanupLayer(),
+					new ObserveLayer(config),
+					new BlockwiseLayer(config),
+					reliabilityLayer };
+		}
 
 		setLayers(layers);
 
 		// make sure the endpoint sets a MessageDeliverer
 	}
+
+	/**
+	 * Checks if a request may take the fast path.
+	 * <p>
+	 * This is the case for GET requests without Observe, Block1 and Block2
+	 * options, i.e. requests none of the layers needs to process.
+	 * 
+	 * @param request The request.
+	 * @return {@code true} if the request may bypass the layers.
+	 */
+	public static boolean isFastPathRequest(final Request request) {
+		OptionSet options = request.getOptions();
+		return request.getCode() == Code.GET && !options.hasObserve() && !options.hasBlock1() && !options.hasBlock2();
+	}
+
+	@Override
+	public void receiveRequest(final Exchange exchange, final Request request) {
+		if (useFastPath && !request.isDuplicate() && isFastPathRequest(request)) {
+			deliverRequest(exchange, request);
+		} else {
+			super.receiveRequest(exchange, request);
+		}
+	}
+
+	@Override
+	public void sendResponse(final Exchange exchange, final Response response) {
+		if (useFastPath && isPiggybackedResponse(exchange, response)) {
+			Request request = exchange.getCurrentRequest();
+			request.setAcknowledged(true);
+			response.setType(Type.ACK);
+			response.setMID(request.getMID());
+			exchange.setResponse(response);
+			exchange.setCurrentResponse(response);
+			outbox.sendResponse(exchange, response);
+		} else {
+			super.sendResponse(exchange, response);
+		}
+	}
+
+	/**
+	 * Checks if a response can be piggybacked on the ACK for a fast path
+	 * request without being processed by the layers.
+	 */
+	private boolean isPiggybackedResponse(final Exchange exchange, final Response response) {
+		Request request = exchange.getCurrentRequest();
+		return response.getType() == null && request.getType() == Type.CON && !request.isAcknowledged()
+				&& isFastPathRequest(request) && exchange.getRelation() == null
+				&& exchange.getResponseBlockStatus() == null && exchange.getBlock1ToAck() == null
+				&& response.getPayloadSource() == null && response.getPayloadSize() <= maxMessageSize
+				&& !response.getOptions().hasObserve() && !response.getOptions().hasBlock2();
+	}
 }
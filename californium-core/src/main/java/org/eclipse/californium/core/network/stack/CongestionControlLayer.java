@@ -16,11 +16,13 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - change lower()/upper() back to super
  *                                                    to ensure, that ReliabilityLayer
  *                                                    is processed.
+ *    Bosch Software Innovations GmbH - schedule time outs using timer service
+ *    Bosch Software Innovations GmbH - thread safe access to remote endpoint state,
+ *                                      configurable queue limit
  ******************************************************************************/
  
 package org.eclipse.californium.core.network.stack;
 
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -34,6 +36,7 @@ import org.eclipse.californium.core.network.RemoteEndpoint;
 import org.eclipse.californium.core.network.RemoteEndpointManager;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.network.stack.congestioncontrol.*;
+import org.eclipse.californium.core.network.timer.Timeout;
 
 /**
  * The optional Congestion Control (CC) Layer for the Californium CoAP implementation provides the methods for advanced congestion 
@@ -64,8 +67,6 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	protected final static int WEAKRTOTYPE = 2;
 	protected final static int NOESTIMATOR = 3;
 
-	private final static int EXCHANGELIMIT = 50; // An upper limit for the queue size of confirmables and non-confirmables (separate queues)
-
 	private final static int MAX_RTO = 60000;
 
 	private boolean appliesDithering; // In CoAP, dithering is applied to the initial RTO of a transmission; set to true to apply dithering
@@ -114,14 +115,15 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	 */
 	private boolean processMessage(final Exchange exchange, final Message message) {
 		Type messageType = message.getType();
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
 
 		// Put into queues for NON or CON messages
 		if (messageType == Type.CON) {
-			if (!checkNSTART(exchange)) { // Check if NSTART is not reached yet
+			if (!checkNSTART(endpoint, exchange)) { // Check if NSTART is not reached yet
 										  // for confirmable transmissions
 				return false;
 			}
-		} else if (getRemoteEndpoint(exchange).getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
+		} else if (endpoint.getNonConfirmableCounter() > MAX_SUCCESSIVE_NONS) {
 			// Every MAX_SUCCESSIVE_NONS + 1 packets, a non-confirmable needs to
 			// be converted to a confirmable [CoCoA]
 			if (exchange.getCurrentRequest().getDestinationPort() != 0) {
@@ -129,28 +131,21 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			} else if (exchange.getCurrentResponse() != null) {
 				exchange.getCurrentResponse().setType(Type.CON);
 			}
-			getRemoteEndpoint(exchange).resetNonConfirmableCounter();
+			endpoint.resetNonConfirmableCounter();
 
 			// Check if NSTART is not reached yet for confirmable transmissions
-			if (!checkNSTART(exchange)) {
+			if (!checkNSTART(endpoint, exchange)) {
 				return false;
 			}
 		} else {
 			// Check of if there's space to queue a NON
-			if (getRemoteEndpoint(exchange).getNonConfirmableQueue().size() == EXCHANGELIMIT) {
-				// System.out.println("Non-confirmable exchange queue limit reached!");
+			if (!endpoint.getNonConfirmableQueue().offer(exchange)) {
 				// TODO: Drop packet -> Notify upper layers?
-			} else {
-				getRemoteEndpoint(exchange).getNonConfirmableQueue().add(
-						exchange);
-
-				// Check if NONs are already processed, if not, start bucket
-				// Thread
-				if (!getRemoteEndpoint(exchange).getProcessingNON()) {
-					executor.schedule(new BucketThread(
-							getRemoteEndpoint(exchange)), 0,
-							TimeUnit.MILLISECONDS);
-				}
+				LOGGER.log(Level.FINE, "Non-confirmable exchange queue limit reached for {0}, dropping message",
+						endpoint.getRemoteAddress());
+			} else if (endpoint.startProcessingNON()) {
+				// NONs are not processed yet, start bucket Thread
+				executor.schedule(new BucketThread(endpoint), 0, TimeUnit.MILLISECONDS);
 			}
 			return false;
 		}
@@ -161,20 +156,16 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	/*
 	 * Check if the limit of exchanges towards the remote endpoint has reached NSTART.
 	 */
-	private boolean checkNSTART(final Exchange exchange) {
-		getRemoteEndpoint(exchange).checkForDeletedExchanges();
-		if (getRemoteEndpoint(exchange).getNumberOfOngoingExchanges(exchange) < config
-				.getInt("NSTART")) {
+	private boolean checkNSTART(final RemoteEndpoint endpoint, final Exchange exchange) {
+		endpoint.checkForDeletedExchanges();
+		// NSTART allows to start the exchange, proceed normally
+		if (endpoint.registerExchange(exchange, calculateVBF(endpoint.getRTO()),
+				config.getInt(NetworkConfig.Keys.NSTART))) {
 			// System.out.println("Processing exchange (NSTART OK!)");
 
-			// NSTART allows to start the exchange, proceed normally
-			getRemoteEndpoint(exchange).registerExchange(exchange,
-					calculateVBF(getRemoteEndpoint(exchange).getRTO()));
-
 			// The exchange needs to be deleted after at least 255 s TODO:
 			// should this value be calculated dynamically
-			executor.schedule(new SweepCheckTask(getRemoteEndpoint(exchange),
-					exchange), MAX_REMOTE_TRANSACTION_DURATION,
+			timer.schedule(new SweepCheckTask(endpoint, exchange), MAX_REMOTE_TRANSACTION_DURATION,
 					TimeUnit.MILLISECONDS);
 			return true;
 		} else {
@@ -183,16 +174,12 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			// System.out.println("Nstart does not allow further exchanges with "
 			// + getRemoteEndpoint(exchange).getRemoteAddress().toString());
 
-			// Check if the queue limit for exchanges is already reached
-			if (getRemoteEndpoint(exchange).getConfirmableQueue().size() == EXCHANGELIMIT) {
+			// Queue exchange in the CON-Queue, if the queue limit is not reached yet
+			if (!endpoint.getConfirmableQueue().offer(exchange)) {
 				// Request cannot be queued TODO: does this trigger some
 				// feedback for other layers?
-				// System.out.println("Confirmable exchange queue limit reached! Message dropped...");
-
-			} else {
-				// Queue exchange in the CON-Queue
-				getRemoteEndpoint(exchange).getConfirmableQueue().add(exchange);
-				// System.out.println("Added exchange to the queue (NSTART limit reached)");
+				LOGGER.log(Level.FINE, "Confirmable exchange queue limit reached for {0}, dropping message",
+						endpoint.getRemoteAddress());
 			}
 		}
 		return false;
@@ -203,17 +190,22 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	 */
 	private void calculateRTT(final Exchange exchange){	
 		long timestamp, measuredRTT;
-		timestamp = getRemoteEndpoint(exchange).getExchangeTimestamp(exchange);
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+		timestamp = endpoint.getExchangeTimestamp(exchange);
 		if (timestamp != 0){
 			measuredRTT = System.currentTimeMillis() - timestamp;
 			// process the RTT measurement
-			processRTTmeasurement(measuredRTT, exchange, exchange.getFailedTransmissionCount());
-			getRemoteEndpoint(exchange).removeExchangeInfo(exchange);
+			synchronized (endpoint) {
+				processRTTmeasurement(measuredRTT, exchange, exchange.getFailedTransmissionCount());
+			}
+			endpoint.removeExchangeInfo(exchange);
 		}
 	}
 
 	/** 
 	 * Received a new RTT measurement, evaluate it and update correspondent estimators 
+	 * <p>
+	 * This method is invoked while holding the lock of the exchange's remote endpoint.
 	 * 
 	 * @param measuredRTT			the round-trip time of a CON-ACK pair
 	 * @param exchange				the exchange that was used for the RTT measurement
@@ -226,6 +218,9 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 	/**
 	 * Override this method in RTO algorithms that implement some sort of RTO aging
+	 * <p>
+	 * This method is invoked while holding the lock of the exchange's remote endpoint.
+	 * 
 	 * @param exchange the exchange
 	 */
 	protected void checkAging(final Exchange exchange) {
@@ -273,11 +268,10 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	 * Gets a request or response from the dedicated queue and polls it
 	 */
 	private void checkRemoteEndpointQueue(final Exchange exchange) {
-		// 0 = empty queue | 1 = response | 2 = request
-		if (!getRemoteEndpoint(exchange).getConfirmableQueue().isEmpty()) {
-			// We have some exchanges that need to be processed; is it a
-			// response or a request?
-			Exchange queuedExchange = getRemoteEndpoint(exchange).getConfirmableQueue().poll();
+		// We may have some exchanges that need to be processed; is it a
+		// response or a request?
+		Exchange queuedExchange = getRemoteEndpoint(exchange).getConfirmableQueue().poll();
+		if (queuedExchange != null) {
 			if (queuedExchange.getCurrentResponse() != null) {
 				// it's a response
 				sendResponse(queuedExchange, queuedExchange.getCurrentResponse());
@@ -300,7 +294,7 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			// process ReliabilityLayer
 			super.sendRequest(exchange, request);
 		} else if (processMessage(exchange, request)) {
-			checkAging(exchange);
+			applyAging(exchange);
 			// process ReliabilityLayer
 			super.sendRequest(exchange, request);
 		}
@@ -318,11 +312,17 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 			// process ReliabilityLayer
 			super.sendResponse(exchange, response);
 		} else if (processMessage(exchange, response)) {
-			checkAging(exchange);
+			applyAging(exchange);
 			super.sendResponse(exchange, response);
 		}
 	}
 
+	private void applyAging(final Exchange exchange) {
+		synchronized (getRemoteEndpoint(exchange)) {
+			checkAging(exchange);
+		}
+	}
+
 	/**
 	 * The following method overrides the method provided by the reliability layer to include the advanced RTO calculation values
 	 * when determining the RTO.
@@ -330,29 +330,32 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 	@Override
 	protected void prepareRetransmission(final Exchange exchange, final RetransmissionTask task) {
 		int timeout;
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
 		//System.out.println("TXCount: " + exchange.getFailedTransmissionCount());
-		if (exchange.getFailedTransmissionCount() == 0) {
-			timeout = (int)getRemoteEndpoint(exchange).getRTO();	
-			if(appliesDithering()){
-				//TODO: Workaround to force CoCoA (-Strong) not to use the same RTO after backing off several times
-				//System.out.println("Applying dithering, matching RTO");
-				getRemoteEndpoint(exchange).matchCurrentRTO();
-				timeout = (int)getRemoteEndpoint(exchange).getRTO();
-				// Apply dithering by randomly choosing RTO from [RTO, RTO * 1.5]
-				float ack_random_factor = config.getFloat(NetworkConfig.Keys.ACK_RANDOM_FACTOR);
-				timeout = getRandomTimeout(timeout, (int) (timeout*ack_random_factor));
-			}
-			//System.out.println("meanrto:" + timeout + ";" + System.currentTimeMillis());
-		} else {
-				int tempTimeout= (int)(getRemoteEndpoint(exchange).getExchangeVBF(exchange) * exchange.getCurrentTimeout());
+		synchronized (endpoint) {
+			if (exchange.getFailedTransmissionCount() == 0) {
+				timeout = (int)endpoint.getRTO();	
+				if(appliesDithering()){
+					//TODO: Workaround to force CoCoA (-Strong) not to use the same RTO after backing off several times
+					//System.out.println("Applying dithering, matching RTO");
+					endpoint.matchCurrentRTO();
+					timeout = (int)endpoint.getRTO();
+					// Apply dithering by randomly choosing RTO from [RTO, RTO * 1.5]
+					float ack_random_factor = config.getFloat(NetworkConfig.Keys.ACK_RANDOM_FACTOR);
+					timeout = getRandomTimeout(timeout, (int) (timeout*ack_random_factor));
+				}
+				//System.out.println("meanrto:" + timeout + ";" + System.currentTimeMillis());
+			} else {
+				int tempTimeout= (int)(endpoint.getExchangeVBF(exchange) * exchange.getCurrentTimeout());
 				timeout = (tempTimeout < MAX_RTO) ? tempTimeout : MAX_RTO;
-				getRemoteEndpoint(exchange).setCurrentRTO(timeout);
+				endpoint.setCurrentRTO(timeout);
 				//System.out.println("RTX");
+			}
 		}
 		exchange.setCurrentTimeout(timeout);
 		//expectedmaxduration = calculateMaxTransactionDuration(exchange); //FIXME what was this for?
 		//System.out.println("Sending MSG (timeout;timestamp:" + timeout + ";" + System.currentTimeMillis() + ")");
-		ScheduledFuture<?> f = executor.schedule(task , timeout, TimeUnit.MILLISECONDS);
+		Timeout f = timer.schedule(task, timeout, TimeUnit.MILLISECONDS);
 		exchange.setRetransmissionHandle(f);	
 	}
 
@@ -417,13 +420,10 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 
 		@Override
 		public void run() {
-			if (!endpoint.getNonConfirmableQueue().isEmpty()) {
-				endpoint.setProcessingNON(true);
-
-				Exchange exchange = endpoint.getNonConfirmableQueue().poll();
-
-				if (getRemoteEndpoint(exchange).getNonConfirmableCounter() <= MAX_SUCCESSIVE_NONS) {
-					getRemoteEndpoint(exchange).increaseNonConfirmableCounter();
+			Exchange exchange = endpoint.getNonConfirmableQueue().poll();
+			if (exchange != null) {
+				if (endpoint.getNonConfirmableCounter() <= MAX_SUCCESSIVE_NONS) {
+					endpoint.increaseNonConfirmableCounter();
 					if (exchange.getCurrentRequest().getDestinationPort() != 0) {
 						// it's a response
 						sendBucketRequest(exchange, exchange.getCurrentRequest());
@@ -433,13 +433,15 @@ public abstract class CongestionControlLayer extends ReliabilityLayer {
 					}
 				}
 				// schedule next transmission of a NON based on the RTO value (rate = 1/RTO)
-				executor.schedule(
-						new BucketThread(getRemoteEndpoint(exchange)),
-						getRemoteEndpoint(exchange).getRTO(),
-						TimeUnit.MILLISECONDS);
+				timer.schedule(this, endpoint.getRTO(), TimeUnit.MILLISECONDS);
 
 			} else {
 				endpoint.setProcessingNON(false);
+				// a NON may have been queued after polling the queue but
+				// before resetting the flag
+				if (!endpoint.getNonConfirmableQueue().isEmpty() && endpoint.startProcessingNON()) {
+					run();
+				}
 			}
 		}
 	}
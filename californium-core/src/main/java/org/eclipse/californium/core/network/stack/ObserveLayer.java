@@ -25,6 +25,8 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - fix copy & paste error
  *                                                    replace "response" with "next" in
  *                                                    onAcknowledgement()
+ *    Bosch Software Innovations GmbH - coalesce notifications sent within
+ *                                      the minimum notification interval
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
@@ -32,6 +34,7 @@ import org.eclipse.californium.core.coap.EmptyMessage;
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Response;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,13 +52,21 @@ public class ObserveLayer extends AbstractLayer {
 
 	private static final Logger LOGGER = Logger.getLogger(ObserveLayer.class.getName());
 
+	private final long minInterval;
+
 	/**
 	 * Creates a new observe layer for a configuration.
+	 * <p>
+	 * The following configuration value is used:
+	 * <ul>
+	 * <li>{@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#NOTIFICATION_MIN_INTERVAL}
+	 * - the minimum time between two notifications sent to the same observer.</li>
+	 * </ul>
 	 * 
 	 * @param config The configuration values to use.
 	 */
 	public ObserveLayer(final NetworkConfig config) {
-		// so far no configuration values for this layer
+		minInterval = config.getLong(NetworkConfig.Keys.NOTIFICATION_MIN_INTERVAL);
 	}
 
 	@Override
@@ -63,69 +74,119 @@ public class ObserveLayer extends AbstractLayer {
 
 		final ObserveRelation relation = exchange.getRelation();
 		if (relation != null && relation.isEstablished()) {
+			if (!postponeNotification(exchange, relation, response)) {
+				sendNotification(exchange, relation, response);
+			}
+		} else {
+			// no observe was requested or the resource does not allow it
+			lower().sendResponse(exchange, response);
+		}
+	}
 
-			if (exchange.getRequest().isAcknowledged() || exchange.getRequest().getType() == Type.NON) {
-				// Transmit errors as CON
-				if (!ResponseCode.isSuccess(response.getCode())) {
-					LOGGER.log(Level.FINE, "Response has error code {0} and must be sent as CON", response.getCode());
-					response.setType(Type.CON);
-					relation.cancel();
-				} else {
-					// Make sure that every now and than a CON is mixed within
-					if (relation.check()) {
-						LOGGER.fine("The observe relation check requires the notification to be sent as CON");
-						response.setType(Type.CON);
-					} else {
-						// By default use NON, but do not override resource
-						// decision
-						if (response.getType() == null) {
-							response.setType(Type.NON);
-						}
+	/**
+	 * Postpones a notification if the former notification has been sent less
+	 * than the minimum notification interval ago.
+	 * <p>
+	 * Only the latest postponed notification is kept, i.e. the observer
+	 * receives the latest state once the interval has elapsed while all
+	 * intermediate states are dropped. Error responses are never postponed
+	 * and discard any pending notification.
+	 * 
+	 * @param exchange The exchange of the observe relation.
+	 * @param relation The observe relation.
+	 * @param response The notification.
+	 * @return {@code true} if the notification has been postponed.
+	 */
+	private boolean postponeNotification(final Exchange exchange, final ObserveRelation relation,
+			final Response response) {
+
+		long interval = Math.max(minInterval, relation.getRequestedMinInterval());
+		synchronized (exchange) {
+			long now = System.nanoTime();
+			if (!ResponseCode.isSuccess(response.getCode())) {
+				relation.setPendingNotification(null);
+			} else if (interval > 0) {
+				long last = relation.getLastNotificationTime();
+				// toNanos saturates, i.e. the delay does not overflow for large intervals
+				long delay = last == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(interval) - (now - last);
+				boolean scheduled = relation.getPendingNotification() != null;
+				if (delay > 0 || scheduled) {
+					LOGGER.log(Level.FINE, "Minimum notification interval has not yet elapsed. Postpone {0}", response);
+					relation.setPendingNotification(response);
+					if (!scheduled) {
+						timer.schedule(new PendingNotificationTask(exchange), delay, TimeUnit.NANOSECONDS);
 					}
+					return true;
 				}
 			}
+			relation.setLastNotificationTime(now);
+			return false;
+		}
+	}
 
-			// This is a notification
-			response.setLast(false);
-
-			/*
-			 * Only one Confirmable message is allowed to be in transit. A CON
-			 * is in transit as long as it has not been acknowledged, rejected,
-			 * or timed out. All further notifications are postponed here. If a
-			 * former CON is acknowledged or timeouts, it starts the freshest
-			 * notification (In case of a timeout, it keeps the retransmission
-			 * counter). When a fresh/younger notification arrives but must be
-			 * postponed we forget any former notification.
-			 */
-			if (response.getType() == Type.CON) {
-				prepareSelfReplacement(exchange, response);
-			}
+	private void sendNotification(final Exchange exchange, final ObserveRelation relation, final Response response) {
 
-			// The decision whether to postpone this notification or not and the
-			// decision which notification is the freshest to send next must be
-			// synchronized
-			synchronized (exchange) {
-				Response current = relation.getCurrentControlNotification();
-				if (current != null && isInTransit(current)) {
-					LOGGER.log(Level.FINE, "A former notification is still in transit. Postpone {0}", response);
-					relation.setNextControlNotification(response);
-					// do not send now
-					return;
+		if (exchange.getRequest().isAcknowledged() || exchange.getRequest().getType() == Type.NON) {
+			// Transmit errors as CON
+			if (!ResponseCode.isSuccess(response.getCode())) {
+				LOGGER.log(Level.FINE, "Response has error code {0} and must be sent as CON", response.getCode());
+				response.setType(Type.CON);
+				relation.cancel();
+			} else {
+				// Make sure that every now and than a CON is mixed within
+				if (relation.check()) {
+					LOGGER.fine("The observe relation check requires the notification to be sent as CON");
+					response.setType(Type.CON);
 				} else {
-					relation.setCurrentControlNotification(response);
-					relation.setNextControlNotification(null);
+					// By default use NON, but do not override resource
+					// decision
+					if (response.getType() == null) {
+						response.setType(Type.NON);
+					}
 				}
 			}
+		}
 
-			/*
-			 * The matcher must be able to find the NON notifications to remove
-			 * them from the exchangesByMID hashmap
-			 */
-			if (response.getType() == Type.NON) {
-				relation.addNotification(response);
+		// This is a notification
+		response.setLast(false);
+
+		/*
+		 * Only one Confirmable message is allowed to be in transit. A CON
+		 * is in transit as long as it has not been acknowledged, rejected,
+		 * or timed out. All further notifications are postponed here. If a
+		 * former CON is acknowledged or timeouts, it starts the freshest
+		 * notification (In case of a timeout, it keeps the retransmission
+		 * counter). When a fresh/younger notification arrives but must be
+		 * postponed we forget any former notification.
+		 */
+		if (response.getType() == Type.CON) {
+			prepareSelfReplacement(exchange, response);
+		}
+
+		// The decision whether to postpone this notification or not and the
+		// decision which notification is the freshest to send next must be
+		// synchronized
+		synchronized (exchange) {
+			Response current = relation.getCurrentControlNotification();
+			if (current != null && isInTransit(current)) {
+				LOGGER.log(Level.FINE, "A former notification is still in transit. Postpone {0}", response);
+				relation.setNextControlNotification(response);
+				// do not send now
+				return;
+			} else {
+				relation.setCurrentControlNotification(response);
+				relation.setNextControlNotification(null);
 			}
+		}
+
+		/*
+		 * The matcher must be able to find the NON notifications to remove
+		 * them from the exchangesByMID hashmap
+		 */
+		if (response.getType() == Type.NON) {
+			relation.addNotification(response);
+		}
 
-		} // else no observe was requested or the resource does not allow it
 		lower().sendResponse(exchange, response);
 	}
 
@@ -175,6 +236,34 @@ public class ObserveLayer extends AbstractLayer {
 		response.addMessageObserver(new NotificationController(exchange, response));
 	}
 
+	/**
+	 * Sends the pending notification once the minimum notification interval
+	 * has elapsed.
+	 */
+	private class PendingNotificationTask implements Runnable {
+
+		private final Exchange exchange;
+
+		public PendingNotificationTask(Exchange exchange) {
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void run() {
+			final ObserveRelation relation = exchange.getRelation();
+			final Response next;
+			synchronized (exchange) {
+				next = relation.getPendingNotification();
+				relation.setPendingNotification(null);
+				relation.setLastNotificationTime(System.nanoTime());
+			}
+			if (next != null && relation.isEstablished()) {
+				// the timer already runs expired tasks on the executor
+				sendNotification(exchange, relation, next);
+			}
+		}
+	}
+
 	/**
 	 * Sends the next CON as soon as the former CON is no longer in transit.
 	 */
@@ -21,11 +21,14 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - use final for fields and adjust
  *                                                    thread safe random usage
  *    Achim Kraus (Bosch Software Innovations GmbH) - use synchronized to access exchange.
+ *    Bosch Software Innovations GmbH - schedule retransmissions using timer service
+ *    Bosch Software Innovations GmbH - keep MID of ACK set explicitly
+ *    Bosch Software Innovations GmbH - answer duplicates of parallel block requests
+ *                                      with the block sent for them
  ******************************************************************************/
 package org.eclipse.californium.core.network.stack;
 
 import java.util.Random;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +40,7 @@ import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.timer.Timeout;
 
 /**
  * The reliability layer. CON retransmission. ACK/RST processing.
@@ -127,10 +131,17 @@ public class ReliabilityLayer extends AbstractLayer {
 			LOGGER.log(Level.FINEST, "Switched response message type from {0} to {1} (request was {2})", new Object[] {
 					respType, response.getType(), reqType });
 
-		} else if (respType == Type.ACK || respType == Type.RST) {
+		} else if ((respType == Type.ACK || respType == Type.RST) && !response.hasMID()) {
+			// the MID may have been set explicitly for a request other than the current one
 			response.setMID(exchange.getCurrentRequest().getMID());
 		}
 
+		if (response.getType() == Type.ACK && response.getOptions().hasBlock2()) {
+			// a peer may request several blocks in parallel, remember the block
+			// for answering a duplicate of the request it is piggy-backed on
+			exchange.addPiggybackedBlock(response);
+		}
+
 		if (response.getType() == Type.CON) {
 			LOGGER.finer("Scheduling retransmission for " + response);
 			prepareRetransmission(exchange, new RetransmissionTask(exchange, response) {
@@ -153,7 +164,7 @@ public class ReliabilityLayer extends AbstractLayer {
 	protected void prepareRetransmission(final Exchange exchange, final RetransmissionTask task) {
 
 		// prevent RejectedExecutionException
-		if (executor.isShutdown()) {
+		if (timer.isStopped()) {
 			LOGGER.info("Endpoint is being destroyed: skipping retransmission");
 			return;
 		}
@@ -171,7 +182,7 @@ public class ReliabilityLayer extends AbstractLayer {
 			}
 			exchange.setCurrentTimeout(timeout);
 			exchange.setRetransmissionHandle(null); // cancel before reschedule
-			ScheduledFuture<?> f = executor.schedule(task, timeout, TimeUnit.MILLISECONDS);
+			Timeout f = timer.schedule(task, timeout, TimeUnit.MILLISECONDS);
 			exchange.setRetransmissionHandle(f);
 		}
 	}
@@ -190,7 +201,18 @@ public class ReliabilityLayer extends AbstractLayer {
 
 		if (request.isDuplicate()) {
 			// Request is a duplicate, so resend ACK, RST or response
-			if (exchange.getCurrentResponse() != null) {
+			Response current = exchange.getCurrentResponse();
+			if (current != null && current.getType() == Type.ACK && current.getMID() != request.getMID()) {
+				// the peer has requested several blocks in parallel
+				Response block = exchange.getPiggybackedBlock(request.getMID());
+				if (block != null) {
+					LOGGER.fine("Respond with the block piggy-backed on the ACK for the duplicate request");
+					lower().sendResponse(exchange, block);
+				} else {
+					LOGGER.fine("The block sent for the duplicate request is no longer available. We ignore the duplicate.");
+				}
+
+			} else if (current != null) {
 				LOGGER.fine("Respond with the current response to the duplicate request");
 				// Do not restart retransmission cycle
 				lower().sendResponse(exchange, exchange.getCurrentResponse());
@@ -214,11 +236,20 @@ public class ReliabilityLayer extends AbstractLayer {
 
 		} else {
 			// Request is not a duplicate
-			exchange.setCurrentRequest(request);
+			if (!isRequestForNextBlock(exchange, request)) {
+				// the blockwise layer answers requests for further blocks based on
+				// the request itself since a peer may send several of them in parallel
+				exchange.setCurrentRequest(request);
+			}
 			upper().receiveRequest(exchange, request);
 		}
 	}
 
+	private static boolean isRequestForNextBlock(final Exchange exchange, final Request request) {
+		return exchange.getResponse() != null && request.getOptions().hasBlock2()
+				&& !request.getOptions().hasBlock1();
+	}
+
 	/**
 	 * When we receive a Confirmable response, we acknowledge it and it also
 	 * counts as acknowledgment for the request. If the response is a duplicate,
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.config.NetworkConfigDefaults;
+import org.eclipse.californium.core.network.timer.Timeout;
+
+/**
+ * A layer that limits the number of outstanding requests per peer to
+ * {@link NetworkConfig.Keys#NSTART} as defined by
+ * <a href="https://tools.ietf.org/html/rfc7252#section-4.7">RFC 7252,
+ * Section 4.7</a>.
+ * <p>
+ * A request is outstanding until it has been acknowledged, a response has
+ * been received, it has been rejected, canceled or has timed out.
+ * Non-confirmable requests for which no response is received are considered
+ * outstanding for {@link NetworkConfig.Keys#NON_LIFETIME} at most.
+ * <p>
+ * Requests exceeding the limit are kept in a FIFO queue per peer and are
+ * sent once an outstanding request to the same peer has been completed. A
+ * request is rejected if the peer's queue already contains
+ * {@link NetworkConfig.Keys#REQUEST_SCHEDULING_QUEUE_SIZE} requests. A
+ * queued request times out if it cannot be sent within
+ * {@link NetworkConfig.Keys#REQUEST_SCHEDULING_QUEUE_TIMEOUT} milliseconds.
+ * <p>
+ * The state kept for a peer is discarded as soon as there are neither
+ * outstanding nor queued requests.
+ */
+public class RequestSchedulingLayer extends AbstractLayer {
+
+	private static final Logger LOGGER = Logger.getLogger(RequestSchedulingLayer.class.getName());
+
+	private final ConcurrentMap<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+	private final int nstart;
+	private final int queueSize;
+	private final long queueTimeout;
+	private final long nonLifetime;
+
+	/**
+	 * Creates a new layer for a configuration.
+	 *
+	 * @param config The configuration values to use.
+	 */
+	public RequestSchedulingLayer(final NetworkConfig config) {
+		this.nstart = Math.max(1, config.getInt(NetworkConfig.Keys.NSTART, 1));
+		this.queueSize = config.getInt(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_SIZE,
+				NetworkConfigDefaults.DEFAULT_REQUEST_SCHEDULING_QUEUE_SIZE);
+		this.queueTimeout = config.getLong(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_TIMEOUT,
+				NetworkConfigDefaults.DEFAULT_REQUEST_SCHEDULING_QUEUE_TIMEOUT);
+		this.nonLifetime = config.getLong(NetworkConfig.Keys.NON_LIFETIME);
+		LOGGER.log(Level.CONFIG, "RequestSchedulingLayer uses NSTART={0}, QUEUE_SIZE={1}, QUEUE_TIMEOUT={2}",
+				new Object[] { nstart, queueSize, queueTimeout });
+	}
+
+	/**
+	 * Sends the request if the number of outstanding requests to the
+	 * request's destination is below NSTART, otherwise queues the request.
+	 *
+	 * @param exchange The (locally originating) exchange that the request is part of.
+	 * @param request The outbound request.
+	 */
+	@Override
+	public void sendRequest(final Exchange exchange, final Request request) {
+
+		InetSocketAddress destination = new InetSocketAddress(request.getDestination(), request.getDestinationPort());
+		ScheduledRequest scheduled;
+		boolean send = false;
+		boolean rejected = false;
+
+		while (true) {
+			Peer peer = peers.get(destination);
+			if (peer == null) {
+				peer = new Peer(destination);
+				Peer previous = peers.putIfAbsent(destination, peer);
+				if (previous != null) {
+					peer = previous;
+				}
+			}
+			scheduled = new ScheduledRequest(peer, exchange, request);
+			synchronized (peer) {
+				if (peer.removed) {
+					// peer has become idle concurrently, retry with new state
+					continue;
+				}
+				if (peer.outstanding < nstart) {
+					peer.outstanding++;
+					scheduled.state = ScheduledRequest.SENT;
+					request.addMessageObserver(scheduled);
+					send = true;
+				} else if (peer.queue.size() < queueSize) {
+					scheduled.queueTimeout = timer.schedule(new QueueTimeoutTask(scheduled), queueTimeout,
+							TimeUnit.MILLISECONDS);
+					// register observer before the request may be dequeued
+					request.addMessageObserver(scheduled);
+					peer.queue.add(scheduled);
+				} else {
+					rejected = true;
+				}
+			}
+			break;
+		}
+
+		if (send) {
+			send(scheduled);
+		} else if (rejected) {
+			LOGGER.log(Level.FINE, "Rejecting request to {0}, queue limit reached", destination);
+			exchange.setComplete();
+			request.setRejected(true);
+		} else {
+			LOGGER.log(Level.FINER, "Queued request to {0}, NSTART limit reached", destination);
+		}
+	}
+
+	/**
+	 * Gets the number of peers with outstanding or queued requests.
+	 *
+	 * @return The number of peers.
+	 */
+	public int getNumberOfPeers() {
+		return peers.size();
+	}
+
+	private void send(final ScheduledRequest scheduled) {
+		if (scheduled.request.getType() == Type.NON) {
+			scheduled.lifetime = timer.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					scheduled.complete();
+				}
+			}, nonLifetime, TimeUnit.MILLISECONDS);
+		}
+		try {
+			lower().sendRequest(scheduled.exchange, scheduled.request);
+		} catch (RuntimeException e) {
+			scheduled.complete();
+			throw e;
+		}
+	}
+
+	private void sendNext(final ScheduledRequest next) {
+		next.queueTimeout.cancel();
+		if (executor == null) {
+			send(next);
+		} else {
+			// don't send the request on the thread processing the response
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						send(next);
+					} catch (RuntimeException e) {
+						LOGGER.log(Level.WARNING, "Cannot send queued request", e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * The requests to a peer.
+	 * <p>
+	 * All fields are guarded by the instance's lock.
+	 */
+	private static class Peer {
+
+		private final InetSocketAddress address;
+		private final Queue<ScheduledRequest> queue = new ArrayDeque<>();
+		private int outstanding;
+		private boolean removed;
+
+		Peer(final InetSocketAddress address) {
+			this.address = address;
+		}
+	}
+
+	/**
+	 * A request sent to or queued for a peer.
+	 * <p>
+	 * Completes the request when it has been acknowledged or answered, or has
+	 * failed.
+	 */
+	private class ScheduledRequest extends MessageObserverAdapter {
+
+		private static final int QUEUED = 0;
+		private static final int SENT = 1;
+		private static final int DONE = 2;
+
+		private final Peer peer;
+		private final Exchange exchange;
+		private final Request request;
+		// guarded by peer's lock
+		private int state = QUEUED;
+		private volatile Timeout queueTimeout;
+		private volatile Timeout lifetime;
+
+		ScheduledRequest(final Peer peer, final Exchange exchange, final Request request) {
+			this.peer = peer;
+			this.exchange = exchange;
+			this.request = request;
+		}
+
+		@Override
+		public void onAcknowledgement() {
+			complete();
+		}
+
+		@Override
+		public void onResponse(final Response response) {
+			complete();
+		}
+
+		@Override
+		public void onReject() {
+			complete();
+		}
+
+		@Override
+		public void onTimeout() {
+			complete();
+		}
+
+		@Override
+		public void onCancel() {
+			complete();
+		}
+
+		/**
+		 * Removes the request from the queue, if queued, or releases its
+		 * slot for the next queued request, if sent.
+		 *
+		 * @return {@code true} if the request was still queued.
+		 */
+		boolean complete() {
+			ScheduledRequest next = null;
+			boolean dequeued = false;
+			synchronized (peer) {
+				if (state == QUEUED) {
+					dequeued = peer.queue.remove(this);
+				} else if (state == SENT) {
+					next = peer.queue.poll();
+					if (next == null) {
+						peer.outstanding--;
+						if (peer.outstanding == 0) {
+							peer.removed = true;
+							peers.remove(peer.address, peer);
+						}
+					} else {
+						next.state = SENT;
+					}
+				}
+				state = DONE;
+			}
+			if (dequeued) {
+				queueTimeout.cancel();
+			} else {
+				Timeout timeout = lifetime;
+				if (timeout != null) {
+					timeout.cancel();
+				}
+			}
+			if (next != null) {
+				sendNext(next);
+			}
+			return dequeued;
+		}
+	}
+
+	private class QueueTimeoutTask implements Runnable {
+
+		private final ScheduledRequest scheduled;
+
+		QueueTimeoutTask(final ScheduledRequest scheduled) {
+			this.scheduled = scheduled;
+		}
+
+		@Override
+		public void run() {
+			if (scheduled.complete()) {
+				LOGGER.log(Level.FINE, "Request to {0} timed out in queue", scheduled.peer.address);
+				scheduled.exchange.setTimedOut();
+				scheduled.request.setTimedOut(true);
+			}
+		}
+	}
+}
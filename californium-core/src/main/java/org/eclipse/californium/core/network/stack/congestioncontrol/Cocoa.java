@@ -13,6 +13,7 @@
  * Contributors:
  *    August Betzler    – CoCoA implementation
  *    Matthias Kovatsch - Embedding of CoCoA in Californium
+ *    Bosch Software Innovations GmbH - look up remote endpoint only once
  ******************************************************************************/
  
 package org.eclipse.californium.core.network.stack.congestioncontrol;
@@ -136,28 +137,29 @@ public class Cocoa extends CongestionControlLayer {
 	 */	
 	@Override
 	public void checkAging(Exchange exchange){
-		long overallDifference = System.currentTimeMillis() - getRemoteEndpoint(exchange).getRTOtimestamp(OVERALLRTOTYPE);
+		RemoteEndpoint endpoint = getRemoteEndpoint(exchange);
+		long overallDifference = System.currentTimeMillis() - endpoint.getRTOtimestamp(OVERALLRTOTYPE);
 		
 		// Increase mean overall RTO if condition 1) is true
 		while(true){
-			if(overallDifference > (16*getRemoteEndpoint(exchange).getRTO()) && getRemoteEndpoint(exchange).getRTO() < LOWERVBFLIMIT){
+			if(overallDifference > (16*endpoint.getRTO()) && endpoint.getRTO() < LOWERVBFLIMIT){
 				//System.out.println("RTO before:" + exchange.getRemoteEndpoint().getRTO());
-				overallDifference -= (16*getRemoteEndpoint(exchange).getRTO());
-				getRemoteEndpoint(exchange).boostRTOvalue();
-				getRemoteEndpoint(exchange).setRTOtimestamp(System.currentTimeMillis(), OVERALLRTOTYPE);
-				//System.out.println("Boosted RTO:" + getRemoteEndpoint(exchange).getRTO());			
+				overallDifference -= (16*endpoint.getRTO());
+				endpoint.boostRTOvalue();
+				endpoint.setRTOtimestamp(System.currentTimeMillis(), OVERALLRTOTYPE);
+				//System.out.println("Boosted RTO:" + endpoint.getRTO());			
 			}else{
 				break;
 			}
 		}
 		// Decrease mean overall RTO of an endpoint if condition 2) is true
 		while(true){
-			if(overallDifference > (4*getRemoteEndpoint(exchange).getRTO()) && getRemoteEndpoint(exchange).getRTO() > UPPERVBFLIMIT){
+			if(overallDifference > (4*endpoint.getRTO()) && endpoint.getRTO() > UPPERVBFLIMIT){
 				//System.out.println("RTO before:" + exchange.getRemoteEndpoint().getRTO());
-				overallDifference -= (4*getRemoteEndpoint(exchange).getRTO());
-				getRemoteEndpoint(exchange).reduceRTOvalue();
-				getRemoteEndpoint(exchange).setRTOtimestamp(System.currentTimeMillis(), OVERALLRTOTYPE);
-				//System.out.println("Decayed RTO:" + getRemoteEndpoint(exchange).getRTO());			
+				overallDifference -= (4*endpoint.getRTO());
+				endpoint.reduceRTOvalue();
+				endpoint.setRTOtimestamp(System.currentTimeMillis(), OVERALLRTOTYPE);
+				//System.out.println("Decayed RTO:" + endpoint.getRTO());			
 			}else{
 				break;
 			}
@@ -13,6 +13,7 @@
  * Contributors:
  *    August Betzler    – CoCoA implementation
  *    Matthias Kovatsch - Embedding of CoCoA in Californium
+ *    Bosch Software Innovations GmbH - keep RTT history per remote endpoint
  ******************************************************************************/
  
 package org.eclipse.californium.core.network.stack.congestioncontrol;
@@ -24,12 +25,8 @@ import org.eclipse.californium.core.network.stack.CongestionControlLayer;
 
 public class PeakhopperRto extends CongestionControlLayer {
 
-	private int currentRtt;
-	
-	
 	public PeakhopperRto(NetworkConfig config) {
 		super(config);
-		currentRtt = 0;
 	}
 	
 	/**
@@ -39,12 +36,11 @@ public class PeakhopperRto extends CongestionControlLayer {
 	 * @param rtt the round-trip time
 	 */
 	public void storeRttValue(RemoteEndpoint endpoint, long rtt) {
-		endpoint.RTT_sample[currentRtt] = rtt; 		
-		currentRtt = (currentRtt + 1)%RemoteEndpoint.RTT_HISTORY_SIZE;
+		endpoint.addRttSample(rtt);
 	}
 	
 	public long getMaxRtt(RemoteEndpoint endpoint) {
-		return (endpoint.RTT_sample[0] > endpoint.RTT_sample[1]) ? endpoint.RTT_sample[0] : endpoint.RTT_sample[1];
+		return endpoint.getMaxRttSample();
 	}
 	
 	@Override
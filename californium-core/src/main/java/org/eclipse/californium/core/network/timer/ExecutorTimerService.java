@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A timer service which runs expired tasks of another timer service on an
+ * executor.
+ * <p>
+ * This allows many endpoints to share a single timer thread while still
+ * running their time outs on their own executors. The underlying timer
+ * service is expected to run expired tasks on its own thread, i.e. the
+ * tasks it runs only hand off the actual tasks to the executor.
+ * <p>
+ * Stopping this service does not stop the underlying timer service. Tasks
+ * scheduled before this service has been stopped are discarded when they
+ * expire.
+ */
+public final class ExecutorTimerService implements TimerService {
+
+	private static final Logger LOGGER = Logger.getLogger(ExecutorTimerService.class.getName());
+
+	private static HashedWheelTimer sharedTimer;
+
+	private final TimerService timer;
+	private final Executor executor;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a service for a timer service and an executor.
+	 *
+	 * @param timer The timer service to schedule tasks on.
+	 * @param executor The executor to run expired tasks on.
+	 * @throws NullPointerException if any of the parameters is {@code null}.
+	 */
+	public ExecutorTimerService(final TimerService timer, final Executor executor) {
+		if (timer == null) {
+			throw new NullPointerException("timer must not be null");
+		} else if (executor == null) {
+			throw new NullPointerException("executor must not be null");
+		}
+		this.timer = timer;
+		this.executor = executor;
+	}
+
+	/**
+	 * Creates a service using the process wide shared timer.
+	 * <p>
+	 * The shared timer is a {@link HashedWheelTimer} with default tick
+	 * duration and wheel size. Its worker thread is a daemon thread which is
+	 * started when the first task is scheduled and is never stopped.
+	 *
+	 * @param executor The executor to run expired tasks on.
+	 * @return The service.
+	 * @throws NullPointerException if the executor is {@code null}.
+	 */
+	public static ExecutorTimerService onSharedTimer(final Executor executor) {
+		return new ExecutorTimerService(getSharedTimer(), executor);
+	}
+
+	private static synchronized HashedWheelTimer getSharedTimer() {
+		if (sharedTimer == null) {
+			sharedTimer = new HashedWheelTimer(null);
+		}
+		return sharedTimer;
+	}
+
+	@Override
+	public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task must not be null");
+		} else if (stopped) {
+			throw new RejectedExecutionException("timer has been stopped");
+		}
+		return timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				if (stopped) {
+					return;
+				}
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					LOGGER.log(Level.FINE, "executor rejected expired task", e);
+				}
+			}
+		}, delay, unit);
+	}
+
+	@Override
+	public void start() {
+		timer.start();
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public boolean isStopped() {
+		return stopped;
+	}
+}
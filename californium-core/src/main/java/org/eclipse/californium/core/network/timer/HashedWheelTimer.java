@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+
+/**
+ * A timer service based on a <em>hashed timing wheel</em>.
+ * <p>
+ * The wheel consists of a fixed number of buckets, each covering one
+ * <em>tick</em>. A single worker thread advances the wheel once per tick and
+ * expires all tasks contained in the current bucket whose deadline has been
+ * reached. Tasks with a delay exceeding one revolution of the wheel are
+ * kept in their bucket until the required number of rounds has passed.
+ * </p>
+ * <p>
+ * Scheduling and cancelling a task are <em>O(1)</em> operations which do not
+ * require any locking. Cancelling a task releases the timer's reference to it
+ * right away and the worker thread removes the cancelled timeout from its
+ * bucket on the next tick, so that neither the task nor any state it refers
+ * to is kept reachable until its original deadline. This makes the timer well
+ * suited for CoAP retransmissions and exchange time outs, the vast majority of
+ * which get cancelled long before they expire. The price to pay is that tasks are
+ * executed with a precision of one tick only.
+ * </p>
+ * <p>
+ * Expired tasks are handed over to the executor passed in to the constructor.
+ * If no executor is given, the tasks are run on the worker thread itself and
+ * must therefore not block.
+ * </p>
+ */
+public final class HashedWheelTimer implements TimerService {
+
+	/**
+	 * The default tick duration in milliseconds.
+	 */
+	public static final long DEFAULT_TICK_DURATION = 10;
+	/**
+	 * The default number of buckets the wheel consists of.
+	 */
+	public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+	// longer delays would let the deadline wrap around, about 146 years
+	private static final long MAX_DELAY_NANOS = Long.MAX_VALUE >> 1;
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_STOPPED = 2;
+
+	private final Executor executor;
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<WheelTimeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+	private final Thread workerThread;
+	private volatile long startTime;
+
+	/**
+	 * Creates a new timer using default tick duration and wheel size.
+	 *
+	 * @param executor The executor to run expired tasks on or {@code null} if
+	 *            expired tasks should be run on the timer's worker thread.
+	 */
+	public HashedWheelTimer(final Executor executor) {
+		this(executor, DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Creates a new timer.
+	 *
+	 * @param executor The executor to run expired tasks on or {@code null} if
+	 *            expired tasks should be run on the timer's worker thread.
+	 * @param tickDuration The duration of a tick.
+	 * @param unit The unit of the tick duration.
+	 * @param ticksPerWheel The number of buckets of the wheel. The value is
+	 *            rounded up to the next power of two.
+	 * @throws NullPointerException if unit is {@code null}.
+	 * @throws IllegalArgumentException if tick duration or ticks per wheel is
+	 *            &lt;= 0 or ticks per wheel exceeds 2^30.
+	 */
+	public HashedWheelTimer(final Executor executor, final long tickDuration, final TimeUnit unit,
+			final int ticksPerWheel) {
+		if (unit == null) {
+			throw new NullPointerException("unit must not be null");
+		} else if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tick duration must be greater than 0");
+		} else if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticks per wheel must be in range (0, 2^30]");
+		}
+		int normalizedTicksPerWheel = 1;
+		while (normalizedTicksPerWheel < ticksPerWheel) {
+			normalizedTicksPerWheel <<= 1;
+		}
+		this.executor = executor;
+		this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+		this.wheel = new Bucket[normalizedTicksPerWheel];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = wheel.length - 1;
+		this.workerThread = new DaemonThreadFactory("HashedWheelTimer#").newThread(new Worker());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The timer is started lazily when the first task is scheduled.
+	 */
+	@Override
+	public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task must not be null");
+		} else if (unit == null) {
+			throw new NullPointerException("unit must not be null");
+		} else if (state.get() == STATE_STOPPED) {
+			throw new RejectedExecutionException("timer has been stopped");
+		}
+		start();
+		long nanos = Math.min(unit.toNanos(Math.max(delay, 0)), MAX_DELAY_NANOS);
+		WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() + nanos);
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException if this timer has already been stopped.
+	 */
+	@Override
+	public void start() {
+		switch (state.get()) {
+		case STATE_INIT:
+			if (state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+				workerThread.start();
+			}
+			break;
+		case STATE_STARTED:
+			break;
+		default:
+			throw new IllegalStateException("timer has been stopped");
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (state.getAndSet(STATE_STOPPED) == STATE_STARTED && Thread.currentThread() != workerThread) {
+			workerThread.interrupt();
+		}
+	}
+
+	@Override
+	public boolean isStopped() {
+		return state.get() == STATE_STOPPED;
+	}
+
+	private final class Worker implements Runnable {
+
+		private long tick;
+
+		@Override
+		public void run() {
+			startTime = System.nanoTime();
+			while (state.get() == STATE_STARTED) {
+				if (waitForNextTick()) {
+					removeCancelledTimeouts();
+					transferPendingTimeouts();
+					wheel[(int) (tick & mask)].expireTimeouts();
+					tick++;
+				}
+			}
+			// release all references to tasks
+			for (Bucket bucket : wheel) {
+				bucket.clear();
+			}
+			pendingTimeouts.clear();
+			cancelledTimeouts.clear();
+			LOGGER.log(Level.FINE, "{0} has been stopped", Thread.currentThread().getName());
+		}
+
+		/**
+		 * Waits for the end of the current tick.
+		 *
+		 * @return {@code false} if the timer has been stopped while waiting.
+		 */
+		private boolean waitForNextTick() {
+			long deadline = startTime + (tick + 1) * tickDuration;
+			for (;;) {
+				long sleepTime = deadline - System.nanoTime();
+				if (sleepTime <= 0) {
+					return true;
+				}
+				try {
+					Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepTime + 999999));
+				} catch (InterruptedException e) {
+					if (state.get() == STATE_STOPPED) {
+						return false;
+					}
+				}
+			}
+		}
+
+		private void removeCancelledTimeouts() {
+			for (;;) {
+				WheelTimeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					break;
+				} else if (timeout.bucket != null) {
+					// timeouts still pending are dropped when being transferred
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void transferPendingTimeouts() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				WheelTimeout timeout = pendingTimeouts.poll();
+				if (timeout == null) {
+					break;
+				} else if (!timeout.isCancelled()) {
+					long calculatedTick = (timeout.deadline - startTime) / tickDuration;
+					timeout.remainingRounds = (calculatedTick - tick) / wheel.length;
+					// tasks whose deadline has already passed go to the current bucket
+					long targetTick = Math.max(calculatedTick, tick);
+					wheel[(int) (targetTick & mask)].add(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts.
+	 * <p>
+	 * Buckets are only ever accessed by the worker thread.
+	 */
+	private final class Bucket {
+
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(final WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expireTimeouts() {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.isCancelled()) {
+					remove(timeout);
+				} else if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		void remove(final WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (next != null) {
+				next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		void clear() {
+			head = tail = null;
+		}
+	}
+
+	private final class WheelTimeout implements Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final AtomicInteger timeoutState = new AtomicInteger(ST_INIT);
+		private final long deadline;
+		// released on cancellation
+		private volatile Runnable task;
+		// the following fields are only accessed by the worker thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTimeout next;
+		private WheelTimeout prev;
+
+		private WheelTimeout(final Runnable task, final long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (timeoutState.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				task = null;
+				cancelledTimeouts.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return timeoutState.get() == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return timeoutState.get() == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (timeoutState.compareAndSet(ST_INIT, ST_EXPIRED)) {
+				Runnable task = this.task;
+				this.task = null;
+				if (executor == null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						LOGGER.log(Level.WARNING, "Timer task threw exception", e);
+					}
+				} else {
+					try {
+						executor.execute(task);
+					} catch (RejectedExecutionException e) {
+						LOGGER.log(Level.FINE, "Executor rejected expired timer task, probably shutting down", e);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+/**
+ * A handle to a task that has been scheduled with a {@link TimerService}.
+ */
+public interface Timeout {
+
+	/**
+	 * Cancels the task associated with this timeout.
+	 * <p>
+	 * This method has no effect if the task has already been executed
+	 * or cancelled.
+	 *
+	 * @return {@code true} if the task has been cancelled by this invocation,
+	 *         {@code false} if it has already been executed or cancelled before.
+	 */
+	boolean cancel();
+
+	/**
+	 * Checks whether the task associated with this timeout has been cancelled.
+	 *
+	 * @return {@code true} if the task has been cancelled.
+	 */
+	boolean isCancelled();
+
+	/**
+	 * Checks whether the task associated with this timeout has expired.
+	 *
+	 * @return {@code true} if the task's delay has elapsed and the task has been
+	 *         handed over for execution.
+	 */
+	boolean isExpired();
+}
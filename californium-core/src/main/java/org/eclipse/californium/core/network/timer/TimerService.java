@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A service for running tasks after a given delay.
+ * <p>
+ * The CoAP stack uses a timer service for scheduling message retransmissions,
+ * clean up of blockwise transfer state and similar time outs. Most of these
+ * tasks are cancelled before they expire, e.g. because an ACK for a CON
+ * message has been received. Implementations should therefore support
+ * cheap scheduling and cancellation of a large number of tasks.
+ */
+public interface TimerService {
+
+	/**
+	 * Schedules a task for execution after a given delay.
+	 *
+	 * @param task The task to execute.
+	 * @param delay The delay after which the task should be executed.
+	 * @param unit The unit of the delay.
+	 * @return A handle for cancelling the task.
+	 * @throws NullPointerException if task or unit is {@code null}.
+	 * @throws RejectedExecutionException if this service has already been stopped.
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+	/**
+	 * Starts this service.
+	 * <p>
+	 * Implementations may choose to start lazily when the first task is
+	 * scheduled.
+	 */
+	void start();
+
+	/**
+	 * Stops this service.
+	 * <p>
+	 * Tasks that have not expired yet are discarded. Once stopped, the
+	 * service rejects all further tasks.
+	 */
+	void stop();
+
+	/**
+	 * Checks whether this service has been stopped.
+	 *
+	 * @return {@code true} if the service has been stopped.
+	 */
+	boolean isStopped();
+}
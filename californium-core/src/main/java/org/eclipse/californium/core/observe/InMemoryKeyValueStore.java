@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A key-value store keeping its data in memory.
+ * <p>
+ * This store is not shared among nodes. It serves as a stand-in for a
+ * distributed store, e.g. for running several endpoints within the same
+ * process or for testing.
+ */
+public final class InMemoryKeyValueStore implements KeyValueStore {
+
+	private final ConcurrentMap<ByteBuffer, byte[]> values = new ConcurrentHashMap<ByteBuffer, byte[]>();
+
+	@Override
+	public boolean putIfAbsent(final byte[] key, final byte[] value) {
+		return values.putIfAbsent(ByteBuffer.wrap(key.clone()), value.clone()) == null;
+	}
+
+	@Override
+	public byte[] get(final byte[] key) {
+		byte[] value = values.get(ByteBuffer.wrap(key));
+		return value == null ? null : value.clone();
+	}
+
+	@Override
+	public void removeAll(final Collection<byte[]> keys) {
+		for (byte[] key : keys) {
+			values.remove(ByteBuffer.wrap(key));
+		}
+	}
+
+	/**
+	 * Gets the number of keys having a value.
+	 *
+	 * @return The number of keys.
+	 */
+	public int size() {
+		return values.size();
+	}
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.coap.MessageFormatException;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+
+/**
+ * An observation store sharing the observations by means of a
+ * {@link KeyValueStore}.
+ * <p>
+ * The observations are stored under their token. The value is the observe
+ * request in CoAP wire format, prefixed by its destination address and port.
+ * <p>
+ * Observations added by this store are kept in a near cache as well, so
+ * that the node owning an observation processes its notifications without
+ * accessing the key-value store. Observations of other nodes are read from
+ * the key-value store and, if removals are batched, cached for one flush
+ * interval. This store is not notified when another node removes them, but
+ * with batched removals other nodes may find removed observations for that
+ * long anyway. The cached value is decoded on every lookup, so that each
+ * notification gets a request of its own.
+ * <p>
+ * Removals can be batched in order to reduce the number of accesses to the
+ * key-value store. Removed observations are no longer returned by this store
+ * immediately, but other nodes may still find them until the batch has been
+ * written by the removal completing the batch, by the periodic flush of a
+ * started store, by {@link #stop()} or by {@link #flush()}.
+ */
+public class KeyValueObservationStore implements ObservationStore {
+
+	private static final Logger LOGGER = Logger.getLogger(KeyValueObservationStore.class.getCanonicalName());
+
+	/** The default interval (in milliseconds) for writing batched removals */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	/** The maximum number of cached observations of other nodes */
+	public static final int MAX_FOREIGN_OBSERVATIONS = 10000;
+
+	private final KeyValueStore store;
+	private final int removalBatchSize;
+	private final long flushInterval;
+	private final ConcurrentMap<ByteBuffer, Observation> nearCache = new ConcurrentHashMap<ByteBuffer, Observation>();
+	private final ConcurrentMap<ByteBuffer, ForeignObservation> foreignCache = new ConcurrentHashMap<ByteBuffer, ForeignObservation>();
+	private final Set<ByteBuffer> pendingRemovals = new LinkedHashSet<ByteBuffer>();
+	private final UdpDataSerializer serializer = new UdpDataSerializer();
+	private final UdpDataParser parser = new UdpDataParser();
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Creates a store removing observations without batching.
+	 *
+	 * @param store The key-value store to keep the observations in.
+	 * @throws NullPointerException if the store is {@code null}.
+	 */
+	public KeyValueObservationStore(final KeyValueStore store) {
+		this(store, 1);
+	}
+
+	/**
+	 * Creates a store writing batched removals every
+	 * {@link #DEFAULT_FLUSH_INTERVAL} milliseconds.
+	 *
+	 * @param store The key-value store to keep the observations in.
+	 * @param removalBatchSize The number of removals to write to the
+	 *            key-value store at once.
+	 * @throws NullPointerException if the store is {@code null}.
+	 * @throws IllegalArgumentException if the batch size is less than 1.
+	 */
+	public KeyValueObservationStore(final KeyValueStore store, final int removalBatchSize) {
+		this(store, removalBatchSize, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Creates a store.
+	 *
+	 * @param store The key-value store to keep the observations in.
+	 * @param removalBatchSize The number of removals to write to the
+	 *            key-value store at once.
+	 * @param flushInterval The interval (in milliseconds) at which a started
+	 *            store writes pending removals of incomplete batches.
+	 * @throws NullPointerException if the store is {@code null}.
+	 * @throws IllegalArgumentException if the batch size is less than 1 or the
+	 *             interval is not positive.
+	 */
+	public KeyValueObservationStore(final KeyValueStore store, final int removalBatchSize, final long flushInterval) {
+		if (store == null) {
+			throw new NullPointerException("store must not be null");
+		} else if (removalBatchSize < 1) {
+			throw new IllegalArgumentException("removal batch size must be at least 1");
+		} else if (flushInterval <= 0) {
+			throw new IllegalArgumentException("flush interval must be positive");
+		}
+		this.store = store;
+		this.removalBatchSize = removalBatchSize;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * Starts writing pending removals periodically, if removals are batched.
+	 */
+	@Override
+	public synchronized void start() {
+		if (removalBatchSize > 1 && scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ObservationStore#"));
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (RuntimeException e) {
+						LOGGER.log(Level.WARNING, "Cannot write pending removals of observations", e);
+					}
+				}
+			}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops writing pending removals periodically and writes all pending
+	 * removals.
+	 */
+	@Override
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler = null;
+		}
+		flush();
+	}
+
+	@Override
+	public boolean add(final Observation observation) {
+		if (observation == null) {
+			throw new NullPointerException("observation must not be null");
+		}
+		byte[] token = observation.getToken();
+		ByteBuffer key = ByteBuffer.wrap(token.clone());
+		foreignCache.remove(key);
+		if (nearCache.replace(key, observation) != null) {
+			// re-registration of an own observation
+			return true;
+		}
+		// the token may be reused before a pending removal has been written
+		List<byte[]> removals = null;
+		synchronized (pendingRemovals) {
+			if (pendingRemovals.remove(key)) {
+				removals = new ArrayList<byte[]>(1);
+				removals.add(token);
+			}
+		}
+		if (removals != null) {
+			store.removeAll(removals);
+		}
+		if (store.putIfAbsent(token, encode(observation.getRequest()))) {
+			nearCache.put(key, observation);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public Observation get(final byte[] token) {
+		ByteBuffer key = ByteBuffer.wrap(token);
+		Observation observation = nearCache.get(key);
+		if (observation == null) {
+			synchronized (pendingRemovals) {
+				if (pendingRemovals.contains(key)) {
+					return null;
+				}
+			}
+			byte[] value = getForeignObservation(key, token);
+			if (value != null) {
+				Request request = decode(value);
+				if (request != null) {
+					observation = new Observation(request);
+				}
+			}
+		}
+		return observation;
+	}
+
+	@Override
+	public void remove(final byte[] token) {
+		ByteBuffer key = ByteBuffer.wrap(token.clone());
+		nearCache.remove(key);
+		foreignCache.remove(key);
+		List<byte[]> removals = null;
+		synchronized (pendingRemovals) {
+			pendingRemovals.add(key);
+			if (pendingRemovals.size() >= removalBatchSize) {
+				removals = drainPendingRemovals();
+			}
+		}
+		if (removals != null) {
+			store.removeAll(removals);
+		}
+	}
+
+	/**
+	 * Writes all pending removals to the key-value store and purges expired
+	 * observations of other nodes from the cache.
+	 */
+	public void flush() {
+		List<byte[]> removals;
+		synchronized (pendingRemovals) {
+			removals = drainPendingRemovals();
+		}
+		if (!removals.isEmpty()) {
+			store.removeAll(removals);
+		}
+		long now = System.nanoTime();
+		Iterator<ForeignObservation> observations = foreignCache.values().iterator();
+		while (observations.hasNext()) {
+			if (observations.next().isExpired(now)) {
+				observations.remove();
+			}
+		}
+	}
+
+	/**
+	 * Gets the encoded observation of another node.
+	 * <p>
+	 * If removals are batched, the observation is cached for one flush
+	 * interval.
+	 *
+	 * @param key The token as key of the cache.
+	 * @param token The token.
+	 * @return The encoded observation or {@code null} if the key-value store
+	 *         contains no observation for the token.
+	 */
+	private byte[] getForeignObservation(final ByteBuffer key, final byte[] token) {
+		if (removalBatchSize == 1) {
+			return store.get(token);
+		}
+		long now = System.nanoTime();
+		ForeignObservation cached = foreignCache.get(key);
+		if (cached != null && !cached.isExpired(now)) {
+			return cached.value;
+		}
+		byte[] value = store.get(token);
+		if (value == null) {
+			if (cached != null) {
+				foreignCache.remove(key, cached);
+			}
+		} else if (cached != null || foreignCache.size() < MAX_FOREIGN_OBSERVATIONS) {
+			foreignCache.put(ByteBuffer.wrap(token.clone()),
+					new ForeignObservation(value, now + TimeUnit.MILLISECONDS.toNanos(flushInterval)));
+		}
+		return value;
+	}
+
+	private List<byte[]> drainPendingRemovals() {
+		List<byte[]> removals = new ArrayList<byte[]>(pendingRemovals.size());
+		for (ByteBuffer key : pendingRemovals) {
+			removals.add(key.array());
+		}
+		pendingRemovals.clear();
+		return removals;
+	}
+
+	private byte[] encode(final Request request) {
+		byte[] address = request.getDestination().getAddress();
+		DatagramWriter writer = new DatagramWriter();
+		writer.write(address.length, 8);
+		writer.writeBytes(address);
+		writer.write(request.getDestinationPort(), 16);
+		writer.writeBytes(serializer.getByteArray(request));
+		return writer.toByteArray();
+	}
+
+	private Request decode(final byte[] value) {
+		try {
+			DatagramReader reader = new DatagramReader(value);
+			InetAddress address = InetAddress.getByAddress(reader.readBytes(reader.read(8)));
+			int port = reader.read(16);
+			Message message = parser.parseMessage(reader.readBytesLeft());
+			if (message instanceof Request) {
+				message.setDestination(address);
+				message.setDestinationPort(port);
+				return (Request) message;
+			}
+			LOGGER.log(Level.WARNING, "Stored observation does not contain a request: {0}", message);
+		} catch (UnknownHostException e) {
+			LOGGER.log(Level.WARNING, "Stored observation has an invalid destination address", e);
+		} catch (MessageFormatException e) {
+			LOGGER.log(Level.WARNING, "Stored observation cannot be parsed", e);
+		}
+		return null;
+	}
+
+	private static final class ForeignObservation {
+
+		private final byte[] value;
+		private final long expirationTime;
+
+		private ForeignObservation(final byte[] value, final long expirationTime) {
+			this.value = value;
+			this.expirationTime = expirationTime;
+		}
+
+		private boolean isExpired(final long now) {
+			return now - expirationTime >= 0;
+		}
+	}
+}
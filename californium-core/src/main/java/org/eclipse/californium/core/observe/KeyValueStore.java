@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import java.util.Collection;
+
+/**
+ * A minimal key-value store for sharing data among several nodes.
+ * <p>
+ * This interface is the service provider interface for
+ * {@link KeyValueObservationStore}. Implementations are expected to adapt a
+ * distributed cache or database and must be thread-safe.
+ */
+public interface KeyValueStore {
+
+	/**
+	 * Associates a value with a key unless the key already has a value.
+	 *
+	 * @param key The key.
+	 * @param value The value.
+	 * @return {@code true} if the value has been stored, {@code false} if the
+	 *         key already has a value.
+	 */
+	boolean putIfAbsent(byte[] key, byte[] value);
+
+	/**
+	 * Gets the value of a key.
+	 *
+	 * @param key The key.
+	 * @return The value or {@code null} if the key has no value.
+	 */
+	byte[] get(byte[] key);
+
+	/**
+	 * Removes several keys at once.
+	 *
+	 * @param keys The keys to remove.
+	 */
+	void removeAll(Collection<byte[]> keys);
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+/**
+ * A listener for notifications of observations that have been looked up in
+ * an {@link ObservationStore}.
+ * <p>
+ * Such notifications belong to an observe request that has not been sent by
+ * the receiving endpoint, e.g. because another node of a cluster has sent
+ * it. There is thus no handler registered with the request and the
+ * notifications are passed to this listener instead.
+ */
+public interface NotificationListener {
+
+	/**
+	 * Invoked when a notification has been received.
+	 *
+	 * @param request The observe request as stored in the observation.
+	 * @param response The notification.
+	 */
+	void onNotification(Request request, Response response);
+}
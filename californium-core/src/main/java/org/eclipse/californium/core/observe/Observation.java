@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import org.eclipse.californium.core.coap.Request;
+
+/**
+ * An observation of a resource initiated by a client.
+ * <p>
+ * An observation is identified by the token of the observe request. It
+ * contains everything needed for processing notifications, i.e. the observe
+ * request including its destination.
+ */
+public final class Observation {
+
+	private final Request request;
+
+	/**
+	 * Creates an observation.
+	 *
+	 * @param request The observe request. The request must have a token and
+	 *            a destination.
+	 * @throws NullPointerException if the request is {@code null}.
+	 * @throws IllegalArgumentException if the request has no token or is
+	 *             not an observe request.
+	 */
+	public Observation(final Request request) {
+		if (request == null) {
+			throw new NullPointerException("request must not be null");
+		} else if (request.getToken() == null) {
+			throw new IllegalArgumentException("request must have a token");
+		} else if (!request.isObserve()) {
+			throw new IllegalArgumentException("request must be an observe request");
+		}
+		this.request = request;
+	}
+
+	/**
+	 * Gets the observe request.
+	 *
+	 * @return The request.
+	 */
+	public Request getRequest() {
+		return request;
+	}
+
+	/**
+	 * Gets the token identifying this observation.
+	 *
+	 * @return The token of the observe request.
+	 */
+	public byte[] getToken() {
+		return request.getToken();
+	}
+}
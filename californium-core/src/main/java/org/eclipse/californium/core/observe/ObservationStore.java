@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+/**
+ * A registry of the observations initiated by clients.
+ * <p>
+ * Implementations may share the observations among several Californium
+ * instances (running on other nodes). This enables any node to process
+ * notifications for observations initiated by another node, e.g. if the
+ * notifications are sent to a shared address or after the original node has
+ * failed over.
+ */
+public interface ObservationStore {
+
+	/**
+	 * Adds an observation.
+	 * <p>
+	 * An observation previously added to this store is replaced by an
+	 * observation with the same token, e.g. when re-registering.
+	 *
+	 * @param observation The observation to add.
+	 * @return {@code true} if the observation has been added, {@code false}
+	 *         if an observation with the same token has already been added
+	 *         by another node.
+	 * @throws NullPointerException if the observation is {@code null}.
+	 */
+	boolean add(Observation observation);
+
+	/**
+	 * Gets the observation registered under a token.
+	 * <p>
+	 * This method is invoked for every notification not matching an exchange
+	 * of the endpoint, i.e. for all notifications of observations initiated
+	 * by other nodes. Implementations accessing remote storage may therefore
+	 * cache observations of other nodes for a short, bounded period, at the
+	 * price of returning an observation that has just been removed by another
+	 * node. The observation returned must not be shared among invocations,
+	 * because the endpoint registers a message observer with its request.
+	 *
+	 * @param token The token of the observe request.
+	 * @return The observation or {@code null} if no observation is registered
+	 *         under the token.
+	 */
+	Observation get(byte[] token);
+
+	/**
+	 * Removes the observation registered under a token.
+	 *
+	 * @param token The token of the observe request.
+	 */
+	void remove(byte[] token);
+
+	/**
+	 * Starts this store.
+	 * <p>
+	 * This method is invoked when the endpoint using this store is started.
+	 */
+	void start();
+
+	/**
+	 * Stops this store.
+	 * <p>
+	 * This method is invoked when the endpoint using this store is stopped.
+	 * Implementations should write all pending changes to the shared
+	 * storage.
+	 */
+	void stop();
+}
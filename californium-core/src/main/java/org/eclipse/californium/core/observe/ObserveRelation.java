@@ -18,12 +18,16 @@
  *    Kai Hudalla - logging
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - keep pending notification and
+ *                                      minimum notification interval
  ******************************************************************************/
 package org.eclipse.californium.core.observe;
 
 import java.net.InetSocketAddress;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +45,9 @@ public class ObserveRelation {
 
 	/** The logger. */
 	private final static Logger LOGGER = Logger.getLogger(ObserveRelation.class.getCanonicalName());
+
+	/** The query parameter an observer may use to request a minimum notification interval (in seconds) */
+	private static final String PMIN_PARAMETER = "pmin=";
 	
 	private final long CHECK_INTERVAL_TIME = NetworkConfig.getStandard().getLong(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_TIME);
 	private final int CHECK_INTERVAL_COUNT = NetworkConfig.getStandard().getInt(NetworkConfig.Keys.NOTIFICATION_CHECK_INTERVAL_COUNT);
@@ -55,6 +62,13 @@ public class ObserveRelation {
 	
 	private Response recentControlNotification;
 	private Response nextControlNotification;
+
+	/** The latest notification waiting for the minimum interval to elapse */
+	private Response pendingNotification;
+	/** The (nano) time the last notification has been sent at */
+	private long lastNotificationTime;
+	/** The minimum interval (in milliseconds) requested by the observer */
+	private final long requestedMinInterval;
 	
 	private String key = null;
 
@@ -91,6 +105,22 @@ public class ObserveRelation {
 		this.established = false;
 		
 		this.key = getSource().toString() + "#" + exchange.getRequest().getTokenString();
+		this.requestedMinInterval = parseMinInterval(exchange.getRequest().getOptions().getUriQuery());
+	}
+
+	private static long parseMinInterval(final List<String> query) {
+		for (String parameter : query) {
+			if (parameter.startsWith(PMIN_PARAMETER)) {
+				try {
+					long pmin = Long.parseLong(parameter.substring(PMIN_PARAMETER.length()));
+					// toMillis saturates instead of overflowing for large values
+					return TimeUnit.SECONDS.toMillis(Math.max(0, pmin));
+				} catch (NumberFormatException e) {
+					LOGGER.log(Level.FINE, "Ignoring malformed query parameter {0}", parameter);
+				}
+			}
+		}
+		return 0;
 	}
 	
 	/**
@@ -194,6 +224,57 @@ public class ObserveRelation {
 		this.nextControlNotification = nextControlNotification;
 	}
 	
+	/**
+	 * Gets the latest notification that has been postponed until the
+	 * minimum notification interval has elapsed.
+	 *
+	 * @return the pending notification or {@code null}
+	 */
+	public Response getPendingNotification() {
+		return pendingNotification;
+	}
+
+	/**
+	 * Sets the latest notification to be sent once the minimum notification
+	 * interval has elapsed. A former pending notification is discarded.
+	 *
+	 * @param pendingNotification the notification or {@code null}
+	 */
+	public void setPendingNotification(Response pendingNotification) {
+		this.pendingNotification = pendingNotification;
+	}
+
+	/**
+	 * Gets the time the last notification has been sent to the observer at.
+	 *
+	 * @return the time as returned by {@link System#nanoTime()} or {@code 0}
+	 *         if no notification has been sent yet
+	 */
+	public long getLastNotificationTime() {
+		return lastNotificationTime;
+	}
+
+	/**
+	 * Sets the time the last notification has been sent to the observer at.
+	 *
+	 * @param lastNotificationTime the time as returned by
+	 *            {@link System#nanoTime()}
+	 */
+	public void setLastNotificationTime(long lastNotificationTime) {
+		this.lastNotificationTime = lastNotificationTime;
+	}
+
+	/**
+	 * Gets the minimum time between two notifications requested by the
+	 * observer using the {@code pmin} query parameter.
+	 *
+	 * @return the interval in milliseconds or {@code 0} if the observer has
+	 *         not requested an interval
+	 */
+	public long getRequestedMinInterval() {
+		return requestedMinInterval;
+	}
+
 	public void addNotification(Response notification) {
 		notifications.add(notification);
 	}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import org.eclipse.californium.core.coap.BlockConsumer;
+import org.eclipse.californium.core.coap.Request;
+
+/**
+ * A provider of consumers for the bodies of requests that are transferred
+ * blockwise (using the Block1 option).
+ * <p>
+ * A resource implementing this interface receives the blocks of a request's
+ * body as they arrive instead of the {@code BlockwiseLayer} buffering them
+ * until the whole body has been received. The request delivered to the
+ * resource after the last block has been consumed does not contain a
+ * payload. Such bodies are not limited by
+ * {@link org.eclipse.californium.core.network.config.NetworkConfig.Keys#MAX_RESOURCE_BODY_SIZE}.
+ * <p>
+ * The {@link ServerMessageDeliverer} looks up the consumer from the resource
+ * a request is targeted at. Other {@link MessageDeliverer}s may implement
+ * this interface as well in order to provide consumers.
+ * <p>
+ * Consumers are invoked on the threads of the endpoint's protocol stage.
+ * They should therefore hand off the blocks quickly, e.g. by writing them to
+ * a file, instead of processing them.
+ */
+public interface BlockConsumerProvider {
+
+	/**
+	 * Gets a consumer for the body of a request.
+	 * <p>
+	 * This method is invoked when the first block of a request's body has been
+	 * received.
+	 *
+	 * @param request The request containing the first block.
+	 * @return The consumer to pass the blocks to or {@code null} if the body
+	 *         should be buffered and delivered as the request's payload.
+	 */
+	BlockConsumer getBlockConsumer(Request request);
+}
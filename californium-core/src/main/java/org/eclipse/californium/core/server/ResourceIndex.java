@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.core.server.resources.ResourceObserver;
+
+/**
+ * An index of the resources of a resource tree by path.
+ * <p>
+ * A resource is looked up by walking the tree segment by segment using
+ * {@link Resource#getChild(String)}, so that resources accepting requests to
+ * sub-resources keep working. The resources found for the most frequently
+ * requested paths are kept in a cache, which is looked up using the request's
+ * (already decoded) Uri-Path segments as key, i.e. without building a string
+ * from the path.
+ * <p>
+ * The index observes all resources of the tree. Any change of the tree, i.e.
+ * adding, removing or renaming a resource, starts a new generation of the
+ * cache. Resources found by a walk that has started in a former generation
+ * are not cached.
+ */
+final class ResourceIndex {
+
+	/**
+	 * The maximum number of paths kept in the cache. A single entry is evicted
+	 * when a path is to be added to the full cache.
+	 */
+	static final int MAX_CACHED_PATHS = 256;
+
+	private final Resource root;
+	private final ConcurrentMap<List<String>, CachedResource> cache = new ConcurrentHashMap<List<String>, CachedResource>();
+	private final AtomicLong generation = new AtomicLong();
+	private final TreeObserver treeObserver = new TreeObserver();
+
+	/**
+	 * Creates an index for a resource tree.
+	 *
+	 * @param root The root of the tree.
+	 */
+	ResourceIndex(final Resource root) {
+		this.root = root;
+		observeTree(root);
+	}
+
+	/**
+	 * Finds the resource for a path.
+	 *
+	 * @param path The path as list of resource names.
+	 * @return The resource or {@code null} if not found.
+	 */
+	Resource find(final List<String> path) {
+		long current = generation.get();
+		CachedResource cached = cache.get(path);
+		if (cached != null && cached.generation == current) {
+			return cached.resource;
+		}
+		Resource resource = root;
+		for (String name : path) {
+			if (resource == null) {
+				break;
+			}
+			resource = resource.getChild(name);
+		}
+		// don't cache a resource found in a former generation of the tree
+		if (resource != null && generation.get() == current) {
+			if (cache.size() >= MAX_CACHED_PATHS) {
+				evictOne();
+			}
+			// the path may be modified by the caller, the entry is ignored if
+			// the tree has changed after the check above
+			cache.put(new ArrayList<String>(path), new CachedResource(resource, current));
+		}
+		return resource;
+	}
+
+	/**
+	 * Evicts an arbitrary entry from the cache.
+	 * <p>
+	 * Evicting a single entry keeps the other frequently requested paths
+	 * cached, while the evicted path is added again with its next request.
+	 */
+	private void evictOne() {
+		Iterator<List<String>> paths = cache.keySet().iterator();
+		if (paths.hasNext()) {
+			paths.next();
+			paths.remove();
+		}
+	}
+
+	/**
+	 * Gets the number of paths in the cache.
+	 *
+	 * @return The number of paths.
+	 */
+	int getCachedPaths() {
+		return cache.size();
+	}
+
+	private void invalidate() {
+		generation.incrementAndGet();
+		cache.clear();
+	}
+
+	private void observeTree(final Resource resource) {
+		// avoid duplicate registrations of re-added resources
+		resource.removeObserver(treeObserver);
+		resource.addObserver(treeObserver);
+		for (Resource child : resource.getChildren()) {
+			observeTree(child);
+		}
+	}
+
+	private void unobserveTree(final Resource resource) {
+		resource.removeObserver(treeObserver);
+		for (Resource child : resource.getChildren()) {
+			unobserveTree(child);
+		}
+	}
+
+	private static final class CachedResource {
+
+		private final Resource resource;
+		private final long generation;
+
+		private CachedResource(final Resource resource, final long generation) {
+			this.resource = resource;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * Invalidates the cache on changes of the resource tree.
+	 */
+	private class TreeObserver implements ResourceObserver {
+
+		@Override
+		public void changedName(String old) {
+			invalidate();
+		}
+
+		@Override
+		public void changedPath(String old) {
+			invalidate();
+		}
+
+		@Override
+		public void addedChild(Resource child) {
+			observeTree(child);
+			invalidate();
+		}
+
+		@Override
+		public void removedChild(Resource child) {
+			unobserveTree(child);
+			invalidate();
+		}
+
+		@Override
+		public void addedObserveRelation(ObserveRelation relation) {
+		}
+
+		@Override
+		public void removedObserveRelation(ObserveRelation relation) {
+		}
+	}
+}
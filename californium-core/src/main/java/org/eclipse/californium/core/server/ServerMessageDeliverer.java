@@ -18,17 +18,19 @@
  *    Kai Hudalla - logging
  *    Kai Hudalla (Bosch Software Innovations GmbH) - use Logger's message formatting instead of
  *                                                    explicit String concatenation
+ *    Bosch Software Innovations GmbH - look up resources without copying the path
+ *    Bosch Software Innovations GmbH - provide consumers for request bodies
+ *    Bosch Software Innovations GmbH - look up resources using an index
  ******************************************************************************/
 package org.eclipse.californium.core.server;
 
 import java.net.InetSocketAddress;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.eclipse.californium.core.coap.BlockConsumer;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.Request;
@@ -42,13 +44,17 @@ import org.eclipse.californium.core.server.resources.Resource;
 /**
  * The ServerMessageDeliverer delivers requests to corresponding resources and
  * responses to corresponding requests.
+ * <p>
+ * The bodies of requests transferred blockwise are passed to the consumer
+ * provided by the target resource, if the resource implements
+ * {@link BlockConsumerProvider}.
  */
-public class ServerMessageDeliverer implements MessageDeliverer {
+public class ServerMessageDeliverer implements MessageDeliverer, BlockConsumerProvider {
 
 	private static final Logger LOGGER = Logger.getLogger(ServerMessageDeliverer.class.getCanonicalName());
 
-	/* The root of all resources */
-	private final Resource root;
+	/* The index of all resources */
+	private final ResourceIndex index;
 
 	/* The manager of the observe mechanism for this server */
 	private final ObserveManager observeManager = new ObserveManager();
@@ -60,7 +66,7 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * @param root the root resource
 	 */
 	public ServerMessageDeliverer(final Resource root) {
-		this.root = root;
+		this.index = new ResourceIndex(root);
 	}
 
 	/**
@@ -112,6 +118,22 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 		}
 	}
 
+	/**
+	 * Gets a consumer for the body of a request from the target resource.
+	 * 
+	 * @param request The request containing the first block of the body.
+	 * @return The consumer provided by the resource or {@code null} if the
+	 *         resource does not implement {@link BlockConsumerProvider}.
+	 */
+	@Override
+	public BlockConsumer getBlockConsumer(final Request request) {
+		Resource resource = findResource(request.getOptions().getUriPath());
+		if (resource instanceof BlockConsumerProvider) {
+			return ((BlockConsumerProvider) resource).getBlockConsumer(request);
+		}
+		return null;
+	}
+
 	/**
 	 * Invoked by the <em>deliverRequest</em> before the request gets processed.
 	 * <p>
@@ -175,18 +197,15 @@ public class ServerMessageDeliverer implements MessageDeliverer {
 	 * Searches in the resource tree for the specified path. A parent resource
 	 * may accept requests to subresources, e.g., to allow addresses with
 	 * wildcards like <code>coap://example.com:5683/devices/*</code>
+	 * <p>
+	 * The resources found for frequently requested paths are cached until
+	 * the resource tree changes.
 	 * 
 	 * @param list the path as list of resource names
 	 * @return the resource or null if not found
 	 */
 	protected final Resource findResource(final List<String> list) {
-		Deque<String> path = new LinkedList<String>(list);
-		Resource current = root;
-		while (!path.isEmpty() && current != null) {
-			String name = path.removeFirst();
-			current = current.getChild(name);
-		}
-		return current;
+		return index.find(list);
 	}
 
 	/**
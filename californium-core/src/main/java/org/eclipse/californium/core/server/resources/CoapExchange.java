@@ -16,6 +16,7 @@
  *    Dominique Im Obersteg - parsers and initial implementation
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
+ *    Bosch Software Innovations GmbH - respond with body read from BlockSource
  ******************************************************************************/
 package org.eclipse.californium.core.server.resources;
 
@@ -24,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.BlockSource;
 import org.eclipse.californium.core.coap.CoAP.Code;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
@@ -309,6 +311,24 @@ public class CoapExchange {
 		respond(response);
 	}
 	
+	/**
+	 * Respond with the specified response code and a body read on demand.
+	 * <p>
+	 * If the body is transferred blockwise, only the blocks requested by the
+	 * client are read from the source. This allows to serve bodies of
+	 * arbitrary size with constant memory.
+	 *
+	 * @param code the response code
+	 * @param source the source of the body
+	 * @param contentFormat the Content-Format of the body
+	 */
+	public void respond(ResponseCode code, BlockSource source, int contentFormat) {
+		Response response = new Response(code);
+		response.setPayloadSource(source);
+		response.getOptions().setContentFormat(contentFormat);
+		respond(response);
+	}
+
 	/**
 	 * Respond with the specified response.
 	 * @param response the response
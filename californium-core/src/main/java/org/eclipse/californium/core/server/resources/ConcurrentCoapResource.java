@@ -16,6 +16,8 @@
  *    Dominique Im Obersteg - parsers and initial implementation
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
+ *    Bosch Software Innovations GmbH - support for running each request on
+ *                                      a (virtual) thread of its own
  ******************************************************************************/
 package org.eclipse.californium.core.server.resources;
 
@@ -27,6 +29,7 @@ import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.elements.util.NamedThreadFactory;
+import org.eclipse.californium.elements.util.VirtualThreads;
 
 /**
  * A ConcurrentCoapResource is an extension to a typical CoapResource and
@@ -82,11 +85,22 @@ import org.eclipse.californium.elements.util.NamedThreadFactory;
  *  |
  *  |-- large: executed by pool-5 (2 threads)
  * </pre>
+ * Resources with handlers that block, e.g. on a database or a downstream
+ * service, can use {@link #THREAD_PER_REQUEST} as the number of threads. Each
+ * request is then processed by a thread of its own, which is a virtual thread
+ * on JVMs supporting them.
  */
 public class ConcurrentCoapResource extends CoapResource {
 	
 	/** The constant 1 for single threaded executors */
 	public static int SINGLE_THREADED = 1;
+
+	/**
+	 * The constant 0 for executors running each request on a new thread.
+	 * 
+	 * @see VirtualThreads#newThreadPerTaskExecutor(String)
+	 */
+	public static final int THREAD_PER_REQUEST = 0;
 	
 	/** The number of threads. */
 	private int threads;
@@ -112,13 +126,17 @@ public class ConcurrentCoapResource extends CoapResource {
 	 * process requests.
 	 * 
 	 * @param name the name
-	 * @param threads the number of threads
+	 * @param threads the number of threads or {@link #THREAD_PER_REQUEST}
 	 */
 	public ConcurrentCoapResource(String name, int threads) {
 		super(name);
 		this.threads = threads;
-		setExecutor(Executors.newFixedThreadPool(threads,
-				new NamedThreadFactory("ConcurrentCoapResource-" + name + '#'))); //$NON-NLS-1$
+		if (threads == THREAD_PER_REQUEST) {
+			setExecutor(VirtualThreads.newThreadPerTaskExecutor("ConcurrentCoapResource-" + name + '#')); //$NON-NLS-1$
+		} else {
+			setExecutor(Executors.newFixedThreadPool(threads,
+					new NamedThreadFactory("ConcurrentCoapResource-" + name + '#'))); //$NON-NLS-1$
+		}
 	}
 	
 	/**
@@ -176,7 +194,7 @@ public class ConcurrentCoapResource extends CoapResource {
 	 * the specified number of threads to process requests. This method can be
 	 * used to reuse a given resource but with an own thread-pool.
 	 * 
-	 * @param threads the number of threads
+	 * @param threads the number of threads or {@link #THREAD_PER_REQUEST}
 	 * @param impl the implementation
 	 * @return the wrapping resource
 	 */
@@ -17,28 +17,65 @@
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
  *    Achim Kraus (Bosch Software Innovations GmbH) - limit search to 1 query.
+ *    Bosch Software Innovations GmbH - cache the links of the resource tree
  ******************************************************************************/
 package org.eclipse.californium.core.server.resources;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.LinkFormat;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.observe.ObserveRelation;
 
 /**
  * The DiscoveryResource implements CoAP's discovery service. It is typically
  * accessible over CoAP on the well-known URI: <tt>/.well-known/core</tt>. It
  * responds to GET requests with a list of the server's resources, i.e. links.
+ * <p>
+ * The links are serialized once and cached. The cache is invalidated as soon
+ * as a resource is added to or removed from the tree or a resource's name or
+ * path changes. Changes of the resources' attributes or visibility are not
+ * reported to this resource and are therefore reflected once the cache
+ * lifetime has expired. Queries for a resource type or interface description
+ * are answered using indexes of the cached links.
+ * <p>
+ * {@link #discoverTree(Resource, List)} uses the cached links as well, if it
+ * is invoked for the root of the tree this resource has been created for.
  */
 public class DiscoveryResource extends CoapResource {
 
 	/** The Constant CORE. */
 	public static final String CORE = "core";
-	
+
+	/** The default time (in milliseconds) the links are cached for */
+	public static final long DEFAULT_CACHE_LIFETIME = 10000;
+
 	/** The root of the server's resource tree */
 	private final Resource root;
+
+	/** The observer invalidating the cached links on changes of the tree */
+	private final ResourceObserver treeObserver = new TreeObserver();
+
+	/** The generation of the cached links, used as ETag */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	/** The version of the resource tree, incremented on changes of the tree */
+	private final AtomicInteger treeVersion = new AtomicInteger();
+
+	/** The cached links, null if not yet serialized */
+	private volatile Links links;
+
+	private volatile long cacheLifetime = DEFAULT_CACHE_LIFETIME;
 	
 	/**
 	 * Instantiates a new discovery resource.
@@ -58,6 +95,17 @@ public class DiscoveryResource extends CoapResource {
 	public DiscoveryResource(String name, Resource root) {
 		super(name);
 		this.root = root;
+		observeTree(root);
+	}
+
+	/**
+	 * Sets the maximum time the links of the resource tree are cached for.
+	 *
+	 * @param lifetime the time in milliseconds, 0 disables the cache
+	 */
+	public void setCacheLifetime(long lifetime) {
+		this.cacheLifetime = lifetime;
+		treeVersion.incrementAndGet();
 	}
 	
 	/**
@@ -69,8 +117,14 @@ public class DiscoveryResource extends CoapResource {
 	public void handleGET(CoapExchange exchange) {
 		List<String> query = exchange.getRequestOptions().getUriQuery();
 		if (query.size() <= 1) {
-			String tree = discoverTree(root, query);
-			exchange.respond(ResponseCode.CONTENT, tree, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+			Links current = getLinks();
+			if (query.isEmpty()) {
+				exchange.setETag(current.etag);
+				exchange.respond(ResponseCode.CONTENT, current.body, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+			} else {
+				String tree = current.filter(query);
+				exchange.respond(ResponseCode.CONTENT, tree, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+			}
 		}
 		else {
 			exchange.respond(ResponseCode.BAD_OPTION, "only one search query is supported!", MediaTypeRegistry.TEXT_PLAIN);
@@ -87,6 +141,10 @@ public class DiscoveryResource extends CoapResource {
 	 * @return the list of resources as string
 	 */
 	public String discoverTree(Resource root, List<String> queries) {
+		if (root == this.root) {
+			Links current = getLinks();
+			return queries.isEmpty() ? new String(current.body, StandardCharsets.UTF_8) : current.filter(queries);
+		}
 		StringBuilder buffer = new StringBuilder();
 		for (Resource child:root.getChildren()) {
 			LinkFormat.serializeTree(child, queries, buffer);
@@ -98,4 +156,208 @@ public class DiscoveryResource extends CoapResource {
 		
 		return buffer.toString();
 	}
+
+	/**
+	 * Gets the cached links of the resource tree, serializing them if the
+	 * cache has been invalidated or has expired.
+	 * <p>
+	 * The links are serialized for the tree version read before walking the
+	 * tree. Links serialized concurrently to a change of the tree are
+	 * therefore considered to be outdated on the next invocation.
+	 */
+	private Links getLinks() {
+		Links current = links;
+		if (isOutdated(current)) {
+			synchronized (treeObserver) {
+				current = links;
+				if (isOutdated(current)) {
+					int version = treeVersion.get();
+					current = new Links(root, generation.incrementAndGet(), version);
+					links = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private boolean isOutdated(final Links current) {
+		return current == null || current.version != treeVersion.get() || current.isExpired(cacheLifetime);
+	}
+
+	private void observeTree(final Resource resource) {
+		// avoid duplicate registrations of re-added resources
+		resource.removeObserver(treeObserver);
+		resource.addObserver(treeObserver);
+		for (Resource child : resource.getChildren()) {
+			observeTree(child);
+		}
+	}
+
+	private void unobserveTree(final Resource resource) {
+		resource.removeObserver(treeObserver);
+		for (Resource child : resource.getChildren()) {
+			unobserveTree(child);
+		}
+	}
+
+	/**
+	 * Invalidates the cached links on changes of the resource tree.
+	 */
+	private class TreeObserver implements ResourceObserver {
+
+		@Override
+		public void changedName(String old) {
+			treeVersion.incrementAndGet();
+		}
+
+		@Override
+		public void changedPath(String old) {
+			treeVersion.incrementAndGet();
+		}
+
+		@Override
+		public void addedChild(Resource child) {
+			observeTree(child);
+			treeVersion.incrementAndGet();
+		}
+
+		@Override
+		public void removedChild(Resource child) {
+			unobserveTree(child);
+			treeVersion.incrementAndGet();
+		}
+
+		@Override
+		public void addedObserveRelation(ObserveRelation relation) {
+		}
+
+		@Override
+		public void removedObserveRelation(ObserveRelation relation) {
+		}
+	}
+
+	/**
+	 * The serialized links of the resource tree.
+	 */
+	private static final class Links {
+
+		private final long created = System.nanoTime();
+		private final int version;
+		private final List<Link> links = new ArrayList<Link>();
+		private final Map<String, List<Link>> resourceTypes = new HashMap<String, List<Link>>();
+		private final Map<String, List<Link>> interfaces = new HashMap<String, List<Link>>();
+		private final byte[] body;
+		private final byte[] etag;
+
+		private Links(final Resource root, final int generation, final int version) {
+			this.version = version;
+			for (Resource child : root.getChildren()) {
+				add(child);
+			}
+			this.body = join(links).getBytes(StandardCharsets.UTF_8);
+			this.etag = new byte[] { (byte) (generation >>> 24), (byte) (generation >>> 16),
+					(byte) (generation >>> 8), (byte) generation };
+		}
+
+		/**
+		 * Adds the links of a resource and its children in the order of
+		 * {@link LinkFormat#serializeTree(Resource, List, StringBuilder)}.
+		 */
+		private void add(final Resource resource) {
+			if (resource.isVisible()) {
+				StringBuilder serialized = LinkFormat.serializeResource(resource);
+				// remove the trailing ','
+				serialized.setLength(serialized.length() - 1);
+				Link link = new Link(resource, serialized.toString());
+				links.add(link);
+				index(resourceTypes, resource.getAttributes().getResourceTypes(), link);
+				index(interfaces, resource.getAttributes().getInterfaceDescriptions(), link);
+			}
+			List<Resource> children = new ArrayList<Resource>(resource.getChildren());
+			Collections.sort(children, new Comparator<Resource>() {
+
+				@Override
+				public int compare(Resource o1, Resource o2) {
+					return o1.getName().compareTo(o2.getName());
+				}
+			});
+			for (Resource child : children) {
+				add(child);
+			}
+		}
+
+		private static void index(final Map<String, List<Link>> index, final List<String> values, final Link link) {
+			for (String value : values) {
+				List<Link> indexed = index.get(value);
+				if (indexed == null) {
+					indexed = new ArrayList<Link>();
+					index.put(value, indexed);
+				}
+				if (indexed.isEmpty() || indexed.get(indexed.size() - 1) != link) {
+					indexed.add(link);
+				}
+			}
+		}
+
+		private boolean isExpired(final long lifetime) {
+			return System.nanoTime() - created >= TimeUnit.MILLISECONDS.toNanos(lifetime);
+		}
+
+		/**
+		 * Gets the links matching all parameters of a query.
+		 * <p>
+		 * The indexes are only used to select the candidates, which are then
+		 * matched against all parameters.
+		 */
+		private String filter(final List<String> query) {
+			List<Link> candidates = links;
+			for (String parameter : query) {
+				List<Link> indexed = null;
+				if (parameter.contains("*")) {
+					continue;
+				} else if (parameter.startsWith(LinkFormat.RESOURCE_TYPE + "=")) {
+					indexed = lookup(resourceTypes, parameter.substring(LinkFormat.RESOURCE_TYPE.length() + 1));
+				} else if (parameter.startsWith(LinkFormat.INTERFACE_DESCRIPTION + "=")) {
+					indexed = lookup(interfaces, parameter.substring(LinkFormat.INTERFACE_DESCRIPTION.length() + 1));
+				}
+				if (indexed != null && indexed.size() < candidates.size()) {
+					candidates = indexed;
+				}
+			}
+			List<Link> matching = new ArrayList<Link>();
+			for (Link link : candidates) {
+				if (LinkFormat.matches(link.resource, query)) {
+					matching.add(link);
+				}
+			}
+			return join(matching);
+		}
+
+		private static List<Link> lookup(final Map<String, List<Link>> index, final String value) {
+			List<Link> indexed = index.get(value);
+			return indexed == null ? Collections.<Link> emptyList() : indexed;
+		}
+
+		private static String join(final List<Link> links) {
+			StringBuilder buffer = new StringBuilder();
+			for (Link link : links) {
+				if (buffer.length() > 0) {
+					buffer.append(',');
+				}
+				buffer.append(link.serialized);
+			}
+			return buffer.toString();
+		}
+	}
+
+	private static final class Link {
+
+		private final Resource resource;
+		private final String serialized;
+
+		private Link(final Resource resource, final String serialized) {
+			this.resource = resource;
+			this.serialized = serialized;
+		}
+	}
 }
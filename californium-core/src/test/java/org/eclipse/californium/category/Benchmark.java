@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Bosch Software Innovations GmbH - Initial creation
+ ******************************************************************************/
+package org.eclipse.californium.category;
+
+/**
+ * A marker interface for test cases measuring performance characteristics,
+ * e.g. the memory allocated for an operation.
+ * 
+ * The results of such tests depend on the JVM and its settings. They are
+ * therefore only executed on demand using the <em>benchmark-tests</em>
+ * profile.
+ */
+public interface Benchmark {
+}
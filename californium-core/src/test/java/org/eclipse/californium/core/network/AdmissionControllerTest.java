@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.network.Exchange.KeyMID;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code AdmissionController}.
+ */
+@Category(Small.class)
+public class AdmissionControllerTest {
+
+	@Test
+	public void testIsOverloadedWhenQueueDepthIsReached() {
+		AdmissionController controller = new AdmissionController(2, 1000);
+
+		long first = controller.enqueued();
+		assertFalse(controller.isOverloaded());
+		controller.enqueued();
+		assertTrue(controller.isOverloaded());
+
+		controller.dequeued(first);
+		assertFalse(controller.isOverloaded());
+		assertThat(controller.getQueueDepth(), is(1));
+	}
+
+	@Test
+	public void testIsOverloadedWhileLatencyIsExceeded() {
+		// GIVEN a controller which has seen messages waiting too long
+		AdmissionController controller = new AdmissionController(1000, 10);
+		long longAgo = System.nanoTime() - TimeUnit.SECONDS.toNanos(10);
+		for (int i = 0; i < 10; i++) {
+			controller.enqueued();
+			controller.dequeued(longAgo);
+		}
+		assertTrue(controller.getLatency() > 10);
+
+		// WHEN messages are waiting
+		controller.enqueued();
+
+		// THEN the endpoint is overloaded
+		assertTrue(controller.isOverloaded());
+	}
+
+	@Test
+	public void testIsNotOverloadedWhenQueueIsEmpty() {
+		AdmissionController controller = new AdmissionController(1000, 10);
+		controller.enqueued();
+		controller.dequeued(System.nanoTime() - TimeUnit.SECONDS.toNanos(10));
+
+		assertFalse(controller.isOverloaded());
+	}
+
+	@Test
+	public void testRecoversFromBurstOnceIdle() throws InterruptedException {
+		// GIVEN a controller which has seen a burst of messages waiting too long
+		AdmissionController controller = new AdmissionController(1000, 10);
+		long longAgo = System.nanoTime() - TimeUnit.SECONDS.toNanos(10);
+		for (int i = 0; i < 10; i++) {
+			controller.enqueued();
+			controller.dequeued(longAgo);
+		}
+
+		// WHEN no message has been waiting for a while
+		Thread.sleep(300);
+
+		// THEN a new message does not overload the endpoint
+		controller.enqueued();
+		assertFalse(controller.isOverloaded());
+		assertThat(controller.getLatency(), is(0L));
+	}
+
+	@Test
+	public void testIsAdmittedUntilProcessed() {
+		AdmissionController controller = new AdmissionController(1000, 10);
+		KeyMID mid = new KeyMID(4711, new byte[] { 127, 0, 0, 1 }, 5683);
+
+		controller.admitted(mid);
+		assertTrue(controller.isAdmitted(mid));
+
+		controller.processed(mid);
+		assertFalse(controller.isAdmitted(mid));
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that endpoints share the threads of a {@code CoapRuntime}.
+ */
+@Category(Small.class)
+public class CoapRuntimeTest {
+
+	NetworkConfig config;
+	CoapRuntime runtime;
+
+	@Before
+	public void setUp() {
+		config = NetworkConfig.createStandardWithoutFile();
+		runtime = new CoapRuntime(config);
+	}
+
+	@After
+	public void tearDown() {
+		runtime.destroy();
+	}
+
+	@Test
+	public void testServerPassesItsRuntimeToAllEndpoints() {
+		CoapServer server = new CoapServer(config);
+		try {
+			CoapEndpoint first = newEndpoint();
+			CoapEndpoint second = newEndpoint();
+
+			server.addEndpoint(first);
+			server.addEndpoint(second);
+
+			assertThat(first.getRuntime(), is(notNullValue()));
+			assertThat(first.getRuntime(), is(sameInstance(server.getRuntime())));
+			assertThat(second.getRuntime(), is(sameInstance(server.getRuntime())));
+		} finally {
+			server.destroy();
+		}
+	}
+
+	@Test
+	public void testServersShareRuntime() {
+		// GIVEN two servers sharing a runtime
+		CoapServer server1 = new CoapServer(config);
+		CoapServer server2 = new CoapServer(config);
+		server1.setRuntime(runtime);
+		server2.setRuntime(runtime);
+		CoapEndpoint endpoint = newEndpoint();
+		server2.addEndpoint(endpoint);
+
+		// WHEN the servers are destroyed
+		server1.destroy();
+		server2.destroy();
+
+		// THEN the endpoint has used the shared runtime which is still usable
+		assertThat(endpoint.getRuntime(), is(sameInstance(runtime)));
+		assertFalse(runtime.isDestroyed());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSetRuntimeRejectsStartedEndpoint() throws Exception {
+		CoapEndpoint endpoint = newEndpoint();
+		endpoint.start();
+		try {
+			endpoint.setRuntime(runtime);
+		} finally {
+			endpoint.destroy();
+		}
+	}
+
+	private CoapEndpoint newEndpoint() {
+		return new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), config);
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.eclipse.californium.category.Benchmark;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies the number of bytes allocated for an exchange.
+ * <p>
+ * The number of bytes depends on the JVM and its settings, the test is
+ * therefore only run on demand as a {@link Benchmark}.
+ */
+@Category(Benchmark.class)
+public class ExchangeFootprintTest {
+
+	private static final int EXCHANGES = 10000;
+
+	/**
+	 * The maximum number of bytes allocated for a request, its exchange and
+	 * response (including their option sets) on a 64 bit JVM using compressed
+	 * oops, which is the default for heaps smaller than 32 GB.
+	 */
+	private static final long MAX_BYTES_PER_EXCHANGE = 512;
+
+	private com.sun.management.ThreadMXBean threadBean;
+
+	@Before
+	public void setUp() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threadBean = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void testExchangeFootprint() {
+		// GIVEN a warmed up JVM
+		Exchange[] exchanges = new Exchange[EXCHANGES];
+		createExchanges(exchanges);
+
+		// WHEN creating exchanges
+		long threadId = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		createExchanges(exchanges);
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		// THEN the bytes allocated per exchange do not exceed the expected footprint
+		assertThat(allocated / EXCHANGES, lessThanOrEqualTo(MAX_BYTES_PER_EXCHANGE));
+	}
+
+	private static void createExchanges(final Exchange[] exchanges) {
+		for (int i = 0; i < exchanges.length; i++) {
+			Request request = Request.newGet();
+			request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN).setAccept(MediaTypeRegistry.TEXT_PLAIN)
+					.setUriPort(5683).setObserve(0);
+			Exchange exchange = new Exchange(request, Origin.REMOTE);
+			Response response = new Response(ResponseCode.CONTENT);
+			response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN).setMaxAge(60).setSize2(0)
+					.setObserve(1);
+			exchange.setResponse(response);
+			exchanges[i] = exchange;
+		}
+	}
+}
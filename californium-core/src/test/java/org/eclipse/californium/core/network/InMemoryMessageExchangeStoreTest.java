@@ -17,11 +17,17 @@ package org.eclipse.californium.core.network;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.Message;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.network.Exchange.KeyMID;
 import org.eclipse.californium.core.network.Exchange.Origin;
@@ -136,6 +142,55 @@ public class InMemoryMessageExchangeStoreTest {
 		assertThat(exchangeFromStore.getFailedTransmissionCount(), is(1));
 	}
 
+	@Test
+	public void testStopDoesNotShutDownSharedExecutor() {
+
+		// GIVEN a store using a shared executor for its deduplicator
+		config.setString(NetworkConfig.Keys.DEDUPLICATOR, NetworkConfig.Keys.DEDUPLICATOR_MARK_AND_SWEEP);
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try {
+			InMemoryMessageExchangeStore sharingStore = new InMemoryMessageExchangeStore(config);
+			sharingStore.setExecutor(executor);
+			sharingStore.start();
+
+			// WHEN the store is stopped
+			sharingStore.stop();
+
+			// THEN the shared executor can still be used by other components
+			assertFalse(executor.isShutdown());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAssignMessageIdAdmitsMaxActivePeers() {
+
+		// GIVEN a store using the default message ID provider
+		int maxPeers = 64;
+		config.setInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, maxPeers);
+		InMemoryMessageExchangeStore defaultStore = new InMemoryMessageExchangeStore(config);
+		defaultStore.start();
+		try {
+			// WHEN assigning MIDs to messages for the maximum number of peers
+			for (int i = 0; i < maxPeers; i++) {
+				// THEN all peers are admitted
+				assertThat(defaultStore.assignMessageId(newRequest(PEER_PORT + i)), is(not(Message.NONE)));
+			}
+			// AND a further peer is rejected
+			assertThat(defaultStore.assignMessageId(newRequest(PEER_PORT + maxPeers)), is(Message.NONE));
+		} finally {
+			defaultStore.stop();
+		}
+	}
+
+	private static Request newRequest(final int peerPort) {
+		Request request = Request.newGet();
+		request.setDestination(InetAddress.getLoopbackAddress());
+		request.setDestinationPort(peerPort);
+		return request;
+	}
+
 	private Exchange newOutboundRequest() {
 		Request request = Request.newGet();
 		request.setURI("coap://127.0.0.1:12000/test");
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code RemoteEndpointManager} and {@code RemoteEndpoint}.
+ *
+ */
+@Category(Small.class)
+public class RemoteEndpointManagerTest {
+
+	NetworkConfig config;
+
+	@Before
+	public void setup() {
+		config = NetworkConfig.createStandardWithoutFile();
+	}
+
+	@Test
+	public void testGetRemoteEndpointReturnsSameEndpointForPeer() throws Exception {
+		RemoteEndpointManager manager = new RemoteEndpointManager(config);
+		RemoteEndpoint endpoint = manager.getRemoteEndpoint(newExchange(1, Origin.LOCAL));
+		assertThat(manager.getRemoteEndpoint(newExchange(1, Origin.LOCAL)), is(sameInstance(endpoint)));
+		assertThat(manager.getRemoteEndpoint(newExchange(1, Origin.REMOTE)), is(sameInstance(endpoint)));
+	}
+
+	@Test
+	public void testGetRemoteEndpointDoesNotKeepMoreThanMaxPeers() throws Exception {
+		// GIVEN a manager that keeps the state of two peers only
+		config.setInt(NetworkConfig.Keys.MAX_ACTIVE_PEERS, 2);
+		RemoteEndpointManager manager = new RemoteEndpointManager(config);
+		manager.getRemoteEndpoint(newExchange(1, Origin.LOCAL));
+		manager.getRemoteEndpoint(newExchange(2, Origin.LOCAL));
+
+		// WHEN an exchange with a third peer is started
+		RemoteEndpoint endpoint = manager.getRemoteEndpoint(newExchange(3, Origin.LOCAL));
+
+		// THEN the exchange uses a transient endpoint
+		assertThat(endpoint, is(notNullValue()));
+		assertThat(manager.getNumberOfRemoteEndpoints(), is(2));
+	}
+
+	@Test
+	public void testRegisterExchangeRespectsNstart() throws Exception {
+		RemoteEndpoint endpoint = new RemoteEndpoint(CoAP.DEFAULT_COAP_PORT, getPeerAddress(1), config);
+		Exchange first = newExchange(1, Origin.LOCAL);
+		assertTrue(endpoint.registerExchange(first, 2, 1));
+		assertFalse(endpoint.registerExchange(newExchange(1, Origin.LOCAL), 2, 1));
+		endpoint.removeExchangeInfo(first);
+		assertTrue(endpoint.registerExchange(newExchange(1, Origin.LOCAL), 2, 1));
+	}
+
+	@Test
+	public void testQueuesAreBounded() throws Exception {
+		config.setInt(NetworkConfig.Keys.CONGESTION_CONTROL_QUEUE_LIMIT, 1);
+		RemoteEndpoint endpoint = new RemoteEndpoint(CoAP.DEFAULT_COAP_PORT, getPeerAddress(1), config);
+		assertTrue(endpoint.getNonConfirmableQueue().offer(newExchange(1, Origin.LOCAL)));
+		assertFalse(endpoint.getNonConfirmableQueue().offer(newExchange(1, Origin.LOCAL)));
+	}
+
+	private static Exchange newExchange(final int peer, final Origin origin) throws UnknownHostException {
+		Request request = Request.newGet();
+		if (origin == Origin.LOCAL) {
+			request.setDestination(getPeerAddress(peer));
+			request.setDestinationPort(CoAP.DEFAULT_COAP_PORT);
+		} else {
+			request.setSource(getPeerAddress(peer));
+			request.setSourcePort(CoAP.DEFAULT_COAP_PORT);
+		}
+		return new Exchange(request, origin);
+	}
+
+	private static InetAddress getPeerAddress(final int i) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[]{(byte) 192, (byte) 168, 0, (byte) i});
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange.KeyToken;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code SequentialTokenProvider}.
+ *
+ */
+@Category(Small.class)
+public class SequentialTokenProviderTest {
+
+	NetworkConfig config;
+	Request request;
+
+	@Before
+	public void setup() throws Exception {
+		config = NetworkConfig.createStandardWithoutFile();
+		request = Request.newGet();
+		request.setDestination(InetAddress.getLoopbackAddress());
+		request.setDestinationPort(5683);
+	}
+
+	@Test
+	public void testGetUnusedTokenReturnsTokenOfConfiguredLength() {
+		config.setInt(NetworkConfig.Keys.TOKEN_SIZE_LIMIT, 4);
+		TokenProvider provider = new SequentialTokenProvider(config);
+		assertThat(provider.getUnusedToken(request).getToken().length, is(4));
+	}
+
+	@Test
+	public void testGetUnusedTokenReturnsAllValuesOfShortTokensOnce() {
+		// GIVEN a provider for single byte tokens
+		config.setInt(NetworkConfig.Keys.TOKEN_SIZE_LIMIT, 1);
+		TokenProvider provider = new SequentialTokenProvider(config);
+
+		// WHEN retrieving as many tokens as there are token values
+		Set<KeyToken> tokens = new HashSet<>();
+		for (int i = 0; i < 256; i++) {
+			tokens.add(provider.getUnusedToken(request));
+		}
+
+		// THEN no token has been returned twice
+		assertThat(tokens.size(), is(256));
+	}
+
+	@Test
+	public void testGetUnusedTokenReturnsUniqueTokens() {
+		TokenProvider provider = new SequentialTokenProvider(config);
+		Set<KeyToken> tokens = new HashSet<>();
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(tokens.add(provider.getUnusedToken(request)));
+		}
+	}
+
+	@Test
+	public void testIsTokenInUseDetectsIssuedTokens() {
+		// GIVEN a provider for single byte tokens that has issued some tokens
+		config.setInt(NetworkConfig.Keys.TOKEN_SIZE_LIMIT, 1);
+		TokenProvider provider = new SequentialTokenProvider(config);
+		Set<KeyToken> issued = new HashSet<>();
+		for (int i = 0; i < 10; i++) {
+			issued.add(provider.getUnusedToken(request));
+		}
+
+		// THEN exactly the issued tokens are reported to be in use
+		byte[] address = request.getDestination().getAddress();
+		for (int value = 0; value < 256; value++) {
+			KeyToken token = KeyToken.fromValues(new byte[] { (byte) value }, address, 5683);
+			assertThat(provider.isTokenInUse(token), is(issued.contains(token)));
+		}
+	}
+
+	@Test
+	public void testIsTokenInUseIgnoresTokensOfOtherLength() {
+		TokenProvider provider = new SequentialTokenProvider(config);
+		provider.getUnusedToken(request);
+		KeyToken token = KeyToken.fromValues(new byte[] { 1, 2 }, request.getDestination().getAddress(), 5683);
+		assertFalse(provider.isTokenInUse(token));
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code StripedMessageIdProvider}.
+ *
+ */
+@Category(Small.class)
+public class StripedMessageIdProviderTest {
+
+	NetworkConfig config;
+
+	@Before
+	public void setup() {
+		config = NetworkConfig.createStandardWithoutFile();
+	}
+
+	@Test
+	public void testConstructorRoundsUpNumberOfStripes() {
+		StripedMessageIdProvider provider = new StripedMessageIdProvider(config, 5);
+		assertThat(provider.getNumberOfStripes(), is(8));
+	}
+
+	@Test
+	public void testGetNextMessageIdReturnsDistinctMidsForPeer() {
+		StripedMessageIdProvider provider = new StripedMessageIdProvider(config, 4);
+		InetSocketAddress peerAddress = getPeerAddress(1);
+		int mid1 = provider.getNextMessageId(peerAddress);
+		int mid2 = provider.getNextMessageId(peerAddress);
+		assertThat(mid1, is(not(Message.NONE)));
+		assertThat(mid2, is(not(Message.NONE)));
+		assertThat(mid1, is(not(mid2)));
+	}
+
+	@Test
+	public void testGetNextMessageIdReturnsUniqueMidsForConcurrentCallers() throws InterruptedException {
+		// GIVEN a tracker that hands out each MID only once within the test
+		config.set(NetworkConfig.Keys.MID_TRACKER, "MAPBASED");
+		final StripedMessageIdProvider provider = new StripedMessageIdProvider(config, 4);
+		final InetSocketAddress peerAddress = getPeerAddress(1);
+		final Set<Integer> mids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		final AtomicInteger duplicates = new AtomicInteger();
+		final int threads = 8;
+		final int midsPerThread = 2000;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		// WHEN multiple threads retrieve MIDs for the same peer concurrently
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < midsPerThread; j++) {
+						if (!mids.add(provider.getNextMessageId(peerAddress))) {
+							duplicates.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+
+		// THEN no MID has been handed out twice
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertThat(duplicates.get(), is(0));
+		assertThat(mids.size(), is(threads * midsPerThread));
+	}
+
+	@Test
+	public void testGetNextMessageIdSucceedsForManyPeers() {
+		StripedMessageIdProvider provider = new StripedMessageIdProvider(config, 16);
+		for (int i = 0; i < 250; i++) {
+			assertThat(provider.getNextMessageId(getPeerAddress(i)), is(not(Message.NONE)));
+		}
+	}
+
+	private static InetSocketAddress getPeerAddress(final int i) {
+
+		try {
+			InetAddress addr = InetAddress.getByAddress(new byte[]{(byte) 192, (byte) 168, 0, (byte) i});
+			return new InetSocketAddress(addr, CoAP.DEFAULT_COAP_PORT);
+		} catch (UnknownHostException e) {
+			// should not happen
+			return null;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.stack.BlockCache.CachedBody;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code BlockCache}.
+ *
+ */
+@Category(Small.class)
+public class BlockCacheTest {
+
+	private static final byte[] ETAG = new byte[] { 0x01, 0x02 };
+	private static final int SZX_32 = 1;
+
+	byte[] body;
+	BlockCache cache;
+
+	@Before
+	public void setup() {
+		body = new byte[100];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) i;
+		}
+		cache = new BlockCache(2, 30);
+	}
+
+	@Test
+	public void testGetBodySharesBlocksOfSameRepresentation() throws Exception {
+		// GIVEN a cached body
+		CachedBody first = cache.getBody("fw?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+
+		// WHEN the same representation is sent to another client
+		CachedBody second = cache.getBody("fw?", ETAG.clone(), MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32,
+				body.clone());
+
+		// THEN both transfers share the same blocks
+		assertThat(second, is(sameInstance(first)));
+		assertThat(second.read(32, 32), is(sameInstance(first.read(32, 32))));
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void testGetBodyDistinguishesETags() throws Exception {
+		CachedBody first = cache.getBody("fw?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+		CachedBody second = cache.getBody("fw?", new byte[] { 0x03 }, MediaTypeRegistry.APPLICATION_OCTET_STREAM,
+				SZX_32, body);
+		assertThat(second, is(not(sameInstance(first))));
+	}
+
+	@Test
+	public void testReadReturnsBlocks() throws Exception {
+		CachedBody cached = cache.getBody("fw?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+
+		assertThat(cached.getSize(), is(100));
+		assertArrayEquals(Arrays.copyOfRange(body, 0, 32), cached.read(0, 32));
+		assertArrayEquals(Arrays.copyOfRange(body, 96, 100), cached.read(96, 4));
+	}
+
+	@Test
+	public void testReadReturnsRangesOfSmallerBlockSize() throws Exception {
+		// GIVEN a body cached for a block size of 32 bytes
+		CachedBody cached = cache.getBody("fw?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+
+		// WHEN a client has reduced the block size to 16 bytes
+		// THEN the ranges are copied from the cached blocks
+		assertArrayEquals(Arrays.copyOfRange(body, 16, 32), cached.read(16, 16));
+		assertArrayEquals(Arrays.copyOfRange(body, 24, 56), cached.read(24, 32));
+	}
+
+	@Test
+	public void testGetBodyDoesNotEvictBodiesInUse() throws Exception {
+		// GIVEN a full cache
+		cache.getBody("a?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+		cache.getBody("b?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+
+		// WHEN another body is to be sent
+		CachedBody cached = cache.getBody("c?", ETAG, MediaTypeRegistry.APPLICATION_OCTET_STREAM, SZX_32, body);
+
+		// THEN the body is used without being cached
+		assertArrayEquals(Arrays.copyOfRange(body, 0, 32), cached.read(0, 32));
+		assertThat(cache.size(), is(2));
+	}
+}
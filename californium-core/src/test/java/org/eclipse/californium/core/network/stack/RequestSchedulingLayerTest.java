@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.stack;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.Exchange.Origin;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.timer.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code RequestSchedulingLayer}.
+ *
+ */
+@Category(Small.class)
+public class RequestSchedulingLayerTest {
+
+	NetworkConfig config;
+	HashedWheelTimer timer;
+	RecordingLayer lower;
+
+	@Before
+	public void setup() {
+		config = NetworkConfig.createStandardWithoutFile();
+		config.setInt(NetworkConfig.Keys.NSTART, 1);
+		timer = new HashedWheelTimer(null);
+		lower = new RecordingLayer();
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testSendRequestQueuesRequestsExceedingNstart() throws Exception {
+		// GIVEN an outstanding request to a peer
+		RequestSchedulingLayer layer = newLayer();
+		Request first = newRequest(1);
+		layer.sendRequest(new Exchange(first, Origin.LOCAL), first);
+
+		// WHEN sending another request to the same peer
+		Request second = newRequest(1);
+		layer.sendRequest(new Exchange(second, Origin.LOCAL), second);
+
+		// THEN only the first request has been sent
+		assertThat(lower.sent.size(), is(1));
+		assertThat(lower.sent.get(0), is(first));
+
+		// and the second request is sent when the first one is acknowledged
+		first.setAcknowledged(true);
+		assertThat(lower.sent.size(), is(2));
+		assertThat(lower.sent.get(1), is(second));
+
+		// and the peer's state is released when all requests are done
+		second.setResponse(new Response(ResponseCode.CONTENT));
+		assertThat(layer.getNumberOfPeers(), is(0));
+	}
+
+	@Test
+	public void testSendRequestDoesNotDelayRequestsToOtherPeers() throws Exception {
+		RequestSchedulingLayer layer = newLayer();
+		Request first = newRequest(1);
+		layer.sendRequest(new Exchange(first, Origin.LOCAL), first);
+		Request second = newRequest(2);
+		layer.sendRequest(new Exchange(second, Origin.LOCAL), second);
+
+		assertThat(lower.sent.size(), is(2));
+		assertThat(layer.getNumberOfPeers(), is(2));
+	}
+
+	@Test
+	public void testSendRequestRejectsRequestIfQueueIsFull() throws Exception {
+		// GIVEN a peer with an outstanding and a queued request
+		config.setInt(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_SIZE, 1);
+		RequestSchedulingLayer layer = newLayer();
+		Request first = newRequest(1);
+		layer.sendRequest(new Exchange(first, Origin.LOCAL), first);
+		Request second = newRequest(1);
+		layer.sendRequest(new Exchange(second, Origin.LOCAL), second);
+
+		// WHEN sending another request to the peer
+		Request third = newRequest(1);
+		layer.sendRequest(new Exchange(third, Origin.LOCAL), third);
+
+		// THEN the request is rejected
+		assertTrue(third.isRejected());
+		assertThat(lower.sent.size(), is(1));
+
+		// and a canceled request is removed from the queue
+		second.cancel();
+		first.setResponse(new Response(ResponseCode.CONTENT));
+		assertThat(lower.sent.size(), is(1));
+		assertThat(layer.getNumberOfPeers(), is(0));
+	}
+
+	@Test
+	public void testQueuedRequestTimesOut() throws Exception {
+		// GIVEN a request that is queued for a peer
+		config.setLong(NetworkConfig.Keys.REQUEST_SCHEDULING_QUEUE_TIMEOUT, 50);
+		RequestSchedulingLayer layer = newLayer();
+		Request first = newRequest(1);
+		layer.sendRequest(new Exchange(first, Origin.LOCAL), first);
+		Request second = newRequest(1);
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		second.addMessageObserver(new MessageObserverAdapter() {
+
+			@Override
+			public void onTimeout() {
+				timedOut.countDown();
+			}
+		});
+		layer.sendRequest(new Exchange(second, Origin.LOCAL), second);
+
+		// WHEN the first request stays outstanding longer than the queue timeout
+		// THEN the queued request times out without being sent
+		assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+		assertThat(lower.sent.size(), is(1));
+	}
+
+	private RequestSchedulingLayer newLayer() {
+		RequestSchedulingLayer layer = new RequestSchedulingLayer(config);
+		layer.setTimer(timer);
+		layer.setLowerLayer(lower);
+		return layer;
+	}
+
+	private static Request newRequest(final int peer) throws UnknownHostException {
+		Request request = Request.newGet();
+		request.setDestination(InetAddress.getByAddress(new byte[] { (byte) 192, (byte) 168, 0, (byte) peer }));
+		request.setDestinationPort(CoAP.DEFAULT_COAP_PORT);
+		return request;
+	}
+
+	private static class RecordingLayer extends AbstractLayer {
+
+		private final List<Request> sent = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void sendRequest(final Exchange exchange, final Request request) {
+			sent.add(request);
+		}
+	}
+}
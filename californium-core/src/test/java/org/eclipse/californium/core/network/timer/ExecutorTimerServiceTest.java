@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.elements.util.NamedThreadFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class ExecutorTimerServiceTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("ExecutorTimerServiceTest#"));
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testExpiredTaskIsRunOnExecutor() throws InterruptedException {
+		// given a service using the shared timer
+		ExecutorTimerService timer = ExecutorTimerService.onSharedTimer(executor);
+		final AtomicReference<String> threadName = new AtomicReference<>();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		// when a task expires
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				threadName.set(Thread.currentThread().getName());
+				latch.countDown();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+
+		// then it is run on the executor
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertThat(threadName.get(), startsWith("ExecutorTimerServiceTest#"));
+	}
+
+	@Test
+	public void testStopDiscardsPendingTasksOnly() throws InterruptedException {
+		// given two services sharing a timer, each with a pending task
+		ExecutorTimerService stoppedTimer = ExecutorTimerService.onSharedTimer(executor);
+		ExecutorTimerService timer = ExecutorTimerService.onSharedTimer(executor);
+		final AtomicInteger counter = new AtomicInteger();
+		stoppedTimer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				counter.incrementAndGet();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+
+		// when one of the services is stopped
+		stoppedTimer.stop();
+
+		// then its task is discarded while the other service's task is still run
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertThat(counter.get(), is(0));
+		assertFalse(timer.isStopped());
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testScheduleFailsAfterStop() {
+		ExecutorTimerService timer = ExecutorTimerService.onSharedTimer(executor);
+		timer.stop();
+		timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.network.timer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Small;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		// a small wheel with short ticks makes tasks wrap around the wheel
+		timer = new HashedWheelTimer(null, 5, TimeUnit.MILLISECONDS, 4);
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testScheduleRunsTaskAfterDelay() throws InterruptedException {
+		// given a task scheduled with a delay exceeding a revolution of the wheel
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.schedule(new CountDownTask(latch), 100, TimeUnit.MILLISECONDS);
+
+		// when waiting for the task to be run
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+		// then the task has not been run before its delay has elapsed
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.isCancelled());
+	}
+
+	@Test
+	public void testCancelPreventsTaskFromBeingRun() throws InterruptedException {
+		// given a cancelled task and a task scheduled with a longer delay
+		final AtomicInteger counter = new AtomicInteger();
+		Timeout cancelled = timer.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				counter.incrementAndGet();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new CountDownTask(latch), 50, TimeUnit.MILLISECONDS);
+
+		// when the later task has been run
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+		// then the cancelled task has not been run
+		assertThat(counter.get(), is(0));
+		assertTrue(cancelled.isCancelled());
+		assertFalse(cancelled.isExpired());
+		assertFalse(cancelled.cancel());
+	}
+
+	@Test
+	public void testCancelReleasesTask() throws InterruptedException {
+		// given a cancelled task scheduled with a delay exceeding a revolution of the wheel
+		Runnable task = new CountDownTask(new CountDownLatch(1));
+		WeakReference<Runnable> taskRef = new WeakReference<Runnable>(task);
+		Timeout timeout = timer.schedule(task, 10, TimeUnit.SECONDS);
+		Thread.sleep(20);
+		assertTrue(timeout.cancel());
+		task = null;
+
+		// when the garbage collector runs
+		for (int i = 0; i < 20 && taskRef.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		// then the task is no longer reachable via the timer
+		assertThat(taskRef.get(), is(nullValue()));
+	}
+
+	@Test
+	public void testScheduleRunsManyTasks() throws InterruptedException {
+		// given many tasks with different delays
+		int tasks = 1000;
+		final CountDownLatch latch = new CountDownLatch(tasks);
+		for (int i = 0; i < tasks; i++) {
+			timer.schedule(new CountDownTask(latch), i % 50, TimeUnit.MILLISECONDS);
+		}
+
+		// then all of them are run
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testScheduleDoesNotRunTaskWithHugeDelay() throws InterruptedException {
+		// given a task scheduled with a delay that would overflow the deadline
+		final CountDownLatch latch = new CountDownLatch(1);
+		Timeout timeout = timer.schedule(new CountDownTask(latch), Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		// then it is not run right away
+		assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void testStopRejectsFurtherTasks() {
+		// given a stopped timer
+		timer.schedule(new CountDownTask(new CountDownLatch(1)), 10, TimeUnit.SECONDS);
+		timer.stop();
+		assertTrue(timer.isStopped());
+
+		// when scheduling another task
+		try {
+			timer.schedule(new CountDownTask(new CountDownLatch(1)), 10, TimeUnit.MILLISECONDS);
+			fail("stopped timer should have rejected task");
+		} catch (RejectedExecutionException e) {
+			// then the task is rejected
+		}
+	}
+
+	private static class CountDownTask implements Runnable {
+
+		private final CountDownLatch latch;
+
+		CountDownTask(final CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			latch.countDown();
+		}
+	}
+}
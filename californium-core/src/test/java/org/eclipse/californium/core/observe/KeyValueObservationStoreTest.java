@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.observe;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@code KeyValueObservationStore}.
+ */
+@Category(Small.class)
+public class KeyValueObservationStoreTest {
+
+	private static final byte[] TOKEN = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+
+	InMemoryKeyValueStore keyValueStore;
+	KeyValueObservationStore node1;
+	KeyValueObservationStore node2;
+
+	@Before
+	public void setup() {
+		keyValueStore = new InMemoryKeyValueStore();
+		node1 = new KeyValueObservationStore(keyValueStore, 2);
+		node2 = new KeyValueObservationStore(keyValueStore, 2);
+	}
+
+	@Test
+	public void testGetReturnsObservationOfOtherNode() throws Exception {
+		// GIVEN an observation added by one node
+		assertTrue(node1.add(new Observation(newObserveRequest(TOKEN))));
+
+		// WHEN another node looks up the observation
+		Observation observation = node2.get(TOKEN);
+
+		// THEN the observe request is restored
+		assertThat(observation, is(notNullValue()));
+		Request request = observation.getRequest();
+		assertArrayEquals(TOKEN, request.getToken());
+		assertTrue(request.isObserve());
+		assertThat(request.getDestination(), is(InetAddress.getLoopbackAddress()));
+		assertThat(request.getDestinationPort(), is(5683));
+		assertThat(request.getOptions().getUriPathString(), is("sensors/temp"));
+	}
+
+	@Test
+	public void testGetReturnsOwnObservationFromNearCache() throws Exception {
+		Observation added = new Observation(newObserveRequest(TOKEN));
+		node1.add(added);
+
+		assertThat(node1.get(TOKEN), is(sameInstance(added)));
+	}
+
+	@Test
+	public void testGetCachesObservationOfOtherNodeForFlushInterval() throws Exception {
+		// GIVEN a node batching removals which has looked up an observation of another node
+		KeyValueObservationStore node = new KeyValueObservationStore(keyValueStore, 10, 200);
+		node1.add(new Observation(newObserveRequest(TOKEN)));
+		Observation observation = node.get(TOKEN);
+		assertThat(observation, is(notNullValue()));
+
+		// WHEN the observation is removed from the key-value store
+		keyValueStore.removeAll(Arrays.asList(TOKEN));
+
+		// THEN the node still finds a new copy of the observation within the flush interval
+		Observation cached = node.get(TOKEN);
+		assertThat(cached, is(notNullValue()));
+		assertThat(cached.getRequest(), is(not(sameInstance(observation.getRequest()))));
+
+		// AND no longer finds it after the flush interval has expired
+		Thread.sleep(250);
+		assertThat(node.get(TOKEN), is(nullValue()));
+	}
+
+	@Test
+	public void testAddRejectsTokenOfOtherNode() throws Exception {
+		node1.add(new Observation(newObserveRequest(TOKEN)));
+
+		assertFalse(node2.add(new Observation(newObserveRequest(TOKEN))));
+		// re-registration by the owner replaces the observation
+		assertTrue(node1.add(new Observation(newObserveRequest(TOKEN))));
+	}
+
+	@Test
+	public void testRemoveIsBatched() throws Exception {
+		// GIVEN two observations
+		byte[] otherToken = new byte[] { 0x05 };
+		node1.add(new Observation(newObserveRequest(TOKEN)));
+		node1.add(new Observation(newObserveRequest(otherToken)));
+
+		// WHEN the first observation is removed
+		node1.remove(TOKEN);
+
+		// THEN the removal is effective locally but has not been written yet
+		assertThat(node1.get(TOKEN), is(nullValue()));
+		assertThat(keyValueStore.size(), is(2));
+
+		// WHEN the batch is complete
+		node1.remove(otherToken);
+
+		// THEN both observations have been removed from the key-value store
+		assertThat(keyValueStore.size(), is(0));
+		assertThat(node2.get(TOKEN), is(nullValue()));
+	}
+
+	@Test
+	public void testFlushWritesPendingRemovals() throws Exception {
+		node1.add(new Observation(newObserveRequest(TOKEN)));
+		node1.remove(TOKEN);
+
+		node1.flush();
+
+		assertThat(keyValueStore.size(), is(0));
+	}
+
+	@Test
+	public void testStopWritesPendingRemovals() throws Exception {
+		node1.start();
+		node1.add(new Observation(newObserveRequest(TOKEN)));
+		node1.remove(TOKEN);
+
+		node1.stop();
+
+		assertThat(keyValueStore.size(), is(0));
+	}
+
+	@Test
+	public void testStartedStoreWritesPendingRemovalsPeriodically() throws Exception {
+		// GIVEN a started store with a pending removal
+		KeyValueObservationStore node = new KeyValueObservationStore(keyValueStore, 10, 50);
+		node.start();
+		try {
+			node.add(new Observation(newObserveRequest(TOKEN)));
+			node.remove(TOKEN);
+
+			// WHEN the flush interval has expired
+			long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+			while (keyValueStore.size() > 0 && System.nanoTime() < timeout) {
+				Thread.sleep(10);
+			}
+
+			// THEN the removal has been written without completing the batch
+			assertThat(keyValueStore.size(), is(0));
+		} finally {
+			node.stop();
+		}
+	}
+
+	private static Request newObserveRequest(final byte[] token) {
+		Request request = Request.newGet();
+		request.setType(Type.CON);
+		request.setMID(4711);
+		request.setToken(token);
+		request.setDestination(InetAddress.getLoopbackAddress());
+		request.setDestinationPort(5683);
+		request.getOptions().setUriPath("sensors/temp");
+		request.setObserve();
+		return request;
+	}
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.server;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.californium.category.Small;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that a {@link ResourceIndex} finds the same resources as walking
+ * the resource tree, also after the tree has changed.
+ */
+@Category(Small.class)
+public class ResourceIndexTest {
+
+	private CoapResource root;
+	private CoapResource devices;
+	private CoapResource device;
+	private ResourceIndex index;
+
+	@Before
+	public void setUp() {
+		root = new CoapResource("");
+		devices = new CoapResource("devices");
+		device = new CoapResource("device-1");
+		root.add(devices);
+		devices.add(device);
+		index = new ResourceIndex(root);
+	}
+
+	@Test
+	public void testFindCachesFoundResources() {
+		List<String> path = Arrays.asList("devices", "device-1");
+
+		assertThat(index.find(path), is((Resource) device));
+		assertThat(index.find(path), is((Resource) device));
+		assertThat(index.find(Arrays.asList("devices", "unknown")), is(nullValue()));
+		assertThat(index.getCachedPaths(), is(1));
+	}
+
+	@Test
+	public void testFindDoesNotReturnRemovedResource() {
+		List<String> path = Arrays.asList("devices", "device-1");
+		assertThat(index.find(path), is((Resource) device));
+
+		device.delete();
+
+		assertThat(index.find(path), is(nullValue()));
+	}
+
+	@Test
+	public void testFindReturnsResourcesAddedToIndexedResources() {
+		// GIVEN a resource that has been added after the index has been created
+		CoapResource sensor = new CoapResource("sensor");
+		device.add(sensor);
+		List<String> path = Arrays.asList("devices", "device-1", "sensor");
+		assertThat(index.find(path), is((Resource) sensor));
+
+		// WHEN a resource is added to the new resource
+		CoapResource temperature = new CoapResource("temperature");
+		sensor.add(temperature);
+
+		// THEN it is found as well
+		assertThat(index.find(Arrays.asList("devices", "device-1", "sensor", "temperature")),
+				is((Resource) temperature));
+	}
+
+	@Test
+	public void testFindReflectsRenamedResource() {
+		List<String> path = Arrays.asList("devices", "device-1");
+		assertThat(index.find(path), is((Resource) device));
+
+		device.setName("device-2");
+
+		assertThat(index.find(path), is(nullValue()));
+		assertThat(index.find(Arrays.asList("devices", "device-2")), is((Resource) device));
+	}
+
+	@Test
+	public void testFindUsesChildrenProvidedByResource() {
+		// GIVEN a resource accepting requests to any sub-resource
+		CoapResource wildcard = new CoapResource("any") {
+
+			@Override
+			public Resource getChild(String name) {
+				return this;
+			}
+		};
+		root.add(wildcard);
+
+		// THEN requests to its sub-resources are delivered to it
+		assertThat(index.find(Arrays.asList("any", "a", "b")), is((Resource) wildcard));
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		for (int i = 0; i <= ResourceIndex.MAX_CACHED_PATHS; i++) {
+			devices.add(new CoapResource("device" + i));
+		}
+		for (int i = 0; i <= ResourceIndex.MAX_CACHED_PATHS; i++) {
+			assertThat(index.find(Arrays.asList("devices", "device" + i)), is(notNullValue()));
+		}
+		assertTrue(index.getCachedPaths() <= ResourceIndex.MAX_CACHED_PATHS);
+	}
+
+	@Test
+	public void testFindEvictsSingleEntryFromFullCache() {
+		// GIVEN a full cache
+		for (int i = 0; i <= ResourceIndex.MAX_CACHED_PATHS; i++) {
+			devices.add(new CoapResource("device" + i));
+		}
+		for (int i = 0; i < ResourceIndex.MAX_CACHED_PATHS; i++) {
+			index.find(Arrays.asList("devices", "device" + i));
+		}
+		assertThat(index.getCachedPaths(), is(ResourceIndex.MAX_CACHED_PATHS));
+
+		// WHEN finding a resource for another path
+		List<String> path = Arrays.asList("devices", "device" + ResourceIndex.MAX_CACHED_PATHS);
+		Resource resource = index.find(path);
+
+		// THEN only a single entry has been evicted to cache the new path
+		assertThat(resource.getName(), is("device" + ResourceIndex.MAX_CACHED_PATHS));
+		assertThat(index.getCachedPaths(), is(ResourceIndex.MAX_CACHED_PATHS));
+		// AND all resources are still found
+		for (int i = 0; i <= ResourceIndex.MAX_CACHED_PATHS; i++) {
+			assertThat(index.find(Arrays.asList("devices", "device" + i)).getName(), is("device" + i));
+		}
+	}
+}
@@ -81,6 +81,19 @@ public class AttributeMultiQueryTest {
                 "</sensors/temp>;bar=\"one two\";foo;if=\"sensor\";rt=\"temperature-c\"");
     }
 
+    @Test
+    public void testIndexedAttributeFilteringMatchesAllParameters() {
+        // rt=temperature-c and if=sensor should return only /sensors/temp.
+        testFiltering("rt=temperature-c&if=sensor",
+                "</sensors/temp>;bar=\"one two\";foo;if=\"sensor\";rt=\"temperature-c\"");
+        // if=sensor and rt=light-lux should return only /sensors/light.
+        testFiltering("if=sensor&rt=light-lux",
+                "</sensors/light>;foo;if=\"sensor\";rt=\"light-lux\"");
+        // rt=light-lux and bar=one should match nothing.
+        testFiltering("rt=light-lux&bar=one",
+                "");
+    }
+
     @Test
     public void testMultipleSameAttributeFiltering() {
         // bar=one and bar=two should match /sensors/temp
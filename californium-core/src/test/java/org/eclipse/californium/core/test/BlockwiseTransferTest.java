@@ -19,15 +19,20 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - test stop transfer on cancel
  *    Achim Kraus (Bosch Software Innovations GmbH) - use CoapNetworkRule for
  *                                                    setup of test-network
+ *    Bosch Software Innovations GmbH - test streaming of bodies and pipelined
+ *                                      retrieval of blocks
+ *    Bosch Software Innovations GmbH - test streaming of request bodies to resource
  ******************************************************************************/
 package org.eclipse.californium.core.test;
 
 import static org.eclipse.californium.TestTools.*;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,12 +40,17 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.californium.category.Medium;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.BlockConsumer;
+import org.eclipse.californium.core.coap.BlockSource;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.BlockConsumerProvider;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.test.lockstep.ServerBlockwiseInterceptor;
 import org.eclipse.californium.rule.CoapNetworkRule;
@@ -70,6 +80,8 @@ public class BlockwiseTransferTest {
 	private static final String PARAM_SHORT_REQ = "sr";
 	private static final String RESOURCE_TEST = "test";
 	private static final String RESOURCE_BIG = "big";
+	private static final String RESOURCE_STREAM = "stream";
+	private static final String RESOURCE_UPLOAD = "upload";
 
 	private static final String SHORT_POST_REQUEST  = generateRandomPayload(15);
 	private static final String LONG_POST_REQUEST   = generateRandomPayload(150);
@@ -83,6 +95,7 @@ public class BlockwiseTransferTest {
 	private static NetworkConfig config;
 	private static Endpoint serverEndpoint;
 	private static ServerBlockwiseInterceptor interceptor = new ServerBlockwiseInterceptor();
+	private static ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
 
 	private Endpoint clientEndpoint;
 
@@ -160,6 +173,30 @@ public class BlockwiseTransferTest {
 		executeGETRequest(false, true);
 	}
 
+	@Test
+	public void testGetWithPipelinedBlocks() throws Exception {
+		NetworkConfig pipelineConfig = network.createTestConfig()
+				.setInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 32)
+				.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 32)
+				.setInt(NetworkConfig.Keys.MAX_RESOURCE_BODY_SIZE, 500)
+				.setInt(NetworkConfig.Keys.BLOCKWISE_PIPELINE_WINDOW, 4);
+		Endpoint pipelineClient = new CoapEndpoint(pipelineConfig);
+		pipelineClient.start();
+		try {
+			for (int i = 0; i < 3; i++) {
+				Request request = Request.newGet().setURI(getUri(serverEndpoint, RESOURCE_TEST));
+				pipelineClient.sendRequest(request);
+
+				Response response = request.waitForResponse(2000);
+
+				assertNotNull("Client received no response", response);
+				assertEquals(LONG_GET_RESPONSE, response.getPayloadString());
+			}
+		} finally {
+			pipelineClient.destroy();
+		}
+	}
+
 	@Test
 	public void testRequestForOversizedBodyGetsCanceled() throws InterruptedException {
 
@@ -177,6 +214,66 @@ public class BlockwiseTransferTest {
 		assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
 	}
 
+	@Test
+	public void testGetStreamsOversizedBodyToConsumer() throws Exception {
+
+		// GIVEN a request for a body exceeding MAX_RESOURCE_BODY_SIZE
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		Request req = Request.newGet().setURI(getUri(serverEndpoint, RESOURCE_STREAM));
+		req.setResponseConsumer(new BlockConsumer() {
+
+			@Override
+			public void accept(final int offset, final byte[] block) {
+				assertEquals(received.size(), offset);
+				received.write(block, 0, block.length);
+			}
+		});
+
+		// WHEN the server responds with a body read from a source
+		clientEndpoint.sendRequest(req);
+		Response response = req.waitForResponse(2000);
+
+		// THEN the body is passed to the consumer instead of being assembled
+		assertNotNull("Client received no response", response);
+		assertEquals(ResponseCode.CONTENT, response.getCode());
+		assertEquals(0, response.getPayloadSize());
+		assertEquals(OVERSIZE_BODY, new String(received.toByteArray(), "UTF-8"));
+	}
+
+	@Test
+	public void testPostSendsBodyReadFromSource() throws Exception {
+		interceptor.clear();
+		Request request = Request.newPost().setURI(getUri(serverEndpoint, RESOURCE_TEST));
+		request.setPayloadSource(new ByteArraySource(LONG_POST_REQUEST.getBytes("UTF-8")));
+		request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+		request.getOptions().addUriQuery(PARAM_SHORT_RESP);
+		clientEndpoint.sendRequest(request);
+
+		Response response = request.waitForResponse(2000);
+
+		assertNotNull("Client received no response", response);
+		assertEquals(SHORT_POST_RESPONSE, response.getPayloadString());
+	}
+
+	@Test
+	public void testPostStreamsOversizedBodyToResourceConsumer() throws Exception {
+
+		// GIVEN a request with a body exceeding the server's MAX_RESOURCE_BODY_SIZE
+		uploaded.reset();
+		Request request = Request.newPost().setURI(getUri(serverEndpoint, RESOURCE_UPLOAD));
+		request.setPayloadSource(new ByteArraySource(OVERSIZE_BODY.getBytes("UTF-8")));
+		request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+
+		// WHEN the request is sent to a resource providing a consumer for the body
+		clientEndpoint.sendRequest(request);
+		Response response = request.waitForResponse(2000);
+
+		// THEN the body is passed to the resource's consumer instead of being rejected
+		assertNotNull("Client received no response", response);
+		assertEquals(ResponseCode.CHANGED, response.getCode());
+		assertEquals(OVERSIZE_BODY, new String(uploaded.toByteArray(), "UTF-8"));
+	}
+
 	private void executeGETRequest(final boolean respondShort) throws Exception {
 		executeGETRequest(respondShort, false);
 	}
@@ -310,12 +407,70 @@ public class BlockwiseTransferTest {
 				exchange.respond(OVERSIZE_BODY);
 			}
 		});
+		result.add(new CoapResource(RESOURCE_STREAM) {
+
+			@Override
+			public void handleGET(final CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, new ByteArraySource(OVERSIZE_BODY.getBytes()),
+						MediaTypeRegistry.TEXT_PLAIN);
+			}
+		});
+
+		result.add(new UploadResource(RESOURCE_UPLOAD));
 
 		result.start();
 		System.out.println("serverPort: " + serverEndpoint.getAddress().getPort());
 		return result;
 	}
 
+	private static class UploadResource extends CoapResource implements BlockConsumerProvider {
+
+		UploadResource(final String name) {
+			super(name);
+		}
+
+		@Override
+		public BlockConsumer getBlockConsumer(final Request request) {
+			return new BlockConsumer() {
+
+				@Override
+				public void accept(final int offset, final byte[] block) {
+					assertEquals(uploaded.size(), offset);
+					uploaded.write(block, 0, block.length);
+				}
+			};
+		}
+
+		@Override
+		public void handlePOST(final CoapExchange exchange) {
+			// the body has already been passed to the consumer
+			if (exchange.getRequestPayload() == null || exchange.getRequestPayload().length == 0) {
+				exchange.respond(ResponseCode.CHANGED);
+			} else {
+				exchange.respond(ResponseCode.BAD_REQUEST);
+			}
+		}
+	}
+
+	private static class ByteArraySource implements BlockSource {
+
+		private final byte[] body;
+
+		ByteArraySource(final byte[] body) {
+			this.body = body;
+		}
+
+		@Override
+		public int getSize() {
+			return body.length;
+		}
+
+		@Override
+		public byte[] read(final int offset, final int length) {
+			return Arrays.copyOfRange(body, offset, offset + length);
+		}
+	}
+
 	public interface ReceiveRequestHandler {
 		void receiveRequest(Request received);
 	}
@@ -20,22 +20,26 @@
  *                                      wait cycles
  *    Achim Kraus (Bosch Software Innovations GmbH) - use CoapNetworkRule for
  *                                                    setup of test-network
+ *    Bosch Software Innovations GmbH - add tests for requests returning futures
  ******************************************************************************/
 package org.eclipse.californium.core.test;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.californium.category.Medium;
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapFuture;
 import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapObserveRelation;
 import org.eclipse.californium.core.CoapResource;
@@ -165,6 +169,75 @@ public class ClientAsynchronousTest {
 		assertThat(receivedNotifications.get(), is(3));
 	}
 
+	@Test
+	public void testGetAsyncCompletesFuture() throws Exception {
+		CoapFuture<CoapResponse> future = client.getAsync();
+		CoapResponse response = future.get(1, TimeUnit.SECONDS);
+		assertThat(response.getResponseText(), is(CONTENT_1));
+		assertTrue(future.isDone());
+	}
+
+	@Test
+	public void testPostAsyncInvokesCallback() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		client.postAsync(CONTENT_2, MediaTypeRegistry.TEXT_PLAIN).addCallback(new CoapFuture.Callback<CoapResponse>() {
+
+			@Override
+			public void onSuccess(CoapResponse response) {
+				if (CONTENT_1.equals(response.getResponseText())) {
+					latch.countDown();
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable cause) {
+				failed.add("Test postAsync");
+			}
+		});
+
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertThat(resource.getContent(), is(CONTENT_2));
+	}
+
+	@Test
+	public void testObserveAsyncCompletesWithRelation() throws Exception {
+		final CountDownLatch notified = new CountDownLatch(2);
+		CoapFuture<CoapObserveRelation> future = client.observeAsync(new TestHandler("Test observeAsync") {
+			@Override public void onLoad(CoapResponse response) {
+				notified.countDown();
+			}
+		});
+		CoapObserveRelation relation = future.get(1, TimeUnit.SECONDS);
+		assertThat(relation.isCanceled(), is(false));
+
+		resource.changed();
+		assertTrue(notified.await(1, TimeUnit.SECONDS));
+		relation.proactiveCancel();
+	}
+
+	@Test
+	public void testCancelFutureCancelsRequest() throws Exception {
+		// a peer that never responds
+		DatagramSocket silentPeer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		try {
+			Request request = Request.newGet();
+			request.setURI(String.format("coap://%s:%d/%s", serverAddress.getHostString(), silentPeer.getLocalPort(), TARGET));
+			CoapFuture<CoapResponse> future = client.advancedAsync(request);
+			future.cancel(false);
+
+			assertTrue(future.isCancelled());
+			assertTrue(request.isCanceled());
+			try {
+				future.get();
+				fail("canceled future must not return a result");
+			} catch (CancellationException e) {
+				// expected
+			}
+		} finally {
+			silentPeer.close();
+		}
+	}
+
 	@Test
 	public void testAsyncPutIsNotAllowed() throws Exception {
 		final CountDownLatch latch = new CountDownLatch(1);
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Medium;
+import org.eclipse.californium.core.CoapBatch;
+import org.eclipse.californium.core.CoapBatch.Result;
+import org.eclipse.californium.core.CoapBatch.Summary;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.rule.CoapNetworkRule;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that a {@link CoapBatch} sends its requests within its limits and
+ * reports all results.
+ */
+@Category(Medium.class)
+public class CoapBatchTest {
+
+	@ClassRule
+	public static CoapNetworkRule network = new CoapNetworkRule(CoapNetworkRule.Mode.DIRECT, CoapNetworkRule.Mode.NATIVE);
+
+	private static final String TARGET = "device";
+
+	private static CoapServer server;
+	private static InetSocketAddress serverAddress;
+	private static DeviceResource resource;
+
+	private CoapEndpoint clientEndpoint;
+	private List<Result> results;
+
+	@BeforeClass
+	public static void init() {
+		System.out.println(System.lineSeparator() + "Start " + CoapBatchTest.class.getSimpleName());
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		resource = new DeviceResource(TARGET);
+		server = new CoapServer();
+		server.add(resource);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+	}
+
+	@AfterClass
+	public static void finish() {
+		server.destroy();
+		System.out.println("End " + CoapBatchTest.class.getSimpleName());
+	}
+
+	@Before
+	public void startClient() throws Exception {
+		clientEndpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		clientEndpoint.start();
+		results = new CopyOnWriteArrayList<Result>();
+		resource.reset();
+	}
+
+	@After
+	public void stopClient() {
+		clientEndpoint.destroy();
+	}
+
+	@Test
+	public void testBatchSendsRequestsWithinPerPeerLimit() throws Exception {
+		// GIVEN a batch sending five requests to the same peer, one at a time
+		List<InetSocketAddress> targets = Collections.nCopies(5, serverAddress);
+		CoapBatch batch = new CoapBatch(clientEndpoint, newTemplate(), targets, 10, 1);
+
+		// WHEN the batch is processed
+		batch.start(new ResultCollector());
+		Summary summary = batch.await(5, TimeUnit.SECONDS);
+
+		// THEN all targets have responded without exceeding the limit
+		assertThat(summary, is(notNullValue()));
+		assertThat(summary.getSucceeded(), is(5));
+		assertThat(summary.getFailed(), is(0));
+		assertThat(results.size(), is(5));
+		assertThat(resource.getMaxConcurrentRequests(), is(1));
+		long responses = 0;
+		for (long count : summary.getHistogram()) {
+			responses += count;
+		}
+		assertThat(responses, is(5L));
+	}
+
+	@Test
+	public void testCancelReportsAllTargets() throws Exception {
+		// a peer that never responds
+		DatagramSocket silentPeer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		try {
+			// GIVEN a batch of requests to a silent peer
+			InetSocketAddress silentAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					silentPeer.getLocalPort());
+			List<InetSocketAddress> targets = new ArrayList<InetSocketAddress>(Collections.nCopies(3, silentAddress));
+			CoapBatch batch = new CoapBatch(clientEndpoint, newTemplate(), targets, 2, 2);
+			batch.start(new ResultCollector());
+
+			// WHEN the batch is canceled
+			batch.cancel();
+
+			// THEN all targets are reported as failed
+			Summary summary = batch.await(1, TimeUnit.SECONDS);
+			assertThat(summary, is(notNullValue()));
+			assertThat(summary.getFailed(), is(3));
+			assertThat(results.size(), is(3));
+			for (Result result : results) {
+				assertThat(result.getResponse(), is(nullValue()));
+				assertTrue(result.getRequest().isCanceled());
+			}
+		} finally {
+			silentPeer.close();
+		}
+	}
+
+	@Test
+	public void testSynchronousFailuresDoNotRecurse() throws Exception {
+		// GIVEN an endpoint failing to send requests synchronously
+		Endpoint failingEndpoint = (Endpoint) Proxy.newProxyInstance(Endpoint.class.getClassLoader(),
+				new Class<?>[] { Endpoint.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("sendRequest")) {
+							((Request) args[0]).cancel();
+						}
+						return null;
+					}
+				});
+		// and a batch large enough to overflow the stack if each failure sent the next request recursively
+		int size = 50000;
+		List<InetSocketAddress> targets = Collections.nCopies(size, serverAddress);
+		CoapBatch batch = new CoapBatch(failingEndpoint, newTemplate(), targets, 1, 1);
+
+		// WHEN the batch is processed
+		batch.start(new ResultCollector());
+
+		// THEN all targets are reported as failed
+		Summary summary = batch.await(5, TimeUnit.SECONDS);
+		assertThat(summary, is(notNullValue()));
+		assertThat(summary.getFailed(), is(size));
+		assertThat(results.size(), is(size));
+	}
+
+	private static Request newTemplate() {
+		Request template = Request.newGet();
+		template.getOptions().setUriPath(TARGET);
+		return template;
+	}
+
+	private class ResultCollector implements CoapBatch.Handler {
+
+		@Override
+		public void onResult(Result result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onComplete(Summary summary) {
+		}
+	}
+
+	private static class DeviceResource extends CoapResource {
+
+		private final AtomicInteger concurrentRequests = new AtomicInteger();
+		private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+		public DeviceResource(String name) {
+			super(name);
+		}
+
+		public void reset() {
+			maxConcurrentRequests.set(0);
+		}
+
+		public int getMaxConcurrentRequests() {
+			return maxConcurrentRequests.get();
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			int current = concurrentRequests.incrementAndGet();
+			int max = maxConcurrentRequests.get();
+			while (current > max && !maxConcurrentRequests.compareAndSet(max, current)) {
+				max = maxConcurrentRequests.get();
+			}
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			concurrentRequests.decrementAndGet();
+			exchange.respond(ResponseCode.CONTENT, "state");
+		}
+	}
+}
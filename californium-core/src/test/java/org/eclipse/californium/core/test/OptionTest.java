@@ -424,6 +424,51 @@ public class OptionTest {
 		Assert.assertFalse(options.hasOption(OptionNumberRegistry.ETAG));
 	}
 	
+	@Test
+	public void testUintOptions() {
+		OptionSet options = new OptionSet();
+
+		// Check that absent options are reported as such
+		Assert.assertFalse(options.hasUriPort());
+		Assert.assertNull(options.getUriPort());
+		Assert.assertEquals(-1, options.getContentFormat());
+		Assert.assertEquals(-1, options.getAccept());
+		Assert.assertEquals(Long.valueOf(OptionNumberRegistry.Defaults.MAX_AGE), options.getMaxAge());
+		Assert.assertNull(options.getSize1());
+		Assert.assertNull(options.getSize2());
+		Assert.assertNull(options.getObserve());
+
+		// Check that zero values are present
+		options.setUriPort(0).setContentFormat(0).setAccept(0).setMaxAge(0).setSize1(0).setSize2(0).setObserve(0);
+		Assert.assertEquals(Integer.valueOf(0), options.getUriPort());
+		Assert.assertTrue(options.isContentFormat(0));
+		Assert.assertTrue(options.isAccept(0));
+		Assert.assertTrue(options.hasMaxAge());
+		Assert.assertEquals(Long.valueOf(0), options.getMaxAge());
+		Assert.assertEquals(Integer.valueOf(0), options.getSize1());
+		Assert.assertEquals(Integer.valueOf(0), options.getSize2());
+		Assert.assertEquals(Integer.valueOf(0), options.getObserve());
+		Assert.assertEquals(7, options.asSortedList().size());
+
+		// Check that we can remove options
+		options.removeUriPort().removeContentFormat().removeAccept().removeMaxAge().removeSize1().removeSize2()
+				.removeObserve();
+		Assert.assertTrue(options.asSortedList().isEmpty());
+	}
+
+	@Test
+	public void testClearRemovesAllOptions() {
+		OptionSet options = new OptionSet();
+		options.setUriPort(5683).setContentFormat(0).setAccept(0).setMaxAge(0).setSize1(10).setSize2(20).setObserve(0);
+		options.addLocationPath("a").addLocationQuery("b=c").addUriPath("d").addUriQuery("e");
+
+		options.clear();
+
+		Assert.assertNull(options.getSize1());
+		Assert.assertNull(options.getSize2());
+		Assert.assertTrue(options.asSortedList().isEmpty());
+	}
+
 	@Test
 	public void testToString() {
 		OptionSet options = new OptionSet();
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Medium;
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.rule.CoapNetworkRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that an overloaded server endpoint sheds new requests.
+ */
+@Category(Medium.class)
+public class OverloadProtectionTest {
+
+	@ClassRule
+	public static CoapNetworkRule network = new CoapNetworkRule(CoapNetworkRule.Mode.DIRECT, CoapNetworkRule.Mode.NATIVE);
+
+	private static final int MAX_AGE = 7;
+
+	private CoapServer server;
+	private ScheduledExecutorService executor;
+	private CountDownLatch release;
+	private String uri;
+	private InetSocketAddress serverAddress;
+	private DatagramSocket socket;
+
+	@Before
+	public void startServer() {
+		NetworkConfig config = network.createStandardTestConfig()
+				.setBoolean(NetworkConfig.Keys.USE_OVERLOAD_PROTECTION, true)
+				.setInt(NetworkConfig.Keys.OVERLOAD_QUEUE_DEPTH, 1)
+				.setInt(NetworkConfig.Keys.OVERLOAD_MAX_AGE, MAX_AGE);
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), config);
+		server = new CoapServer(config);
+		server.add(new CoapResource("hello") {
+
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, "hello");
+			}
+		});
+		server.addEndpoint(endpoint);
+		// a single threaded protocol stage which can be blocked by the test
+		executor = Executors.newSingleThreadScheduledExecutor();
+		endpoint.setExecutor(executor);
+		server.start();
+		release = new CountDownLatch(1);
+		serverAddress = endpoint.getAddress();
+		uri = String.format("coap://%s:%d/hello", serverAddress.getHostString(), serverAddress.getPort());
+	}
+
+	@After
+	public void shutdown() {
+		if (socket != null) {
+			socket.close();
+		}
+		release.countDown();
+		server.destroy();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testNewRequestIsRejectedWhileOverloaded() throws Exception {
+		// GIVEN a request waiting for the blocked protocol stage
+		blockProtocolStage();
+		final BlockingQueue<CoapResponse> responses = new LinkedBlockingQueue<CoapResponse>();
+		CoapClient waitingClient = new CoapClient(uri);
+		waitingClient.get(new CoapHandler() {
+
+			@Override
+			public void onLoad(CoapResponse response) {
+				responses.add(response);
+			}
+
+			@Override
+			public void onError() {
+			}
+		});
+		Thread.sleep(200);
+
+		// WHEN another request is sent
+		CoapResponse rejected = new CoapClient(uri).setTimeout(1000).get();
+
+		// THEN it is answered by a piggybacked 5.03 response including a Max-Age
+		assertThat(rejected, is(notNullValue()));
+		assertThat(rejected.getCode(), is(ResponseCode.SERVICE_UNAVAILABLE));
+		assertThat(rejected.advanced().getType(), is(Type.ACK));
+		assertThat(rejected.getOptions().getMaxAge(), is((long) MAX_AGE));
+
+		// and the waiting request is processed once the protocol stage recovers
+		release.countDown();
+		CoapResponse response = responses.poll(2, TimeUnit.SECONDS);
+		assertThat(response, is(notNullValue()));
+		assertThat(response.getCode(), is(ResponseCode.CONTENT));
+	}
+
+	@Test
+	public void testRetransmittedRequestIsNotShed() throws Exception {
+		// GIVEN a request waiting for the blocked protocol stage
+		blockProtocolStage();
+		socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		byte[] request = serialize(newGet(1, null));
+		send(request);
+		Thread.sleep(200);
+
+		// WHEN the request is retransmitted
+		send(request);
+
+		// THEN the retransmission is not rejected
+		assertThat(receive(300), is(nullValue()));
+
+		// and the request is answered once the protocol stage recovers
+		release.countDown();
+		Response response = receive(2000);
+		assertThat(response, is(notNullValue()));
+		assertThat(response.getCode(), is(ResponseCode.CONTENT));
+	}
+
+	@Test
+	public void testRequestForSubsequentBlockIsNotShed() throws Exception {
+		// GIVEN a request waiting for the blocked protocol stage
+		blockProtocolStage();
+		socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		send(serialize(newGet(1, null)));
+		Thread.sleep(200);
+
+		// WHEN a request for a subsequent block is sent
+		send(serialize(newGet(2, new BlockOption(0, false, 1))));
+
+		// THEN it is not rejected
+		assertThat(receive(300), is(nullValue()));
+
+		// and both requests are processed once the protocol stage recovers
+		release.countDown();
+		for (int i = 0; i < 2; i++) {
+			Response response = receive(2000);
+			assertThat(response, is(notNullValue()));
+			assertThat(response.getCode(), is(not(ResponseCode.SERVICE_UNAVAILABLE)));
+		}
+	}
+
+	private void blockProtocolStage() {
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	private Request newGet(final int mid, final BlockOption block2) {
+		Request request = Request.newGet();
+		request.setURI(uri);
+		request.setMID(mid);
+		request.setToken(new byte[] { (byte) mid });
+		if (block2 != null) {
+			request.getOptions().setBlock2(block2);
+		}
+		return request;
+	}
+
+	private static byte[] serialize(final Request request) {
+		return new UdpDataSerializer().getByteArray(request);
+	}
+
+	private void send(final byte[] message) throws IOException {
+		socket.send(new DatagramPacket(message, message.length, serverAddress));
+	}
+
+	private Response receive(final int timeoutMillis) throws IOException {
+		byte[] buffer = new byte[2048];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		socket.setSoTimeout(timeoutMillis);
+		try {
+			socket.receive(packet);
+		} catch (SocketTimeoutException e) {
+			return null;
+		}
+		Message message = new UdpDataParser().parseMessage(Arrays.copyOf(buffer, packet.getLength()));
+		assertThat(message, is(instanceOf(Response.class)));
+		return (Response) message;
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Medium;
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.InMemoryMessageExchangeStore;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.rule.CoapNetworkRule;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that a server using the fast path for piggybacked responses
+ * still processes all other kinds of exchanges correctly.
+ */
+@Category(Medium.class)
+public class PiggybackedFastPathTest {
+
+	@ClassRule
+	public static CoapNetworkRule network = new CoapNetworkRule(CoapNetworkRule.Mode.DIRECT, CoapNetworkRule.Mode.NATIVE);
+
+	private static final int MAX_MESSAGE_SIZE = 32;
+	private static final String SHORT_CONTENT = "short";
+	private static final String LONG_CONTENT = "a representation that does not fit into a single message";
+
+	private static CoapServer server;
+	private static NetworkConfig config;
+	private static InetSocketAddress serverAddress;
+	private static CoapResource observable;
+
+	private CoapClient client;
+
+	@BeforeClass
+	public static void init() {
+		System.out.println(System.lineSeparator() + "Start " + PiggybackedFastPathTest.class.getSimpleName());
+		config = network.createStandardTestConfig()
+				.setBoolean(NetworkConfig.Keys.USE_PIGGYBACKED_FAST_PATH, true)
+				.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, MAX_MESSAGE_SIZE)
+				.setInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, MAX_MESSAGE_SIZE);
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), config);
+		observable = new ContentResource("observable", SHORT_CONTENT);
+		observable.setObservable(true);
+		server = new CoapServer();
+		server.add(new ContentResource("short", SHORT_CONTENT), new ContentResource("long", LONG_CONTENT),
+				new SeparateResource("separate"), observable);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+	}
+
+	@After
+	public void shutdownClient() {
+		if (client != null) {
+			client.shutdown();
+		}
+	}
+
+	@AfterClass
+	public static void finish() {
+		server.destroy();
+		System.out.println("End " + PiggybackedFastPathTest.class.getSimpleName());
+	}
+
+	@Test
+	public void testGetIsAnsweredByPiggybackedResponse() throws Exception {
+		// GIVEN a server endpoint with its own exchange store
+		InMemoryMessageExchangeStore exchangeStore = new InMemoryMessageExchangeStore(config);
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), config,
+				exchangeStore);
+		server.addEndpoint(endpoint);
+		endpoint.start();
+		try {
+			InetSocketAddress address = endpoint.getAddress();
+			client = new CoapClient(String.format("coap://%s:%d/short", address.getHostString(), address.getPort()));
+
+			// WHEN a simple GET request is sent
+			CoapResponse response = client.get();
+
+			// THEN the response is piggybacked and no exchange is kept
+			assertThat(response, is(notNullValue()));
+			assertThat(response.getResponseText(), is(SHORT_CONTENT));
+			assertThat(response.advanced().getType(), is(Type.ACK));
+			assertTrue(exchangeStore.isEmpty());
+		} finally {
+			endpoint.destroy();
+		}
+	}
+
+	@Test
+	public void testGetOfLargeResourceUsesBlockwiseTransfer() throws Exception {
+		client = newClient("long");
+
+		CoapResponse response = client.get();
+
+		assertThat(response, is(notNullValue()));
+		assertThat(response.getResponseText(), is(LONG_CONTENT));
+	}
+
+	@Test
+	public void testGetIsAnsweredBySeparateResponse() throws Exception {
+		client = newClient("separate");
+
+		CoapResponse response = client.get();
+
+		assertThat(response, is(notNullValue()));
+		assertThat(response.getResponseText(), is(SHORT_CONTENT));
+		assertThat(response.advanced().getType(), is(Type.CON));
+	}
+
+	@Test
+	public void testObserveReceivesNotifications() throws Exception {
+		client = newClient("observable");
+		final CountDownLatch notified = new CountDownLatch(2);
+		CoapObserveRelation relation = client.observe(new CoapHandler() {
+
+			@Override
+			public void onLoad(CoapResponse response) {
+				notified.countDown();
+			}
+
+			@Override
+			public void onError() {
+			}
+		});
+
+		Thread.sleep(100);
+		observable.changed();
+
+		assertTrue(notified.await(2, TimeUnit.SECONDS));
+		relation.proactiveCancel();
+	}
+
+	private static CoapClient newClient(final String path) {
+		return new CoapClient(String.format("coap://%s:%d/%s", serverAddress.getHostString(), serverAddress.getPort(),
+				path)).setTimeout(2000);
+	}
+
+	private static class ContentResource extends CoapResource {
+
+		private final String content;
+
+		public ContentResource(String name, String content) {
+			super(name);
+			this.content = content;
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			exchange.respond(ResponseCode.CONTENT, content);
+		}
+	}
+
+	private static class SeparateResource extends CoapResource {
+
+		public SeparateResource(String name) {
+			super(name);
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			exchange.accept();
+			exchange.respond(ResponseCode.CONTENT, SHORT_CONTENT);
+		}
+	}
+}
@@ -17,14 +17,17 @@
  *    Daniel Pauli - parsers and initial implementation
  *    Kai Hudalla - logging
  *    Achim Kraus (Bosch Software Innovations GmbH) - test limited search to 1 query.
+ *    Bosch Software Innovations GmbH - test changes during serialization of links
  ******************************************************************************/
 package org.eclipse.californium.core.test;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.californium.category.Small;
 import org.eclipse.californium.core.CoapResource;
@@ -122,6 +125,37 @@ public class ResourceAttributesTest {
 		Assert.assertEquals(ResponseCode.BAD_OPTION, exchange.getResponse().getCode());
 	}
 	
+	@Test
+	public void testDiscoveryReflectsChangesDuringSerialization() {
+		// GIVEN a resource adding a sibling while the links are serialized
+		final CoapResource tree = new CoapResource("");
+		final CoapResource sensors = new CoapResource("sensors");
+		final CoapResource humidity = new CoapResource("humidity");
+		final AtomicBoolean addSibling = new AtomicBoolean();
+		CoapResource light = new CoapResource("light") {
+
+			@Override
+			public Collection<Resource> getChildren() {
+				if (addSibling.compareAndSet(true, false)) {
+					sensors.add(humidity);
+				}
+				return super.getChildren();
+			}
+		};
+		tree.add(sensors);
+		sensors.add(light);
+		DiscoveryResource discovery = new DiscoveryResource(tree);
+		addSibling.set(true);
+
+		// WHEN the links are serialized
+		String serialized = discovery.discoverTree(tree, new LinkedList<String>());
+		Assert.assertFalse(serialized.contains("</sensors/humidity>"));
+
+		// THEN the links serialized before the change are not used afterwards
+		serialized = discovery.discoverTree(tree, new LinkedList<String>());
+		Assert.assertTrue(serialized.contains("</sensors/humidity>"));
+	}
+
 	private static class DummyEndpoint implements Endpoint {
 
 		@Override
@@ -18,6 +18,7 @@
  *    Kai Hudalla - logging
  *    Achim Kraus (Bosch Software Innovations GmbH) - use CoapNetworkRule for
  *                                                    setup of test-network
+ *    Bosch Software Innovations GmbH - add test for cached discovery
  ******************************************************************************/
 package org.eclipse.californium.core.test;
 
@@ -28,6 +29,7 @@ import org.eclipse.californium.category.Medium;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.CoapServer;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.network.EndpointManager;
@@ -109,6 +111,35 @@ public class ResourceTreeTest {
 		Assert.assertEquals(ResponseCode.NOT_FOUND, code2);
 	}
 	
+	@Test
+	public void testDiscoveryReflectsTreeChanges() throws Exception {
+		String discovery = "coap://localhost:" + serverPort + "/.well-known/core";
+		String base = "</" + RES_A + "/" + RES_AA + "/";
+
+		// GIVEN cached links of the resource tree
+		Response response = Request.newGet().setURI(discovery).send().waitForResponse(1000);
+		Assert.assertTrue(response.getPayloadString().contains(base + NAME_1 + ">"));
+		Assert.assertEquals(1, response.getOptions().getETagCount());
+
+		// WHEN the tree changes
+		resource.setName(NAME_2);
+		CoapResource added = new TestResource("added", PAYLOAD);
+		added.getAttributes().addResourceType("sensor");
+		resource.add(added);
+
+		// THEN the links reflect the changes
+		response = Request.newGet().setURI(discovery).send().waitForResponse(1000);
+		String links = response.getPayloadString();
+		Assert.assertFalse(links.contains(base + NAME_1 + ">"));
+		Assert.assertTrue(links.contains(base + NAME_2 + ">"));
+		Assert.assertTrue(links.contains(base + NAME_2 + "/" + CHILD + ">"));
+
+		// AND queries are answered from the cached links
+		String filtered = Request.newGet().setURI(discovery + "?rt=sensor").send().waitForResponse(1000)
+				.getPayloadString();
+		Assert.assertEquals(base + NAME_2 + "/added>;rt=\"sensor\"", filtered);
+	}
+
 	private void createServer() {
 		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
 		
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.category.Medium;
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.rule.CoapNetworkRule;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that notifications of resources sharing their notifications are
+ * rendered once per variant and reach all observers.
+ */
+@Category(Medium.class)
+public class SharedNotificationTest {
+
+	@ClassRule
+	public static CoapNetworkRule network = new CoapNetworkRule(CoapNetworkRule.Mode.DIRECT, CoapNetworkRule.Mode.NATIVE);
+
+	private static final String QUERY_UPPER_CASE = "uppercase";
+
+	private static CoapServer server;
+	private static InetSocketAddress serverAddress;
+	private static SharedResource sequential;
+	private static SharedResource parallel;
+
+	private final List<CoapClient> clients = new ArrayList<CoapClient>();
+
+	@BeforeClass
+	public static void init() {
+		System.out.println(System.lineSeparator() + "Start " + SharedNotificationTest.class.getSimpleName());
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		sequential = new SharedResource("sequential") {
+
+			@Override
+			public ExecutorService getExecutor() {
+				// notify all relations on the thread calling changed()
+				return null;
+			}
+		};
+		parallel = new SharedResource("parallel");
+		server = new CoapServer();
+		server.add(sequential, parallel);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+	}
+
+	@After
+	public void shutdownClients() {
+		for (CoapClient client : clients) {
+			client.shutdown();
+		}
+	}
+
+	@AfterClass
+	public static void finish() {
+		server.destroy();
+		System.out.println("End " + SharedNotificationTest.class.getSimpleName());
+	}
+
+	@Test
+	public void testChangedRendersNotificationOncePerVariant() throws Exception {
+		// GIVEN three observers of two variants
+		sequential.setContent("one");
+		Observer first = observe(sequential, null);
+		Observer second = observe(sequential, null);
+		Observer upper = observe(sequential, QUERY_UPPER_CASE);
+		int rendered = sequential.getRenderCount();
+
+		// WHEN the resource changes
+		sequential.setContent("two");
+		sequential.changed();
+
+		// THEN the notification is rendered once per variant
+		assertTrue(first.await("two"));
+		assertTrue(second.await("two"));
+		assertTrue(upper.await("TWO"));
+		assertThat(sequential.getRenderCount() - rendered, is(2));
+	}
+
+	@Test
+	public void testChangedNotifiesAllObserversInParallel() throws Exception {
+		// GIVEN a number of observers of a resource notifying in parallel
+		parallel.setContent("initial");
+		List<Observer> observers = new ArrayList<Observer>();
+		for (int i = 0; i < 10; i++) {
+			observers.add(observe(parallel, null));
+		}
+
+		// WHEN the resource changes several times
+		for (int i = 0; i < 3; i++) {
+			parallel.setContent("change " + i);
+			parallel.changed();
+		}
+
+		// THEN all observers converge to the latest state
+		for (Observer observer : observers) {
+			assertTrue(observer.await("change 2"));
+		}
+	}
+
+	private Observer observe(final CoapResource resource, final String query) throws Exception {
+		String uri = String.format("coap://%s:%d/%s", serverAddress.getHostString(), serverAddress.getPort(),
+				resource.getName());
+		if (query != null) {
+			uri = uri + "?" + query;
+		}
+		CoapClient client = new CoapClient(uri);
+		clients.add(client);
+		Observer observer = new Observer();
+		CoapObserveRelation relation = client.observeAndWait(observer);
+		assertThat(relation.isCanceled(), is(false));
+		return observer;
+	}
+
+	private static class Observer implements CoapHandler {
+
+		private volatile String latest;
+		private volatile CountDownLatch changed = new CountDownLatch(1);
+
+		@Override
+		public synchronized void onLoad(CoapResponse response) {
+			latest = response.getResponseText();
+			changed.countDown();
+		}
+
+		@Override
+		public void onError() {
+		}
+
+		private boolean await(final String content) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+			while (!content.equals(latest)) {
+				CountDownLatch latch;
+				synchronized (this) {
+					if (content.equals(latest)) {
+						break;
+					}
+					latch = new CountDownLatch(1);
+					changed = latch;
+				}
+				long left = deadline - System.nanoTime();
+				if (left <= 0 || !latch.await(left, TimeUnit.NANOSECONDS)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class SharedResource extends CoapResource {
+
+		private final AtomicInteger renderCount = new AtomicInteger();
+		private volatile String content;
+
+		public SharedResource(String name) {
+			super(name);
+			setObservable(true);
+			setNotificationsShared(true);
+		}
+
+		public void setContent(String content) {
+			this.content = content;
+		}
+
+		public int getRenderCount() {
+			return renderCount.get();
+		}
+
+		@Override
+		public void handleGET(CoapExchange exchange) {
+			renderCount.incrementAndGet();
+			String c = content;
+			if (exchange.getRequestOptions().getUriQuery().contains(QUERY_UPPER_CASE)) {
+				c = c.toUpperCase();
+			}
+			exchange.respond(ResponseCode.CONTENT, c);
+		}
+	}
+}
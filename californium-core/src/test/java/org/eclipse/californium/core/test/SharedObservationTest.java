@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.core.test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.category.Medium;
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.observe.InMemoryKeyValueStore;
+import org.eclipse.californium.core.observe.KeyValueObservationStore;
+import org.eclipse.californium.core.observe.KeyValueStore;
+import org.eclipse.californium.core.observe.NotificationListener;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.UDPConnector;
+import org.eclipse.californium.rule.CoapNetworkRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that a client endpoint processes notifications of observations
+ * initiated by another endpoint sharing its observation store.
+ */
+@Category(Medium.class)
+public class SharedObservationTest {
+
+	@ClassRule
+	public static CoapNetworkRule network = new CoapNetworkRule(CoapNetworkRule.Mode.DIRECT, CoapNetworkRule.Mode.NATIVE);
+
+	private CoapServer server;
+	private InetSocketAddress serverAddress;
+	private CounterResource resource;
+	private NetworkConfig config;
+	private InMemoryKeyValueStore keyValueStore;
+	private CoapEndpoint failoverEndpoint;
+
+	@Before
+	public void startServer() {
+		config = network.createStandardTestConfig();
+		keyValueStore = new InMemoryKeyValueStore();
+		CoapEndpoint endpoint = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), config);
+		resource = new CounterResource("counter");
+		server = new CoapServer();
+		server.add(resource);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+	}
+
+	@After
+	public void shutdown() {
+		if (failoverEndpoint != null) {
+			failoverEndpoint.destroy();
+		}
+		server.destroy();
+	}
+
+	@Test
+	public void testFailoverEndpointReceivesNotifications() throws Exception {
+		// GIVEN an observation initiated by an endpoint sharing its observations
+		CoapEndpoint clientEndpoint = newClientEndpoint(0, keyValueStore);
+		clientEndpoint.start();
+		CoapObserveRelation relation = observe(clientEndpoint, newObserveRequest());
+		assertThat(relation.isCanceled(), is(false));
+		assertThat(keyValueStore.size(), is(1));
+
+		// WHEN the endpoint fails and another endpoint takes over its address
+		BlockingQueue<Response> notifications = failover(clientEndpoint);
+
+		// THEN the notifications are passed to the notification listener
+		resource.changed();
+		Response first = notifications.poll(2, TimeUnit.SECONDS);
+		assertThat(first, is(notNullValue()));
+		assertThat(first.getPayloadString(), is("2"));
+		resource.changed();
+		Response second = notifications.poll(2, TimeUnit.SECONDS);
+		assertThat(second, is(notNullValue()));
+		assertThat(second.getPayloadString(), is("3"));
+	}
+
+	@Test
+	public void testFailoverEndpointRejectsNotificationsOfCanceledObservation() throws Exception {
+		// GIVEN an endpoint which has received a notification of an observation
+		// initiated by a failed endpoint
+		CoapEndpoint clientEndpoint = newClientEndpoint(0, keyValueStore);
+		clientEndpoint.start();
+		Request request = newObserveRequest();
+		observe(clientEndpoint, request);
+		byte[] token = request.getToken();
+		BlockingQueue<Response> notifications = failover(clientEndpoint);
+		resource.changed();
+		assertThat(notifications.poll(2, TimeUnit.SECONDS), is(notNullValue()));
+
+		// WHEN the observation is removed from the shared store
+		keyValueStore.removeAll(Collections.singletonList(token));
+		resource.changed();
+
+		// THEN further notifications are not passed to the listener
+		assertThat(notifications.poll(500, TimeUnit.MILLISECONDS), is(nullValue()));
+		// AND the server cancels the observation because the notification has been rejected
+		long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (resource.getObserverCount() > 0 && System.nanoTime() < timeout) {
+			Thread.sleep(10);
+		}
+		assertThat(resource.getObserverCount(), is(0));
+	}
+
+	@Test
+	public void testObserveRequestUsesNewTokenIfTokenIsUsedByOtherNode() throws Exception {
+		// GIVEN a store reporting the first token to be used by another node
+		final List<byte[]> keys = new CopyOnWriteArrayList<byte[]>();
+		KeyValueStore conflictingStore = new KeyValueStore() {
+
+			@Override
+			public boolean putIfAbsent(byte[] key, byte[] value) {
+				keys.add(key.clone());
+				return keys.size() > 1 && keyValueStore.putIfAbsent(key, value);
+			}
+
+			@Override
+			public byte[] get(byte[] key) {
+				return keyValueStore.get(key);
+			}
+
+			@Override
+			public void removeAll(Collection<byte[]> keys) {
+				keyValueStore.removeAll(keys);
+			}
+		};
+		CoapEndpoint clientEndpoint = newClientEndpoint(0, conflictingStore);
+		clientEndpoint.start();
+
+		// WHEN an observe request is sent
+		Request request = newObserveRequest();
+		CoapObserveRelation relation = observe(clientEndpoint, request);
+
+		// THEN the observation is established using another token
+		assertThat(relation.isCanceled(), is(false));
+		assertThat(keys.size(), is(2));
+		assertFalse(Arrays.equals(keys.get(0), keys.get(1)));
+		assertArrayEquals(keys.get(1), request.getToken());
+		assertThat(keyValueStore.size(), is(1));
+		clientEndpoint.destroy();
+	}
+
+	@Test
+	public void testObserveRequestWithTokenOfOtherNodeIsRejected() throws Exception {
+		// GIVEN an observation initiated by an endpoint sharing its observations
+		CoapEndpoint clientEndpoint = newClientEndpoint(0, keyValueStore);
+		clientEndpoint.start();
+		Request request = newObserveRequest();
+		observe(clientEndpoint, request);
+		byte[] token = request.getToken();
+
+		// WHEN another endpoint sends an observe request using the same token
+		failoverEndpoint = newClientEndpoint(0, keyValueStore);
+		failoverEndpoint.start();
+		request = newObserveRequest();
+		request.setToken(token);
+		failoverEndpoint.sendRequest(request);
+
+		// THEN the request is rejected and the observation of the first endpoint is kept
+		long timeout = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (!request.isRejected() && System.nanoTime() < timeout) {
+			Thread.sleep(10);
+		}
+		assertTrue(request.isRejected());
+		assertThat(keyValueStore.size(), is(1));
+		assertThat(resource.getObserverCount(), is(1));
+		clientEndpoint.destroy();
+	}
+
+	private Request newObserveRequest() {
+		Request request = Request.newGet();
+		request.setURI(getUri());
+		request.setObserve();
+		return request;
+	}
+
+	private CoapObserveRelation observe(final CoapEndpoint clientEndpoint, final Request request) {
+		CoapClient client = new CoapClient(getUri());
+		client.setEndpoint(clientEndpoint);
+		return client.observeAndWait(request, new CoapHandler() {
+
+			@Override
+			public void onLoad(CoapResponse response) {
+			}
+
+			@Override
+			public void onError() {
+			}
+		});
+	}
+
+	/**
+	 * Destroys an endpoint and starts another endpoint on its address.
+	 *
+	 * @return The notifications passed to the other endpoint's listener.
+	 */
+	private BlockingQueue<Response> failover(final CoapEndpoint clientEndpoint) throws IOException {
+		int port = clientEndpoint.getAddress().getPort();
+		clientEndpoint.destroy();
+		failoverEndpoint = newClientEndpoint(port, keyValueStore);
+		final BlockingQueue<Response> notifications = new LinkedBlockingQueue<Response>();
+		failoverEndpoint.addNotificationListener(new NotificationListener() {
+
+			@Override
+			public void onNotification(Request request, Response response) {
+				notifications.add(response);
+			}
+		});
+		failoverEndpoint.start();
+		return notifications;
+	}
+
+	private String getUri() {
+		return String.format("coap://%s:%d/counter", serverAddress.getHostString(), serverAddress.getPort());
+	}
+
+	private CoapEndpoint newClientEndpoint(final int port, final KeyValueStore store) {
+		UDPConnector connector = new UDPConnector(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		return new CoapEndpoint(connector, config, null, new KeyValueObservationStore(store));
+	}
+
+	private static class CounterResource extends CoapResource {
+
+		private int counter;
+
+		public CounterResource(String name) {
+			super(name);
+			setObservable(true);
+		}
+
+		@Override
+		public synchronized void handleGET(CoapExchange exchange) {
+			counter++;
+			exchange.respond(ResponseCode.CONTENT, Integer.toString(counter));
+		}
+	}
+}
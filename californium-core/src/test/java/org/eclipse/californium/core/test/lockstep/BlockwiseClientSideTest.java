@@ -24,6 +24,7 @@
  *                                                    (see hudson 2.0.x/146, issue #275)
  *    Achim Kraus (Bosch Software Innovations GmbH) - add MID expectation for
  *                                                    smart deduplication
+ *    Bosch Software Innovations GmbH - add testGETWithPipelinedBlocks
  ******************************************************************************/
 package org.eclipse.californium.core.test.lockstep;
 
@@ -153,6 +154,52 @@ public class BlockwiseClientSideTest {
 		printServerLog(clientInterceptor);
 	}
 
+	/**
+	 * Verifies that the client requests the remaining blocks of a response in
+	 * parallel if a pipeline window is configured and reassembles blocks
+	 * received out of order.
+	 */
+	@Test
+	public void testGETWithPipelinedBlocks() throws Exception {
+		System.out.println("Blockwise GET with pipelined blocks:");
+		respPayload = generateRandomPayload(450);
+		String path = "test";
+
+		// GIVEN a client retrieving up to two blocks in parallel
+		NetworkConfig pipelineConfig = network.createTestConfig()
+				.setInt(NetworkConfig.Keys.MAX_MESSAGE_SIZE, 128)
+				.setInt(NetworkConfig.Keys.PREFERRED_BLOCK_SIZE, 128)
+				.setInt(NetworkConfig.Keys.BLOCKWISE_PIPELINE_WINDOW, 2);
+		Endpoint pipelineClient = new CoapEndpoint(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), pipelineConfig);
+		pipelineClient.addInterceptor(clientInterceptor);
+		pipelineClient.start();
+		try {
+			server.setDestination(pipelineClient.getAddress());
+			Request request = createRequest(GET, path, server);
+			pipelineClient.sendRequest(request);
+
+			// WHEN the server indicates the body size in the first block
+			server.expectRequest(CON, GET, path).storeBoth("A").go();
+			server.sendResponse(ACK, CONTENT).loadBoth("A").block2(0, true, 128).size2(450).payload(respPayload, 0, 128).go();
+
+			// THEN the client requests the next two blocks without waiting
+			server.expectRequest(CON, GET, path).storeBoth("B").block2(1, false, 128).go();
+			server.expectRequest(CON, GET, path).storeBoth("C").block2(2, false, 128).go();
+			server.sendResponse(ACK, CONTENT).loadBoth("C").block2(2, true, 128).size2(450).payload(respPayload, 256, 384).go();
+			server.sendResponse(ACK, CONTENT).loadBoth("B").block2(1, true, 128).size2(450).payload(respPayload, 128, 256).go();
+			server.expectRequest(CON, GET, path).storeBoth("D").block2(3, false, 128).go();
+			server.sendResponse(ACK, CONTENT).loadBoth("D").block2(3, false, 128).size2(450).payload(respPayload, 384, 450).go();
+
+			// and assembles the body in order
+			Response response = request.waitForResponse(1000);
+			assertResponseContainsExpectedPayload(response, respPayload);
+		} finally {
+			pipelineClient.destroy();
+		}
+
+		printServerLog(clientInterceptor);
+	}
+
 	/**
 	 * In the second example, the client anticipates the blockwise transfer
 	 * (e.g., because of a size indication in the link- format description
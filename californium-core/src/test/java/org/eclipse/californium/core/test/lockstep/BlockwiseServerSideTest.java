@@ -24,6 +24,7 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - split responseType in
  *                                                    type(Type... types) and
  *                                                    storeType(String var)
+ *    Bosch Software Innovations GmbH - test parallel block requests with lost ACK
  ******************************************************************************/
 package org.eclipse.californium.core.test.lockstep;
 
@@ -342,6 +343,65 @@ public class BlockwiseServerSideTest {
 		client.expectResponse(ACK, CONTENT, tok, mid).block2(3, false, 64).payload(respPayload.substring(192, 220)).go();
 	}
 
+	/**
+	 * Verifies that a retransmitted request for a block is answered with the
+	 * block it has requested when the client requests several blocks in
+	 * parallel, each using a token of its own.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+     * |                                                          |
+     * | CON [MID=1234], GET, /status                     ------> |
+     * |                                                          |
+     * | <------   ACK [MID=1234], 2.05 Content, 2:0/1/128        |
+     * |                                                          |
+     * | CON [MID=1235], GET, /status, 2:1/0/128          ------> |
+     * |                                                          |
+     * |   //////// ACK [MID=1235], 2.05 Content, 2:1/1/128       |
+     * |                                                          |
+     * | CON [MID=1236], GET, /status, 2:2/0/128          ------> |
+     * |                                                          |
+     * | <------   ACK [MID=1236], 2.05 Content, 2:2/1/128        |
+     * |                                                          |
+     * | CON [MID=1235], GET, /status, 2:1/0/128          ------> |
+     * |                                                          |
+     * | <------   ACK [MID=1235], 2.05 Content, 2:1/1/128        |
+     * |                                                          |
+     * | CON [MID=1237], GET, /status, 2:3/0/128          ------> |
+     * |                                                          |
+     * | <------   ACK [MID=1237], 2.05 Content, 2:3/0/128        |
+     * </pre>
+	 */
+	@Test
+	public void testGETWithParallelBlockRequestsAndLostACK() throws Exception {
+		System.out.println("Blockwise GET with parallel block requests and lost ACK:");
+		respPayload = generateRandomPayload(450);
+		byte[] tok = generateNextToken();
+		String path = "test";
+
+		client.sendRequest(CON, GET, tok, ++mid).path(path).go();
+		client.expectResponse(ACK, CONTENT, tok, mid).block2(0, true, 128).size2(respPayload.length())
+			.payload(respPayload.substring(0, 128)).go();
+
+		byte[] tok1 = generateNextToken();
+		int mid1 = ++mid;
+		client.sendRequest(CON, GET, tok1, mid1).path(path).block2(1, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok1, mid1).block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		// We lose this ACK while requesting the next block in parallel
+		serverInterceptor.log(" // lost");
+
+		byte[] tok2 = generateNextToken();
+		client.sendRequest(CON, GET, tok2, ++mid).path(path).block2(2, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok2, mid).block2(2, true, 128).payload(respPayload.substring(256, 384)).go();
+
+		// the retransmission must be answered with the block it has requested
+		client.sendRequest(CON, GET, tok1, mid1).path(path).block2(1, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok1, mid1).block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+
+		byte[] tok3 = generateNextToken();
+		client.sendRequest(CON, GET, tok3, ++mid).path(path).block2(3, false, 128).go();
+		client.expectResponse(ACK, CONTENT, tok3, mid).block2(3, false, 128).payload(respPayload.substring(384, 450)).go();
+	}
+
 	/**
 	 * The following examples demonstrate a PUT exchange; a POST exchange looks
 	 * the same, with different requirements on atomicity/idempotence. Note
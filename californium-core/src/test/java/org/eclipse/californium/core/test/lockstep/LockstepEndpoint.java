@@ -31,6 +31,7 @@
  *                                                    to accept multiple types (Type... types).
  *                                                    Changed reponseType in type(Type... types)
  *                                                    and storeType().
+ *    Bosch Software Innovations GmbH - add query to RequestProperty
  ******************************************************************************/
 package org.eclipse.californium.core.test.lockstep;
 
@@ -1452,6 +1453,16 @@ public class LockstepEndpoint {
 			return this;
 		}
 
+		public RequestProperty query(final String query) {
+			properties.add(new Property<Request>() {
+
+				public void set(Request request) {
+					request.getOptions().setUriQuery(query);
+				}
+			});
+			return this;
+		}
+
 		public RequestProperty loadETag(final String var) {
 			properties.add(new Property<Request>() {
 
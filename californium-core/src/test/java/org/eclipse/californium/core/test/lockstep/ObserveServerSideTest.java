@@ -26,6 +26,7 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - check MIDs of notifies
  *    Achim Kraus (Bosch Software Innovations GmbH) - use renamed sameMID instead
  *                                                    of loadMID
+ *    Bosch Software Innovations GmbH - add test for minimum notification interval
  ******************************************************************************/
 package org.eclipse.californium.core.test.lockstep;
 
@@ -44,6 +45,7 @@ import static org.junit.Assert.assertThat;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -430,6 +432,37 @@ public class ObserveServerSideTest {
 		assertThat("Resource has not removed observe relation", testObsResource.getObserverCount(), is(0));
 	}
 
+	@Test
+	public void testNotificationsWithinMinimumIntervalAreCoalesced() throws Exception {
+
+		System.out.println("Establish an observe relation with a minimum notification interval of 1s");
+		respPayload = generateRandomPayload(20);
+		byte[] tok = generateNextToken();
+
+		respType = NON;
+		long start = System.nanoTime();
+		client.sendRequest(NON, GET, tok, ++mid).path(RESOURCE_PATH).query("pmin=1").observe(0).go();
+		client.expectResponse().type(NON).code(CONTENT).token(tok).storeObserve("A").payload(respPayload).go();
+		Assert.assertEquals("Resource has not added relation:", 1, testObsResource.getObserverCount());
+		serverInterceptor.log(System.lineSeparator() + "Observe relation established");
+
+		// WHEN the resource changes several times within the interval
+		testObsResource.change("First notification " + generateRandomPayload(10));
+		testObsResource.change("Second notification " + generateRandomPayload(10));
+		testObsResource.change("Third notification " + generateRandomPayload(10));
+
+		// THEN only the latest state is sent once the interval has elapsed
+		client.expectResponse().type(NON).code(CONTENT).token(tok).storeMID("MID").checkObs("A", "B").payload(respPayload).go();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertThat("Notification has been sent before the interval has elapsed", elapsed >= 900, is(true));
+
+		System.out.println("Reject notification");
+		client.sendEmpty(RST).loadMID("MID").go();
+
+		Thread.sleep(100);
+		Assert.assertEquals("Resource has not removed relation:", 0, testObsResource.getObserverCount());
+	}
+
 	// All tests are made with this resource
 	private static class TestObserveResource extends CoapResource {
 
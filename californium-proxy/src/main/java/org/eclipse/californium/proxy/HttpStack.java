@@ -14,6 +14,8 @@
  *    Matthias Kovatsch - creator and main architect
  *    Martin Lanter - architect and re-implementation
  *    Francesco Corazza - HTTP cross-proxy
+ *    Bosch Software Innovations GmbH - run workers on (virtual) threads of an
+ *                                      executor
  ******************************************************************************/
 package org.eclipse.californium.proxy;
 
@@ -22,6 +24,8 @@ import java.net.InetSocketAddress;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -72,6 +76,7 @@ import org.apache.http.protocol.ResponseServer;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.util.VirtualThreads;
 
 /**
  * Class encapsulating the logic of a http server. The class create a receiver
@@ -107,6 +112,13 @@ public class HttpStack {
 
 	private final ConcurrentHashMap<Request, Exchanger<Response>> exchangeMap = new ConcurrentHashMap<Request, Exchanger<Response>>();
 
+	/**
+	 * The executor running the workers of the proxied requests. The workers
+	 * block until the response is available, so each worker is run on a
+	 * virtual thread of its own, if supported by the JVM.
+	 */
+	private final ExecutorService workers = VirtualThreads.newThreadPerTaskExecutor("HttpStack Worker#"); //$NON-NLS-1$
+
 	private RequestHandler requestHandler;
 
 	/**
@@ -186,22 +198,19 @@ public class HttpStack {
 	}
 
 	/**
-	 * The Class CoapResponseWorker. This thread request a response from the
+	 * The Class CoapResponseWorker. This worker request a response from the
 	 * lower layers. It is the producer of the producer/consumer pattern.
 	 */
-	private final class CoapRequestWorker extends Thread {
+	private final class CoapRequestWorker implements Runnable {
 		private final Request coapRequest;
 
 		/**
 		 * Instantiates a new coap response worker.
 		 *
-		 * @param name
-		 *            the name
 		 * @param coapRequest
 		 *            the coap request
 		 */
-		public CoapRequestWorker(String name, Request coapRequest) {
-			super(name);
+		public CoapRequestWorker(Request coapRequest) {
 			this.coapRequest = coapRequest;
 		}
 
@@ -212,20 +221,18 @@ public class HttpStack {
 	}
 
 	/**
-	 * The Class CoapResponseWorker. This thread waits a response from the lower
+	 * The Class CoapResponseWorker. This worker waits a response from the lower
 	 * layers. It is the consumer of the producer/consumer pattern.
 	 */
-	private final class CoapResponseWorker extends Thread {
+	private final class CoapResponseWorker implements Runnable {
 		private final HttpAsyncExchange httpExchange;
 		private final HttpRequest httpRequest;
 		private final Request coapRequest;
-		private final Thread responseWorker;
+		private final Future<?> responseWorker;
 
 		/**
 		 * Instantiates a new coap response worker.
 		 * 
-		 * @param name
-		 *            the name
 		 * @param coapRequest
 		 *            the coap request
 		 * @param httpExchange
@@ -233,11 +240,10 @@ public class HttpStack {
 		 * @param httpRequest
 		 *            the http request
 		 * @param responseWorker
-		 *            the coap response worker
+		 *            the future of the coap response worker
 		 */
-		public CoapResponseWorker(String name, Request coapRequest, HttpAsyncExchange httpExchange,
-				HttpRequest httpRequest, Thread responseWorker) {
-			super(name);
+		public CoapResponseWorker(Request coapRequest, HttpAsyncExchange httpExchange,
+				HttpRequest httpRequest, Future<?> responseWorker) {
 			this.coapRequest = coapRequest;
 			this.httpExchange = httpExchange;
 			this.httpRequest = httpRequest;
@@ -247,7 +253,7 @@ public class HttpStack {
 		/*
 		 * (non-Javadoc)
 		 * 
-		 * @see java.lang.Thread#run()
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
 		public void run() {
@@ -272,7 +278,7 @@ public class HttpStack {
 				return;
 			} catch (InterruptedException e) {
 				// if the thread is interrupted, terminate
-				if (isInterrupted()) {
+				if (Thread.currentThread().isInterrupted()) {
 					LOGGER.warning("Thread interrupted");
 					sendSimpleHttpResponse(httpExchange, HttpStatus.SC_INTERNAL_SERVER_ERROR);
 					return;
@@ -282,7 +288,7 @@ public class HttpStack {
 				exchangeMap.remove(coapRequest);
 				// the producer thread was unable to deliver a response at time,
 				// so we kill it.
-				responseWorker.interrupt();
+				responseWorker.cancel(true);
 				LOGGER.finer("Entry removed from map");
 			}
 
@@ -453,16 +459,12 @@ public class HttpStack {
 
 					LOGGER.finer("Fill exchange with: " + coapRequest + " with hash=" + coapRequest.hashCode());
 
-					// We create two threads
+					// We run two workers
 					// The responseWorker will be in charge of producing a CoapResponse (producer)
 					// The requestWorker will be in charge of using this
 					// response to return it to the client
-					Thread requestWorker = new CoapRequestWorker("HttpStart Worker: consummer", coapRequest);
-					Thread responseWorker = new CoapResponseWorker("HttpStack Worker: producer", coapRequest, httpExchange, httpRequest, requestWorker);
-
-					// starting the producer and consumer thread
-					requestWorker.start();
-					responseWorker.start();
+					Future<?> requestWorker = workers.submit(new CoapRequestWorker(coapRequest));
+					workers.execute(new CoapResponseWorker(coapRequest, httpExchange, httpRequest, requestWorker));
 
 					LOGGER.finer("Started thread 'httpStack worker' to wait the response");
 
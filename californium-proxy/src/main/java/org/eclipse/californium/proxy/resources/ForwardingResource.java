@@ -14,24 +14,24 @@
  *    Matthias Kovatsch - creator and main architect
  *    Martin Lanter - architect and re-implementation
  *    Francesco Corazza - HTTP cross-proxy
+ *    Bosch Software Innovations GmbH - run requests on virtual threads
  ******************************************************************************/
 package org.eclipse.californium.proxy.resources;
 
-import java.util.concurrent.Executors;
-
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.ConcurrentCoapResource;
 
 /**
- * The ForwardingResource uses an unlimited thread pool to handle requests,
- * as it is unknown how long individual requests might take.
+ * The ForwardingResource runs each request on a thread of its own, as it is
+ * unknown how long individual requests might take. The threads are virtual
+ * threads on JVMs supporting them.
  */
 public abstract class ForwardingResource extends ConcurrentCoapResource {
 
 	public ForwardingResource(String resourceIdentifier) {
-		super(resourceIdentifier, Executors.newCachedThreadPool());
+		super(resourceIdentifier, THREAD_PER_REQUEST);
 		this.setVisible(false);
 	}
 
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Support for running tasks on <em>virtual threads</em>.
+ * <p>
+ * Virtual threads are cheap to create and to block, so it is feasible to
+ * run each task on a thread of its own, even if the task blocks on I/O, e.g.
+ * a resource handler querying a database or forwarding a request.
+ * <p>
+ * Virtual threads are available on Java 21 and later only. They are accessed
+ * by means of reflection, so this class can be used on older JVMs as well. On
+ * those JVMs the executors fall back to a cached pool of platform threads.
+ */
+public final class VirtualThreads {
+
+	private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newExecutor = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// preview releases of virtual threads fail unless enabled explicitly
+			ofVirtual.invoke(null);
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+				| InvocationTargetException e) {
+			LOGGER.log(Level.CONFIG, "virtual threads are not supported, using platform threads instead");
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = name;
+		BUILDER_FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Checks whether the JVM supports virtual threads.
+	 *
+	 * @return {@code true} if virtual threads are supported.
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates a factory for threads to run a single task each.
+	 *
+	 * @param threadPrefix the prefix, that becomes part of the name of all
+	 *            threads, created by this factory.
+	 * @return A factory for virtual threads, if supported, or a factory for
+	 *         platform daemon threads otherwise.
+	 */
+	public static ThreadFactory newThreadFactory(final String threadPrefix) {
+		if (OF_VIRTUAL != null) {
+			try {
+				Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), threadPrefix, 1L);
+				return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				LOGGER.log(Level.WARNING, "cannot create virtual thread factory, using platform threads instead", e);
+			}
+		}
+		return new DaemonThreadFactory(threadPrefix);
+	}
+
+	/**
+	 * Creates an executor running each task on a new thread.
+	 * <p>
+	 * On JVMs without support for virtual threads, the executor uses a cached
+	 * pool of platform daemon threads, i.e. the number of threads is unbounded
+	 * as well but idle threads are reused.
+	 *
+	 * @param threadPrefix the prefix, that becomes part of the name of all
+	 *            threads, created by the executor.
+	 * @return The executor.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(final String threadPrefix) {
+		ThreadFactory factory = newThreadFactory(threadPrefix);
+		if (!(factory instanceof NamedThreadFactory)) {
+			try {
+				return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				LOGGER.log(Level.WARNING, "cannot create virtual thread executor, using platform threads instead", e);
+				factory = new DaemonThreadFactory(threadPrefix);
+			}
+		}
+		return Executors.newCachedThreadPool(factory);
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.elements.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Verifies behavior of {@code VirtualThreads}.
+ */
+public class VirtualThreadsTest {
+
+	private static final int TASKS = 100;
+
+	@Test
+	public void testThreadPerTaskExecutorRunsBlockingTasksConcurrently() throws Exception {
+		// GIVEN an executor running each task on a thread of its own
+		ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test#");
+		final CountDownLatch started = new CountDownLatch(TASKS);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			// WHEN more tasks block than there are processors
+			for (int i = 0; i < TASKS; i++) {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+
+			// THEN all tasks are running at the same time
+			assertTrue(started.await(2, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+}
@@ -51,6 +51,8 @@
  *                                                    out of synchronized block
  *    Achim Kraus (Bosch Software Innovations GmbH) - use socket's reuseAddress only
  *                                                    if bindAddress determines a port
+ *    Bosch Software Innovations GmbH - resume handshakes suspended for asynchronous
+ *                                      credential lookups on the peer's stripe
  ******************************************************************************/
 package org.eclipse.californium.scandium;
 
@@ -66,8 +68,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -161,6 +167,9 @@ public class DTLSConnector implements Connector {
 	/** A queue for buffering outgoing messages */
 	private final BlockingQueue<RawData> outboundMessages;
 
+	/** The datagrams being filled up with APPLICATION_DATA records, each guarded by itself */
+	private final ConcurrentMap<InetSocketAddress, PendingDatagram> pendingDatagrams = new ConcurrentHashMap<>();
+
 	private InetSocketAddress lastBindAddress;
 	private int maximumTransmissionUnit = 1280; // min. IPv6 MTU
 	private int inboundDatagramBufferSize = MAX_DATAGRAM_BUFFER_SIZE;
@@ -425,6 +434,7 @@ public class DTLSConnector implements Connector {
 	final synchronized void releaseSocket() {
 		running.set(false);
 		outboundMessages.clear();
+		pendingDatagrams.clear();
 		sender.interrupt();
 		if (socket != null) {
 			socket.close();
@@ -488,7 +498,8 @@ public class DTLSConnector implements Connector {
 		InetSocketAddress peerAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
 
 		byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getLength());
-		List<Record> records = Record.fromByteArray(data, peerAddress);
+		Integer connectionIdLength = config.getConnectionIdLength();
+		List<Record> records = Record.fromByteArray(data, peerAddress, connectionIdLength == null ? 0 : connectionIdLength);
 		LOGGER.log(Level.FINER, "Received {0} DTLS records using a {1} byte datagram buffer",
 				new Object[]{records.size(), inboundDatagramBufferSize});
 
@@ -500,11 +511,17 @@ public class DTLSConnector implements Connector {
 				case APPLICATION_DATA:
 				case ALERT:
 				case CHANGE_CIPHER_SPEC:
+				case TLS12_CID:
 					executor.execute(new StripedRunnable() {
 
 						@Override
 						public Object getStripe() {
-							return record.getPeerAddress();
+							// records containing a connection ID may be received from different addresses
+							if (record.getConnectionId() != null) {
+								return record.getConnectionId();
+							} else {
+								return record.getPeerAddress();
+							}
 						}
 
 						@Override
@@ -549,6 +566,9 @@ public class DTLSConnector implements Connector {
 			case HANDSHAKE:
 				processHandshakeRecord(record);
 				break;
+			case TLS12_CID:
+				processConnectionIdRecord(record, true);
+				break;
 			default:
 				LOGGER.log(
 					Level.FINE,
@@ -658,6 +678,9 @@ public class DTLSConnector implements Connector {
 
 		connection.cancelPendingFlight();
 
+		// clear session & (pending) handshaker before sending the alert,
+		// so that the peer cannot observe the connection after having received the alert
+		connectionClosed(connection.getPeerAddress());
 		if (alert == null) {
 			LOGGER.log(Level.FINE, "Terminating connection with peer [{0}]", connection.getPeerAddress());
 		} else {
@@ -665,8 +688,6 @@ public class DTLSConnector implements Connector {
 					new Object[]{connection.getPeerAddress(), alert.getDescription()});
 			send(alert, session);
 		}
-		// clear session & (pending) handshaker
-		connectionClosed(connection.getPeerAddress());
 	}
 
 	private void processApplicationDataRecord(final Record record) {
@@ -689,7 +710,7 @@ public class DTLSConnector implements Connector {
 						connection.handshakeCompleted(record.getPeerAddress());
 						session.markRecordAsRead(record.getEpoch(), record.getSequenceNumber());
 						// create application message.
-						receivedApplicationMessage = createApplicationMessage(message, session);
+						receivedApplicationMessage = createApplicationMessage(message, session, session.getPeer());
 					} catch (HandshakeException | GeneralSecurityException e) {
 						// this means that we could not parse or decrypt the message
 						discardRecord(record, e);
@@ -711,10 +732,98 @@ public class DTLSConnector implements Connector {
 		}
 	}
 
-	private RawData createApplicationMessage(ApplicationMessage message, DTLSSession session) {
+	/**
+	 * Processes a <em>tls12_cid</em> record received from a peer.
+	 * <p>
+	 * In contrast to other records, the connection is looked up by means of the
+	 * connection ID contained in the record instead of the record's source address.
+	 * If the record can be authenticated and is newer than all other records received
+	 * from the peer, the peer's address is updated to the record's source address,
+	 * see <a href="https://tools.ietf.org/html/rfc9146#section-6">RFC 9146, Section 6</a>.
+	 * This way the connection survives a change of the peer's address without a new handshake.
+	 * <p>
+	 * Records are processed on the stripe of their connection ID while the handshake
+	 * is processed on the stripe of the peer's address. A record received right after
+	 * the server has sent its FINISHED message may therefore overtake the establishment
+	 * of the session, in which case it is processed again on the peer's stripe.
+	 * 
+	 * @param record the record containing the connection ID
+	 * @param deferIfNotEstablished {@code true} if the record should be processed on the
+	 *            stripe of the peer's address if the connection's session has not been
+	 *            established yet.
+	 */
+	private void processConnectionIdRecord(final Record record, final boolean deferIfNotEstablished) {
+		// the record's peer address is replaced by the session's address once the session is set
+		final InetSocketAddress sourceAddress = record.getPeerAddress();
+		DTLSSession session = null;
+		final Connection connection = connectionStore.get(record.getConnectionId());
+		if (deferIfNotEstablished && connection != null && !connection.hasEstablishedSession()
+				&& connection.hasOngoingHandshake()) {
+			try {
+				executor.execute(new StripedRunnable() {
+
+					@Override
+					public Object getStripe() {
+						return connection.getPeerAddress();
+					}
+
+					@Override
+					public void run() {
+						processConnectionIdRecord(record, false);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				LOGGER.log(Level.FINE, "Connector has been stopped, discarding record with connection ID [{0}]",
+						record.getConnectionId());
+			}
+		} else if (connection != null && (session = connection.getEstablishedSession()) != null) {
+			RawData receivedApplicationMessage = null;
+			boolean addressChanged = false;
+			synchronized (session) {
+				if (session.isRecordProcessable(record.getEpoch(), record.getSequenceNumber())) {
+					try {
+						record.setSession(session);
+						ApplicationMessage message = (ApplicationMessage) record.getFragment();
+						connection.handshakeCompleted(connection.getPeerAddress());
+						addressChanged = session.isNewestRecord(record.getEpoch(), record.getSequenceNumber())
+								&& !sourceAddress.equals(connection.getPeerAddress());
+						session.markRecordAsRead(record.getEpoch(), record.getSequenceNumber());
+						receivedApplicationMessage = createApplicationMessage(message, session,
+								addressChanged ? sourceAddress : session.getPeer());
+					} catch (HandshakeException | GeneralSecurityException e) {
+						// this means that we could not parse or decrypt the message
+						discardRecord(record, e);
+					}
+				} else {
+					LOGGER.log(Level.FINER, "Discarding duplicate record with connection ID [{0}] received from peer [{1}]",
+							new Object[]{record.getConnectionId(), sourceAddress});
+				}
+			}
+			if (addressChanged) {
+				// the connection store may lock sessions while holding its own lock,
+				// e.g. when evicting them, so it must not be called while holding the session's lock
+				LOGGER.log(Level.FINE, "Peer with connection ID [{0}] changed address from [{1}] to [{2}]",
+						new Object[]{record.getConnectionId(), connection.getPeerAddress(), sourceAddress});
+				connectionStore.update(connection, sourceAddress);
+			}
+			RawDataChannel channel = messageHandler;
+			// finally, forward de-crypted message to application layer outside the synchronized block
+			if (channel != null && receivedApplicationMessage != null) {
+				channel.receiveData(receivedApplicationMessage);
+			}
+		} else {
+			LOGGER.log(Level.FINER,
+					"Discarding record with unknown connection ID [{0}] received from peer [{1}]",
+					new Object[]{record.getConnectionId(), sourceAddress});
+		}
+	}
+
+	private RawData createApplicationMessage(ApplicationMessage message, DTLSSession session,
+			InetSocketAddress peerAddress) {
 		DtlsCorrelationContext context = new DtlsCorrelationContext(session.getSessionIdentifier().toString(),
 				String.valueOf(session.getReadEpoch()), session.getReadStateCipher());
-		return RawData.inbound(message.getData(), message.getPeer(), session.getPeerIdentity(), context, false);
+		// use the peer's current address which may have been changed by means of a connection ID
+		return RawData.inbound(message.getData(), peerAddress, session.getPeerIdentity(), context, false);
 	}
 
 	/**
@@ -949,7 +1058,7 @@ public class DTLSConnector implements Connector {
 			}
 			Handshaker handshaker = new ClientHandshaker(session, getRecordLayerForPeer(connection), connection,
 					config, maximumTransmissionUnit);
-			addSessionCacheSynchronization(handshaker);
+			initializeHandshaker(handshaker);
 			handshaker.startHandshake();
 		}
 	}
@@ -1075,7 +1184,7 @@ public class DTLSConnector implements Connector {
 		// for the case that multiple cookie exchanges have taken place)
 		Handshaker handshaker = new ServerHandshaker(clientHello.getMessageSeq(), newSession,
 				getRecordLayerForPeer(peerConnection), peerConnection, config, maximumTransmissionUnit);
-		addSessionCacheSynchronization(handshaker);
+		initializeHandshaker(handshaker);
 		handshaker.processMessage(record);
 	}
 
@@ -1107,7 +1216,7 @@ public class DTLSConnector implements Connector {
 
 			final Handshaker handshaker = new ResumingServerHandshaker(clientHello.getMessageSeq(), sessionToResume,
 					getRecordLayerForPeer(peerConnection), peerConnection, config, maximumTransmissionUnit);
-			addSessionCacheSynchronization(handshaker);
+			initializeHandshaker(handshaker);
 
 			if (previousConnection.hasEstablishedSession()) {
 				// client wants to resume a session that has been negotiated by this node
@@ -1304,7 +1413,7 @@ public class DTLSConnector implements Connector {
 			// start handshake
 			Handshaker handshaker = new ClientHandshaker(new DTLSSession(peerAddress, true),
 					getRecordLayerForPeer(connection), connection, config, maximumTransmissionUnit);
-			addSessionCacheSynchronization(handshaker);
+			initializeHandshaker(handshaker);
 			handshaker.addSessionListener(newDeferredMessageSender(message));
 			handshaker.startHandshake();
 		}
@@ -1319,7 +1428,7 @@ public class DTLSConnector implements Connector {
 			connectionStore.put(newConnection);
 			Handshaker handshaker = new ResumingClientHandshaker(resumableSession,
 					getRecordLayerForPeer(newConnection), newConnection, config, maximumTransmissionUnit);
-			addSessionCacheSynchronization(handshaker);
+			initializeHandshaker(handshaker);
 			handshaker.addSessionListener(newDeferredMessageSender(message));
 			handshaker.startHandshake();
 		} else {
@@ -1330,12 +1439,13 @@ public class DTLSConnector implements Connector {
 
 	private void sendMessage(final RawData message, final DTLSSession session) {
 		try {
-			Record record = new Record(
-					ContentType.APPLICATION_DATA,
-					session.getWriteEpoch(),
-					session.getSequenceNumber(),
-					new ApplicationMessage(message.getBytes(), message.getInetSocketAddress()),
-					session);
+			byte[] data = message.getBytes();
+			DatagramPacket datagram = null;
+			if (config.getRecordCoalescingDelay() > 0) {
+				addToPendingDatagram(data, session);
+			} else {
+				datagram = newApplicationDatagram(data, session);
+			}
 			if (message.getMessageCallback() != null) {
 				CorrelationContext ctx = new DtlsCorrelationContext(
 						session.getSessionIdentifier().toString(),
@@ -1343,12 +1453,159 @@ public class DTLSConnector implements Connector {
 						session.getWriteStateCipher());
 				message.getMessageCallback().onContextEstablished(ctx);
 			}
-			sendRecord(record);
+			if (datagram != null) {
+				sendDatagram(datagram);
+			}
 		} catch (GeneralSecurityException e) {
 			LOGGER.log(Level.FINE, String.format("Cannot send APPLICATION record to peer [%s]", message.getInetSocketAddress()), e);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Could not send record", e);
+		}
+	}
+
+	private static DatagramPacket newApplicationDatagram(final byte[] data, final DTLSSession session)
+			throws GeneralSecurityException {
+		// encrypt the message directly into the datagram's buffer
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(data.length, session)];
+		int length = Record.writeApplicationRecord(data, session, buffer, 0);
+		InetSocketAddress peerAddress = session.getPeer();
+		return new DatagramPacket(buffer, length, peerAddress.getAddress(), peerAddress.getPort());
+	}
+
+	/**
+	 * Adds an APPLICATION_DATA record to the datagram currently being filled up
+	 * for a session's peer.
+	 * <p>
+	 * If the record does not fit into the pending datagram anymore, the pending
+	 * datagram is sent immediately and the record is put into a new datagram.
+	 * A new datagram is sent once the configured <em>record coalescing delay</em>
+	 * has expired at the latest. If sending the new datagram cannot be scheduled,
+	 * e.g. because the connector is being stopped, the record is sent on its own.
+	 * <p>
+	 * The record is encrypted while holding the lock of the peer's pending
+	 * datagram only, so messages for different peers are processed
+	 * concurrently.
+	 * 
+	 * @param data the application layer data to send
+	 * @param session the session to encrypt the data with
+	 * @throws GeneralSecurityException if the data cannot be encrypted
+	 * @throws IOException if a full datagram cannot be sent
+	 */
+	private void addToPendingDatagram(final byte[] data, final DTLSSession session)
+			throws GeneralSecurityException, IOException {
+
+		InetSocketAddress peerAddress = session.getPeer();
+		int maxRecordLength = Record.getMaxApplicationRecordLength(data.length, session);
+
+		while (true) {
+			PendingDatagram pending = pendingDatagrams.get(peerAddress);
+			if (pending == null) {
+				// peers do not expect datagrams exceeding the size of a single record of max. length,
+				// e.g. on a loopback interface with a large MTU
+				int maxDatagramSize = Math.min(session.getMaxDatagramSize(), MAX_DATAGRAM_BUFFER_SIZE);
+				PendingDatagram newDatagram = new PendingDatagram(peerAddress,
+						Math.max(maxDatagramSize, maxRecordLength));
+				pending = pendingDatagrams.putIfAbsent(peerAddress, newDatagram);
+				if (pending == null) {
+					pending = newDatagram;
+					if (!pending.scheduleFlush()) {
+						// the datagram would never be sent, thus remove it again
+						// (sending records other threads have added already)
+						flushPendingDatagram(pending);
+						sendDatagram(newApplicationDatagram(data, session));
+						return;
+					}
+				}
+			}
+			DatagramPacket fullDatagram;
+			synchronized (pending) {
+				if (pending.closed) {
+					// datagram has been sent in the meantime, use a new one
+					continue;
+				}
+				if (pending.hasRoomFor(maxRecordLength)) {
+					pending.append(data, session);
+					return;
+				}
+				// current record does not fit into datagram anymore
+				// thus, send out current datagram and put record into new one
+				pending.closed = true;
+				pendingDatagrams.remove(peerAddress, pending);
+				pending.cancelFlush();
+				fullDatagram = pending.toDatagramPacket();
+			}
+			sendDatagram(fullDatagram);
+		}
+	}
+
+	private void flushPendingDatagram(final PendingDatagram pending) {
+		DatagramPacket datagram;
+		synchronized (pending) {
+			if (pending.closed) {
+				// datagram has already been sent because it was full
+				return;
+			}
+			pending.closed = true;
+			pendingDatagrams.remove(pending.peerAddress, pending);
+			if (pending.length == 0) {
+				// no record has been added
+				return;
+			}
+			datagram = pending.toDatagramPacket();
+		}
+		LOGGER.log(Level.FINER, "Sending datagram of {0} bytes to peer [{1}] after coalescing delay",
+				new Object[]{pending.length, pending.peerAddress});
+		try {
+			sendDatagram(datagram);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Could not send datagram", e);
 		}
 	}
 
+	private void initializeHandshaker(final Handshaker handshaker) {
+		addSessionCacheSynchronization(handshaker);
+		// resume handshakes suspended for asynchronous credential lookups
+		// on the same stripe that is used for processing the peer's records
+		handshaker.setExecutor(new Executor() {
+
+			@Override
+			public void execute(final Runnable command) {
+				try {
+					executor.execute(new StripedRunnable() {
+
+						@Override
+						public Object getStripe() {
+							return handshaker.getPeerAddress();
+						}
+
+						@Override
+						public void run() {
+							command.run();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					LOGGER.log(Level.FINE, "Connector has been stopped, cannot resume handshake with peer [{0}]",
+							handshaker.getPeerAddress());
+				}
+			}
+		});
+		handshaker.setSuspensionTimeout(timer, config.getAsyncStoreTimeout());
+		handshaker.addSessionListener(new SessionAdapter() {
+
+			@Override
+			public void handshakeFailed(Handshaker handshaker, Throwable error) {
+				if (error instanceof HandshakeException) {
+					AlertMessage alert = ((HandshakeException) error).getAlert();
+					if (AlertLevel.FATAL.equals(alert.getLevel())) {
+						terminateOngoingHandshake(handshaker.getPeerAddress(), error, alert.getDescription());
+					}
+				} else {
+					terminateOngoingHandshake(handshaker.getPeerAddress(), error, AlertDescription.INTERNAL_ERROR);
+				}
+			}
+		});
+	}
+
 	private void addSessionCacheSynchronization(final Handshaker handshaker) {
 		if (sessionCacheSynchronization != null) {
 			handshaker.addSessionListener(sessionCacheSynchronization);
@@ -1465,7 +1722,8 @@ public class DTLSConnector implements Connector {
 		}
 	}
 
-	private void sendDatagram(DatagramPacket datagramPacket) throws IOException {
+	// package private for checking the datagrams sent in tests
+	void sendDatagram(DatagramPacket datagramPacket) throws IOException {
 		DatagramSocket socket = getSocket();
 		if (socket != null && !socket.isClosed()) {
 			socket.send(datagramPacket);
@@ -1641,6 +1899,61 @@ public class DTLSConnector implements Connector {
 		}
 	}
 
+	/**
+	 * A datagram being filled up with APPLICATION_DATA records for a peer.
+	 * <p>
+	 * All access needs to be guarded by the datagram itself. Once the datagram
+	 * has been <em>closed</em>, it has been removed from the
+	 * <code>pendingDatagrams</code> map and no more records must be appended.
+	 */
+	private final class PendingDatagram implements Runnable {
+
+		private final InetSocketAddress peerAddress;
+		private final byte[] buffer;
+		private int length;
+		private boolean closed;
+		private ScheduledFuture<?> flushTask;
+
+		private PendingDatagram(InetSocketAddress peerAddress, int maxDatagramSize) {
+			this.peerAddress = peerAddress;
+			this.buffer = new byte[maxDatagramSize];
+		}
+
+		private boolean hasRoomFor(int recordLength) {
+			return length + recordLength <= buffer.length;
+		}
+
+		private void append(byte[] data, DTLSSession session) throws GeneralSecurityException {
+			length += Record.writeApplicationRecord(data, session, buffer, length);
+		}
+
+		private boolean scheduleFlush() {
+			try {
+				flushTask = timer.schedule(this, config.getRecordCoalescingDelay(), TimeUnit.MILLISECONDS);
+				return true;
+			} catch (RejectedExecutionException e) {
+				// connector is being stopped
+				LOGGER.log(Level.FINE, "Cannot schedule sending of datagram to peer [{0}]", peerAddress);
+				return false;
+			}
+		}
+
+		private void cancelFlush() {
+			if (flushTask != null) {
+				flushTask.cancel(false);
+			}
+		}
+
+		private DatagramPacket toDatagramPacket() {
+			return new DatagramPacket(buffer, length, peerAddress.getAddress(), peerAddress.getPort());
+		}
+
+		@Override
+		public void run() {
+			flushPendingDatagram(this);
+		}
+	}
+
 	/**
 	 * A worker thread for continuously doing repetitive tasks.
 	 */
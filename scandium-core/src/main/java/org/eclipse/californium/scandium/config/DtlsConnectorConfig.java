@@ -19,6 +19,7 @@
  *    Kai Hudalla (Bosch Software Innovations GmbH) - fix bug 483559
  *    Achim Kraus (Bosch Software Innovations GmbH) - add enable address reuse
  *    Ludwig Seitz (RISE SICS) - Added support for raw public key validation
+ *    Bosch Software Innovations GmbH - add asynchronous PSK and RPK stores
  *******************************************************************************/
 
 package org.eclipse.californium.scandium.config;
@@ -34,7 +35,9 @@ import java.util.List;
 
 import org.eclipse.californium.scandium.dtls.ServerNameResolver;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.eclipse.californium.scandium.dtls.pskstore.AsyncPskStore;
 import org.eclipse.californium.scandium.dtls.pskstore.PskStore;
+import org.eclipse.californium.scandium.dtls.rpkstore.AsyncTrustedRpkStore;
 import org.eclipse.californium.scandium.dtls.rpkstore.TrustAllRpks;
 import org.eclipse.californium.scandium.dtls.rpkstore.TrustedRpkStore;
 
@@ -96,6 +99,9 @@ public final class DtlsConnectorConfig {
 	/** store of the PSK */
 	private PskStore pskStore = null;
 
+	/** store for looking up the PSK of clients asynchronously */
+	private AsyncPskStore asyncPskStore = null;
+
 	/** the private key for RPK and X509 mode */
 	private PrivateKey privateKey = null;
 
@@ -111,8 +117,29 @@ public final class DtlsConnectorConfig {
 	/** default is trust all RPKs **/
 	private TrustedRpkStore trustedRPKs = new TrustAllRpks();
 
+	/** store for checking the RPKs of clients asynchronously */
+	private AsyncTrustedRpkStore asyncTrustedRPKs = null;
+
+	/**
+	 * The time to wait for the result of an asynchronous store before
+	 * the handshake fails.
+	 */
+	private int asyncStoreTimeout = 10000;
+
 	private int outboundMessageBufferSize = 100000;
 
+	/**
+	 * The time to wait for more records to the same peer before an
+	 * outbound datagram is sent. 0 disables coalescing of records.
+	 */
+	private int recordCoalescingDelay = 0;
+
+	/**
+	 * The length of the connection IDs this connector chooses for its peers.
+	 * <code>null</code> disables the negotiation of connection IDs.
+	 */
+	private Integer connectionIdLength = null;
+
 	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
 	private long staleConnectionThreshold = DEFAULT_STALE_CONNECTION_TRESHOLD;
 
@@ -173,6 +200,36 @@ public final class DtlsConnectorConfig {
 		return outboundMessageBufferSize;
 	}
 
+	/**
+	 * Gets the maximum time to wait for more <em>APPLICATION_DATA</em> records
+	 * to be sent to the same peer before sending out a datagram.
+	 * <p>
+	 * If this value is greater than 0, the connector packs the records of multiple
+	 * outbound messages for the same peer into a single datagram as long as the
+	 * records fit into the datagram, see
+	 * <a href="http://tools.ietf.org/html/rfc6347#section-4.1.1">RFC 6347, Section 4.1.1</a>.
+	 * 
+	 * @return the time to wait in milliseconds or 0 if records are sent
+	 *         in a datagram of their own immediately
+	 */
+	public int getRecordCoalescingDelay() {
+		return recordCoalescingDelay;
+	}
+
+	/**
+	 * Gets the length of the connection IDs this connector chooses for
+	 * the records it receives from peers.
+	 * <p>
+	 * If not <code>null</code>, the connector negotiates the use of connection IDs
+	 * with its peers during the handshake as defined in
+	 * <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a>.
+	 * 
+	 * @return the length in bytes or <code>null</code> if connection IDs are not used
+	 */
+	public Integer getConnectionIdLength() {
+		return connectionIdLength;
+	}
+
 	/**
 	 * Gets the IP address and port the connector is bound to.
 	 * 
@@ -333,6 +390,40 @@ public final class DtlsConnectorConfig {
 		return trustedRPKs;
 	}
 
+	/**
+	 * Gets the store to use for asynchronously looking up the pre-shared keys
+	 * of clients during a DTLS handshake.
+	 * 
+	 * @return The store or <code>null</code> if keys are looked up
+	 *         synchronously by means of the {@link #getPskStore() PSK store}.
+	 */
+	public AsyncPskStore getAsyncPskStore() {
+		return asyncPskStore;
+	}
+
+	/**
+	 * Gets the store to use for asynchronously checking the raw public keys
+	 * of clients during a DTLS handshake.
+	 * 
+	 * @return The store or <code>null</code> if keys are checked
+	 *         synchronously by means of the {@link #getRpkTrustStore() trust store}.
+	 */
+	public AsyncTrustedRpkStore getAsyncRpkTrustStore() {
+		return asyncTrustedRPKs;
+	}
+
+	/**
+	 * Gets the maximum time to wait for the result of an asynchronous
+	 * PSK or RPK store.
+	 * <p>
+	 * A handshake that has been suspended for this time fails.
+	 * 
+	 * @return the time in milliseconds
+	 */
+	public int getAsyncStoreTimeout() {
+		return asyncStoreTimeout;
+	}
+
 	/**
 	 * A helper for creating instances of <code>DtlsConnectorConfig</code>
 	 * based on the builder pattern.
@@ -569,6 +660,64 @@ public final class DtlsConnectorConfig {
 			}
 		}
 
+		/**
+		 * Sets the maximum time to wait for more <em>APPLICATION_DATA</em> records
+		 * to be sent to the same peer before sending out a datagram.
+		 * <p>
+		 * Setting this property to a value greater than 0 enables the coalescing of
+		 * multiple records into a single datagram which reduces the number of datagrams
+		 * (and thus system calls and IP/UDP headers) when many small messages are sent
+		 * to the same peer in a short period of time. A datagram is sent as soon as the
+		 * next record doesn't fit into it anymore or when the delay has expired,
+		 * whatever happens first.
+		 * <p>
+		 * The default value is 0, i.e. each record is sent in a datagram of its own
+		 * immediately.
+		 * 
+		 * @param delay the time in milliseconds
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if the given delay is negative
+		 */
+		public Builder setRecordCoalescingDelay(int delay) {
+			if (delay < 0) {
+				throw new IllegalArgumentException("Record coalescing delay must not be negative");
+			} else {
+				config.recordCoalescingDelay = delay;
+				return this;
+			}
+		}
+
+		/**
+		 * Sets the length of the connection IDs this connector chooses for the
+		 * <em>APPLICATION_DATA</em> records it receives from peers.
+		 * <p>
+		 * Setting this property enables the negotiation of connection IDs as defined in
+		 * <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a>. Once a connection ID
+		 * has been negotiated, records received from a peer are associated with the
+		 * connection by means of the connection ID instead of the peer's IP address and port.
+		 * This way a connection survives a change of the peer's address, e.g. due to a
+		 * NAT rebinding, without requiring a new handshake.
+		 * <p>
+		 * A length of 0 indicates that this connector is willing to include connection IDs
+		 * chosen by its peers in the records it sends but does not need to receive
+		 * connection IDs itself. Servers should use a length of at least 4 bytes in order
+		 * to keep the probability of collisions low.
+		 * <p>
+		 * The default value is <code>null</code>, i.e. connection IDs are not used.
+		 * 
+		 * @param length the length in bytes or <code>null</code> to disable connection IDs
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if the given length is negative or greater than 255
+		 */
+		public Builder setConnectionIdLength(Integer length) {
+			if (length != null && (length < 0 || length > 255)) {
+				throw new IllegalArgumentException("Connection ID length must be between 0 and 255");
+			} else {
+				config.connectionIdLength = length;
+				return this;
+			}
+		}
+
 		/**
 		 * Sets the key store to use for authenticating clients based
 		 * on a pre-shared key.
@@ -582,6 +731,61 @@ public final class DtlsConnectorConfig {
 			return this;
 		}
 
+		/**
+		 * Sets the store to use for looking up the pre-shared keys of clients
+		 * asynchronously.
+		 * <p>
+		 * If set, a server suspends the handshake with a client until the
+		 * store has reported the key for the identity indicated by the client
+		 * instead of blocking the thread processing the client's records.
+		 * The {@link #setPskStore(PskStore) PSK store} is still used for
+		 * looking up the identity and key when acting as a client.
+		 * 
+		 * @param asyncPskStore The store.
+		 * @return this builder for command chaining
+		 */
+		public Builder setAsyncPskStore(AsyncPskStore asyncPskStore) {
+			config.asyncPskStore = asyncPskStore;
+			return this;
+		}
+
+		/**
+		 * Sets the store to use for checking the raw public keys of clients
+		 * asynchronously.
+		 * <p>
+		 * If set, a server suspends the handshake with a client until the
+		 * store has reported whether the raw public key presented by the
+		 * client is trusted. The {@link #setRpkTrustStore(TrustedRpkStore) trust store}
+		 * is still used for checking the server's key when acting as a client.
+		 * 
+		 * @param store The store.
+		 * @return this builder for command chaining
+		 */
+		public Builder setAsyncRpkTrustStore(AsyncTrustedRpkStore store) {
+			config.asyncTrustedRPKs = store;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum time to wait for the result of an asynchronous
+		 * PSK or RPK store.
+		 * <p>
+		 * If the store has not reported its result within this time, the
+		 * handshake with the client fails. The default value is 10 seconds.
+		 * 
+		 * @param timeout the time in milliseconds
+		 * @return this builder for command chaining
+		 * @throws IllegalArgumentException if the given timeout is &lt; 1
+		 */
+		public Builder setAsyncStoreTimeout(int timeout) {
+			if (timeout < 1) {
+				throw new IllegalArgumentException("Asynchronous store timeout must be positive");
+			} else {
+				config.asyncStoreTimeout = timeout;
+				return this;
+			}
+		}
+
 		/**
 		 * Sets the resolver to use for determining the server names to include
 		 * in a <em>Server Name Indication</em> extension when initiating a handshake
@@ -796,7 +1000,7 @@ public final class DtlsConnectorConfig {
 		}
 
 		private void verifyPskBasedCipherConfig() {
-			if (config.pskStore == null) {
+			if (config.pskStore == null && config.asyncPskStore == null) {
 				throw new IllegalStateException("PSK store must be set when support for " +
 						CipherSuite.TLS_PSK_WITH_AES_128_CCM_8.name() + " is configured");
 			}
@@ -824,7 +1028,7 @@ public final class DtlsConnectorConfig {
 				ciphers.add(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256);
 			}
 
-			if (config.pskStore != null) {
+			if (config.pskStore != null || config.asyncPskStore != null) {
 				ciphers.add(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8);
 				ciphers.add(CipherSuite.TLS_PSK_WITH_AES_128_CBC_SHA256);
 			}
@@ -87,6 +87,12 @@ public class ClientHandshaker extends Handshaker {
 
 	protected Integer maxFragmentLengthCode;
 
+	/** The length of the connection ID to propose to the server, <code>null</code> if not supported */
+	protected Integer connectionIdLength;
+
+	/** The connection ID the server should include in records sent to this client */
+	private ConnectionId connectionId;
+
 	/**
 	 * The certificate types this server supports for client authentication.
 	 */
@@ -153,6 +159,7 @@ public class ClientHandshaker extends Handshaker {
 		this.serverNameResolver = config.getServerNameResolver();
 		this.preferredCipherSuites = config.getSupportedCipherSuites();
 		this.maxFragmentLengthCode = config.getMaxFragmentLengthCode();
+		this.connectionIdLength = config.getConnectionIdLength();
 		this.supportedServerCertificateTypes = new ArrayList<>();
 		this.supportedServerCertificateTypes.add(CertificateType.RAW_PUBLIC_KEY);
 		if (rootCertificates != null && rootCertificates.length > 0) {
@@ -371,6 +378,57 @@ public class ClientHandshaker extends Handshaker {
 		}
 		session.setSendRawPublicKey(CertificateType.RAW_PUBLIC_KEY.equals(serverHello.getClientCertificateType()));
 		session.setReceiveRawPublicKey(CertificateType.RAW_PUBLIC_KEY.equals(serverHello.getServerCertificateType()));
+		receivedConnectionIdExtension(message);
+	}
+
+	/**
+	 * Stores the connection IDs negotiated by means of the <em>connection_id</em>
+	 * extensions exchanged in CLIENT_HELLO and SERVER_HELLO.
+	 * 
+	 * @param message the server's hello message
+	 * @throws HandshakeException if the server includes the extension without
+	 *            it having been proposed by this client
+	 */
+	protected void receivedConnectionIdExtension(ServerHello message) throws HandshakeException {
+		ConnectionIdExtension connectionIdExt = message.getConnectionIdExtension();
+		if (connectionIdExt == null) {
+			return;
+		} else if (connectionId == null) {
+			throw new HandshakeException(
+					"Server uses connection ID without having been asked to",
+					new AlertMessage(
+							AlertLevel.FATAL,
+							AlertDescription.UNSUPPORTED_EXTENSION,
+							message.getPeer()));
+		}
+		if (!connectionId.isEmpty()) {
+			session.setReadConnectionId(connectionId);
+		}
+		ConnectionId serverConnectionId = connectionIdExt.getConnectionId();
+		if (!serverConnectionId.isEmpty()) {
+			session.setWriteConnectionId(serverConnectionId);
+		}
+		LOGGER.log(
+				Level.FINE,
+				"Negotiated connection IDs [read: {0}, write: {1}] with peer [{2}]",
+				new Object[]{connectionId, serverConnectionId, message.getPeer()});
+	}
+
+	/**
+	 * Adds a <em>connection_id</em> extension to a CLIENT_HELLO if this
+	 * client supports the use of connection IDs.
+	 * 
+	 * @param helloMessage the message to add the extension to
+	 */
+	protected void addConnectionIdExtension(ClientHello helloMessage) {
+		if (connectionIdLength != null) {
+			connectionId = ConnectionId.newConnectionId(connectionIdLength);
+			helloMessage.addExtension(new ConnectionIdExtension(connectionId));
+			LOGGER.log(
+					Level.FINE,
+					"Indicating connection ID [{0}] to server [{1}]",
+					new Object[]{connectionId, getPeerAddress()});
+		}
 	}
 
 	/**
@@ -671,6 +729,7 @@ public class ClientHandshaker extends Handshaker {
 		}
 
 		addServerNameIndication(startMessage);
+		addConnectionIdExtension(startMessage);
 
 		// set current state
 		state = startMessage.getMessageType().getCode();
@@ -38,7 +38,7 @@ import java.util.logging.Logger;
 public final class Connection implements SessionListener {
 
 	private static final Logger LOGGER = Logger.getLogger(Connection.class.getName());
-	private final InetSocketAddress peerAddress;
+	private volatile InetSocketAddress peerAddress;
 	private volatile DTLSSession establishedSession;
 	private final SessionTicket ticket;
 	private final AtomicReference<Handshaker> ongoingHandshake = new AtomicReference<Handshaker>();
@@ -130,6 +130,26 @@ public final class Connection implements SessionListener {
 		return peerAddress;
 	}
 
+	/**
+	 * Sets the address of this connection's peer.
+	 * <p>
+	 * This method is used by connection stores to update the address once
+	 * the peer has changed its address, see {@link ResumptionSupportingConnectionStore#update(Connection, InetSocketAddress)}.
+	 * 
+	 * @param peerAddress the new address
+	 * @throws NullPointerException if the address is <code>null</code>
+	 */
+	void setPeerAddress(final InetSocketAddress peerAddress) {
+		if (peerAddress == null) {
+			throw new NullPointerException("Peer address must not be null");
+		}
+		this.peerAddress = peerAddress;
+		DTLSSession session = establishedSession;
+		if (session != null) {
+			session.setPeer(peerAddress);
+		}
+	}
+
 	/**
 	 * Gets the already established DTLS session that exists with this connection's peer.
 	 * 
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.eclipse.californium.scandium.util.ByteArrayUtils;
+
+/**
+ * A connection identifier as defined by
+ * <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a>.
+ * <p>
+ * A connection ID is chosen by the receiving side of records and is
+ * included in every <em>tls12_cid</em> record sent to it. This allows the
+ * receiver to associate the record with its connection state independently
+ * of the sender's IP address and port.
+ */
+public final class ConnectionId {
+
+	/**
+	 * The maximum length of a connection ID in bytes.
+	 */
+	public static final int MAX_LENGTH = 255;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+	private final byte[] id; // opaque cid<0..2^8-1>
+
+	/**
+	 * Creates a connection identifier based on given bytes.
+	 *
+	 * @param connectionId the bytes constituting the identifier
+	 * @throws NullPointerException if the byte array is <code>null</code>
+	 * @throws IllegalArgumentException if the byte array is longer than {@link #MAX_LENGTH}
+	 */
+	public ConnectionId(byte[] connectionId) {
+		if (connectionId == null) {
+			throw new NullPointerException("Connection ID must not be null");
+		} else if (connectionId.length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Connection ID must not be longer than " + MAX_LENGTH + " bytes");
+		}
+		this.id = Arrays.copyOf(connectionId, connectionId.length);
+	}
+
+	/**
+	 * Creates a new connection identifier consisting of random bytes.
+	 *
+	 * @param length the number of bytes
+	 * @return the new connection ID
+	 * @throws IllegalArgumentException if the length is negative or greater than {@link #MAX_LENGTH}
+	 */
+	public static ConnectionId newConnectionId(int length) {
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Connection ID length must be between 0 and " + MAX_LENGTH);
+		}
+		byte[] id = new byte[length];
+		RANDOM.nextBytes(id);
+		return new ConnectionId(id);
+	}
+
+	public int length() {
+		return id.length;
+	}
+
+	public byte[] getId() {
+		return id;
+	}
+
+	/**
+	 * Checks whether this identifier is empty.
+	 * <p>
+	 * A peer using an empty connection ID is willing to include
+	 * the other peer's connection ID in records but does not want to receive
+	 * records containing a connection ID itself.
+	 *
+	 * @return <code>true</code> if the identifier has no bytes
+	 */
+	public boolean isEmpty() {
+		return id.length == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(id);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ConnectionId other = (ConnectionId) obj;
+		return Arrays.equals(id, other.id);
+	}
+
+	/**
+	 * Creates a string representation of this connection ID.
+	 *
+	 * @return the hexadecimal string representation of the <code>id</code> property value
+	 */
+	@Override
+	public String toString() {
+		return ByteArrayUtils.toHexString(id);
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertDescription;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertLevel;
+
+/**
+ * The <em>connection_id</em> Hello extension as defined in
+ * <a href="https://tools.ietf.org/html/rfc9146#section-3">RFC 9146, Section 3</a>.
+ *
+ * <pre>
+ * struct {
+ *    opaque cid&lt;0..2^8-1&gt;;
+ * } ConnectionId;
+ * </pre>
+ *
+ * The connection ID contained in the extension is the one the sender of the
+ * extension wants to receive in records sent to it by its peer.
+ */
+public class ConnectionIdExtension extends HelloExtension {
+
+	public static final int CID_LENGTH_BITS = 8;
+	private final ConnectionId connectionId;
+
+	public ConnectionIdExtension(ConnectionId connectionId) {
+		super(ExtensionType.CONNECTION_ID);
+		if (connectionId == null) {
+			throw new NullPointerException("Connection ID must not be null");
+		}
+		this.connectionId = connectionId;
+	}
+
+	public ConnectionId getConnectionId() {
+		return connectionId;
+	}
+
+	@Override
+	public int getLength() {
+		// 2 bytes (type ID) + 2 bytes (length of extension data) + 1 byte (length of CID) + CID
+		return 5 + connectionId.length();
+	}
+
+	/**
+	 * Creates an instance from a <em>ConnectionId</em> structure as defined
+	 * in <a href="https://tools.ietf.org/html/rfc9146#section-3">RFC 9146, Section 3</a>.
+	 *
+	 * @param extensionData the extension data struct containing the connection ID
+	 * @param peerAddress the IP address and port of the peer that sent the extension
+	 * @return the extension object
+	 * @throws HandshakeException if the extension data is malformed
+	 */
+	static final ConnectionIdExtension fromExtensionData(byte[] extensionData,
+			InetSocketAddress peerAddress) throws HandshakeException {
+		DatagramReader reader = new DatagramReader(extensionData);
+		int length = reader.read(CID_LENGTH_BITS);
+		if (length == extensionData.length - 1) {
+			return new ConnectionIdExtension(new ConnectionId(reader.readBytes(length)));
+		} else {
+			throw new HandshakeException(
+					String.format(
+							"Peer uses malformed %s extension (length %d, expected %d)",
+							ExtensionType.CONNECTION_ID.name(), length, extensionData.length - 1),
+					new AlertMessage(
+							AlertLevel.FATAL,
+							AlertDescription.DECODE_ERROR,
+							peerAddress));
+		}
+	}
+
+	@Override
+	protected void addExtensionData(DatagramWriter writer) {
+		writer.write(1 + connectionId.length(), LENGTH_BITS);
+		writer.write(connectionId.length(), CID_LENGTH_BITS);
+		writer.writeBytes(connectionId.getId());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(super.toString());
+		sb.append("\t\t\t\tConnection ID: ").append(connectionId);
+		return sb.toString();
+	}
+}
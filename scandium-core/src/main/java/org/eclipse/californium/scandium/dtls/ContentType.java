@@ -21,10 +21,15 @@ package org.eclipse.californium.scandium.dtls;
  * fragment. It is one of the four types: ChangeCipherSpec, Alert, Handshake,
  * ApplicationData. For further details see <a
  * href="http://tools.ietf.org/html/rfc5246#appendix-A.1">RFC 5246</a>.
+ * <p>
+ * Records containing a connection ID use the additional <em>tls12_cid</em>
+ * type on the wire, the actual content type is then part of the encrypted
+ * <em>DTLSInnerPlaintext</em>, see
+ * <a href="https://tools.ietf.org/html/rfc9146#section-4">RFC 9146, Section 4</a>.
  */
 public enum ContentType {
 
-	CHANGE_CIPHER_SPEC(20), ALERT(21), HANDSHAKE(22), APPLICATION_DATA(23);
+	CHANGE_CIPHER_SPEC(20), ALERT(21), HANDSHAKE(22), APPLICATION_DATA(23), TLS12_CID(25);
 
 	private int code;
 
@@ -42,7 +47,7 @@ public enum ContentType {
 	 * 
 	 * @param code
 	 *            the code representation of the content type (i.e. 20, 21, 22,
-	 *            23).
+	 *            23, 25).
 	 * @return the corresponding content type.
 	 */
 	public static ContentType getTypeByValue(int code) {
@@ -55,6 +60,8 @@ public enum ContentType {
 			return ContentType.HANDSHAKE;
 		case 23:
 			return ContentType.APPLICATION_DATA;
+		case 25:
+			return ContentType.TLS12_CID;
 
 		default:
 			return null;
@@ -72,6 +79,8 @@ public enum ContentType {
 			return "Handshake (22)";
 		case 23:
 			return "Application Data (23)";
+		case 25:
+			return "TLS 1.2 CID (25)";
 
 		default:
 			return "Unknown Content Type";
@@ -28,10 +28,13 @@
  *                                                    value provided by peer and current write state
  *    Bosch Software Innovations GmbH - add accessors for current read/write state cipher names
  *                                      (fix GitHub issue #1)
+ *    Bosch Software Innovations GmbH - add serialization of current connection state
+ *    Bosch Software Innovations GmbH - support invalidating a session after its state has been moved
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
 import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -39,6 +42,12 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.scandium.auth.PrincipalSerializer;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.KeyExchangeAlgorithm;
 
@@ -74,7 +83,7 @@ public final class DTLSSession {
 	/**
 	 * This session's peer's IP address and port.
 	 */
-	private InetSocketAddress peer = null;
+	private volatile InetSocketAddress peer = null;
 
 	/**
 	 * An arbitrary byte sequence chosen by the server to identify this session.
@@ -83,6 +92,16 @@ public final class DTLSSession {
 
 	private Principal peerIdentity;
 
+	/**
+	 * The connection ID the peer includes in records sent to us.
+	 */
+	private volatile ConnectionId readConnectionId = null;
+
+	/**
+	 * The connection ID chosen by the peer to be included in records sent to it.
+	 */
+	private volatile ConnectionId writeConnectionId = null;
+
 	private int maxFragmentLength = MAX_FRAGMENT_LENGTH_DEFAULT;
 	private int maxTransmissionUnit = MAX_TRANSMISSION_UNIT_DEFAULT;
 
@@ -148,7 +167,13 @@ public final class DTLSSession {
 	private volatile long receiveWindowUpperBoundary = RECEIVE_WINDOW_SIZE - 1;
 	private volatile long receiveWindowLowerBoundary = 0;
 	private volatile long receivedRecordsVector = 0;
+	private volatile long largestSequenceNumberRead = -1;
 	private long creationTime;
+	/**
+	 * Indicates whether this session object must not be used for exchanging
+	 * records anymore, e.g. because its state has been moved elsewhere.
+	 */
+	private boolean invalidated = false;
 
 	// Constructor ////////////////////////////////////////////////////
 
@@ -361,7 +386,7 @@ public final class DTLSSession {
 	 * 
 	 * @return the next sequence number
 	 * @throws IllegalStateException if the maximum sequence number for the
-	 *     epoch has been reached (2^48 - 1)
+	 *     epoch has been reached (2^48 - 1) or if this session has been invalidated
 	 */
 	public synchronized long getSequenceNumber() {
 		return getSequenceNumber(writeEpoch);
@@ -375,9 +400,12 @@ public final class DTLSSession {
 	 *            the epoch for which to get the sequence number
 	 * @return the next sequence number
 	 * @throws IllegalStateException if the maximum sequence number for the
-	 *     epoch has been reached (2^48 - 1)
+	 *     epoch has been reached (2^48 - 1) or if this session has been invalidated
 	 */
 	public synchronized long getSequenceNumber(int epoch) {
+		if (invalidated) {
+			throw new IllegalStateException("Session has been invalidated");
+		}
 		long sequenceNumber = this.sequenceNumbers.get(epoch);
 		if (sequenceNumber < MAX_SEQUENCE_NO) {
 			this.sequenceNumbers.put(epoch, sequenceNumber + 1);
@@ -574,7 +602,7 @@ public final class DTLSSession {
 	 * @return the maximum size in bytes
 	 */
 	public int getMaxDatagramSize() {
-		return this.maxFragmentLength + writeState.getMaxCiphertextExpansion() + HEADER_LENGTH;
+		return this.maxFragmentLength + writeState.getMaxCiphertextExpansion() + getConnectionIdExpansion() + HEADER_LENGTH;
 	}
 
 	/**
@@ -600,11 +628,13 @@ public final class DTLSSession {
 	}
 
 	private void determineMaxFragmentLength(int maxProcessableFragmentLength) {
-		int maxDatagramSize = maxProcessableFragmentLength + writeState.getMaxCiphertextExpansion() + HEADER_LENGTH;
+		int maxDatagramSize = maxProcessableFragmentLength + writeState.getMaxCiphertextExpansion()
+				+ getConnectionIdExpansion() + HEADER_LENGTH;
 		if (maxDatagramSize <= maxTransmissionUnit) {
 			this.maxFragmentLength = maxProcessableFragmentLength;
 		} else {
-			this.maxFragmentLength = maxTransmissionUnit - HEADER_LENGTH - writeState.getMaxCiphertextExpansion();
+			this.maxFragmentLength = maxTransmissionUnit - HEADER_LENGTH - writeState.getMaxCiphertextExpansion()
+					- getConnectionIdExpansion();
 		}
 		LOGGER.log(Level.FINER, "Setting maximum fragment length for peer [{0}] to {1} bytes",
 				new Object[]{peer, this.maxFragmentLength});
@@ -651,6 +681,60 @@ public final class DTLSSession {
 		return peer;
 	}
 
+	/**
+	 * Sets the IP address and port of this session's peer.
+	 * <p>
+	 * This is used to update the peer's address once an authenticated record
+	 * containing the connection ID negotiated for this session has been received
+	 * from a new address.
+	 * 
+	 * @param peer the peer's new address
+	 * @throws NullPointerException if the address is <code>null</code>
+	 */
+	void setPeer(InetSocketAddress peer) {
+		if (peer == null) {
+			throw new NullPointerException("Peer address must not be null");
+		}
+		this.peer = peer;
+	}
+
+	/**
+	 * Gets the connection ID the peer includes in the records it sends to us.
+	 * 
+	 * @return the connection ID or <code>null</code> if no (non-empty) connection ID
+	 *         has been negotiated for the records received from the peer
+	 */
+	public ConnectionId getReadConnectionId() {
+		return readConnectionId;
+	}
+
+	void setReadConnectionId(ConnectionId connectionId) {
+		this.readConnectionId = connectionId;
+	}
+
+	/**
+	 * Gets the connection ID to include in the records sent to the peer.
+	 * 
+	 * @return the connection ID or <code>null</code> if no (non-empty) connection ID
+	 *         has been negotiated for the records sent to the peer
+	 */
+	public ConnectionId getWriteConnectionId() {
+		return writeConnectionId;
+	}
+
+	void setWriteConnectionId(ConnectionId connectionId) {
+		this.writeConnectionId = connectionId;
+	}
+
+	/**
+	 * Gets the number of additional bytes required by the <em>tls12_cid</em> record format,
+	 * i.e. the connection ID and the inner content type.
+	 */
+	private int getConnectionIdExpansion() {
+		ConnectionId cid = writeConnectionId;
+		return cid == null ? 0 : cid.length() + 1;
+	}
+
 	/**
 	 * Gets the authenticated peer's identity.
 	 * 
@@ -682,6 +766,7 @@ public final class DTLSSession {
 	 * <ul>
 	 * <li>the record is from the same epoch as session's current read epoch</li>
 	 * <li>the record has not been received before</li>
+	 * <li>this session has not been invalidated</li>
 	 * </ul>
 	 *  
 	 * @param epoch the record's epoch
@@ -701,7 +786,10 @@ public final class DTLSSession {
 			return false;
 		} else {
 			synchronized (this) {
-				if (sequenceNo < receiveWindowLowerBoundary) {
+				if (invalidated) {
+					// the record may be processed by the session that has taken over our state
+					return false;
+				} else if (sequenceNo < receiveWindowLowerBoundary) {
 					// record lies out of receive window's "left" edge
 					// discard
 					return false;
@@ -763,6 +851,9 @@ public final class DTLSSession {
 				receivedRecordsVector = receivedRecordsVector >>> incr;
 				receiveWindowLowerBoundary = Math.max(0, receiveWindowUpperBoundary - RECEIVE_WINDOW_SIZE + 1);
 			}
+			if (sequenceNo > largestSequenceNumberRead) {
+				largestSequenceNumberRead = sequenceNo;
+			}
 			long bitMask = 1L << (sequenceNo - receiveWindowLowerBoundary);
 			// mark sequence number as "received" in receive window
 			receivedRecordsVector |= bitMask;
@@ -771,6 +862,23 @@ public final class DTLSSession {
 		}
 	}
 
+	/**
+	 * Checks whether a record is newer than all records of the current read epoch
+	 * that have been marked as read.
+	 * <p>
+	 * This is used to determine whether the peer's address may be updated based on
+	 * the record's source address, see
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-6">RFC 9146, Section 6</a>.
+	 * 
+	 * @param epoch the record's epoch
+	 * @param sequenceNo the record's sequence number
+	 * @return <code>true</code> if the record belongs to the current read epoch and
+	 *         its sequence number is larger than the ones of all records read so far
+	 */
+	public boolean isNewestRecord(long epoch, long sequenceNo) {
+		return epoch == getReadEpoch() && sequenceNo > largestSequenceNumberRead;
+	}
+
 	/**
 	 * Re-initializes the receive window to detect duplicates for a new epoch.
 	 * 
@@ -781,6 +889,205 @@ public final class DTLSSession {
 		receivedRecordsVector = 0;
 		receiveWindowUpperBoundary = RECEIVE_WINDOW_SIZE - 1;
 		receiveWindowLowerBoundary = 0;
+		largestSequenceNumberRead = -1;
+	}
+
+	/**
+	 * Serializes this session's <em>current</em> connection state.
+	 * <p>
+	 * In contrast to a {@link SessionTicket}, the serialized state contains everything
+	 * required to continue exchanging records with the peer without a new handshake, i.e.
+	 * the current read and write keys, epochs, the next sequence number and the receive window.
+	 * <pre>
+	 * struct {
+	 *   uint8 flags; // is_client, send_raw_public_key, receive_raw_public_key
+	 *   opaque session_id&lt;0..32&gt;;
+	 *   opaque master_secret[48];
+	 *   uint16 max_fragment_length;
+	 *   uint32 max_transmission_unit;
+	 *   uint64 creation_time;
+	 *   ConnectionIdOption read_connection_id;
+	 *   ConnectionIdOption write_connection_id;
+	 *   ConnectionState read_state;
+	 *   uint16 read_epoch;
+	 *   uint48 receive_window_lower_boundary;
+	 *   uint48 receive_window_upper_boundary;
+	 *   uint64 received_records_vector;
+	 *   uint48 largest_sequence_number_read_plus_one;
+	 *   ConnectionState write_state;
+	 *   uint16 write_epoch;
+	 *   uint48 next_sequence_number;
+	 *   ClientIdentity peer_identity;
+	 * } CurrentState;
+	 * </pre>
+	 * 
+	 * A session re-created from the serialized state continues with the same sequence
+	 * numbers, so this session object must be {@linkplain #invalidate() invalidated}
+	 * before releasing its lock if both may be used for sending records.
+	 * 
+	 * @param writer the writer to serialize to
+	 * @throws IllegalStateException if this session does not have its current connection
+	 *            state set yet.
+	 */
+	synchronized void encodeCurrentState(final DatagramWriter writer) {
+		if (!writeState.hasValidCipherSuite() || masterSecret == null) {
+			throw new IllegalStateException("session has no valid crypto params, not fully negotiated yet?");
+		}
+		int flags = (isClient ? 0x01 : 0) | (sendRawPublicKey ? 0x02 : 0) | (receiveRawPublicKey ? 0x04 : 0);
+		writer.write(flags, 8);
+		writeOpaque(sessionIdentifier == null ? null : sessionIdentifier.getId(), writer);
+		writer.writeBytes(masterSecret);
+		writer.write(maxFragmentLength, 16);
+		writer.write(maxTransmissionUnit, 32);
+		writer.writeLong(creationTime, 64);
+		writeConnectionId(readConnectionId, writer);
+		writeConnectionId(writeConnectionId, writer);
+
+		writeConnectionState(readState, writer);
+		writer.write(readEpoch, 16);
+		writer.writeLong(receiveWindowLowerBoundary, 48);
+		writer.writeLong(receiveWindowUpperBoundary, 48);
+		writer.writeLong(receivedRecordsVector, 64);
+		writer.writeLong(largestSequenceNumberRead + 1, 48);
+
+		writeConnectionState(writeState, writer);
+		writer.write(writeEpoch, 16);
+		long nextSequenceNumber = sequenceNumbers.get(writeEpoch);
+		writer.writeLong(nextSequenceNumber, 48);
+
+		PrincipalSerializer.serialize(peerIdentity, writer);
+	}
+
+	/**
+	 * Marks this session as invalid.
+	 * <p>
+	 * An invalid session neither provides sequence numbers for outbound records nor
+	 * considers inbound records processable anymore. This prevents a session whose
+	 * state has been moved elsewhere, e.g. by means of {@link #encodeCurrentState(DatagramWriter)},
+	 * from re-using nonces or from accepting records that have already been received
+	 * by the session that has taken over its state.
+	 */
+	synchronized void invalidate() {
+		invalidated = true;
+	}
+
+	/**
+	 * Creates a session from its <em>current</em> connection state that has been
+	 * serialized by means of {@link #encodeCurrentState(DatagramWriter)}.
+	 * <p>
+	 * The returned session can be used for exchanging records with the peer right away.
+	 * 
+	 * @param peerAddress the IP address and port of the peer the session is established with
+	 * @param reader the serialized current state
+	 * @return the session
+	 * @throws GeneralSecurityException if the peer identity cannot be re-created
+	 * @throws IllegalArgumentException if the reader does not contain a valid state
+	 */
+	static DTLSSession decodeCurrentState(final InetSocketAddress peerAddress, final DatagramReader reader)
+			throws GeneralSecurityException {
+
+		int flags = reader.read(8);
+		DTLSSession session = new DTLSSession(peerAddress, (flags & 0x01) != 0);
+		session.sendRawPublicKey = (flags & 0x02) != 0;
+		session.receiveRawPublicKey = (flags & 0x04) != 0;
+		byte[] sessionId = readOpaque(reader);
+		if (sessionId != null) {
+			session.sessionIdentifier = new SessionId(sessionId);
+		}
+		session.masterSecret = reader.readBytes(MASTER_SECRET_LENGTH);
+		session.maxFragmentLength = reader.read(16);
+		session.maxTransmissionUnit = reader.read(32);
+		session.creationTime = reader.readLong(64);
+		session.readConnectionId = readConnectionId(reader);
+		session.writeConnectionId = readConnectionId(reader);
+
+		session.readState = readConnectionState(reader);
+		session.readEpoch = reader.read(16);
+		session.receiveWindowLowerBoundary = reader.readLong(48);
+		session.receiveWindowUpperBoundary = reader.readLong(48);
+		session.receivedRecordsVector = reader.readLong(64);
+		session.largestSequenceNumberRead = reader.readLong(48) - 1;
+
+		session.writeState = readConnectionState(reader);
+		session.writeEpoch = reader.read(16);
+		session.sequenceNumbers.put(session.writeEpoch, reader.readLong(48));
+
+		session.peerIdentity = PrincipalSerializer.deserialize(reader);
+		session.cipherSuite = session.writeState.getCipherSuite();
+		session.compressionMethod = session.writeState.getCompressionMethod();
+		return session;
+	}
+
+	private static void writeConnectionState(final DTLSConnectionState state, final DatagramWriter writer) {
+		writer.write(state.getCipherSuite().getCode(), CipherSuite.CIPHER_SUITE_BITS);
+		writer.write(state.getCompressionMethod().getCode(), CompressionMethod.COMPRESSION_METHOD_BITS);
+		writeOpaque(state.getEncryptionKey() == null ? null : state.getEncryptionKey().getEncoded(), writer);
+		writeOpaque(state.getIv() == null ? null : state.getIv().getIV(), writer);
+		writeOpaque(state.getMacKey() == null ? null : state.getMacKey().getEncoded(), writer);
+	}
+
+	private static DTLSConnectionState readConnectionState(final DatagramReader reader) {
+		CipherSuite cipherSuite = CipherSuite.getTypeByCode(reader.read(CipherSuite.CIPHER_SUITE_BITS));
+		CompressionMethod compressionMethod = CompressionMethod.getMethodByCode(
+				reader.read(CompressionMethod.COMPRESSION_METHOD_BITS));
+		if (cipherSuite == null || compressionMethod == null) {
+			throw new IllegalArgumentException("Serialized state contains unsupported algorithms");
+		}
+		byte[] encryptionKey = readOpaque(reader);
+		byte[] iv = readOpaque(reader);
+		byte[] macKey = readOpaque(reader);
+		return new DTLSConnectionState(
+				cipherSuite,
+				compressionMethod,
+				encryptionKey == null ? null : new SecretKeySpec(encryptionKey, "AES"),
+				iv == null ? null : new IvParameterSpec(iv),
+				macKey == null ? null : new SecretKeySpec(macKey, "Mac"));
+	}
+
+	private static void writeConnectionId(final ConnectionId cid, final DatagramWriter writer) {
+		if (cid == null) {
+			writer.write(0, 8);
+		} else {
+			writer.write(1, 8);
+			writer.write(cid.length(), 8);
+			writer.writeBytes(cid.getId());
+		}
+	}
+
+	private static ConnectionId readConnectionId(final DatagramReader reader) {
+		if (reader.read(8) == 0) {
+			return null;
+		} else {
+			return new ConnectionId(reader.readBytes(reader.read(8)));
+		}
+	}
+
+	/**
+	 * Writes an opaque value of up to 255 bytes.
+	 * <p>
+	 * A <code>null</code> value is written as an empty value.
+	 */
+	private static void writeOpaque(final byte[] value, final DatagramWriter writer) {
+		if (value == null) {
+			writer.write(0, 8);
+		} else {
+			writer.write(value.length, 8);
+			writer.writeBytes(value);
+		}
+	}
+
+	/**
+	 * Reads an opaque value of up to 255 bytes.
+	 * 
+	 * @return the value or <code>null</code> if the value is empty
+	 */
+	private static byte[] readOpaque(final DatagramReader reader) {
+		int length = reader.read(8);
+		if (length == 0) {
+			return null;
+		} else {
+			return reader.readBytes(length);
+		}
 	}
 
 	/**
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+/**
+ * A listener for failures of handshakes that have been resumed after
+ * waiting for the result of an asynchronous operation.
+ * <p>
+ * A {@link SessionListener} added to a {@link Handshaker} is notified about
+ * such failures if it also implements this interface.
+ */
+public interface HandshakeFailureListener {
+
+	/**
+	 * Indicates that a handshake with a peer has failed while processing
+	 * messages that had been held back until the result of an asynchronous
+	 * operation, e.g. the lookup of a pre-shared key, has become available.
+	 * <p>
+	 * Failures occurring while processing records handed to the handshaker
+	 * are reported by means of an exception thrown to the caller instead.
+	 *
+	 * @param handshaker the handshaker that has failed
+	 * @param error the cause of the failure
+	 */
+	void handshakeFailed(Handshaker handshaker, Throwable error);
+}
@@ -32,6 +32,9 @@
  *                                                    see issue #406
  *    Ludwig Seitz (RISE SICS) - Moved certificate validation here from CertificateMessage
  *    Ludwig Seitz (RISE SICS) - Added support for raw public key validation
+ *    Bosch Software Innovations GmbH - support suspending the handshake while waiting
+ *                                      for the result of an asynchronous operation
+ *    Bosch Software Innovations GmbH - notify listeners about negotiated sessions
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
@@ -55,6 +58,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -154,6 +162,44 @@ public abstract class Handshaker {
 
 	private boolean changeCipherSuiteMessageExpected = false;
 
+	private boolean sessionNegotiated = false;
+
+	/** The maximum number of records deferred while the handshake is suspended. */
+	private static final int MAX_DEFERRED_RECORDS = 16;
+
+	/** Indicates whether processing of inbound messages is suspended. */
+	private boolean suspended = false;
+
+	/** The records received while processing of inbound messages is suspended. */
+	private final List<Record> deferredRecords = new ArrayList<>();
+
+	/** The executor to resume a suspended handshake on. */
+	private volatile Executor executor;
+
+	/** The timer to fail a handshake that has been suspended for too long. */
+	private volatile ScheduledExecutorService timer;
+
+	/** The maximum time (in milliseconds) the handshake may be suspended. */
+	private volatile long suspensionTimeout;
+
+	/** The task failing the handshake once the suspension has timed out. */
+	private ScheduledFuture<?> suspensionTimeoutTask;
+
+	/**
+	 * A step of the handshake to execute once the result of an asynchronous
+	 * operation has become available.
+	 */
+	protected interface HandshakeStep {
+
+		/**
+		 * Executes the step.
+		 * 
+		 * @throws HandshakeException if the handshake cannot be continued.
+		 * @throws GeneralSecurityException if the keys cannot be derived.
+		 */
+		void execute() throws HandshakeException, GeneralSecurityException;
+	}
+
 	// Constructor ////////////////////////////////////////////////////
 
 	/**
@@ -403,29 +449,18 @@ public abstract class Handshaker {
 	 * @throws HandshakeException if the record's plaintext fragment cannot be parsed into
 	 *            a handshake message or cannot be processed properly
 	 */
-	public final void processMessage(Record record) throws HandshakeException {
+	public final synchronized void processMessage(Record record) throws HandshakeException {
+		if (suspended) {
+			deferRecord(record);
+			return;
+		}
 		// The DTLS 1.2 spec (section 4.1.2.6) advises to do replay detection
 		// before MAC validation based on the record's sequence numbers
 		// see http://tools.ietf.org/html/rfc6347#section-4.1.2.6
 		if (!session.isDuplicate(record.getSequenceNumber())) {
 			try {
 				record.setSession(session);
-				DTLSMessage messageToProcess = inboundMessageBuffer.getNextMessage(record);
-				while (messageToProcess != null) {
-					if (messageToProcess instanceof FragmentedHandshakeMessage) {
-						messageToProcess = handleFragmentation((FragmentedHandshakeMessage) messageToProcess);
-					}
-
-					if (messageToProcess == null) {
-						// messageToProcess is fragmented and not all parts have been received yet
-					} else {
-						// continue with the now fully re-assembled message
-						doProcessMessage(messageToProcess);
-					}
-
-					// process next expected message (if available yet)
-					messageToProcess = inboundMessageBuffer.getNextMessage();
-				}
+				processMessages(inboundMessageBuffer.getNextMessage(record));
 				session.markRecordAsRead(record.getEpoch(), record.getSequenceNumber());
 			} catch (GeneralSecurityException e) {
 				LOGGER.log(Level.WARNING,
@@ -458,6 +493,199 @@ public abstract class Handshaker {
 	protected void doProcessMessage(DTLSMessage message) throws HandshakeException, GeneralSecurityException {
 	}
 
+	/**
+	 * Processes a message and all buffered messages that are up for processing
+	 * subsequently.
+	 * <p>
+	 * Processing stops if the handshake gets suspended by one of the messages.
+	 * 
+	 * @param message the message to start with (may be <code>null</code>)
+	 * @throws HandshakeException if any of the messages cannot be processed properly
+	 * @throws GeneralSecurityException if any of the messages cannot be decrypted
+	 */
+	private void processMessages(DTLSMessage message) throws HandshakeException, GeneralSecurityException {
+		DTLSMessage messageToProcess = message;
+		while (messageToProcess != null) {
+			if (messageToProcess instanceof FragmentedHandshakeMessage) {
+				messageToProcess = handleFragmentation((FragmentedHandshakeMessage) messageToProcess);
+			}
+
+			if (messageToProcess == null) {
+				// messageToProcess is fragmented and not all parts have been received yet
+			} else {
+				// continue with the now fully re-assembled message
+				doProcessMessage(messageToProcess);
+				if (suspended) {
+					// wait for the asynchronous operation to complete
+					return;
+				}
+			}
+
+			// process next expected message (if available yet)
+			messageToProcess = inboundMessageBuffer.getNextMessage();
+		}
+	}
+
+	/**
+	 * Defers a record received while the handshake is suspended.
+	 * <p>
+	 * Duplicates of records already read or deferred are discarded, as are
+	 * records exceeding the maximum number of deferred records. The peer
+	 * will retransmit its flight anyway if we do not respond in time.
+	 * 
+	 * @param record the record
+	 */
+	private void deferRecord(final Record record) {
+		if (session.isDuplicate(record.getSequenceNumber())) {
+			LOGGER.log(Level.FINEST, "Discarding duplicate HANDSHAKE message received from peer [{0}]",
+					record.getPeerAddress());
+			return;
+		}
+		for (Record deferredRecord : deferredRecords) {
+			if (deferredRecord.getEpoch() == record.getEpoch()
+					&& deferredRecord.getSequenceNumber() == record.getSequenceNumber()) {
+				LOGGER.log(Level.FINEST, "Discarding duplicate of deferred record received from peer [{0}]",
+						record.getPeerAddress());
+				return;
+			}
+		}
+		if (deferredRecords.size() < MAX_DEFERRED_RECORDS) {
+			LOGGER.log(Level.FINER, "Deferring record from peer [{0}] until handshake is resumed", getPeerAddress());
+			deferredRecords.add(record);
+		} else {
+			LOGGER.log(Level.FINER, "Discarding record from peer [{0}], too many records deferred already",
+					getPeerAddress());
+		}
+	}
+
+	/**
+	 * Sets the executor to use for resuming a suspended handshake.
+	 * <p>
+	 * The executor must be set before the handshake gets suspended. A
+	 * suspended handshake is always resumed by means of this executor, even if
+	 * the asynchronous operation completes synchronously.
+	 * 
+	 * @param executor the executor
+	 */
+	public final void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum time the handshake may be suspended.
+	 * <p>
+	 * If the result of the asynchronous operation is not available within
+	 * this time, the handshake fails. If not set, the handshake waits for
+	 * the result forever.
+	 * 
+	 * @param timer the timer to use for scheduling the time out
+	 * @param timeout the time out in milliseconds
+	 */
+	public final void setSuspensionTimeout(ScheduledExecutorService timer, long timeout) {
+		this.timer = timer;
+		this.suspensionTimeout = timeout;
+	}
+
+	/**
+	 * Suspends processing of inbound messages until the result of an
+	 * asynchronous operation is available.
+	 * <p>
+	 * This method must be invoked from within {@link #doProcessMessage(DTLSMessage)}
+	 * before the asynchronous operation is started. Records received while the
+	 * handshake is suspended are processed after the handshake has been
+	 * {@linkplain #resume(HandshakeStep) resumed}.
+	 */
+	protected final void suspend() {
+		suspended = true;
+		ScheduledExecutorService suspensionTimer = timer;
+		if (suspensionTimer != null && suspensionTimeout > 0) {
+			try {
+				suspensionTimeoutTask = suspensionTimer.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						resume(new HandshakeStep() {
+
+							@Override
+							public void execute() throws HandshakeException {
+								AlertMessage alert = new AlertMessage(AlertLevel.FATAL,
+										AlertDescription.INTERNAL_ERROR, session.getPeer());
+								throw new HandshakeException("Asynchronous operation has timed out", alert);
+							}
+						});
+					}
+				}, suspensionTimeout, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				LOGGER.log(Level.FINE, "Cannot schedule time out for suspended handshake with peer [{0}]",
+						getPeerAddress());
+			}
+		}
+	}
+
+	/**
+	 * Resumes a suspended handshake.
+	 * <p>
+	 * The given step is executed on the {@linkplain #setExecutor(Executor)
+	 * executor} first. Afterwards, all buffered and deferred records are
+	 * processed. If the step or the processing of the records fails, the
+	 * session listeners implementing {@link HandshakeFailureListener} are notified.
+	 * A step arriving after the handshake has been resumed already, e.g. because
+	 * the suspension has timed out, is ignored.
+	 * 
+	 * @param step the step to execute using the result of the asynchronous operation
+	 */
+	protected final void resume(final HandshakeStep step) {
+		Runnable resumption = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					continueHandshake(step);
+				} catch (HandshakeException e) {
+					handshakeFailed(e);
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, String.format(
+							"Cannot resume handshake with peer [%s]", getPeerAddress()), e);
+					handshakeFailed(e);
+				}
+			}
+		};
+		Executor resumptionExecutor = executor;
+		if (resumptionExecutor == null) {
+			handshakeFailed(new IllegalStateException("No executor set for resuming the handshake"));
+		} else {
+			resumptionExecutor.execute(resumption);
+		}
+	}
+
+	private synchronized void continueHandshake(final HandshakeStep step) throws HandshakeException {
+		if (!suspended) {
+			LOGGER.log(Level.FINER, "Handshake with peer [{0}] is not suspended, ignoring result", getPeerAddress());
+			return;
+		}
+		LOGGER.log(Level.FINER, "Resuming handshake with peer [{0}]", getPeerAddress());
+		suspended = false;
+		if (suspensionTimeoutTask != null) {
+			suspensionTimeoutTask.cancel(false);
+			suspensionTimeoutTask = null;
+		}
+		try {
+			step.execute();
+			processMessages(inboundMessageBuffer.getNextMessage());
+		} catch (GeneralSecurityException e) {
+			LOGGER.log(Level.WARNING,
+					String.format(
+							"Cannot process handshake message from peer [%s] due to [%s]",
+							getSession().getPeer(), e.getMessage()),
+					e);
+			AlertMessage alert = new AlertMessage(AlertLevel.FATAL, AlertDescription.INTERNAL_ERROR, session.getPeer());
+			throw new HandshakeException("Cannot process handshake message", alert);
+		}
+		while (!suspended && !deferredRecords.isEmpty()) {
+			processMessage(deferredRecords.remove(0));
+		}
+	}
+
 	/**
 	 * Starts the handshake by sending the first flight to the peer.
 	 * <p>
@@ -883,7 +1111,29 @@ public abstract class Handshaker {
 		}
 	}
 	
+	/**
+	 * Notifies the session listeners implementing {@link SessionNegotiationListener}
+	 * about the negotiated session.
+	 * <p>
+	 * Handshakers need to invoke this method before sending a flight the peer may
+	 * respond to by using the session. The listeners are notified once only,
+	 * {@link #sessionEstablished()} notifies them if this method has not been invoked.
+	 * 
+	 * @throws HandshakeException if any of the listeners rejects the session
+	 */
+	protected final void sessionNegotiated() throws HandshakeException {
+		if (!sessionNegotiated) {
+			sessionNegotiated = true;
+			for (SessionListener sessionListener : sessionListeners) {
+				if (sessionListener instanceof SessionNegotiationListener) {
+					((SessionNegotiationListener) sessionListener).sessionNegotiated(this, this.getSession());
+				}
+			}
+		}
+	}
+
 	protected final void sessionEstablished() throws HandshakeException {
+		sessionNegotiated();
 		for (SessionListener sessionListener : sessionListeners) {
 			sessionListener.sessionEstablished(this, this.getSession());
 		}
@@ -895,6 +1145,14 @@ public abstract class Handshaker {
 		}
 	}
 
+	protected final void handshakeFailed(Throwable cause) {
+		for (SessionListener sessionListener : sessionListeners) {
+			if (sessionListener instanceof HandshakeFailureListener) {
+				((HandshakeFailureListener) sessionListener).handshakeFailed(this, cause);
+			}
+		}
+	}
+
 	/**
 	 * Checks whether this handshake has been initiated by the given message.
 	 * 
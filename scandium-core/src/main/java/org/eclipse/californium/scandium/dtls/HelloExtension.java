@@ -150,6 +150,8 @@ public abstract class HelloExtension {
 				return MaxFragmentLengthExtension.fromExtensionData(extensionData, peerAddress);
 			case SERVER_NAME:
 				return ServerNameExtension.fromExtensionData(extensionData, peerAddress);
+			case CONNECTION_ID:
+				return ConnectionIdExtension.fromExtensionData(extensionData, peerAddress);
 			default:
 				return null;
 			}
@@ -238,6 +240,9 @@ public abstract class HelloExtension {
 		/** See <a href="http://www.iana.org/go/rfc4507">RFC 4507</a> **/
 		SESSION_TICKET_TLS(35, "SessionTicket TLS"),
 
+		/** See <a href="https://tools.ietf.org/html/rfc9146">RFC 9146</a> **/
+		CONNECTION_ID(53, "connection_id"),
+
 		/** See <a href="http://www.iana.org/go/rfc5746">RFC 5746</a> **/
 		RENEGOTIATION_INFO(65281, "renegotiation_info");
 
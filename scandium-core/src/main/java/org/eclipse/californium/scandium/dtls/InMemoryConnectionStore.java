@@ -13,11 +13,14 @@
  * Contributors:
  *    Kai Hudalla (Bosch Software Innovations GmbH) - Initial creation
  *    Achim Kraus (Bosch Software Innovations GmbH) - use final for collections
+ *    Bosch Software Innovations GmbH - add lookup by connection ID
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +54,10 @@ import org.eclipse.californium.elements.util.LeastRecentlyUsedCache.Predicate;
  * connections in access-time order.
  * </p>
  * <p>
+ * Connections with an established session for which a connection ID has been
+ * negotiated are additionally indexed by means of the connection ID.
+ * </p>
+ * <p>
  * Insertion, lookup and removal of connections is done in
  * <em>O(log n)</em>.
  * </p>
@@ -58,12 +65,13 @@ import org.eclipse.californium.elements.util.LeastRecentlyUsedCache.Predicate;
  * Storing and reading to/from the store is thread safe.
  * </p>
  */
-public final class InMemoryConnectionStore implements ResumptionSupportingConnectionStore, SessionListener {
+public final class InMemoryConnectionStore implements ResumptionSupportingConnectionStore, SessionListener, SessionNegotiationListener {
 
 	private static final Logger LOG = Logger.getLogger(InMemoryConnectionStore.class.getName());
 	private static final int DEFAULT_CACHE_SIZE = 150000;
 	private static final long DEFAULT_EXPIRATION_THRESHOLD = 36 * 60 * 60; // 36h
 	private final LeastRecentlyUsedCache<InetSocketAddress, Connection> connections;
+	private final Map<ConnectionId, Connection> connectionsByCid = new HashMap<>();
 	private final SessionCache sessionCache;
 
 	/**
@@ -111,16 +119,16 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 		connections = new LeastRecentlyUsedCache<>(capacity, threshold);
 		this.sessionCache = sessionCache;
 
-		if (sessionCache != null) {
-			// make sure that session state for stale (evicted) connections is removed from second level cache
-			connections.addEvictionListener(new LeastRecentlyUsedCache.EvictionListener<Connection>() {
+		// make sure that state for stale (evicted) connections is removed from
+		// connection ID index and second level cache
+		connections.addEvictionListener(new LeastRecentlyUsedCache.EvictionListener<Connection>() {
 
-				@Override
-				public void onEviction(Connection staleConnection) {
-					removeSessionFromCache(staleConnection);
-				}
-			});
-		}
+			@Override
+			public void onEviction(Connection staleConnection) {
+				removeConnectionId(staleConnection);
+				removeSessionFromCache(staleConnection);
+			}
+		});
 		LOG.log(Level.CONFIG, "Created new InMemoryConnectionStore [capacity: {0}, connection expiration threshold: {1}s]",
 				new Object[]{capacity, threshold});
 	}
@@ -228,15 +236,70 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 		return connections.get(peerAddress);
 	}
 
+	/**
+	 * Gets a connection by the connection ID the peer includes in its records.
+	 * <p>
+	 * The connection's last-access time is updated as well.
+	 */
+	@Override
+	public synchronized Connection get(final ConnectionId cid) {
+		if (cid == null) {
+			return null;
+		}
+		Connection connection = connectionsByCid.get(cid);
+		if (connection == null) {
+			return null;
+		} else if (connections.get(connection.getPeerAddress()) != connection) {
+			// connection has been removed or replaced in the meantime
+			connectionsByCid.remove(cid);
+			return null;
+		} else {
+			return connection;
+		}
+	}
+
+	@Override
+	public synchronized boolean update(final Connection connection, final InetSocketAddress newPeerAddress) {
+		if (connection == null || newPeerAddress == null) {
+			return false;
+		}
+		InetSocketAddress oldPeerAddress = connection.getPeerAddress();
+		if (connections.get(oldPeerAddress) != connection) {
+			return false;
+		} else if (!newPeerAddress.equals(oldPeerAddress)) {
+			connections.remove(oldPeerAddress);
+			Connection previousConnection = connections.remove(newPeerAddress);
+			if (previousConnection != null) {
+				LOG.log(Level.FINE, "Removing connection for address [{0}] taken over by peer using connection ID",
+						newPeerAddress);
+				removeConnectionId(previousConnection);
+				removeSessionFromCache(previousConnection);
+			}
+			connection.setPeerAddress(newPeerAddress);
+			connections.put(newPeerAddress, connection);
+		}
+		return true;
+	}
+
 	@Override
 	public synchronized Connection remove(final InetSocketAddress peerAddress) {
 		Connection removedConnection = connections.remove(peerAddress);
+		removeConnectionId(removedConnection);
 		removeSessionFromCache(removedConnection);
 		return removedConnection;
 	}
 
+	private synchronized void removeConnectionId(final Connection connection) {
+		if (connection != null && connection.hasEstablishedSession()) {
+			ConnectionId cid = connection.getEstablishedSession().getReadConnectionId();
+			if (cid != null && connectionsByCid.get(cid) == connection) {
+				connectionsByCid.remove(cid);
+			}
+		}
+	}
+
 	private synchronized void removeSessionFromCache(final Connection connection) {
-		if (sessionCache != null && connection.hasEstablishedSession()) {
+		if (sessionCache != null && connection != null && connection.hasEstablishedSession()) {
 			sessionCache.remove(connection.getEstablishedSession().getSessionIdentifier());
 		}
 	}
@@ -244,6 +307,7 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 	@Override
 	public final synchronized void clear() {
 		connections.clear();
+		connectionsByCid.clear();
 		// TODO: does it make sense to clear the SessionCache as well?
 	}
 
@@ -252,6 +316,15 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 		// nothing to do
 	}
 
+	@Override
+	public void sessionNegotiated(final Handshaker handshaker, final DTLSSession session) throws HandshakeException {
+		// index the connection ID before the peer may use it
+		ConnectionId cid = session.getReadConnectionId();
+		if (cid != null) {
+			putConnectionId(cid, session.getPeer());
+		}
+	}
+
 	@Override
 	public void sessionEstablished(final Handshaker handshaker, final DTLSSession establishedSession) throws HandshakeException {
 		if (sessionCache != null) {
@@ -260,6 +333,22 @@ public final class InMemoryConnectionStore implements ResumptionSupportingConnec
 		}
 	}
 
+	private synchronized void putConnectionId(final ConnectionId cid, final InetSocketAddress peer) throws HandshakeException {
+		Connection connection = connections.get(peer);
+		if (connection == null) {
+			return;
+		}
+		Connection existingConnection = get(cid);
+		if (existingConnection != null && existingConnection != connection) {
+			// the chance for this to happen is very small if connection IDs
+			// are long enough but we must not hijack the other peer's connection
+			throw new HandshakeException(
+					String.format("Connection ID [%s] is already in use", cid),
+					new AlertMessage(AlertMessage.AlertLevel.FATAL, AlertMessage.AlertDescription.INTERNAL_ERROR, peer));
+		}
+		connectionsByCid.put(cid, connection);
+	}
+
 	@Override
 	public void handshakeCompleted(final InetSocketAddress peer) {
 		// nothing to do
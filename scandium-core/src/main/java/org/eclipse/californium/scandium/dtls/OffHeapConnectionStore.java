@@ -0,0 +1,827 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache.Predicate;
+
+/**
+ * A <code>ConnectionStore</code> that keeps the state of idle DTLS sessions
+ * outside of the Java heap.
+ * <p>
+ * The store consists of two tiers:
+ * </p>
+ * <ul>
+ * <li>A <em>hot</em> tier of limited capacity holding fully fledged
+ * {@link Connection} objects of the peers that have been active most recently.</li>
+ * <li>A <em>parked</em> tier holding the serialized <em>current</em> state of
+ * established sessions (keys, epochs, sequence numbers and receive window, see
+ * {@link DTLSSession#encodeCurrentState(DatagramWriter)}) in fixed size
+ * slots of direct (off-heap) byte buffers.</li>
+ * </ul>
+ * <p>
+ * Once the hot tier's capacity is exhausted, the least recently used connection
+ * is moved to the parked tier. A parked connection is re-created from its serialized
+ * state when it is looked up again, e.g. because a record from the peer has arrived.
+ * Connections without an established session (i.e. with an ongoing initial handshake)
+ * are discarded when being moved out of the hot tier.
+ * </p>
+ * <p>
+ * A connection can be successfully added to the store if either the store's
+ * remaining capacity is greater than zero or the connection that has been parked
+ * least recently is <em>stale</em>, i.e. has been parked for at least the store's
+ * <em>connection expiration threshold</em> period. Parked connections that have become
+ * stale are also discarded when being looked up.
+ * </p>
+ * <p>
+ * Serialized sessions that do not fit into a slot (e.g. because of a peer identity
+ * based on a large X.509 certificate chain) are kept as a byte array on the heap.
+ * Slots are zeroed when being freed, so that keys do not linger in off-heap memory.
+ * </p>
+ * <p>
+ * Storing and reading to/from the store is thread safe. The state of a
+ * connection evicted from the hot tier is serialized after the store's lock
+ * has been released, because serializing requires the session's lock.
+ * </p>
+ */
+public final class OffHeapConnectionStore implements ResumptionSupportingConnectionStore, SessionListener, SessionNegotiationListener {
+
+	private static final Logger LOG = Logger.getLogger(OffHeapConnectionStore.class.getName());
+	private static final int DEFAULT_CAPACITY = 1000000;
+	private static final int DEFAULT_HOT_CAPACITY = 10000;
+	private static final long DEFAULT_EXPIRATION_THRESHOLD = 36 * 60 * 60; // 36h
+	private static final int DEFAULT_SLOT_SIZE = 256; // bytes
+	private static final int FLAG_RESUMPTION_REQUIRED = 0x01;
+
+	private final LeastRecentlyUsedCache<InetSocketAddress, Connection> connections;
+	// insertion order reflects the order in which connections have been parked
+	private final LinkedHashMap<InetSocketAddress, Integer> parkedConnections = new LinkedHashMap<>();
+	// connections evicted from the hot tier that have not been parked yet
+	private final LinkedHashMap<InetSocketAddress, Connection> evictedConnections = new LinkedHashMap<>();
+	private final Map<SessionId, InetSocketAddress> parkedAddressesBySessionId = new HashMap<>();
+	private final Map<ConnectionId, InetSocketAddress> addressesByCid = new HashMap<>();
+	private final Slab slab;
+	private final SessionCache sessionCache;
+	private final int capacity;
+	private final long threshold;
+
+	/**
+	 * Creates a store with a capacity of 1000000 connections of which the
+	 * 10000 most recently used are kept on the heap, a slot size of 256 bytes
+	 * and a connection expiration threshold of 36 hours.
+	 */
+	public OffHeapConnectionStore() {
+		this(DEFAULT_CAPACITY, DEFAULT_EXPIRATION_THRESHOLD, DEFAULT_HOT_CAPACITY);
+	}
+
+	/**
+	 * Creates a store based on given configuration parameters.
+	 *
+	 * @param capacity the maximum number of connections the store can manage
+	 * @param threshold the period of time (in seconds) after which a parked
+	 *            connection is considered stale and can be evicted from the store
+	 * @param hotCapacity the maximum number of connections to keep on the heap
+	 * @throws IllegalArgumentException if the hot capacity is not positive or
+	 *            greater than the capacity
+	 */
+	public OffHeapConnectionStore(final int capacity, final long threshold, final int hotCapacity) {
+		this(capacity, threshold, hotCapacity, DEFAULT_SLOT_SIZE, null);
+	}
+
+	/**
+	 * Creates a store based on given configuration parameters.
+	 *
+	 * @param capacity the maximum number of connections the store can manage
+	 * @param threshold the period of time (in seconds) after which a parked
+	 *            connection is considered stale and can be evicted from the store
+	 * @param hotCapacity the maximum number of connections to keep on the heap
+	 * @param slotSize the number of bytes of off-heap memory to use for each
+	 *            parked connection
+	 * @param sessionCache a second level cache to use for <em>current</em>
+	 *                     connection state of established DTLS sessions.
+	 * @throws IllegalArgumentException if the hot capacity is not positive or
+	 *            greater than the capacity or if the slot size is smaller than 64 bytes
+	 */
+	public OffHeapConnectionStore(final int capacity, final long threshold, final int hotCapacity,
+			final int slotSize, final SessionCache sessionCache) {
+		if (hotCapacity <= 0 || hotCapacity > capacity) {
+			throw new IllegalArgumentException("Hot capacity must be > 0 and <= capacity");
+		}
+		this.capacity = capacity;
+		this.threshold = threshold * 1000;
+		this.sessionCache = sessionCache;
+		this.slab = new Slab(slotSize);
+		// a threshold of zero makes the hot tier evict its least recently used entry
+		// whenever its capacity is exhausted
+		connections = new LeastRecentlyUsedCache<>(hotCapacity, 0);
+		connections.addEvictionListener(new LeastRecentlyUsedCache.EvictionListener<Connection>() {
+
+			@Override
+			public void onEviction(Connection connection) {
+				// invoked while holding the store's lock, the connection is
+				// parked by parkEvictedConnections() after releasing it
+				evictedConnections.put(connection.getPeerAddress(), connection);
+			}
+		});
+		LOG.log(Level.CONFIG,
+				"Created new OffHeapConnectionStore [capacity: {0}, hot capacity: {1}, slot size: {2} bytes, connection expiration threshold: {3}s]",
+				new Object[]{capacity, hotCapacity, slotSize, threshold});
+	}
+
+	@Override
+	public boolean put(final Connection connection) {
+
+		if (connection == null) {
+			return false;
+		}
+		try {
+			synchronized (this) {
+				InetSocketAddress peerAddress = connection.getPeerAddress();
+				if (connections.get(peerAddress) == null) {
+					Integer slot = parkedConnections.remove(peerAddress);
+					if (slot != null) {
+						// the new connection replaces the parked one
+						release(slot);
+					} else if (evictedConnections.remove(peerAddress) == null
+							&& remainingCapacity() <= 0 && !evictStaleParkedConnection()) {
+						// the new connection neither replaces an evicted one
+						return false;
+					}
+				}
+				return connections.put(peerAddress, connection);
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	@Override
+	public Connection find(final SessionId id) {
+
+		if (id == null) {
+			return null;
+		}
+		try {
+			Connection conFromLocalCache = findLocally(id);
+
+			if (sessionCache == null) {
+
+				return conFromLocalCache;
+
+			} else {
+
+				// make sure a stale session cannot be resumed
+				SessionTicket ticket = sessionCache.get(id);
+				if (ticket == null) {
+					// either a session with the given ID has never been established (on other nodes)
+					// or another node has removed the session from the cache, e.g. because it became
+					// stale
+
+					if (conFromLocalCache != null) {
+						// remove corresponding connection from this store
+						remove(conFromLocalCache.getPeerAddress());
+					}
+
+					return null;
+
+				} else if (conFromLocalCache == null) {
+					// this probably means that we are taking over the session from a failed node
+					return new Connection(ticket);
+					// connection will be put to first level cache as part of
+					// the abbreviated handshake
+				} else {
+					// resume connection found in local cache (i.e. this store)
+					return conFromLocalCache;
+				}
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	private synchronized Connection findLocally(final SessionId id) {
+
+		Predicate<Connection> hasSessionId = new Predicate<Connection>() {
+			@Override
+			public boolean accept(final Connection connection) {
+				DTLSSession session = connection.getEstablishedSession();
+				return session != null && id.equals(session.getSessionIdentifier());
+			}
+		};
+		Connection connection = connections.find(hasSessionId);
+		if (connection == null) {
+			for (Connection evictedConnection : evictedConnections.values()) {
+				if (hasSessionId.accept(evictedConnection)) {
+					return getConnection(evictedConnection.getPeerAddress());
+				}
+			}
+			InetSocketAddress peerAddress = parkedAddressesBySessionId.get(id);
+			if (peerAddress != null) {
+				Integer slot = parkedConnections.get(peerAddress);
+				if (slot != null && slab.hasSessionId(slot, id.getId())) {
+					return unpark(peerAddress);
+				}
+			}
+		}
+		return connection;
+	}
+
+	@Override
+	public synchronized void markAllAsResumptionRequired() {
+		for (Iterator<Connection> iterator = connections.values(); iterator.hasNext(); ) {
+			Connection c = iterator.next();
+			if (c != null){
+				c.setResumptionRequired(true);
+			}
+		}
+		for (Connection c : evictedConnections.values()) {
+			c.setResumptionRequired(true);
+		}
+		for (Integer slot : parkedConnections.values()) {
+			slab.setFlags(slot, FLAG_RESUMPTION_REQUIRED);
+		}
+	}
+
+	@Override
+	public synchronized int remainingCapacity() {
+		return capacity - connections.size() - evictedConnections.size() - parkedConnections.size();
+	}
+
+	/**
+	 * Gets the number of connections that are currently parked off-heap.
+	 *
+	 * @return the number of parked connections
+	 */
+	public synchronized int getNumberOfParkedConnections() {
+		return parkedConnections.size();
+	}
+
+	/**
+	 * Gets a connection by its peer address.
+	 * <p>
+	 * A parked connection is moved back to the hot tier.
+	 */
+	@Override
+	public Connection get(final InetSocketAddress peerAddress) {
+		try {
+			synchronized (this) {
+				return getConnection(peerAddress);
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	private Connection getConnection(final InetSocketAddress peerAddress) {
+		Connection connection = connections.get(peerAddress);
+		if (connection == null && peerAddress != null) {
+			connection = evictedConnections.remove(peerAddress);
+			if (connection != null) {
+				// not parked yet, simply move it back to the hot tier
+				connections.put(peerAddress, connection);
+			} else {
+				connection = unpark(peerAddress);
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Gets a connection by the connection ID the peer includes in its records.
+	 * <p>
+	 * A parked connection is moved back to the hot tier.
+	 */
+	@Override
+	public Connection get(final ConnectionId cid) {
+		try {
+			synchronized (this) {
+				return getConnection(cid);
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	private Connection getConnection(final ConnectionId cid) {
+		if (cid == null) {
+			return null;
+		}
+		InetSocketAddress peerAddress = addressesByCid.get(cid);
+		if (peerAddress == null) {
+			return null;
+		}
+		Connection connection = getConnection(peerAddress);
+		if (connection != null && connection.hasEstablishedSession()
+				&& cid.equals(connection.getEstablishedSession().getReadConnectionId())) {
+			return connection;
+		} else {
+			// connection has been removed or replaced in the meantime
+			addressesByCid.remove(cid);
+			return null;
+		}
+	}
+
+	@Override
+	public boolean update(final Connection connection, final InetSocketAddress newPeerAddress) {
+		if (connection == null || newPeerAddress == null) {
+			return false;
+		}
+		try {
+			synchronized (this) {
+				return updateConnection(connection, newPeerAddress);
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	private boolean updateConnection(final Connection connection, final InetSocketAddress newPeerAddress) {
+		InetSocketAddress oldPeerAddress = connection.getPeerAddress();
+		if (connections.get(oldPeerAddress) != connection) {
+			return false;
+		} else if (!newPeerAddress.equals(oldPeerAddress)) {
+			connections.remove(oldPeerAddress);
+			Connection previousConnection = connections.remove(newPeerAddress);
+			if (previousConnection != null) {
+				LOG.log(Level.FINE, "Removing connection for address [{0}] taken over by peer using connection ID",
+						newPeerAddress);
+				removeSessionFromCache(previousConnection.getEstablishedSession());
+			}
+			previousConnection = evictedConnections.remove(newPeerAddress);
+			if (previousConnection != null) {
+				LOG.log(Level.FINE, "Removing evicted connection for address [{0}] taken over by peer using connection ID",
+						newPeerAddress);
+				removeSessionFromCache(previousConnection.getEstablishedSession());
+			}
+			Integer slot = parkedConnections.remove(newPeerAddress);
+			if (slot != null) {
+				LOG.log(Level.FINE, "Removing parked connection for address [{0}] taken over by peer using connection ID",
+						newPeerAddress);
+				discard(slot);
+			}
+			connection.setPeerAddress(newPeerAddress);
+			connections.put(newPeerAddress, connection);
+			ConnectionId cid = connection.getEstablishedSession().getReadConnectionId();
+			if (cid != null) {
+				addressesByCid.put(cid, newPeerAddress);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized Connection remove(final InetSocketAddress peerAddress) {
+		Connection removedConnection = connections.remove(peerAddress);
+		if (removedConnection == null && peerAddress != null) {
+			removedConnection = evictedConnections.remove(peerAddress);
+		}
+		if (removedConnection == null && peerAddress != null) {
+			Integer slot = parkedConnections.remove(peerAddress);
+			if (slot != null) {
+				removedConnection = restore(peerAddress, slot);
+				release(slot);
+			}
+		}
+		if (removedConnection != null && removedConnection.hasEstablishedSession()) {
+			ConnectionId cid = removedConnection.getEstablishedSession().getReadConnectionId();
+			if (cid != null && peerAddress.equals(addressesByCid.get(cid))) {
+				addressesByCid.remove(cid);
+			}
+			removeSessionFromCache(removedConnection.getEstablishedSession());
+		}
+		return removedConnection;
+	}
+
+	@Override
+	public final synchronized void clear() {
+		connections.clear();
+		evictedConnections.clear();
+		parkedConnections.clear();
+		parkedAddressesBySessionId.clear();
+		addressesByCid.clear();
+		slab.clear();
+		// TODO: does it make sense to clear the SessionCache as well?
+	}
+
+	@Override
+	public void handshakeStarted(final Handshaker handshaker) throws HandshakeException {
+		// nothing to do
+	}
+
+	@Override
+	public void sessionNegotiated(final Handshaker handshaker, final DTLSSession session) throws HandshakeException {
+		// index the connection ID before the peer may use it
+		ConnectionId cid = session.getReadConnectionId();
+		if (cid != null) {
+			putConnectionId(cid, session.getPeer());
+		}
+	}
+
+	@Override
+	public void sessionEstablished(final Handshaker handshaker, final DTLSSession establishedSession) throws HandshakeException {
+		if (sessionCache != null) {
+			// put current connection state to second level cache
+			sessionCache.put(establishedSession);
+		}
+	}
+
+	private void putConnectionId(final ConnectionId cid, final InetSocketAddress peer) throws HandshakeException {
+		try {
+			synchronized (this) {
+				Connection connection = connections.get(peer);
+				if (connection == null) {
+					return;
+				}
+				Connection existingConnection = getConnection(cid);
+				if (existingConnection != null && existingConnection != connection) {
+					// the chance for this to happen is very small if connection IDs
+					// are long enough but we must not hijack the other peer's connection
+					throw new HandshakeException(
+							String.format("Connection ID [%s] is already in use", cid),
+							new AlertMessage(AlertMessage.AlertLevel.FATAL, AlertMessage.AlertDescription.INTERNAL_ERROR, peer));
+				}
+				addressesByCid.put(cid, peer);
+			}
+		} finally {
+			parkEvictedConnections();
+		}
+	}
+
+	@Override
+	public void handshakeCompleted(final InetSocketAddress peer) {
+		// nothing to do
+	}
+
+	/**
+	 * Moves the connections that have been evicted from the hot tier to the parked tier.
+	 * <p>
+	 * Serializing a session requires the session's lock. This method must therefore
+	 * not be invoked while holding the store's lock, because other threads acquire
+	 * the store's lock while holding a session's lock.
+	 * <p>
+	 * The session of a parked connection is invalidated while still holding its lock,
+	 * so that threads still referring to the (hot) session object cannot use any of
+	 * the sequence numbers the session re-created from the parked state will use.
+	 */
+	private void parkEvictedConnections() {
+		List<Connection> evicted;
+		synchronized (this) {
+			if (evictedConnections.isEmpty()) {
+				return;
+			}
+			evicted = new ArrayList<>(evictedConnections.values());
+		}
+		for (Connection connection : evicted) {
+			DTLSSession session = connection.getEstablishedSession();
+			if (session == null) {
+				synchronized (this) {
+					park(connection, null);
+				}
+			} else {
+				synchronized (session) {
+					byte[] state = encode(connection, session);
+					// acquiring the store's lock while holding the session's lock
+					// is in line with the other threads
+					synchronized (this) {
+						if (park(connection, state)) {
+							session.invalidate();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static byte[] encode(final Connection connection, final DTLSSession session) {
+		DatagramWriter writer = new DatagramWriter();
+		try {
+			session.encodeCurrentState(writer);
+			return writer.toByteArray();
+		} catch (IllegalStateException | IllegalArgumentException e) {
+			LOG.log(Level.WARNING, "Cannot park connection with [{0}]: {1}",
+					new Object[]{connection.getPeerAddress(), e.getMessage()});
+			return null;
+		}
+	}
+
+	/**
+	 * Moves a connection that has been evicted from the hot tier to the parked tier.
+	 *
+	 * @param connection the evicted connection
+	 * @param state the connection's serialized state or <code>null</code> if the
+	 *            connection cannot be parked
+	 * @return <code>true</code> if the connection has been parked
+	 */
+	private boolean park(final Connection connection, final byte[] state) {
+		InetSocketAddress peerAddress = connection.getPeerAddress();
+		if (evictedConnections.get(peerAddress) != connection) {
+			// the connection has been moved back to the hot tier, removed or
+			// parked by another thread in the meantime
+			return false;
+		}
+		evictedConnections.remove(peerAddress);
+		DTLSSession session = connection.getEstablishedSession();
+		if (state == null) {
+			LOG.log(Level.FINE, "Discarding evicted connection with [{0}]", peerAddress);
+			removeSessionFromCache(session);
+			return false;
+		}
+		int slot = slab.allocate();
+		slab.write(slot, System.currentTimeMillis(),
+				connection.isResumptionRequired() ? FLAG_RESUMPTION_REQUIRED : 0,
+				state);
+		parkedConnections.put(peerAddress, slot);
+		if (session.getSessionIdentifier() != null) {
+			parkedAddressesBySessionId.put(session.getSessionIdentifier(), peerAddress);
+		}
+		LOG.log(Level.FINEST, "Parked connection with [{0}] in slot {1}",
+				new Object[]{peerAddress, slot});
+		return true;
+	}
+
+	/**
+	 * Moves a parked connection back to the hot tier.
+	 *
+	 * @param peerAddress the address of the connection's peer
+	 * @return the connection or <code>null</code> if no connection is parked for the
+	 *         address or the parked connection has become stale
+	 */
+	private Connection unpark(final InetSocketAddress peerAddress) {
+		Integer slot = parkedConnections.remove(peerAddress);
+		if (slot == null) {
+			return null;
+		} else if (isStale(slot)) {
+			LOG.log(Level.FINE, "Discarding stale parked connection with [{0}]", peerAddress);
+			discard(slot);
+			return null;
+		}
+		Connection connection = restore(peerAddress, slot);
+		release(slot);
+		if (connection != null) {
+			connections.put(peerAddress, connection);
+		}
+		return connection;
+	}
+
+	/**
+	 * Re-creates a connection from its parked state.
+	 *
+	 * @param peerAddress the address of the connection's peer
+	 * @param slot the slot containing the connection's state
+	 * @return the connection or <code>null</code> if the state cannot be de-serialized
+	 */
+	private Connection restore(final InetSocketAddress peerAddress, final int slot) {
+		try {
+			DTLSSession session = DTLSSession.decodeCurrentState(peerAddress, new DatagramReader(slab.read(slot)));
+			Connection connection = new Connection(peerAddress);
+			connection.sessionEstablished(null, session);
+			connection.setResumptionRequired((slab.getFlags(slot) & FLAG_RESUMPTION_REQUIRED) != 0);
+			return connection;
+		} catch (GeneralSecurityException | IllegalArgumentException | HandshakeException e) {
+			LOG.log(Level.WARNING, "Cannot restore parked connection with [{0}]: {1}",
+					new Object[]{peerAddress, e.getMessage()});
+			return null;
+		}
+	}
+
+	private boolean evictStaleParkedConnection() {
+		Iterator<Map.Entry<InetSocketAddress, Integer>> iterator = parkedConnections.entrySet().iterator();
+		if (iterator.hasNext()) {
+			Map.Entry<InetSocketAddress, Integer> eldest = iterator.next();
+			if (isStale(eldest.getValue())) {
+				iterator.remove();
+				LOG.log(Level.FINE, "Evicting stale parked connection with [{0}]", eldest.getKey());
+				discard(eldest.getValue());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isStale(final int slot) {
+		return slab.getTimestamp(slot) <= System.currentTimeMillis() - threshold;
+	}
+
+	/**
+	 * Frees a slot and removes the session contained in it from the second level cache.
+	 */
+	private void discard(final int slot) {
+		if (sessionCache != null) {
+			byte[] sessionId = slab.getSessionId(slot);
+			if (sessionId != null) {
+				sessionCache.remove(new SessionId(sessionId));
+			}
+		}
+		release(slot);
+	}
+
+	/**
+	 * Frees a slot and removes the session contained in it from the session ID index.
+	 */
+	private void release(final int slot) {
+		byte[] sessionId = slab.getSessionId(slot);
+		if (sessionId != null) {
+			parkedAddressesBySessionId.remove(new SessionId(sessionId));
+		}
+		slab.free(slot);
+	}
+
+	private void removeSessionFromCache(final DTLSSession session) {
+		if (sessionCache != null && session != null && session.getSessionIdentifier() != null) {
+			sessionCache.remove(session.getSessionIdentifier());
+		}
+	}
+
+	/**
+	 * Fixed size slots of off-heap memory.
+	 * <p>
+	 * Each slot starts with a header consisting of the time the slot has been
+	 * written (8 bytes), flags (1 byte) and the length of the data (2 bytes).
+	 * Data not fitting into a slot is kept on the heap. Freed slots and overflow
+	 * data are overwritten with zeros.
+	 */
+	private static final class Slab {
+
+		private static final int SLOTS_PER_CHUNK = 4096;
+		private static final int TIMESTAMP_OFFSET = 0;
+		private static final int FLAGS_OFFSET = 8;
+		private static final int LENGTH_OFFSET = 9;
+		private static final int HEADER_LENGTH = 11;
+		private static final int OVERFLOW = 0xFFFF;
+		// offset of the session ID within the state serialized by DTLSSession
+		private static final int SESSION_ID_OFFSET = 1;
+
+		private final int slotSize;
+		private final byte[] zeros;
+		private final List<ByteBuffer> chunks = new ArrayList<>();
+		private final Map<Integer, byte[]> overflow = new HashMap<>();
+		private int[] freeSlots = new int[SLOTS_PER_CHUNK];
+		private int freeSlotCount;
+		private int unusedSlot;
+
+		private Slab(final int slotSize) {
+			if (slotSize < 64 || slotSize > OVERFLOW) {
+				throw new IllegalArgumentException("Slot size must be >= 64 bytes and < 64KB");
+			}
+			this.slotSize = slotSize;
+			this.zeros = new byte[slotSize];
+		}
+
+		private int allocate() {
+			if (freeSlotCount > 0) {
+				return freeSlots[--freeSlotCount];
+			}
+			if (unusedSlot == chunks.size() * SLOTS_PER_CHUNK) {
+				chunks.add(ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * slotSize));
+			}
+			return unusedSlot++;
+		}
+
+		private void free(final int slot) {
+			erase(overflow.remove(slot));
+			ByteBuffer buffer = chunk(slot).duplicate();
+			buffer.position(offset(slot));
+			buffer.put(zeros);
+			if (freeSlotCount == freeSlots.length) {
+				freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+			}
+			freeSlots[freeSlotCount++] = slot;
+		}
+
+		private void clear() {
+			for (byte[] data : overflow.values()) {
+				erase(data);
+			}
+			overflow.clear();
+			for (ByteBuffer chunk : chunks) {
+				ByteBuffer buffer = chunk.duplicate();
+				buffer.clear();
+				while (buffer.hasRemaining()) {
+					buffer.put(zeros);
+				}
+			}
+			freeSlotCount = 0;
+			unusedSlot = 0;
+		}
+
+		private static void erase(final byte[] data) {
+			if (data != null) {
+				Arrays.fill(data, (byte) 0);
+			}
+		}
+
+		private void write(final int slot, final long timestamp, final int flags, final byte[] data) {
+			ByteBuffer chunk = chunk(slot);
+			int offset = offset(slot);
+			chunk.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+			chunk.put(offset + FLAGS_OFFSET, (byte) flags);
+			if (data.length > slotSize - HEADER_LENGTH) {
+				chunk.putShort(offset + LENGTH_OFFSET, (short) OVERFLOW);
+				overflow.put(slot, data);
+			} else {
+				chunk.putShort(offset + LENGTH_OFFSET, (short) data.length);
+				ByteBuffer buffer = chunk.duplicate();
+				buffer.position(offset + HEADER_LENGTH);
+				buffer.put(data);
+			}
+		}
+
+		private byte[] read(final int slot) {
+			ByteBuffer chunk = chunk(slot);
+			int offset = offset(slot);
+			int length = chunk.getShort(offset + LENGTH_OFFSET) & 0xFFFF;
+			if (length == OVERFLOW) {
+				return overflow.get(slot);
+			}
+			byte[] data = new byte[length];
+			ByteBuffer buffer = chunk.duplicate();
+			buffer.position(offset + HEADER_LENGTH);
+			buffer.get(data);
+			return data;
+		}
+
+		private long getTimestamp(final int slot) {
+			return chunk(slot).getLong(offset(slot) + TIMESTAMP_OFFSET);
+		}
+
+		private int getFlags(final int slot) {
+			return chunk(slot).get(offset(slot) + FLAGS_OFFSET) & 0xFF;
+		}
+
+		private void setFlags(final int slot, final int flags) {
+			ByteBuffer chunk = chunk(slot);
+			int offset = offset(slot) + FLAGS_OFFSET;
+			chunk.put(offset, (byte) (chunk.get(offset) | flags));
+		}
+
+		/**
+		 * Checks whether the session ID of the state contained in a slot matches
+		 * a given ID without copying the state to the heap.
+		 */
+		private boolean hasSessionId(final int slot, final byte[] sessionId) {
+			ByteBuffer chunk = chunk(slot);
+			int offset = offset(slot);
+			if ((chunk.getShort(offset + LENGTH_OFFSET) & 0xFFFF) == OVERFLOW) {
+				return Arrays.equals(sessionId, getSessionId(overflow.get(slot)));
+			}
+			offset += HEADER_LENGTH + SESSION_ID_OFFSET;
+			if ((chunk.get(offset) & 0xFF) != sessionId.length) {
+				return false;
+			}
+			for (int i = 0; i < sessionId.length; i++) {
+				if (chunk.get(offset + 1 + i) != sessionId[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private byte[] getSessionId(final int slot) {
+			return getSessionId(read(slot));
+		}
+
+		private static byte[] getSessionId(final byte[] data) {
+			int length = data[SESSION_ID_OFFSET] & 0xFF;
+			if (length == 0) {
+				return null;
+			}
+			return Arrays.copyOfRange(data, SESSION_ID_OFFSET + 1, SESSION_ID_OFFSET + 1 + length);
+		}
+
+		private ByteBuffer chunk(final int slot) {
+			return chunks.get(slot / SLOTS_PER_CHUNK);
+		}
+
+		private int offset(final int slot) {
+			return (slot % SLOTS_PER_CHUNK) * slotSize;
+		}
+	}
+}
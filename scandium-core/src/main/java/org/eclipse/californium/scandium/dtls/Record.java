@@ -18,6 +18,7 @@
  *                   in client code
  *    Kai Hudalla (Bosch Software Innovations GmbH) - add initial support for Block Ciphers
  *    Achim Kraus (Bosch Software Innovations GmbH) - add isNewClientHello
+ *    Bosch Software Innovations GmbH - add support for tls12_cid records (RFC 9146)
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
@@ -35,8 +36,11 @@ import javax.crypto.spec.IvParameterSpec;
 
 import org.eclipse.californium.elements.util.DatagramReader;
 import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertDescription;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertLevel;
 import org.eclipse.californium.scandium.dtls.cipher.CCMBlockCipher;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.CipherType;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.KeyExchangeAlgorithm;
 import org.eclipse.californium.scandium.dtls.cipher.InvalidMacException;
 import org.eclipse.californium.scandium.util.ByteArrayUtils;
@@ -72,8 +76,30 @@ public class Record {
 	public static final int RECORD_HEADER_BITS = CONTENT_TYPE_BITS + VERSION_BITS + VERSION_BITS +
 			EPOCH_BITS + SEQUENCE_NUMBER_BITS + LENGTH_BITS;
 
+	/**
+	 * The length of the <em>DTLSCiphertext</em> header in bytes (13).
+	 */
+	public static final int RECORD_HEADER_BYTES = RECORD_HEADER_BITS / Byte.SIZE;
+
+	/**
+	 * The length of the explicit nonce prepended to AEAD ciphertext in bytes.
+	 */
+	private static final int AEAD_EXPLICIT_NONCE_LENGTH = 8;
+
+	/**
+	 * The length of the authentication tag appended to AEAD ciphertext in bytes.
+	 */
+	private static final int AEAD_AUTHENTICATION_TAG_LENGTH = 8;
+
 	private static final long MAX_SEQUENCE_NO = 281474976710655L; // 2^48 - 1
 
+	/**
+	 * The value of the <em>seq_num_placeholder</em> used in the additional data of
+	 * <em>tls12_cid</em> records, see
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-5">RFC 9146, Section 5</a>.
+	 */
+	private static final long SEQUENCE_NUMBER_PLACEHOLDER = 0xffffffffffffffffL;
+
 	// Members ////////////////////////////////////////////////////////
 
 	/** The higher-level protocol used to process the enclosed fragment */
@@ -109,6 +135,13 @@ public class Record {
 
 	private InetSocketAddress peerAddress;
 
+	/**
+	 * The connection ID contained in the record header. If not <code>null</code>,
+	 * the record uses the <em>tls12_cid</em> format defined in
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-4">RFC 9146, Section 4</a>.
+	 */
+	private ConnectionId connectionId;
+
 	// Constructors ///////////////////////////////////////////////////
 
 	/**
@@ -125,8 +158,26 @@ public class Record {
 	 */
 	Record(ContentType type, ProtocolVersion version, int epoch, long sequenceNumber, byte[] fragmentBytes,
 			InetSocketAddress peerAddress) {
+		this(type, version, epoch, sequenceNumber, null, fragmentBytes, peerAddress);
+	}
+
+	/**
+	 * Creates a record from a <em>DTLSCiphertext</em> struct received from the network
+	 * that (optionally) contains a connection ID.
+	 * 
+	 * @param type the content type
+	 * @param version the version
+	 * @param epoch the epoch
+	 * @param sequenceNumber the sequence number
+	 * @param connectionId the connection ID or <code>null</code> if the record does not
+	 *            use the <em>tls12_cid</em> format
+	 * @param fragmentBytes the encrypted data
+	 */
+	Record(ContentType type, ProtocolVersion version, int epoch, long sequenceNumber, ConnectionId connectionId,
+			byte[] fragmentBytes, InetSocketAddress peerAddress) {
 		this(type, epoch, sequenceNumber);
 		this.version = version;
+		this.connectionId = connectionId;
 		this.fragmentBytes = Arrays.copyOf(fragmentBytes, fragmentBytes.length);
 		this.length = fragmentBytes.length;
 		this.peerAddress = peerAddress;
@@ -211,22 +262,166 @@ public class Record {
 	 * @return a byte array containing the <em>DTLSCiphertext</em> structure
 	 */
 	public synchronized byte[] toByteArray() {
-		DatagramWriter writer = new DatagramWriter();
+		length = fragmentBytes.length;
+		int headerLength = getHeaderLength(connectionId);
+		byte[] result = new byte[headerLength + length];
+		writeHeader(result, 0, type, version, epoch, sequenceNumber, connectionId, length);
+		System.arraycopy(fragmentBytes, 0, result, headerLength, length);
+		return result;
+	}
 
-		writer.write(type.getCode(), CONTENT_TYPE_BITS);
+	/**
+	 * Encodes this record into its corresponding <em>DTLSCiphertext</em> structure
+	 * and writes it to a given buffer.
+	 * <p>
+	 * This method can be used to put multiple records into a single datagram
+	 * without copying each record's binary representation twice.
+	 * 
+	 * @param buffer the buffer to write the <em>DTLSCiphertext</em> structure to
+	 * @param offset the position in the buffer to start writing at
+	 * @return the number of bytes written, i.e. the length of the record header plus the fragment's length
+	 * @throws IndexOutOfBoundsException if the buffer is too small to hold the record
+	 */
+	public synchronized int writeTo(byte[] buffer, int offset) {
+		length = fragmentBytes.length;
+		int headerLength = getHeaderLength(connectionId);
+		if (offset < 0 || buffer.length - offset < headerLength + length) {
+			throw new IndexOutOfBoundsException("Buffer too small for record");
+		}
+		writeHeader(buffer, offset, type, version, epoch, sequenceNumber, connectionId, length);
+		System.arraycopy(fragmentBytes, 0, buffer, offset + headerLength, length);
+		return headerLength + length;
+	}
 
-		writer.write(version.getMajor(), VERSION_BITS);
-		writer.write(version.getMinor(), VERSION_BITS);
+	/**
+	 * Gets the maximum number of bytes required to hold an <em>APPLICATION_DATA</em> record
+	 * containing a given amount of application layer data encrypted under a session's
+	 * <em>current write state</em>.
+	 * 
+	 * @param plaintextLength the number of bytes of application layer data
+	 * @param session the session to determine the current write state from
+	 * @return the maximum length of the <em>DTLSCiphertext</em> structure including the
+	 *            record header
+	 * @see #writeApplicationRecord(byte[], DTLSSession, byte[], int)
+	 */
+	public static int getMaxApplicationRecordLength(int plaintextLength, DTLSSession session) {
+		int length = RECORD_HEADER_BYTES + plaintextLength + session.getWriteState().getMaxCiphertextExpansion();
+		ConnectionId cid = session.getWriteConnectionId();
+		if (cid != null) {
+			// connection ID in header and content type in DTLSInnerPlaintext
+			length += cid.length() + 1;
+		}
+		return length;
+	}
 
-		writer.write(epoch, EPOCH_BITS);
-		writer.writeLong(sequenceNumber, SEQUENCE_NUMBER_BITS);
+	/**
+	 * Encrypts application layer data into an <em>APPLICATION_DATA</em> record and writes
+	 * its <em>DTLSCiphertext</em> structure directly to a given buffer.
+	 * <p>
+	 * The first bytes written contain the record header (including the connection ID
+	 * if one has been negotiated with the peer),
+	 * the remaining ones contain the fragment encrypted according to the session's
+	 * <em>current write state</em>. In contrast to creating a <code>Record</code>
+	 * and invoking {@link #toByteArray()} on it, no intermediary
+	 * {@link ApplicationMessage} or fragment byte array is created when an AEAD
+	 * cipher is used, i.e. the ciphertext is written into the buffer straight away.
+	 * <p>
+	 * The record's epoch and sequence number are taken from the session.
+	 * 
+	 * @param data the application layer data to encrypt
+	 * @param session the session to determine the epoch, sequence number and current write state from
+	 * @param buffer the buffer to write the record to. The buffer should provide at least
+	 *            {@link #getMaxApplicationRecordLength(int, DTLSSession)} bytes starting at the given offset.
+	 * @param offset the position in the buffer to start writing at
+	 * @return the number of bytes written
+	 * @throws NullPointerException if any of the data, session or buffer is <code>null</code>
+	 * @throws IndexOutOfBoundsException if the buffer is too small to hold the record
+	 * @throws GeneralSecurityException if the data could not be encrypted, e.g.
+	 *            because the JVM does not support the negotiated cipher suite's cipher algorithm
+	 */
+	public static int writeApplicationRecord(byte[] data, DTLSSession session, byte[] buffer, int offset)
+			throws GeneralSecurityException {
+		if (data == null) {
+			throw new NullPointerException("Data must not be null");
+		} else if (session == null) {
+			throw new NullPointerException("Session must not be null");
+		} else if (buffer == null) {
+			throw new NullPointerException("Buffer must not be null");
+		}
+		int epoch = session.getWriteEpoch();
+		Record record = new Record(ContentType.APPLICATION_DATA, epoch, session.getSequenceNumber(epoch));
+		record.session = session;
+		byte[] plaintext = record.wrapConnectionIdPlaintext(data);
+		record.length = plaintext.length;
+		return record.encryptTo(plaintext, buffer, offset);
+	}
 
-		length = fragmentBytes.length;
-		writer.write(length, LENGTH_BITS);
+	/**
+	 * Gets the length of the record header.
+	 * 
+	 * @param connectionId the connection ID contained in the header or <code>null</code>
+	 * @return {@link #RECORD_HEADER_BYTES} plus the length of the connection ID
+	 */
+	private static int getHeaderLength(ConnectionId connectionId) {
+		return connectionId == null ? RECORD_HEADER_BYTES : RECORD_HEADER_BYTES + connectionId.length();
+	}
 
-		writer.writeBytes(fragmentBytes);
+	/**
+	 * Writes the record header fields of a <em>DTLSCiphertext</em> structure to a buffer.
+	 * <p>
+	 * If a connection ID is given, the header is written in <em>tls12_cid</em> format.
+	 */
+	private static void writeHeader(byte[] buffer, int offset, ContentType type, ProtocolVersion version,
+			int epoch, long sequenceNumber, ConnectionId connectionId, int length) {
+		buffer[offset] = (byte) (connectionId == null ? type.getCode() : ContentType.TLS12_CID.getCode());
+		buffer[offset + 1] = (byte) version.getMajor();
+		buffer[offset + 2] = (byte) version.getMinor();
+		buffer[offset + 3] = (byte) (epoch >>> 8);
+		buffer[offset + 4] = (byte) epoch;
+		for (int i = 0; i < 6; i++) {
+			buffer[offset + 5 + i] = (byte) (sequenceNumber >>> (8 * (5 - i)));
+		}
+		int lengthOffset = offset + 11;
+		if (connectionId != null) {
+			System.arraycopy(connectionId.getId(), 0, buffer, lengthOffset, connectionId.length());
+			lengthOffset += connectionId.length();
+		}
+		buffer[lengthOffset] = (byte) (length >>> 8);
+		buffer[lengthOffset + 1] = (byte) length;
+	}
 
-		return writer.toByteArray();
+	/**
+	 * Wraps the plaintext of an <em>APPLICATION_DATA</em> record into a
+	 * <em>DTLSInnerPlaintext</em> structure if the session's peer has chosen
+	 * a connection ID.
+	 * <p>
+	 * In this case the record's connection ID is set as a side effect.
+	 * 
+	 * @param plaintext the plaintext fragment
+	 * @return the <em>DTLSInnerPlaintext</em> or the given plaintext if no
+	 *            connection ID is used for the record
+	 */
+	private byte[] wrapConnectionIdPlaintext(byte[] plaintext) {
+		if (session == null || epoch == 0 || type != ContentType.APPLICATION_DATA) {
+			return plaintext;
+		}
+		ConnectionId cid = session.getWriteConnectionId();
+		if (cid == null) {
+			return plaintext;
+		}
+		connectionId = cid;
+		/*
+		 * struct {
+		 *     opaque content[length];
+		 *     ContentType real_type;
+		 *     uint8 zeros[length_of_padding];
+		 * } DTLSInnerPlaintext;
+		 * 
+		 * no padding is added
+		 */
+		byte[] innerPlaintext = Arrays.copyOf(plaintext, plaintext.length + 1);
+		innerPlaintext[plaintext.length] = (byte) type.getCode();
+		return innerPlaintext;
 	}
 
 	/**
@@ -234,6 +429,7 @@ public class Record {
 	 * 
 	 * The binary representation is expected to comply with the <em>DTLSCiphertext</em> structure
 	 * defined in <a href="http://tools.ietf.org/html/rfc6347#section-4.3.1">RFC6347, Section 4.3.1</a>.
+	 * Records using the <em>tls12_cid</em> format are discarded.
 	 * 
 	 * @param byteArray the raw binary representation containing one or more DTLSCiphertext strctures
 	 * @param peerAddress the IP address and port of the peer from which the bytes have been
@@ -242,6 +438,29 @@ public class Record {
 	 * @throws NullPointerException if either one of the byte array or peer address is <code>null</code>
 	 */
 	public static List<Record> fromByteArray(byte[] byteArray, InetSocketAddress peerAddress) {
+		return fromByteArray(byteArray, peerAddress, 0);
+	}
+
+	/**
+	 * Parses a sequence of <em>DTLSCiphertext</em> structures into <code>Record</code> instances.
+	 * 
+	 * The binary representation is expected to comply with the <em>DTLSCiphertext</em> structure
+	 * defined in <a href="http://tools.ietf.org/html/rfc6347#section-4.3.1">RFC6347, Section 4.3.1</a>
+	 * or the <em>tls12_cid</em> variant defined in
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-4">RFC 9146, Section 4</a>.
+	 * The length of the connection ID is not contained in the record itself. It is
+	 * determined by the receiver, i.e. all connection IDs chosen by the receiver are
+	 * expected to have the same length.
+	 * 
+	 * @param byteArray the raw binary representation containing one or more DTLSCiphertext strctures
+	 * @param peerAddress the IP address and port of the peer from which the bytes have been
+	 *           received
+	 * @param connectionIdLength the length of the connection IDs chosen by the receiver.
+	 *           If 0, records using the <em>tls12_cid</em> format are discarded.
+	 * @return the <code>Record</code> instances
+	 * @throws NullPointerException if either one of the byte array or peer address is <code>null</code>
+	 */
+	public static List<Record> fromByteArray(byte[] byteArray, InetSocketAddress peerAddress, int connectionIdLength) {
 		if (byteArray == null) {
 			throw new NullPointerException("Byte array must not be null");
 		} else if (peerAddress == null) {
@@ -267,6 +486,19 @@ public class Record {
 			int epoch = reader.read(EPOCH_BITS);
 			long sequenceNumber = reader.readLong(SEQUENCE_NUMBER_BITS);
 
+			ConnectionId connectionId = null;
+			if (type == ContentType.TLS12_CID.getCode()) {
+				if (connectionIdLength == 0) {
+					// without knowing the length of the CID we cannot parse any further records
+					LOGGER.log(Level.FINE, "Received DTLS record containing unexpected connection ID. Discarding ...");
+					return records;
+				} else if (reader.bitsLeft() < (connectionIdLength * Byte.SIZE) + LENGTH_BITS) {
+					LOGGER.log(Level.FINE, "Received truncated DTLS record(s). Discarding ...");
+					return records;
+				}
+				connectionId = new ConnectionId(reader.readBytes(connectionIdLength));
+			}
+
 			int length = reader.read(LENGTH_BITS);
 
 			if (reader.bitsLeft() < length) {
@@ -281,7 +513,7 @@ public class Record {
 			if (contentType == null) {
 				LOGGER.log(Level.FINE, "Received DTLS record of unsupported type [{0}]. Discarding ...", type);
 			} else {
-				records.add(new Record(contentType, version, epoch, sequenceNumber, fragmentBytes, peerAddress));
+				records.add(new Record(contentType, version, epoch, sequenceNumber, connectionId, fragmentBytes, peerAddress));
 			}
 		}
 
@@ -336,6 +568,57 @@ public class Record {
 		return encryptedFragment;
 	}
 
+	/**
+	 * Encrypts a TLSPlaintext.fragment according to the <em>current</em> DTLS connection state
+	 * and writes the resulting <em>DTLSCiphertext</em> structure, including the record header,
+	 * to a buffer.
+	 * 
+	 * @param plaintextFragment
+	 *            the TLSPlaintext.fragment to encrypt
+	 * @param buffer the buffer to write to
+	 * @param offset the position in the buffer to start writing at
+	 * @return the number of bytes written
+	 * @throws GeneralSecurityException if the plaintext could not be encrypted, e.g.
+	 *            because the JVM does not support the negotiated cipher suite's cipher algorithm
+	 */
+	private int encryptTo(byte[] plaintextFragment, byte[] buffer, int offset) throws GeneralSecurityException {
+
+		int headerLength = getHeaderLength(connectionId);
+		int fragmentOffset = offset + headerLength;
+		int fragmentLength;
+
+		CipherSuite cipherSuite = session.getWriteState().getCipherSuite();
+		LOGGER.log(Level.FINEST, "Encrypting record fragment using current write state\n{0}", session.getWriteState());
+
+		if (cipherSuite.getCipherType() == CipherType.AEAD) {
+			if (buffer.length - fragmentOffset < AEAD_EXPLICIT_NONCE_LENGTH) {
+				throw new IndexOutOfBoundsException("Buffer too small for record");
+			}
+			/*
+			 * See encryptAEAD(byte[]), the explicit nonce is written in front
+			 * of the ciphertext as specified in
+			 * http://tools.ietf.org/html/rfc5246#section-6.2.3.3
+			 */
+			byte[] explicitNonce = generateExplicitNonce();
+			System.arraycopy(explicitNonce, 0, buffer, fragmentOffset, AEAD_EXPLICIT_NONCE_LENGTH);
+			byte[] nonce = getNonce(session.getWriteState().getIv().getIV(), explicitNonce);
+			byte[] key = session.getWriteState().getEncryptionKey().getEncoded();
+			byte[] additionalData = generateAdditionalData(plaintextFragment.length);
+			fragmentLength = AEAD_EXPLICIT_NONCE_LENGTH + CCMBlockCipher.encrypt(key, nonce, additionalData,
+					plaintextFragment, AEAD_AUTHENTICATION_TAG_LENGTH, buffer, fragmentOffset + AEAD_EXPLICIT_NONCE_LENGTH);
+		} else {
+			byte[] ciphertextFragment = encryptFragment(plaintextFragment);
+			fragmentLength = ciphertextFragment.length;
+			if (buffer.length - fragmentOffset < fragmentLength) {
+				throw new IndexOutOfBoundsException("Buffer too small for record");
+			}
+			System.arraycopy(ciphertextFragment, 0, buffer, fragmentOffset, fragmentLength);
+		}
+
+		writeHeader(buffer, offset, type, version, epoch, sequenceNumber, connectionId, fragmentLength);
+		return headerLength + fragmentLength;
+	}
+
 	/**
 	 * Decrypts a TLSCiphertext.fragment according to the <em>current</em> DTLS connection state.
 	 * 
@@ -557,7 +840,7 @@ public class Record {
 		byte[] key = session.getWriteState().getEncryptionKey().getEncoded();
 		byte[] additionalData = generateAdditionalData(byteArray.length);
 
-		byte[] encryptedFragment = CCMBlockCipher.encrypt(key, nonce, additionalData, byteArray, 8);
+		byte[] encryptedFragment = CCMBlockCipher.encrypt(key, nonce, additionalData, byteArray, AEAD_AUTHENTICATION_TAG_LENGTH);
 
 		/*
 		 * Prepend the explicit nonce as specified in
@@ -681,12 +964,36 @@ public class Record {
 	 * </pre>
 	 * 
 	 * where "+" denotes concatenation.
+	 * <p>
+	 * For records containing a connection ID the structure defined in
+	 * <a href="https://tools.ietf.org/html/rfc9146#section-5">RFC 9146, Section 5</a>
+	 * is used instead:
+	 * 
+	 * <pre>
+	 * additional_data = seq_num_placeholder + tls12_cid + cid_length +
+	 * tls12_cid + DTLSCiphertext.version + epoch + sequence_number +
+	 * cid + length_of_DTLSInnerPlaintext;
+	 * </pre>
 	 * 
 	 * @return the additional authentication data.
 	 */
 	private byte[] generateAdditionalData(int length) {
 		DatagramWriter writer = new DatagramWriter();
-		
+
+		if (connectionId != null) {
+			writer.writeLong(SEQUENCE_NUMBER_PLACEHOLDER, 64);
+			writer.write(ContentType.TLS12_CID.getCode(), CONTENT_TYPE_BITS);
+			writer.write(connectionId.length(), Byte.SIZE);
+			writer.write(ContentType.TLS12_CID.getCode(), CONTENT_TYPE_BITS);
+			writer.write(version.getMajor(), VERSION_BITS);
+			writer.write(version.getMinor(), VERSION_BITS);
+			writer.write(epoch, EPOCH_BITS);
+			writer.writeLong(sequenceNumber, SEQUENCE_NUMBER_BITS);
+			writer.writeBytes(connectionId.getId());
+			writer.write(length, LENGTH_BITS);
+			return writer.toByteArray();
+		}
+
 		writer.write(epoch, EPOCH_BITS);
 		writer.writeLong(sequenceNumber, SEQUENCE_NUMBER_BITS);
 
@@ -735,6 +1042,16 @@ public class Record {
 		return sequenceNumber;
 	}
 
+	/**
+	 * Gets the connection ID contained in this record's header.
+	 * 
+	 * @return the connection ID or <code>null</code> if this record does not use
+	 *         the <em>tls12_cid</em> format
+	 */
+	public ConnectionId getConnectionId() {
+		return connectionId;
+	}
+
 	/**
 	 * Sets the record's sequence number.
 	 * 
@@ -754,7 +1071,7 @@ public class Record {
 		}
 		this.sequenceNumber = sequenceNumber;
 		if (session != null && session.getWriteState() != null && epoch > 0) {
-			fragmentBytes = encryptFragment(fragment.toByteArray());
+			fragmentBytes = encryptFragment(wrapConnectionIdPlaintext(fragment.toByteArray()));
 		}
 	}
 
@@ -763,7 +1080,7 @@ public class Record {
 	 * <p>
 	 * The overall length of this record's <em>DTLSCiphertext</em>
 	 * representation is thus <code>Record.length</code> + 13 (DTLS record headers)
-	 * bytes.
+	 * bytes (plus the length of the connection ID, if any).
 	 * 
 	 * @return the fragment length excluding record headers
 	 */
@@ -855,6 +1172,10 @@ public class Record {
 				fragment = decryptHandshakeMessage(currentReadState);
 				break;
 
+			case TLS12_CID:
+				fragment = decryptConnectionIdRecord(currentReadState);
+				break;
+
 			default:
 				LOGGER.log(Level.WARNING, "Cannot decrypt message of unsupported type [{0}]", type);
 			}
@@ -880,6 +1201,31 @@ public class Record {
 		return ApplicationMessage.fromByteArray(decryptedMessage, getPeerAddress());
 	}
 
+	/**
+	 * Decrypts a <em>tls12_cid</em> record and parses the contained <em>DTLSInnerPlaintext</em>.
+	 * <p>
+	 * Only <em>APPLICATION_DATA</em> is supported as the inner content type. On success,
+	 * this record's type is set to the inner content type.
+	 */
+	private DTLSMessage decryptConnectionIdRecord(DTLSConnectionState currentReadState) throws GeneralSecurityException, HandshakeException {
+		// http://tools.ietf.org/html/rfc9146#section-4:
+		// "the padding is removed by scanning from the end of the DTLSInnerPlaintext
+		//  toward the beginning for the first non-zero octet"
+		byte[] innerPlaintext = decryptFragment(fragmentBytes, currentReadState);
+		int index = innerPlaintext.length - 1;
+		while (index >= 0 && innerPlaintext[index] == 0) {
+			index--;
+		}
+		ContentType realType = index < 0 ? null : ContentType.getTypeByValue(innerPlaintext[index] & 0xff);
+		if (realType != ContentType.APPLICATION_DATA) {
+			throw new HandshakeException(
+					String.format("Received unsupported inner content type [%s] in record with connection ID", realType),
+					new AlertMessage(AlertLevel.FATAL, AlertDescription.UNEXPECTED_MESSAGE, getPeerAddress()));
+		}
+		type = realType;
+		return ApplicationMessage.fromByteArray(Arrays.copyOf(innerPlaintext, index), getPeerAddress());
+	}
+
 	private DTLSMessage decryptChangeCipherSpec(DTLSConnectionState currentReadState) throws GeneralSecurityException, HandshakeException {
 		// http://tools.ietf.org/html/rfc5246#section-7.1:
 		// "is encrypted and compressed under the current (not the pending)
@@ -935,7 +1281,7 @@ public class Record {
 		if (fragmentBytes == null) {
 			// serialize fragment and if necessary encrypt byte array
 
-			byte[] byteArray = fragment.toByteArray();
+			byte[] byteArray = wrapConnectionIdPlaintext(fragment.toByteArray());
 			// the current length of the unprotected message
 			// this value is needed to generate the additional data when using AEAD
 			length = byteArray.length;
@@ -967,6 +1313,9 @@ public class Record {
 		sb.append(System.lineSeparator()).append("Version: ").append(version.getMajor()).append(", ").append(version.getMinor());
 		sb.append(System.lineSeparator()).append("Epoch: ").append(epoch);
 		sb.append(System.lineSeparator()).append("Sequence Number: ").append(sequenceNumber);
+		if (connectionId != null) {
+			sb.append(System.lineSeparator()).append("Connection ID: ").append(connectionId);
+		}
 		sb.append(System.lineSeparator()).append("Length: ").append(length);
 		sb.append(System.lineSeparator()).append("Fragment:");
 		if (fragment != null) {
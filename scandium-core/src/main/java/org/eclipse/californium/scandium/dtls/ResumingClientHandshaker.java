@@ -170,6 +170,7 @@ public class ResumingClientHandshaker extends ClientHandshaker {
 				} else {
 					this.serverHello = serverHello;
 					serverRandom = serverHello.getRandom();
+					receivedConnectionIdExtension(serverHello);
 				}
 				break;
 
@@ -276,6 +277,7 @@ public class ResumingClientHandshaker extends ClientHandshaker {
 					"Indicating max. fragment length [{0}] to server [{1}]",
 					new Object[]{maxFragmentLengthCode, getPeerAddress()});
 		}
+		addConnectionIdExtension(message);
 
 		state = message.getMessageType().getCode();
 		clientHello = message;
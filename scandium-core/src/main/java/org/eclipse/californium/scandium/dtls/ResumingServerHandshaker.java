@@ -151,8 +151,12 @@ public class ResumingServerHandshaker extends ServerHandshaker {
 			clientRandom = clientHello.getRandom();
 			serverRandom = new Random(new SecureRandom());
 
+			HelloExtensions serverHelloExtensions = new HelloExtensions();
+			negotiateConnectionId(clientHello, serverHelloExtensions);
+
 			ServerHello serverHello = new ServerHello(clientHello.getClientVersion(), serverRandom, session.getSessionIdentifier(),
-					session.getCipherSuite(), session.getCompressionMethod(), null, clientHello.getPeer());
+					session.getCipherSuite(), session.getCompressionMethod(),
+					serverHelloExtensions.isEmpty() ? null : serverHelloExtensions, clientHello.getPeer());
 			flight.addMessage(wrapMessage(serverHello));
 			md.update(serverHello.toByteArray());
 
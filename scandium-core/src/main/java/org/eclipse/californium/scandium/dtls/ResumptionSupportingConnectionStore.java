@@ -43,6 +43,31 @@ public interface ResumptionSupportingConnectionStore {
 	 */
 	Connection find(SessionId id);
 
+	/**
+	 * Gets a connection by the connection ID the peer includes in the records
+	 * it sends to us.
+	 * 
+	 * @param cid the connection ID
+	 * @return the matching connection or <code>null</code> if
+	 *     no connection with an established session using the given connection ID exists
+	 */
+	Connection get(ConnectionId cid);
+
+	/**
+	 * Updates the address of a connection's peer.
+	 * <p>
+	 * This method is invoked once an authenticated record containing the connection's
+	 * connection ID has been received from a new address. After this method returns,
+	 * the connection can be looked up by means of its new address only.
+	 * Any other connection existing for the new address is removed from the store.
+	 * 
+	 * @param connection the connection to update
+	 * @param newPeerAddress the peer's new address
+	 * @return <code>true</code> if the connection has been updated, <code>false</code>
+	 *     if the connection is not (or no longer) contained in the store
+	 */
+	boolean update(Connection connection, InetSocketAddress newPeerAddress);
+
 	/**
 	 * Removes a connection from the store.
 	 * 
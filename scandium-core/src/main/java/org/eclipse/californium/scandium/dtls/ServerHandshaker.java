@@ -34,6 +34,7 @@
  *    Achim Kraus (Bosch Software Innovations GmbH) - use isSendRawKey also for 
  *                                                    supportedClientCertificateTypes
  *    Ludwig Seitz (RISE SICS) - Updated calls to verifyCertificate() after refactoring                                                   
+ *    Bosch Software Innovations GmbH - look up PSK and check client RPK asynchronously
  ******************************************************************************/
 package org.eclipse.californium.scandium.dtls;
 
@@ -60,7 +61,9 @@ import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
 import org.eclipse.californium.scandium.dtls.cipher.CipherSuite.KeyExchangeAlgorithm;
 import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography;
 import org.eclipse.californium.scandium.dtls.cipher.ECDHECryptography.SupportedGroup;
+import org.eclipse.californium.scandium.dtls.pskstore.AsyncPskStore;
 import org.eclipse.californium.scandium.dtls.pskstore.PskStore;
+import org.eclipse.californium.scandium.dtls.rpkstore.AsyncTrustedRpkStore;
 import org.eclipse.californium.scandium.util.ByteArrayUtils;
 import org.eclipse.californium.scandium.util.ServerNames;
 
@@ -129,6 +132,15 @@ public class ServerHandshaker extends Handshaker {
 	/** Used to retrieve pre-shared-key from a given client identity */
 	protected final PskStore pskStore;
 
+	/** Used to asynchronously retrieve the pre-shared-key of a client identity. Optional. */
+	private final AsyncPskStore asyncPskStore;
+
+	/** Used to asynchronously check the raw public key of a client. Optional. */
+	private final AsyncTrustedRpkStore asyncRpkStore;
+
+	/** The length of the connection IDs chosen by this server, <code>null</code> if not supported */
+	private final Integer connectionIdLength;
+
 	// Constructors ///////////////////////////////////////////////////
 
 	/**
@@ -189,8 +201,11 @@ public class ServerHandshaker extends Handshaker {
 		        config.getRpkTrustStore());
 
 		this.supportedCipherSuites = Arrays.asList(config.getSupportedCipherSuites());
+		this.connectionIdLength = config.getConnectionIdLength();
 
 		this.pskStore = config.getPskStore();
+		this.asyncPskStore = config.getAsyncPskStore();
+		this.asyncRpkStore = config.getAsyncRpkTrustStore();
 
 		this.privateKey = config.getPrivateKey();
 		this.certificateChain = config.getCertificateChain();
@@ -266,6 +281,11 @@ public class ServerHandshaker extends Handshaker {
 				break;
 
 			case CERTIFICATE:
+				if (isClientRawPublicKeyCheckedAsynchronously((CertificateMessage) handshakeMsg)) {
+					requestClientCertificateCheck((CertificateMessage) handshakeMsg);
+					// message sequence number is incremented when handshake is resumed
+					return;
+				}
 				receivedClientCertificate((CertificateMessage) handshakeMsg);
 				break;
 
@@ -273,18 +293,20 @@ public class ServerHandshaker extends Handshaker {
 				byte[] premasterSecret;
 				switch (getKeyExchangeAlgorithm()) {
 				case PSK:
+					if (asyncPskStore != null) {
+						requestPreSharedKey((PSKClientKeyExchange) handshakeMsg);
+						// message sequence number is incremented when handshake is resumed
+						return;
+					}
 					premasterSecret = receivedClientKeyExchange((PSKClientKeyExchange) handshakeMsg);
-					generateKeys(premasterSecret);
 					break;
 
 				case EC_DIFFIE_HELLMAN:
 					premasterSecret = receivedClientKeyExchange((ECDHClientKeyExchange) handshakeMsg);
-					generateKeys(premasterSecret);
 					break;
 
 				case NULL:
 					premasterSecret = receivedClientKeyExchange((NULLClientKeyExchange) handshakeMsg);
-					generateKeys(premasterSecret);
 					break;
 
 				default:
@@ -292,11 +314,7 @@ public class ServerHandshaker extends Handshaker {
 							String.format("Unsupported key exchange algorithm %s", getKeyExchangeAlgorithm().name()),
 							new AlertMessage(AlertLevel.FATAL, AlertDescription.HANDSHAKE_FAILURE, handshakeMsg.getPeer()));
 				}
-				handshakeMessages = ByteArrayUtils.concatenate(handshakeMessages, clientKeyExchange.getRawMessage());
-
-				if (!clientAuthenticationRequired || getKeyExchangeAlgorithm() != KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN) {
-					expectChangeCipherSpecMessage();
-				}
+				processedClientKeyExchange(premasterSecret);
 				break;
 
 			case CERTIFICATE_VERIFY:
@@ -348,12 +366,68 @@ public class ServerHandshaker extends Handshaker {
 
 		clientCertificate = message;
 		verifyCertificate(clientCertificate);
+		processedClientCertificate();
+	}
+
+	private void processedClientCertificate() {
 		clientPublicKey = clientCertificate.getPublicKey();
-		peerCertPath = message.getCertificateChain();
+		peerCertPath = clientCertificate.getCertificateChain();
 		// TODO why don't we also update the MessageDigest at this point?
 		handshakeMessages = ByteArrayUtils.concatenate(handshakeMessages, clientCertificate.getRawMessage());
 	}
 
+	private boolean isClientRawPublicKeyCheckedAsynchronously(final CertificateMessage message) {
+		return asyncRpkStore != null && message.getCertificateChain() == null && message.getPublicKey() != null
+				&& (clientCertificate == null || clientCertificate.getMessageSeq() != message.getMessageSeq());
+	}
+
+	/**
+	 * Suspends the handshake until the asynchronous trust store has checked
+	 * the raw public key contained in the client's certificate message.
+	 * 
+	 * @param message the client's {@link CertificateMessage}.
+	 */
+	private void requestClientCertificateCheck(final CertificateMessage message) {
+		clientCertificate = message;
+		final RawPublicKeyIdentity rpk = new RawPublicKeyIdentity(message.getPublicKey());
+		suspend();
+		asyncRpkStore.isTrusted(rpk, new AsyncTrustedRpkStore.TrustCallback() {
+
+			@Override
+			public void onResult(final boolean trusted) {
+				resume(new HandshakeStep() {
+
+					@Override
+					public void execute() throws HandshakeException {
+						if (!trusted) {
+							LOGGER.fine("Certificate validation failed: Raw public key is not trusted");
+							AlertMessage alert = new AlertMessage(AlertLevel.FATAL, AlertDescription.BAD_CERTIFICATE,
+									session.getPeer());
+							throw new HandshakeException("Raw public key is not trusted", alert);
+						}
+						processedClientCertificate();
+						incrementNextReceiveSeq();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Derives the session keys from the premaster secret after the client's
+	 * key exchange message has been processed.
+	 * 
+	 * @param premasterSecret the premaster secret
+	 */
+	private void processedClientKeyExchange(final byte[] premasterSecret) {
+		generateKeys(premasterSecret);
+		handshakeMessages = ByteArrayUtils.concatenate(handshakeMessages, clientKeyExchange.getRawMessage());
+
+		if (!clientAuthenticationRequired || getKeyExchangeAlgorithm() != KeyExchangeAlgorithm.EC_DIFFIE_HELLMAN) {
+			expectChangeCipherSpecMessage();
+		}
+	}
+
 	/**
 	 * Verifies the client's CertificateVerify message.
 	 * <p>
@@ -453,6 +527,12 @@ public class ServerHandshaker extends Handshaker {
 		// store, if we need to retransmit this flight, see
 		// http://tools.ietf.org/html/rfc6347#section-4.2.4
 		lastFlight = flight;
+		// the client may start sending application data as soon as it has
+		// received our FINISHED message, so the session needs to be available
+		// (e.g. indexed by connection ID) before the flight is sent, while
+		// messages deferred until the session is established must not be sent
+		// before our FINISHED message
+		sessionNegotiated();
 		recordLayer.sendFlight(flight);
 		sessionEstablished();
 	}
@@ -546,6 +626,8 @@ public class ServerHandshaker extends Handshaker {
 					clientHello.getPeer());
 		}
 
+		negotiateConnectionId(clientHello, serverHelloExtensions);
+
 		ServerHello serverHello = new ServerHello(serverVersion, serverRandom, sessionId,
 				session.getCipherSuite(), session.getCompressionMethod(), serverHelloExtensions, session.getPeer());
 		flight.addMessage(wrapMessage(serverHello));
@@ -555,6 +637,33 @@ public class ServerHandshaker extends Handshaker {
 		handshakeMessages = ByteArrayUtils.concatenate(handshakeMessages, serverHello.toByteArray());
 	}
 
+	/**
+	 * Negotiates the connection IDs to use with the client if the client has
+	 * included a <em>connection_id</em> extension in its hello message and
+	 * this server supports the use of connection IDs.
+	 * 
+	 * @param clientHello the client's hello message
+	 * @param serverHelloExtensions the extensions to include in the SERVER_HELLO
+	 */
+	protected void negotiateConnectionId(final ClientHello clientHello, final HelloExtensions serverHelloExtensions) {
+		ConnectionIdExtension connectionIdExt = clientHello.getConnectionIdExtension();
+		if (connectionIdExt != null && connectionIdLength != null) {
+			ConnectionId connectionId = ConnectionId.newConnectionId(connectionIdLength);
+			if (!connectionId.isEmpty()) {
+				session.setReadConnectionId(connectionId);
+			}
+			ConnectionId clientConnectionId = connectionIdExt.getConnectionId();
+			if (!clientConnectionId.isEmpty()) {
+				session.setWriteConnectionId(clientConnectionId);
+			}
+			serverHelloExtensions.addExtension(new ConnectionIdExtension(connectionId));
+			LOGGER.log(
+					Level.FINE,
+					"Negotiated connection IDs [read: {0}, write: {1}] with peer [{2}]",
+					new Object[]{connectionId, clientConnectionId, clientHello.getPeer()});
+		}
+	}
+
 	private void createCertificateMessage(final ClientHello clientHello, final DTLSFlight flight) throws HandshakeException {
 
 		CertificateMessage certificateMessage = null;
@@ -674,6 +783,42 @@ public class ServerHandshaker extends Handshaker {
 			psk = pskStore.getKey(getIndicatedServerNames(), identity);
 		}
 
+		return generatePremasterSecretForIdentity(identity, psk);
+	}
+
+	/**
+	 * Suspends the handshake until the asynchronous PSK store has looked up
+	 * the key for the identity contained in the client's key exchange message.
+	 * 
+	 * @param message
+	 *            the client's key exchange message.
+	 */
+	private void requestPreSharedKey(final PSKClientKeyExchange message) {
+
+		clientKeyExchange = message;
+		final String identity = message.getIdentity();
+
+		LOGGER.log(Level.FINER, "Client [{0}] uses PSK identity [{1}], looking up key asynchronously",
+				new Object[]{getPeerAddress(), identity});
+
+		suspend();
+		asyncPskStore.getKey(getIndicatedServerNames(), identity, new AsyncPskStore.PskCallback() {
+
+			@Override
+			public void onResult(final byte[] psk) {
+				resume(new HandshakeStep() {
+
+					@Override
+					public void execute() throws HandshakeException {
+						processedClientKeyExchange(generatePremasterSecretForIdentity(identity, psk));
+						incrementNextReceiveSeq();
+					}
+				});
+			}
+		});
+	}
+
+	private byte[] generatePremasterSecretForIdentity(final String identity, final byte[] psk) throws HandshakeException {
 		if (psk == null) {
 			throw new HandshakeException(
 					String.format("Cannot authenticate client, identity [%s] is unknown", identity),
@@ -356,6 +356,20 @@ public final class ServerHello extends HandshakeMessage {
 		return extensions != null && extensions.getExtension(ExtensionType.SERVER_NAME) != null;
 	}
 
+	/**
+	 * Gets the <em>Connection ID</em> extension data from this message.
+	 * 
+	 * @return the extension data or <code>null</code> if this message does not contain the
+	 *          <em>Connection ID</em> extension.
+	 */
+	ConnectionIdExtension getConnectionIdExtension() {
+		if (extensions != null) {
+			return (ConnectionIdExtension) extensions.getExtension(ExtensionType.CONNECTION_ID);
+		} else {
+			return null;
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
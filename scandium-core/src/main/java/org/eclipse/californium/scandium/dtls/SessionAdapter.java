@@ -20,8 +20,10 @@ import java.net.InetSocketAddress;
 /**
  * An abstract adapter class for listening handshake. The methods in this
  * class are empty. This class exists as convenience for creating SessionListener objects.
+ * It also implements {@link HandshakeFailureListener}, so subclasses can simply
+ * override {@link #handshakeFailed(Handshaker, Throwable)}.
  */
-public class SessionAdapter implements SessionListener{
+public class SessionAdapter implements SessionListener, HandshakeFailureListener {
 
 	@Override
 	public void handshakeStarted(Handshaker handshaker) throws HandshakeException {
@@ -34,4 +36,8 @@ public class SessionAdapter implements SessionListener{
 	@Override
 	public void handshakeCompleted(InetSocketAddress peer) {
 	}
+
+	@Override
+	public void handshakeFailed(Handshaker handshaker, Throwable error) {
+	}
 }
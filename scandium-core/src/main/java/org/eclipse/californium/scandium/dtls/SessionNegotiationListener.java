@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+/**
+ * A listener for sessions that have been negotiated but are not yet established.
+ * <p>
+ * A {@link SessionListener} added to a {@link Handshaker} is notified about
+ * such sessions if it also implements this interface.
+ */
+public interface SessionNegotiationListener {
+
+	/**
+	 * Indicates that the parameters of a session have been negotiated with a peer.
+	 * <p>
+	 * The handshaker invokes this method <em>before</em> sending its last flight,
+	 * because the peer may start to use the session as soon as it has received that
+	 * flight, e.g. by sending records containing the negotiated connection ID.
+	 * Listeners must therefore not send any messages using the session yet but
+	 * should wait for {@link SessionListener#sessionEstablished(Handshaker, DTLSSession)}
+	 * instead, which is invoked after the flight has been sent.
+	 * <p>
+	 * This method is invoked at most once for a handshake, in any case before
+	 * {@link SessionListener#sessionEstablished(Handshaker, DTLSSession)}.
+	 *
+	 * @param handshaker the handshaker that has negotiated the session
+	 * @param session the negotiated session
+	 * @throws HandshakeException if the session cannot be used, e.g. because the
+	 *            negotiated connection ID is already in use
+	 */
+	void sessionNegotiated(Handshaker handshaker, DTLSSession session) throws HandshakeException;
+}
@@ -153,7 +153,48 @@ public final class CCMBlockCipher {
 	 */
 	public static byte[] encrypt(byte[] key, byte[] nonce, byte[] a, byte[] m, int numAuthenticationBytes)
 		throws GeneralSecurityException {
-		long lengthM = m.length;
+		byte[] c = new byte[m.length + numAuthenticationBytes];
+		encrypt(key, nonce, a, m, numAuthenticationBytes, c, 0);
+		return c;
+	}
+
+	/**
+	 * Encrypts and authenticates a message directly into a given buffer.
+	 * <p>
+	 * This method produces the same output as
+	 * {@link #encrypt(byte[], byte[], byte[], byte[], int)} but writes the
+	 * encrypted message followed by the encrypted authentication value
+	 * to the given buffer instead of allocating a new array for it.
+	 * See <a href="http://tools.ietf.org/html/rfc3610#section-2.2">RFC 3610</a>
+	 * for details.
+	 * 
+	 * @param key
+	 *            the encryption key K.
+	 * @param nonce
+	 *            the nonce N.
+	 * @param a
+	 *            the additional authenticated data a.
+	 * @param m
+	 *            the message to authenticate and encrypt.
+	 * @param numAuthenticationBytes
+	 *            Number of octets in authentication field.
+	 * @param out
+	 *            the buffer to write the encrypted and authenticated message to.
+	 * @param offset
+	 *            the position in the buffer to start writing at.
+	 * @return the number of bytes written to the buffer, i.e.
+	 *            <code>m.length + numAuthenticationBytes</code>.
+	 * @throws IndexOutOfBoundsException if the buffer is too small to hold
+	 *            the encrypted and authenticated message.
+	 * @throws GeneralSecurityException if the data could not be encrypted, e.g. because
+	 *            the JVM does not support the AES cipher algorithm
+	 */
+	public static int encrypt(byte[] key, byte[] nonce, byte[] a, byte[] m, int numAuthenticationBytes,
+			byte[] out, int offset) throws GeneralSecurityException {
+		int lengthM = m.length;
+		if (offset < 0 || out.length - offset < lengthM + numAuthenticationBytes) {
+			throw new IndexOutOfBoundsException("Buffer too small for encrypted message");
+		}
 
 		// instantiate the cipher
 		Cipher cipher = Cipher.getInstance(BLOCK_CIPHER);
@@ -173,25 +214,26 @@ public final class CCMBlockCipher {
 
 		List<byte[]> S_i = generateKeyStreamBlocks(lengthM, nonce, cipher);
 		byte[] S_0 = S_i.get(0);
-		byte[] concatenatedS_i = generateConcatenatedKeyStream(S_i, lengthM);
 
 		/*
 		 * The message is encrypted by XORing the octets of message m with
 		 * the first l(m) octets of the concatenation of S_1, S_2, S_3, ...
 		 * . Note that S_0 is not used to encrypt the message.
 		 */
-		byte[] encryptedMessage = ByteArrayUtils.xorArrays(m, concatenatedS_i);
-
-		// U := T XOR first-M-bytes( S_0 )
-		byte[] U = ByteArrayUtils.xorArrays(T, ByteArrayUtils.truncate(S_0, numAuthenticationBytes));
+		for (int i = 0; i < lengthM; i++) {
+			out[offset + i] = (byte) (m[i] ^ S_i.get(1 + i / BLOCK_SIZE)[i % BLOCK_SIZE]);
+		}
 
 		/*
 		 * The final result c consists of the encrypted message followed by
 		 * the encrypted authentication value U.
 		 */
-		byte[] c = ByteArrayUtils.concatenate(encryptedMessage, U);
+		// U := T XOR first-M-bytes( S_0 )
+		for (int i = 0; i < numAuthenticationBytes; i++) {
+			out[offset + lengthM + i] = (byte) (T[i] ^ S_0[i]);
+		}
 
-		return c;
+		return lengthM + numAuthenticationBytes;
 	}
 
 	// Helper methods /////////////////////////////////////////////////
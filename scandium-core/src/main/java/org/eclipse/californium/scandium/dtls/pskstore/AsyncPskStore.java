@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.pskstore;
+
+import org.eclipse.californium.scandium.util.ServerNames;
+
+/**
+ * A storage for pre-shared keys which looks up keys asynchronously.
+ * <p>
+ * A server uses this store for retrieving the key of the identity a client
+ * has included in its <em>CLIENT_KEY_EXCHANGE</em> message. Processing of the
+ * handshake with the client is suspended until the store reports the result of
+ * the lookup by means of the callback passed in to
+ * {@link #getKey(ServerNames, String, PskCallback)}. This way the threads
+ * processing DTLS records do not get blocked by stores which retrieve keys
+ * from remote systems, e.g. a database or an authentication service.
+ */
+public interface AsyncPskStore {
+
+	/**
+	 * A callback for reporting the result of a key lookup.
+	 */
+	interface PskCallback {
+
+		/**
+		 * Reports the result of looking up a key.
+		 * <p>
+		 * This method must be invoked exactly once per lookup. It may be
+		 * invoked from within {@link AsyncPskStore#getKey(ServerNames, String, PskCallback)}
+		 * if the result is available immediately.
+		 * 
+		 * @param key The key or <code>null</code> if the identity is unknown
+		 *            or the key could not be retrieved.
+		 */
+		void onResult(byte[] key);
+	}
+
+	/**
+	 * Looks up the shared key for a given identity.
+	 * <p>
+	 * Implementations should not block but return immediately and report the
+	 * result by means of the callback once it is available.
+	 * 
+	 * @param serverNames The names of servers the client provided as part of
+	 *            the <em>Server Name Indication</em> hello extension during the
+	 *            DTLS handshake or <code>null</code> if the client did not
+	 *            indicate any server names.
+	 * @param identity The identity to look up the key for.
+	 * @param callback The callback to report the result to.
+	 * @throws NullPointerException if identity or callback is {@code null}.
+	 */
+	void getKey(ServerNames serverNames, String identity, PskCallback callback);
+}
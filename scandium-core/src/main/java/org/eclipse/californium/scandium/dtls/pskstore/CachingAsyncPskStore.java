@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.pskstore;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
+import org.eclipse.californium.scandium.util.ServerNames;
+
+/**
+ * An {@code AsyncPskStore} which keeps keys retrieved from another store in a
+ * bounded in-memory cache.
+ * <p>
+ * Keys found in the cache are reported to the callback immediately without
+ * consulting the wrapped store. Unknown identities are not cached so that
+ * keys provisioned later on can be found by means of the wrapped store.
+ * <p>
+ * The cache evicts keys based on a <em>least recently used</em> policy. A
+ * key is only evicted in order to make room for another key if it has not
+ * been accessed for at least the cache's expiration threshold. Applications
+ * revoking keys in the wrapped store should {@link #clear()} the cache.
+ */
+public class CachingAsyncPskStore implements AsyncPskStore {
+
+	private static final Logger LOGGER = Logger.getLogger(CachingAsyncPskStore.class.getName());
+
+	private final AsyncPskStore store;
+	private final LeastRecentlyUsedCache<CacheKey, byte[]> keys;
+
+	/**
+	 * Creates a new cache for a store.
+	 * 
+	 * @param store The store to retrieve keys from that are not contained in
+	 *            the cache.
+	 * @param capacity The maximum number of keys to cache.
+	 * @param threshold The period of time (in seconds) after which a key that
+	 *            has not been accessed may be evicted from the cache.
+	 * @throws NullPointerException if store is {@code null}.
+	 */
+	public CachingAsyncPskStore(final AsyncPskStore store, final int capacity, final long threshold) {
+		if (store == null) {
+			throw new NullPointerException("store must not be null");
+		}
+		this.store = store;
+		this.keys = new LeastRecentlyUsedCache<>(capacity, threshold);
+	}
+
+	@Override
+	public void getKey(final ServerNames serverNames, final String identity, final PskCallback callback) {
+		if (identity == null) {
+			throw new NullPointerException("identity must not be null");
+		} else if (callback == null) {
+			throw new NullPointerException("callback must not be null");
+		}
+
+		final CacheKey cacheKey = new CacheKey(serverNames, identity);
+		byte[] key;
+		synchronized (keys) {
+			key = keys.get(cacheKey);
+		}
+		if (key != null) {
+			LOGGER.log(Level.FINEST, "Found key for PSK identity [{0}] in cache", identity);
+			callback.onResult(key);
+		} else {
+			store.getKey(serverNames, identity, new PskCallback() {
+
+				@Override
+				public void onResult(final byte[] key) {
+					if (key != null) {
+						synchronized (keys) {
+							keys.put(cacheKey, key);
+						}
+					}
+					callback.onResult(key);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gets the number of keys contained in the cache.
+	 * 
+	 * @return The number of keys.
+	 */
+	public int size() {
+		synchronized (keys) {
+			return keys.size();
+		}
+	}
+
+	/**
+	 * Removes all keys from the cache.
+	 */
+	public void clear() {
+		synchronized (keys) {
+			keys.clear();
+		}
+	}
+
+	private static final class CacheKey {
+
+		private final ServerNames serverNames;
+		private final String identity;
+
+		private CacheKey(final ServerNames serverNames, final String identity) {
+			this.serverNames = serverNames;
+			this.identity = identity;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * identity.hashCode() + (serverNames == null ? 0 : serverNames.hashCode());
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			if (!identity.equals(other.identity)) {
+				return false;
+			} else if (serverNames == null) {
+				return other.serverNames == null;
+			} else {
+				return serverNames.equals(other.serverNames);
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.rpkstore;
+
+import org.eclipse.californium.scandium.auth.RawPublicKeyIdentity;
+
+/**
+ * A trust store for raw public keys which determines trust asynchronously.
+ * <p>
+ * A server uses this store for checking the raw public key a client has
+ * included in its <em>CERTIFICATE</em> message. Processing of the handshake
+ * with the client is suspended until the store reports the result of the
+ * check by means of the callback passed in to
+ * {@link #isTrusted(RawPublicKeyIdentity, TrustCallback)}.
+ */
+public interface AsyncTrustedRpkStore {
+
+	/**
+	 * A callback for reporting the result of a trust check.
+	 */
+	interface TrustCallback {
+
+		/**
+		 * Reports the result of checking a raw public key.
+		 * <p>
+		 * This method must be invoked exactly once per check. It may be
+		 * invoked from within {@link AsyncTrustedRpkStore#isTrusted(RawPublicKeyIdentity, TrustCallback)}
+		 * if the result is available immediately.
+		 * 
+		 * @param trusted <code>true</code> if the key is trusted.
+		 */
+		void onResult(boolean trusted);
+	}
+
+	/**
+	 * Checks whether a raw public key is trusted.
+	 * <p>
+	 * Implementations should not block but return immediately and report the
+	 * result by means of the callback once it is available.
+	 * 
+	 * @param id The identity of the public key.
+	 * @param callback The callback to report the result to.
+	 * @throws NullPointerException if any of the parameters is {@code null}.
+	 */
+	void isTrusted(RawPublicKeyIdentity id, TrustCallback callback);
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.rpkstore;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.elements.util.LeastRecentlyUsedCache;
+import org.eclipse.californium.scandium.auth.RawPublicKeyIdentity;
+
+/**
+ * An {@code AsyncTrustedRpkStore} which keeps the raw public keys found to be
+ * trusted by another store in a bounded in-memory cache.
+ * <p>
+ * Keys found in the cache are reported as trusted immediately without
+ * consulting the wrapped store. Keys that are not trusted are not cached so
+ * that keys becoming trusted later on can be found by means of the wrapped
+ * store.
+ * <p>
+ * The cache evicts keys based on a <em>least recently used</em> policy. A
+ * key is only evicted in order to make room for another key if it has not
+ * been accessed for at least the cache's expiration threshold. Applications
+ * revoking trust in keys should {@link #clear()} the cache.
+ */
+public class CachingAsyncRpkTrustStore implements AsyncTrustedRpkStore {
+
+	private static final Logger LOGGER = Logger.getLogger(CachingAsyncRpkTrustStore.class.getName());
+
+	private final AsyncTrustedRpkStore store;
+	private final LeastRecentlyUsedCache<RawPublicKeyIdentity, Boolean> trustedKeys;
+
+	/**
+	 * Creates a new cache for a store.
+	 * 
+	 * @param store The store to check keys with that are not contained in
+	 *            the cache.
+	 * @param capacity The maximum number of keys to cache.
+	 * @param threshold The period of time (in seconds) after which a key that
+	 *            has not been accessed may be evicted from the cache.
+	 * @throws NullPointerException if store is {@code null}.
+	 */
+	public CachingAsyncRpkTrustStore(final AsyncTrustedRpkStore store, final int capacity, final long threshold) {
+		if (store == null) {
+			throw new NullPointerException("store must not be null");
+		}
+		this.store = store;
+		this.trustedKeys = new LeastRecentlyUsedCache<>(capacity, threshold);
+	}
+
+	@Override
+	public void isTrusted(final RawPublicKeyIdentity id, final TrustCallback callback) {
+		if (id == null) {
+			throw new NullPointerException("id must not be null");
+		} else if (callback == null) {
+			throw new NullPointerException("callback must not be null");
+		}
+
+		Boolean trusted;
+		synchronized (trustedKeys) {
+			trusted = trustedKeys.get(id);
+		}
+		if (trusted != null) {
+			LOGGER.log(Level.FINEST, "Found trusted raw public key [{0}] in cache", id.getName());
+			callback.onResult(true);
+		} else {
+			store.isTrusted(id, new TrustCallback() {
+
+				@Override
+				public void onResult(final boolean trusted) {
+					if (trusted) {
+						synchronized (trustedKeys) {
+							trustedKeys.put(id, Boolean.TRUE);
+						}
+					}
+					callback.onResult(trusted);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Gets the number of keys contained in the cache.
+	 * 
+	 * @return The number of keys.
+	 */
+	public int size() {
+		synchronized (trustedKeys) {
+			return trustedKeys.size();
+		}
+	}
+
+	/**
+	 * Removes all keys from the cache.
+	 */
+	public void clear() {
+		synchronized (trustedKeys) {
+			trustedKeys.clear();
+		}
+	}
+}
@@ -12,6 +12,7 @@
  * 
  * Contributors:
  *    Bosch Software Innovations - initial creation
+ *    Bosch Software Innovations GmbH - add equals and hashCode
  ******************************************************************************/
 package org.eclipse.californium.scandium.util;
 
@@ -118,4 +119,20 @@ public final class ServerNames implements Iterable<ServerName> {
 	public Iterator<ServerName> iterator() {
 		return names.iterator();
 	}
+
+	@Override
+	public int hashCode() {
+		return names.hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		} else {
+			return names.equals(((ServerNames) obj).names);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.scandium.auth.PreSharedKeyIdentity;
+import org.eclipse.californium.scandium.auth.RawPublicKeyIdentity;
+import org.eclipse.californium.scandium.category.Medium;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertDescription;
+import org.eclipse.californium.scandium.dtls.AlertMessage.AlertLevel;
+import org.eclipse.californium.scandium.dtls.pskstore.AsyncPskStore;
+import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
+import org.eclipse.californium.scandium.dtls.rpkstore.AsyncTrustedRpkStore;
+import org.eclipse.californium.scandium.rule.DtlsNetworkRule;
+import org.eclipse.californium.scandium.util.ServerNames;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies that a server side {@code DTLSConnector} suspends handshakes while
+ * looking up credentials asynchronously and resumes them once the result is
+ * available.
+ */
+@Category(Medium.class)
+public class AsyncCredentialStoreTest {
+
+	@ClassRule
+	public static DtlsNetworkRule network = new DtlsNetworkRule(DtlsNetworkRule.Mode.DIRECT, DtlsNetworkRule.Mode.NATIVE);
+
+	private static final long LOOKUP_DELAY_MILLIS = 100;
+	private static final int LOOKUP_TIMEOUT_MILLIS = 500;
+	private static final String UNRESPONSIVE_IDENTITY = "unresponsiveIdentity";
+
+	static ConnectorHelper serverHelper;
+	static ScheduledExecutorService lookupExecutor;
+	static AtomicInteger pskLookups = new AtomicInteger();
+	static AtomicInteger rpkChecks = new AtomicInteger();
+
+	DTLSConnector client;
+	InetSocketAddress clientEndpoint;
+
+	/**
+	 * Starts a server using asynchronous stores which report their results
+	 * from another thread after a short delay.
+	 * 
+	 * @throws IOException if the server cannot be started.
+	 * @throws GeneralSecurityException if the server's keys cannot be read.
+	 */
+	@BeforeClass
+	public static void startServer() throws IOException, GeneralSecurityException {
+
+		lookupExecutor = Executors.newSingleThreadScheduledExecutor();
+		DtlsConnectorConfig config = ConnectorHelper.newStandardServerConfigBuilder()
+				.setAsyncPskStore(new DelayedPskStore())
+				.setAsyncRpkTrustStore(new DelayedRpkTrustStore())
+				.setAsyncStoreTimeout(LOOKUP_TIMEOUT_MILLIS)
+				.build();
+		serverHelper = new ConnectorHelper();
+		serverHelper.startServer(config);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		serverHelper.destroyServer();
+		lookupExecutor.shutdownNow();
+	}
+
+	@Before
+	public void setUp() {
+		clientEndpoint = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		pskLookups.set(0);
+		rpkChecks.set(0);
+	}
+
+	@After
+	public void cleanUp() {
+		if (client != null) {
+			client.destroy();
+		}
+		serverHelper.cleanUpServer();
+	}
+
+	@Test
+	public void testServerResumesHandshakeAfterAsynchronousPskLookup() throws Exception {
+		// given a client using PSK based authentication
+		DtlsConnectorConfig clientConfig = new DtlsConnectorConfig.Builder(clientEndpoint)
+				.setPskStore(new StaticPskStore(ConnectorHelper.CLIENT_IDENTITY, ConnectorHelper.CLIENT_IDENTITY_SECRET.getBytes()))
+				.build();
+		client = new DTLSConnector(clientConfig);
+
+		// when the client establishes a session with the server
+		serverHelper.givenAnEstablishedSession(client);
+
+		// then the server has looked up the client's key asynchronously
+		assertThat(pskLookups.get(), is(1));
+		assertThat(serverHelper.establishedServerSession.getPeerIdentity(), instanceOf(PreSharedKeyIdentity.class));
+	}
+
+	@Test
+	public void testServerAbortsHandshakeIfAsynchronousPskLookupFails() throws Exception {
+		// given a client using an identity unknown to the server
+		DtlsConnectorConfig clientConfig = new DtlsConnectorConfig.Builder(clientEndpoint)
+				.setPskStore(new StaticPskStore("unknownIdentity", ConnectorHelper.CLIENT_IDENTITY_SECRET.getBytes()))
+				.build();
+		client = new DTLSConnector(clientConfig);
+		final CountDownLatch latch = new CountDownLatch(1);
+		client.setErrorHandler(new ErrorHandler() {
+
+			@Override
+			public void onError(InetSocketAddress peerAddress, AlertLevel level, AlertDescription description) {
+				if (AlertLevel.FATAL.equals(level)) {
+					latch.countDown();
+				}
+			}
+		});
+
+		// when the client tries to establish a session with the server
+		client.start();
+		client.send(new RawData("Hello".getBytes(), serverHelper.serverEndpoint));
+
+		// then the server aborts the handshake with a fatal alert
+		assertTrue(latch.await(ConnectorHelper.MAX_TIME_TO_WAIT_SECS, TimeUnit.SECONDS));
+		// and has removed the connection before sending the alert
+		assertThat(serverHelper.serverConnectionStore.get(client.getAddress()), is(nullValue()));
+	}
+
+	@Test
+	public void testServerAbortsHandshakeIfAsynchronousPskLookupTimesOut() throws Exception {
+		// given a client using an identity the server's store never reports a key for
+		DtlsConnectorConfig clientConfig = new DtlsConnectorConfig.Builder(clientEndpoint)
+				.setPskStore(new StaticPskStore(UNRESPONSIVE_IDENTITY, ConnectorHelper.CLIENT_IDENTITY_SECRET.getBytes()))
+				.build();
+		client = new DTLSConnector(clientConfig);
+		final CountDownLatch latch = new CountDownLatch(1);
+		client.setErrorHandler(new ErrorHandler() {
+
+			@Override
+			public void onError(InetSocketAddress peerAddress, AlertLevel level, AlertDescription description) {
+				if (AlertLevel.FATAL.equals(level)) {
+					latch.countDown();
+				}
+			}
+		});
+
+		// when the client tries to establish a session with the server
+		client.start();
+		client.send(new RawData("Hello".getBytes(), serverHelper.serverEndpoint));
+
+		// then the server aborts the handshake with a fatal alert once the lookup has timed out
+		assertTrue(latch.await(ConnectorHelper.MAX_TIME_TO_WAIT_SECS, TimeUnit.SECONDS));
+		assertThat(pskLookups.get(), is(1));
+		assertThat(serverHelper.serverConnectionStore.get(client.getAddress()), is(nullValue()));
+	}
+
+	@Test
+	public void testServerResumesHandshakeAfterAsynchronousRpkCheck() throws Exception {
+		// given a client authenticating by means of a raw public key
+		client = new DTLSConnector(ConnectorHelper.newStandardClientConfig(clientEndpoint));
+
+		// when the client establishes a session with the server
+		serverHelper.givenAnEstablishedSession(client);
+
+		// then the server has checked the client's key asynchronously
+		assertThat(rpkChecks.get(), is(1));
+		assertThat(serverHelper.establishedServerSession.getPeerIdentity(), instanceOf(RawPublicKeyIdentity.class));
+	}
+
+	private static class DelayedPskStore implements AsyncPskStore {
+
+		@Override
+		public void getKey(final ServerNames serverNames, final String identity, final PskCallback callback) {
+			pskLookups.incrementAndGet();
+			if (UNRESPONSIVE_IDENTITY.equals(identity)) {
+				// never report a result
+				return;
+			}
+			lookupExecutor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					if (ConnectorHelper.CLIENT_IDENTITY.equals(identity)) {
+						callback.onResult(ConnectorHelper.CLIENT_IDENTITY_SECRET.getBytes());
+					} else {
+						callback.onResult(null);
+					}
+				}
+			}, LOOKUP_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static class DelayedRpkTrustStore implements AsyncTrustedRpkStore {
+
+		@Override
+		public void isTrusted(final RawPublicKeyIdentity id, final TrustCallback callback) {
+			rpkChecks.incrementAndGet();
+			lookupExecutor.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					callback.onResult(true);
+				}
+			}, LOOKUP_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -95,15 +95,35 @@ public class ConnectorHelper {
 	 * @throws GeneralSecurityException if the keys cannot be read.
 	 */
 	public void startServer() throws IOException, GeneralSecurityException {
+		startServer(newStandardServerConfigBuilder().build());
+	}
+
+	/**
+	 * Configures and starts a connector representing the <em>server side</em> of a DTLS connection.
+	 * 
+	 * @param config the configuration to use, e.g. created by means of the builder returned by
+	 *               {@link #newStandardServerConfigBuilder()}.
+	 * @throws IOException if the server cannot be started.
+	 */
+	public void startServer(final DtlsConnectorConfig config) throws IOException {
 
+		serverConfig = config;
 		serverRawDataProcessor = new MessageCapturingProcessor();
 		serverSessionCache = new InMemorySessionCache();
 		serverConnectionStore = new InMemoryConnectionStore(SERVER_CONNECTION_STORE_CAPACITY, 5 * 60, serverSessionCache); // connection timeout 5mins
 		serverRawDataChannel = new SimpleRawDataChannel(serverRawDataProcessor);
 
+		server = new DTLSConnector(serverConfig, serverConnectionStore);
+		server.setRawDataReceiver(serverRawDataChannel);
+		server.start();
+		serverEndpoint = server.getAddress();
+	}
+
+	static DtlsConnectorConfig.Builder newStandardServerConfigBuilder() throws IOException, GeneralSecurityException {
+
 		InMemoryPskStore pskStore = new InMemoryPskStore();
 		pskStore.setKey(CLIENT_IDENTITY, CLIENT_IDENTITY_SECRET.getBytes());
-		serverConfig = new DtlsConnectorConfig.Builder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+		return new DtlsConnectorConfig.Builder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
 			.setSupportedCipherSuites(
 				new CipherSuite[]{
 						CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
@@ -113,13 +133,7 @@ public class ConnectorHelper {
 			.setIdentity(DtlsTestTools.getPrivateKey(), DtlsTestTools.getServerCertificateChain(), true)
 			.setTrustStore(DtlsTestTools.getTrustedCertificates())
 			.setPskStore(pskStore)
-			.setClientAuthenticationRequired(true)
-			.build();
-
-		server = new DTLSConnector(serverConfig, serverConnectionStore);
-		server.setRawDataReceiver(serverRawDataChannel);
-		server.start();
-		serverEndpoint = server.getAddress();
+			.setClientAuthenticationRequired(true);
 	}
 
 	/**
@@ -271,6 +271,54 @@ public class DTLSConnectorTest {
 		givenAnEstablishedSession();
 	}
 
+	/**
+	 * Verifies that the server keeps using an established session with a peer
+	 * that has negotiated a connection ID after the peer's address has changed,
+	 * e.g. because of a NAT rebinding.
+	 * 
+	 * @throws Exception if test cannot be executed
+	 */
+	@Test
+	public void testConnectorUpdatesPeerAddressOfConnectionIdRecord() throws Exception {
+		// GIVEN a server that assigns connection IDs to its peers
+		ConnectorHelper cidServerHelper = new ConnectorHelper();
+		cidServerHelper.startServer(ConnectorHelper.newStandardServerConfigBuilder().setConnectionIdLength(4).build());
+		DatagramSocket socket = null;
+		try {
+			// AND a session established by a client that is willing to send the server's connection ID
+			clientConfig = newStandardConfigBuilder(clientEndpoint).setConnectionIdLength(0).build();
+			client = new DTLSConnector(clientConfig, clientConnectionStore);
+			client.setExecutor(stripedExecutor);
+			cidServerHelper.givenAnEstablishedSession(client, false);
+			DTLSSession serverSession = cidServerHelper.establishedServerSession;
+			DTLSSession clientSession = clientConnectionStore.get(cidServerHelper.serverEndpoint).getEstablishedSession();
+			assertThat(serverSession.getReadConnectionId(), is(notNullValue()));
+			assertThat(clientSession.getWriteConnectionId(), is(serverSession.getReadConnectionId()));
+
+			// WHEN the client sends application data from a different address
+			byte[] payload = "Hello from new address".getBytes();
+			byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payload.length, clientSession)];
+			int length = Record.writeApplicationRecord(payload, clientSession, buffer, 0);
+			socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+			socket.setSoTimeout(MAX_TIME_TO_WAIT_SECS * 1000);
+			InetSocketAddress newClientEndpoint = (InetSocketAddress) socket.getLocalSocketAddress();
+			socket.send(new DatagramPacket(buffer, length, cidServerHelper.serverEndpoint));
+
+			// THEN the server delivers the data on behalf of the new address and responds to it
+			DatagramPacket response = new DatagramPacket(new byte[1500], 1500);
+			socket.receive(response);
+			assertThat(cidServerHelper.serverRawDataProcessor.getLatestInboundMessage().getInetSocketAddress(),
+					is(newClientEndpoint));
+			assertThat(cidServerHelper.server.getSessionByAddress(newClientEndpoint), is(serverSession));
+			assertThat(cidServerHelper.server.getSessionByAddress(client.getAddress()), is(nullValue()));
+		} finally {
+			if (socket != null) {
+				socket.close();
+			}
+			cidServerHelper.destroyServer();
+		}
+	}
+
 	/**
 	 * Verifies that a DTLSConnector terminates its connection with a peer when receiving
 	 * a CLOSE_NOTIFY alert from the peer (bug #478538).
@@ -1392,6 +1440,99 @@ public class DTLSConnectorTest {
 		assertThat(maxFragmentLength, is(IPV6_MIN_MTU - DTLS_UDP_IP_HEADER_LENGTH));
 	}
 
+	/**
+	 * Verifies that all messages are delivered to the peer if the records
+	 * of multiple messages are sent in a single datagram.
+	 * 
+	 * @throws Exception if the test fails
+	 */
+	@Test
+	public void testConnectorSendsCoalescedRecords() throws Exception {
+		// GIVEN a client that coalesces records for up to 100ms
+		client.destroy();
+		clientConfig = newStandardConfigBuilder(clientEndpoint).setRecordCoalescingDelay(100).build();
+		final List<List<Record>> sentApplicationData = Collections.synchronizedList(new ArrayList<List<Record>>());
+		client = new DTLSConnector(clientConfig, clientConnectionStore) {
+
+			@Override
+			void sendDatagram(DatagramPacket datagramPacket) throws IOException {
+				byte[] data = Arrays.copyOfRange(datagramPacket.getData(), datagramPacket.getOffset(),
+						datagramPacket.getOffset() + datagramPacket.getLength());
+				List<Record> records = Record.fromByteArray(data, serverEndpoint);
+				if (!records.isEmpty() && records.get(0).getType() == ContentType.APPLICATION_DATA) {
+					sentApplicationData.add(records);
+				}
+				super.sendDatagram(datagramPacket);
+			}
+		};
+		client.setExecutor(stripedExecutor);
+		givenAnEstablishedSession(false);
+		sentApplicationData.clear();
+
+		// WHEN sending several small messages to the server in a row
+		CountDownLatch latch = new CountDownLatch(3);
+		clientRawDataChannel.setLatch(latch);
+		for (int i = 0; i < 3; i++) {
+			client.send(new RawData(("Hello " + i).getBytes(), serverEndpoint));
+		}
+
+		// THEN assert that the server has received and acknowledged all of them
+		assertTrue(latch.await(MAX_TIME_TO_WAIT_SECS, TimeUnit.SECONDS));
+		// and that the records have been sent in a single datagram
+		assertThat(sentApplicationData.size(), is(1));
+		assertThat(sentApplicationData.get(0).size(), is(3));
+	}
+
+	/**
+	 * Verifies that no message gets lost if the records of the messages
+	 * do not fit into a single datagram.
+	 * 
+	 * @throws Exception if the test fails
+	 */
+	@Test
+	public void testConnectorSendsAllCoalescedRecordsExceedingDatagramSize() throws Exception {
+		// GIVEN a client that coalesces records for up to 100ms
+		client.destroy();
+		clientConfig = newStandardConfigBuilder(clientEndpoint).setRecordCoalescingDelay(100).build();
+		final List<List<Record>> sentApplicationData = Collections.synchronizedList(new ArrayList<List<Record>>());
+		client = new DTLSConnector(clientConfig, clientConnectionStore) {
+
+			@Override
+			void sendDatagram(DatagramPacket datagramPacket) throws IOException {
+				byte[] data = Arrays.copyOfRange(datagramPacket.getData(), datagramPacket.getOffset(),
+						datagramPacket.getOffset() + datagramPacket.getLength());
+				List<Record> records = Record.fromByteArray(data, serverEndpoint);
+				if (!records.isEmpty() && records.get(0).getType() == ContentType.APPLICATION_DATA) {
+					sentApplicationData.add(records);
+				}
+				super.sendDatagram(datagramPacket);
+			}
+		};
+		client.setExecutor(stripedExecutor);
+		givenAnEstablishedSession(false);
+		sentApplicationData.clear();
+
+		// WHEN sending more messages to the server than fit into a single datagram
+		int messages = 8;
+		CountDownLatch latch = new CountDownLatch(messages);
+		clientRawDataChannel.setLatch(latch);
+		for (int i = 0; i < messages; i++) {
+			client.send(new RawData(new byte[5000], serverEndpoint));
+		}
+
+		// THEN assert that the server has received and acknowledged all of them
+		assertTrue(latch.await(MAX_TIME_TO_WAIT_SECS, TimeUnit.SECONDS));
+		// and that the records have been sent in multiple datagrams
+		int sentRecords = 0;
+		synchronized (sentApplicationData) {
+			for (List<Record> records : sentApplicationData) {
+				sentRecords += records.size();
+			}
+		}
+		assertThat(sentApplicationData.size(), is(not(1)));
+		assertThat(sentRecords, is(messages));
+	}
+
 	@Test
 	public void testDestroyClearsConnectionStore() throws Exception {
 		// given a non-empty connection store
@@ -145,5 +145,38 @@ public class HelloExtensionNegotiationTest {
 		assertThat(serverHelper.server.getMaximumFragmentLength(client.getAddress()), is(512));
 	}
 
+	/**
+	 * Verifies that negotiation of connection IDs to use in a DTLS
+	 * connection works.
+	 * 
+	 * @throws Exception if the test fails.
+	 */
+	@Test
+	public void testConnectorNegotiatesConnectionId() throws Exception {
+		// given a server that assigns connection IDs to its peers
+		ConnectorHelper cidServerHelper = new ConnectorHelper();
+		cidServerHelper.startServer(ConnectorHelper.newStandardServerConfigBuilder().setConnectionIdLength(4).build());
+		try {
+			// and a client that wants to receive records containing a connection ID
+			clientConfig = ConnectorHelper.newStandardClientConfigBuilder(clientEndpoint)
+					.setConnectionIdLength(4)
+					.build();
+			client = new DTLSConnector(clientConfig, clientConnectionStore);
+
+			// when the client negotiates a session with the server
+			cidServerHelper.givenAnEstablishedSession(client, false);
+
+			// then each peer uses the connection ID chosen by the other peer for outbound records
+			DTLSSession clientSession = client.getSessionByAddress(cidServerHelper.serverEndpoint);
+			DTLSSession serverSession = cidServerHelper.establishedServerSession;
+			assertThat(clientSession.getReadConnectionId().length(), is(4));
+			assertThat(serverSession.getReadConnectionId().length(), is(4));
+			assertThat(serverSession.getWriteConnectionId(), is(clientSession.getReadConnectionId()));
+			assertThat(clientSession.getWriteConnectionId(), is(serverSession.getReadConnectionId()));
+		} finally {
+			cidServerHelper.destroyServer();
+		}
+	}
+
 
 }
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.HelloExtension.ExtensionType;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class ConnectionIdExtensionTest {
+
+	static final byte[] EXT_CID = new byte[]{
+			(byte) 0x00, (byte) 0x08, // length of extensions list: 8 bytes
+			(byte) 0x00, (byte) 0x35, // type code 53
+			(byte) 0x00, (byte) 0x04, // length of extension data: 4 bytes
+			(byte) 0x03, // length of connection ID: 3 bytes
+			(byte) 0x0A, (byte) 0x0B, (byte) 0x0C}; // connection ID
+	byte[] connectionIdStructure;
+	ConnectionIdExtension extension;
+
+	@Test
+	public void testSerialization() {
+		// given a connection ID extension
+		extension = new ConnectionIdExtension(new ConnectionId(new byte[]{0x0A, 0x0B, 0x0C}));
+
+		// when serializing the extension
+		HelloExtensions helloExtensions = new HelloExtensions();
+		helloExtensions.addExtension(extension);
+		connectionIdStructure = helloExtensions.toByteArray();
+
+		assertThat(connectionIdStructure, is(EXT_CID));
+	}
+
+	@Test
+	public void testFromByteArray() throws HandshakeException {
+		// given a connection ID extension struct
+		connectionIdStructure = EXT_CID;
+
+		whenParsingTheExtensionStruct();
+
+		// then assert that the connection ID has been read
+		assertThat(extension.getConnectionId(), is(new ConnectionId(new byte[]{0x0A, 0x0B, 0x0C})));
+	}
+
+	@Test
+	public void testFromByteArraySupportsEmptyConnectionId() throws HandshakeException {
+		// given a connection ID extension struct containing an empty connection ID
+		connectionIdStructure = new byte[]{
+				(byte) 0x00, (byte) 0x05, // length of extensions list: 5 bytes
+				(byte) 0x00, (byte) 0x35, // type code 53
+				(byte) 0x00, (byte) 0x01, // length of extension data: 1 byte
+				(byte) 0x00}; // length of connection ID: 0 bytes
+
+		whenParsingTheExtensionStruct();
+
+		// then assert that the connection ID is empty
+		assertTrue(extension.getConnectionId().isEmpty());
+	}
+
+	@Test
+	public void testFromByteArrayDetectsMalformedLength() {
+		// given a connection ID extension struct with an inconsistent length
+		connectionIdStructure = new byte[]{
+				(byte) 0x00, (byte) 0x07, // length of extensions list: 7 bytes
+				(byte) 0x00, (byte) 0x35, // type code 53
+				(byte) 0x00, (byte) 0x03, // length of extension data: 3 bytes
+				(byte) 0x05, // length of connection ID: 5 bytes
+				(byte) 0x0A, (byte) 0x0B};
+
+		try {
+			whenParsingTheExtensionStruct();
+			fail("Should have thrown HandshakeException");
+		} catch (HandshakeException e) {
+			// then a HandshakeException should indicate a decode error
+			assertThat(e.getAlert().getDescription(), is(AlertMessage.AlertDescription.DECODE_ERROR));
+			assertThat(e.getAlert().getLevel(), is(AlertMessage.AlertLevel.FATAL));
+		}
+	}
+
+	private void whenParsingTheExtensionStruct() throws HandshakeException {
+		HelloExtensions helloExtions = HelloExtensions.fromByteArray(connectionIdStructure, new InetSocketAddress(0));
+		extension = (ConnectionIdExtension) helloExtions.getExtension(ExtensionType.CONNECTION_ID);
+	}
+}
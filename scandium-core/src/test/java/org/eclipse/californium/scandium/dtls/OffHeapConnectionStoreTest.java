@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(Small.class)
+public class OffHeapConnectionStoreTest {
+
+	private static final int INITIAL_CAPACITY = 10;
+	private static final int HOT_CAPACITY = 2;
+	OffHeapConnectionStore store;
+	Connection con;
+	SessionId sessionId;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new OffHeapConnectionStore(INITIAL_CAPACITY, 1000, HOT_CAPACITY);
+		con = newConnection(50L);
+		sessionId = con.getEstablishedSession().getSessionIdentifier();
+	}
+
+	@Test
+	public void testPutAddsConnection() {
+		// given an empty connection store
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY));
+
+		// when adding a new connection to the store
+		assertTrue(store.put(con));
+
+		// assert that the store is not empty
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY - 1));
+	}
+
+	@Test
+	public void testPutParksLeastRecentlyUsedConnection() throws Exception {
+		// given a connection store with an exhausted hot tier
+		store.put(con);
+		store.put(newConnection(51L));
+
+		// when adding another connection
+		store.put(newConnection(52L));
+
+		// then the least recently used connection has been parked
+		assertThat(store.getNumberOfParkedConnections(), is(1));
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY - 3));
+	}
+
+	@Test
+	public void testGetRestoresParkedConnection() throws Exception {
+		// given a connection that has been parked
+		DTLSSession session = con.getEstablishedSession();
+		long nextSequenceNumber = session.getSequenceNumber() + 1;
+		givenAParkedConnection();
+
+		// when retrieving the connection
+		Connection restoredConnection = store.get(con.getPeerAddress());
+
+		// then the restored connection contains the session's current state
+		assertThat(restoredConnection, is(notNullValue()));
+		assertThat(store.getNumberOfParkedConnections(), is(1));
+		DTLSSession restoredSession = restoredConnection.getEstablishedSession();
+		assertThat(restoredSession.getSessionIdentifier(), is(sessionId));
+		assertThat(restoredSession.getPeer(), is(con.getPeerAddress()));
+		assertThat(restoredSession.getPeerIdentity(), is(session.getPeerIdentity()));
+		assertThat(restoredSession.getMasterSecret(), is(session.getMasterSecret()));
+		assertThat(restoredSession.getReadEpoch(), is(session.getReadEpoch()));
+		assertThat(restoredSession.getWriteEpoch(), is(session.getWriteEpoch()));
+		assertThat(restoredSession.getWriteStateCipher(), is(session.getWriteStateCipher()));
+		assertThat(restoredSession.getMaxFragmentLength(), is(session.getMaxFragmentLength()));
+		assertTrue(restoredSession.getSequenceNumber() >= nextSequenceNumber);
+	}
+
+	@Test
+	public void testRestoredSessionDecryptsRecordsAndDetectsDuplicates() throws Exception {
+		// given a record sent by the peer of a session that has been read by
+		// us before the session has been parked
+		DTLSSession session = con.getEstablishedSession();
+		byte[] payload = "Hello".getBytes();
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payload.length, session)];
+		int length = Record.writeApplicationRecord(payload, session, buffer, 0);
+		List<Record> records = Record.fromByteArray(Arrays.copyOf(buffer, length), con.getPeerAddress());
+		Record record = records.get(0);
+		session.markRecordAsRead(record.getEpoch(), record.getSequenceNumber());
+		givenAParkedConnection();
+
+		// when the session has been restored
+		DTLSSession restoredSession = store.get(con.getPeerAddress()).getEstablishedSession();
+
+		// then the record is detected as a duplicate but can still be decrypted
+		assertFalse(restoredSession.isRecordProcessable(record.getEpoch(), record.getSequenceNumber()));
+		record.setSession(restoredSession);
+		ApplicationMessage message = (ApplicationMessage) record.getFragment();
+		assertThat(message.getData(), is(payload));
+	}
+
+	@Test
+	public void testParkedSessionCannotBeUsedAnymore() throws Exception {
+		// given a session that has been parked
+		DTLSSession session = con.getEstablishedSession();
+		long nextSequenceNumber = session.getSequenceNumber() + 1;
+		givenAParkedConnection();
+
+		// when the parked session object is still used for sending a record
+		try {
+			session.getSequenceNumber();
+			fail("parked session should not provide sequence numbers anymore");
+		} catch (IllegalStateException e) {
+			// then the session refuses to provide a sequence number that will be
+			// used by the restored session as well
+		}
+		// and it does not process any records anymore
+		assertFalse(session.isRecordProcessable(session.getReadEpoch(), 0));
+		// while the restored session continues with the next sequence number
+		DTLSSession restoredSession = store.get(con.getPeerAddress()).getEstablishedSession();
+		assertThat(restoredSession.getSequenceNumber(), is(nextSequenceNumber));
+	}
+
+	@Test
+	public void testFindRetrievesParkedConnection() throws Exception {
+		// given a connection that has been parked
+		givenAParkedConnection();
+
+		// when retrieving the connection by its session ID
+		Connection connectionWithPeer = store.find(sessionId);
+
+		// then the connection has been restored
+		assertThat(connectionWithPeer, is(notNullValue()));
+		assertThat(connectionWithPeer.getPeerAddress(), is(con.getPeerAddress()));
+	}
+
+	@Test
+	public void testFindDoesNotRetrieveRemovedParkedConnection() throws Exception {
+		// given a parked connection that has been removed
+		givenAParkedConnection();
+		store.remove(con.getPeerAddress());
+
+		// when retrieving the connection by its session ID
+		Connection connectionWithPeer = store.find(sessionId);
+
+		// then the connection is not found
+		assertThat(connectionWithPeer, is(nullValue()));
+	}
+
+	/**
+	 * Verifies that a connection evicted from the hot tier is parked without
+	 * holding the store's lock, so that a thread holding the session's lock
+	 * can still access the store.
+	 */
+	@Test(timeout = 10000)
+	public void testParkingDoesNotBlockStoreWhileSessionIsLocked() throws Exception {
+		// given a connection store with an exhausted hot tier
+		store.put(con);
+		final Connection otherConnection = newConnection(51L);
+		store.put(otherConnection);
+		final Connection newConnection = newConnection(52L);
+		final Thread evictingThread = new Thread() {
+
+			@Override
+			public void run() {
+				store.put(newConnection);
+			}
+		};
+
+		// when another connection is added while the session of the
+		// least recently used connection is locked
+		DTLSSession session = con.getEstablishedSession();
+		synchronized (session) {
+			evictingThread.start();
+			while (evictingThread.getState() != Thread.State.BLOCKED && evictingThread.isAlive()) {
+				Thread.yield();
+			}
+
+			// then the store can still be accessed
+			assertThat(store.get(otherConnection.getPeerAddress()), is(otherConnection));
+		}
+		evictingThread.join();
+		assertThat(store.getNumberOfParkedConnections(), is(1));
+	}
+
+	@Test
+	public void testMarkAllAsResumptionRequiredMarksParkedConnections() throws Exception {
+		// given a connection that has been parked
+		givenAParkedConnection();
+
+		// when marking all connections as requiring resumption
+		store.markAllAsResumptionRequired();
+
+		// then the restored connection requires resumption
+		assertTrue(store.get(con.getPeerAddress()).isResumptionRequired());
+	}
+
+	@Test
+	public void testPutFailsIfCapacityIsExhausted() throws Exception {
+		// given a full connection store
+		store = new OffHeapConnectionStore(3, 1000, HOT_CAPACITY);
+		store.put(con);
+		store.put(newConnection(51L));
+		store.put(newConnection(52L));
+
+		// when adding another connection
+		// then the connection is rejected
+		assertFalse(store.put(newConnection(53L)));
+	}
+
+	@Test
+	public void testPutEvictsStaleParkedConnection() throws Exception {
+		// given a full connection store with connections becoming stale immediately
+		store = new OffHeapConnectionStore(3, 0, HOT_CAPACITY);
+		store.put(con);
+		store.put(newConnection(51L));
+		store.put(newConnection(52L));
+
+		// when adding another connection
+		// then the parked connection is evicted
+		assertTrue(store.put(newConnection(53L)));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+	}
+
+	@Test
+	public void testRemoveRemovesParkedConnection() throws Exception {
+		// given a connection that has been parked
+		givenAParkedConnection();
+
+		// when removing the connection
+		Connection removedConnection = store.remove(con.getPeerAddress());
+
+		// then the connection is not contained in the store anymore
+		assertThat(removedConnection, is(notNullValue()));
+		assertThat(store.getNumberOfParkedConnections(), is(0));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+	}
+
+	@Test
+	public void testClearRemovesAllConnectionsFromStore() throws Exception {
+		// given a non-empty connection store
+		givenAParkedConnection();
+
+		// when clearing the store
+		store.clear();
+
+		// assert that the store is empty
+		assertThat(store.remainingCapacity(), is(INITIAL_CAPACITY));
+		assertThat(store.get(con.getPeerAddress()), is(nullValue()));
+	}
+
+	private void givenAParkedConnection() throws Exception {
+		store.put(con);
+		store.put(newConnection(51L));
+		store.put(newConnection(52L));
+		assertThat(store.getNumberOfParkedConnections(), is(1));
+	}
+
+	private Connection newConnection(long ip) throws HandshakeException, UnknownHostException {
+		InetAddress addr = InetAddress.getByAddress(longToIp(ip));
+		InetSocketAddress peerAddress = new InetSocketAddress(addr, 0);
+		Connection con = new Connection(peerAddress);
+		con.sessionEstablished(null, newSession(peerAddress));
+		return con;
+	}
+
+	private DTLSSession newSession(InetSocketAddress address) {
+		return DTLSSessionTest.newEstablishedServerSession(address, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, true);
+	}
+
+	private static byte[] longToIp(long ip) {
+		byte[] result = new byte[4];
+		result[0] = 10;
+		for (int i = 3; i >= 1; i--) {
+			result[i] = (byte) (ip & 0xff);
+			ip >>= 8;
+		}
+		return result;
+	}
+}
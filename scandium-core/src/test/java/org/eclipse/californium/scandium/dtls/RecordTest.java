@@ -136,6 +136,83 @@ public class RecordTest {
 		Assert.assertEquals(ContentType.APPLICATION_DATA, recordList.get(0).getType());
 	}
 	
+	@Test
+	public void testWriteApplicationRecordEqualsToByteArray() throws GeneralSecurityException {
+		session.setWriteState(new DTLSConnectionState(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
+				CompressionMethod.NULL, key, new IvParameterSpec(client_iv), null));
+		int epoch = session.getWriteEpoch();
+		// the record written to the buffer will use the session's next sequence number
+		long sequenceNo = session.getSequenceNumber(epoch) + 1;
+		byte[] expected = new Record(ContentType.APPLICATION_DATA, epoch, sequenceNo,
+				new ApplicationMessage(payloadData, session.getPeer()), session).toByteArray();
+
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payloadLength, session) + 2];
+		int length = Record.writeApplicationRecord(payloadData, session, buffer, 2);
+
+		assertEquals(expected.length, length);
+		assertTrue(Arrays.equals(expected, Arrays.copyOfRange(buffer, 2, 2 + length)));
+	}
+
+	@Test
+	public void testWriteApplicationRecordCanBeDecrypted() throws GeneralSecurityException, HandshakeException {
+		session.setWriteState(new DTLSConnectionState(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
+				CompressionMethod.NULL, key, new IvParameterSpec(client_iv), null));
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payloadLength, session)];
+		int length = Record.writeApplicationRecord(payloadData, session, buffer, 0);
+
+		List<Record> recordList = Record.fromByteArray(Arrays.copyOf(buffer, length), session.getPeer());
+		assertEquals(1, recordList.size());
+		Record record = recordList.get(0);
+		record.setSession(session);
+		ApplicationMessage message = (ApplicationMessage) record.getFragment();
+		assertTrue(Arrays.equals(payloadData, message.getData()));
+	}
+
+	@Test
+	public void testWriteApplicationRecordWithConnectionIdCanBeDecrypted() throws GeneralSecurityException, HandshakeException {
+		ConnectionId cid = new ConnectionId(new byte[]{0x01, 0x02, 0x03, 0x04});
+		session.setWriteState(new DTLSConnectionState(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
+				CompressionMethod.NULL, key, new IvParameterSpec(client_iv), null));
+		session.setWriteConnectionId(cid);
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payloadLength, session)];
+		int length = Record.writeApplicationRecord(payloadData, session, buffer, 0);
+		assertEquals(ContentType.TLS12_CID.getCode(), buffer[0]);
+
+		List<Record> recordList = Record.fromByteArray(Arrays.copyOf(buffer, length), session.getPeer(), cid.length());
+		assertEquals(1, recordList.size());
+		Record record = recordList.get(0);
+		assertEquals(cid, record.getConnectionId());
+		record.setSession(session);
+		ApplicationMessage message = (ApplicationMessage) record.getFragment();
+		assertTrue(Arrays.equals(payloadData, message.getData()));
+		assertEquals(ContentType.APPLICATION_DATA, record.getType());
+	}
+
+	@Test
+	public void testFromByteArrayDiscardsRecordWithUnexpectedConnectionId() throws GeneralSecurityException {
+		session.setWriteState(new DTLSConnectionState(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
+				CompressionMethod.NULL, key, new IvParameterSpec(client_iv), null));
+		session.setWriteConnectionId(new ConnectionId(new byte[]{0x01, 0x02, 0x03, 0x04}));
+		byte[] buffer = new byte[Record.getMaxApplicationRecordLength(payloadLength, session)];
+		int length = Record.writeApplicationRecord(payloadData, session, buffer, 0);
+
+		List<Record> recordList = Record.fromByteArray(Arrays.copyOf(buffer, length), session.getPeer());
+		assertTrue(recordList.isEmpty());
+	}
+
+	@Test
+	public void testWriteToPutsRecordsBackToBack() throws GeneralSecurityException {
+		Record first = new Record(ContentType.HANDSHAKE, 0, 1, new HelloRequest(session.getPeer()), session.getPeer());
+		Record second = new Record(ContentType.HANDSHAKE, 0, 2, new HelloRequest(session.getPeer()), session.getPeer());
+		byte[] buffer = new byte[first.toByteArray().length + second.toByteArray().length];
+		int length = first.writeTo(buffer, 0);
+		length += second.writeTo(buffer, length);
+
+		assertEquals(buffer.length, length);
+		assertTrue(Arrays.equals(ByteArrayUtils.concatenate(first.toByteArray(), second.toByteArray()), buffer));
+		assertEquals(2, Record.fromByteArray(buffer, session.getPeer()).size());
+	}
+
 	/**
 	 * Checks whether the {@link Record#decryptAEAD(byte[])} method uses the <em>explicit</em>
 	 * nonce part included in the <i>GenericAEADCipher</i> struct instead of deriving the
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Bosch Software Innovations GmbH and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *    Bosch Software Innovations - initial creation
+ ******************************************************************************/
+package org.eclipse.californium.scandium.dtls.pskstore;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.scandium.category.Small;
+import org.eclipse.californium.scandium.util.ServerName;
+import org.eclipse.californium.scandium.util.ServerName.NameType;
+import org.eclipse.californium.scandium.util.ServerNames;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Verifies behavior of {@link CachingAsyncPskStore}.
+ */
+@Category(Small.class)
+public class CachingAsyncPskStoreTest {
+
+	private static final String IDENTITY = "device";
+	private static final byte[] KEY = "secret".getBytes();
+
+	CountingPskStore store;
+	CachingAsyncPskStore cache;
+
+	@Before
+	public void setUp() {
+		store = new CountingPskStore();
+		cache = new CachingAsyncPskStore(store, 2, 60);
+	}
+
+	@Test
+	public void testGetKeyReportsCachedKeyWithoutConsultingStore() {
+		// given a key that has been retrieved before
+		assertThat(getKey(null, IDENTITY), is(KEY));
+
+		// when retrieving the key again
+		byte[] key = getKey(null, IDENTITY);
+
+		// then the cached key is reported without consulting the store
+		assertThat(key, is(KEY));
+		assertThat(store.lookups, is(1));
+		assertThat(cache.size(), is(1));
+	}
+
+	@Test
+	public void testGetKeyDoesNotCacheUnknownIdentity() {
+		// given an identity unknown to the store
+		assertThat(getKey(null, "unknown"), is(nullValue()));
+
+		// when retrieving the key again
+		getKey(null, "unknown");
+
+		// then the store is consulted again
+		assertThat(store.lookups, is(2));
+		assertThat(cache.size(), is(0));
+	}
+
+	@Test
+	public void testGetKeyDistinguishesServerNames() {
+		// given a key that has been retrieved without server names
+		getKey(null, IDENTITY);
+
+		// when retrieving the key in the context of a server name
+		ServerNames serverNames = ServerNames.newInstance(ServerName.from(NameType.HOST_NAME, "iot.eclipse.org".getBytes()));
+		getKey(serverNames, IDENTITY);
+		getKey(ServerNames.newInstance(ServerName.from(NameType.HOST_NAME, "iot.eclipse.org".getBytes())), IDENTITY);
+
+		// then the key is retrieved from the store once per server names
+		assertThat(store.lookups, is(2));
+		assertThat(cache.size(), is(2));
+	}
+
+	@Test
+	public void testClearRemovesCachedKeys() {
+		// given a key that has been retrieved before
+		getKey(null, IDENTITY);
+
+		// when clearing the cache
+		cache.clear();
+
+		// then the store is consulted again
+		getKey(null, IDENTITY);
+		assertThat(store.lookups, is(2));
+	}
+
+	private byte[] getKey(final ServerNames serverNames, final String identity) {
+		final AtomicReference<byte[]> result = new AtomicReference<>();
+		cache.getKey(serverNames, identity, new AsyncPskStore.PskCallback() {
+
+			@Override
+			public void onResult(byte[] key) {
+				result.set(key);
+			}
+		});
+		return result.get();
+	}
+
+	private static class CountingPskStore implements AsyncPskStore {
+
+		private int lookups;
+
+		@Override
+		public void getKey(ServerNames serverNames, String identity, PskCallback callback) {
+			lookups++;
+			callback.onResult(IDENTITY.equals(identity) ? KEY : null);
+		}
+	}
+}